@@ -18,29 +18,34 @@ package se.leap.bitmaskclient.appUpdate;
 
 
 import android.util.Log;
-import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.File;
-import java.io.InputStream;
-import java.util.List;
-import java.util.Scanner;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
-import okio.Buffer;
-import okio.BufferedSink;
 import okio.BufferedSource;
-import okio.Okio;
 
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
 
 /**
  * This class encapsulates HTTP requests so that the results can be mocked
  * and it's owning UpdateDownloadManager class logic can be unit tested properly
  *
+ * File downloads are written to a partial file next to the destination file and can be resumed
+ * with a Range request after a failure, see DownloadJournal. Text files can be cached and are only
+ * downloaded again if they have changed.
  */
 public class DownloadConnector {
 
@@ -48,28 +53,52 @@ public class DownloadConnector {
     public final static String APP_TYPE = "application/vnd.android.package-archive";
     public final static String TEXT_FILE_TYPE = "application/text";
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // the partial file is synced and the journal saved after each COMMIT_INTERVAL bytes
+    private static final long COMMIT_INTERVAL = 1024 * 1024;
+
+    private static final String CACHE_URL = "url";
+    private static final String CACHE_ETAG = "etag";
+    private static final String CACHE_LAST_MODIFIED = "last_modified";
+    private static final String CACHE_BODY = "body";
+
     public interface DownloadProgress {
         void onUpdate(int progress);
     }
 
-    static String requestTextFileFromServer(@NonNull String url, @NonNull OkHttpClient okHttpClient) {
+    /**
+     * @param cacheFile keeps the last response with its ETag and Last-Modified headers, so the
+     *                  server can answer with 304 Not Modified instead of the file. May be null.
+     */
+    static String requestTextFileFromServer(@NonNull String url, @NonNull OkHttpClient okHttpClient, @Nullable File cacheFile) {
+        JSONObject cached = readCache(cacheFile, url);
         try {
-            Request request = new Request.Builder()
+            Request.Builder requestBuilder = new Request.Builder()
                     .url(url)
-                    .addHeader("Content-Type", TEXT_FILE_TYPE)
-                    .build();
-
-            Response response = okHttpClient.newCall(request).execute();
-            if (!response.isSuccessful()) {
-                return null;
-            }
-            InputStream inputStream = response.body().byteStream();
-            Scanner scanner = new Scanner(inputStream).useDelimiter("\\A");
-            if (scanner.hasNext()) {
-                return scanner.next();
+                    .addHeader("Content-Type", TEXT_FILE_TYPE);
+            if (cached != null) {
+                if (cached.has(CACHE_ETAG)) {
+                    requestBuilder.addHeader("If-None-Match", cached.getString(CACHE_ETAG));
+                }
+                if (cached.has(CACHE_LAST_MODIFIED)) {
+                    requestBuilder.addHeader("If-Modified-Since", cached.getString(CACHE_LAST_MODIFIED));
+                }
             }
-            return null;
 
+            try (Response response = okHttpClient.newCall(requestBuilder.build()).execute()) {
+                if (response.code() == HTTP_NOT_MODIFIED && cached != null) {
+                    return cached.getString(CACHE_BODY);
+                }
+                if (!response.isSuccessful()) {
+                    return null;
+                }
+                String body = response.body().string();
+                if (body.isEmpty()) {
+                    return null;
+                }
+                writeCache(cacheFile, url, response, body);
+                return body;
+            }
         } catch (Exception e) {
             Log.d(TAG, "Text file download failed");
         }
@@ -77,37 +106,56 @@ public class DownloadConnector {
         return null;
     }
 
+    /**
+     * Downloads url to destFile. A former download of the same url that failed is resumed.
+     * @return destFile or null if the download failed
+     */
     static File requestFileFromServer(@NonNull String url, @NonNull OkHttpClient okHttpClient, File destFile, DownloadProgress callback) {
-        BufferedSink sink;
-        BufferedSource source;
+        File partFile = new File(destFile.getPath() + ".part");
+        File journalFile = new File(destFile.getPath() + ".journal");
+        DownloadJournal journal = DownloadJournal.load(journalFile, url);
         try {
+            long offset = journal.prepareResume(partFile);
             Request.Builder requestBuilder = new Request.Builder()
                     .url(url)
                     .addHeader("Content-Type", APP_TYPE);
+            if (offset > 0) {
+                // the server sends the whole file if it has changed
+                requestBuilder.addHeader("Range", "bytes=" + offset + "-")
+                        .addHeader("If-Range", journal.validator);
+            }
             Request request = requestBuilder.build();
 
-            Response response = okHttpClient.newCall(request).execute();
-            ResponseBody body = response.body();
-            long contentLength = body.contentLength();
-            source = body.source();
-            sink = Okio.buffer(Okio.sink(destFile));
-            Buffer sinkBuffer = sink.buffer();
-            long totalBytesRead = 0;
-            int bufferSize = 8 * 1024;
-            long bytesRead;
-            int lastProgress = 0;
-            while ((bytesRead = source.read(sinkBuffer, bufferSize)) != -1) {
-                sink.emit();
-                totalBytesRead += bytesRead;
-                int progress = (int) ((totalBytesRead * 100) / contentLength);
-                // debouncing callbacks
-                if (lastProgress < progress) {
-                    lastProgress = progress;
-                    callback.onUpdate(progress);
+            try (Response response = okHttpClient.newCall(request).execute()) {
+                ResponseBody body = response.body();
+                if (response.code() == HTTP_PARTIAL && offset > 0 && getRangeStart(response) == offset) {
+                    Log.d(TAG, "resuming download at " + offset);
+                    if (journal.length == -1 && body.contentLength() != -1) {
+                        journal.length = offset + body.contentLength();
+                    }
+                } else if (response.code() == HTTP_OK) {
+                    offset = 0;
+                    partFile.delete();
+                    journal = new DownloadJournal(url);
+                    journal.validator = getValidator(response);
+                    journal.length = body.contentLength();
+                } else {
+                    // e.g. 416 Range Not Satisfiable, the next download starts over
+                    partFile.delete();
+                    journalFile.delete();
+                    Log.d(TAG, "File download failed: " + response.code());
+                    return null;
                 }
+                writeToPartialFile(body.source(), partFile, offset, journal, journalFile, callback);
             }
-            sink.flush();
 
+            if (destFile.exists()) {
+                destFile.delete();
+            }
+            if (!partFile.renameTo(destFile)) {
+                throw new IOException("could not move downloaded file to " + destFile);
+            }
+            journalFile.delete();
             return destFile;
 
         } catch (Exception e) {
@@ -117,4 +165,148 @@ public class DownloadConnector {
         return null;
     }
 
+    private static void writeToPartialFile(BufferedSource source, File partFile, long offset, DownloadJournal journal, File journalFile,
+                                           DownloadProgress callback) throws IOException {
+        long total = journal.length;
+        long written = offset;
+        long uncommitted = 0;
+        int lastProgress = total > 0 ? (int) ((written * 100) / total) : 0;
+        if (lastProgress > 0) {
+            callback.onUpdate(lastProgress);
+        }
+
+        try (FileOutputStream out = new FileOutputStream(partFile, true)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = fillOrCommit(source, buffer, out, written, journal, journalFile)) > 0) {
+                out.write(buffer, 0, count);
+                written += count;
+                uncommitted += count;
+                if (uncommitted >= COMMIT_INTERVAL) {
+                    commit(out, written, journal, journalFile);
+                    uncommitted = 0;
+                }
+                if (total > 0) {
+                    int progress = (int) ((written * 100) / total);
+                    // debouncing callbacks
+                    if (lastProgress < progress) {
+                        lastProgress = progress;
+                        callback.onUpdate(progress);
+                    }
+                }
+            }
+            if (total != -1 && written != total) {
+                commit(out, written, journal, journalFile);
+                throw new IOException("download incomplete: " + written + " of " + total + " bytes");
+            }
+        }
+    }
+
+    private static void commit(FileOutputStream out, long written, DownloadJournal journal, File journalFile) throws IOException {
+        if (journal.validator == null) {
+            // the file can't be resumed without knowing if it has changed
+            return;
+        }
+        out.getFD().sync();
+        journal.committed = written;
+        journal.save(journalFile);
+    }
+
+    /**
+     * Like fill(), but commits the bytes written so far if the connection fails.
+     */
+    private static int fillOrCommit(BufferedSource source, byte[] buffer, FileOutputStream out, long written, DownloadJournal journal, File journalFile) throws IOException {
+        try {
+            return fill(source, buffer);
+        } catch (IOException e) {
+            try {
+                commit(out, written, journal, journalFile);
+            } catch (IOException commitException) {
+                commitException.printStackTrace();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads from source until buffer is full or the source is exhausted.
+     * @return the number of bytes read, 0 at the end of source
+     */
+    private static int fill(BufferedSource source, byte[] buffer) throws IOException {
+        int filled = 0;
+        int read;
+        while (filled < buffer.length && (read = source.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+        }
+        return filled;
+    }
+
+    /**
+     * @return the start of a Content-Range header like "bytes 100-999/1000" or -1
+     */
+    private static long getRangeStart(Response response) {
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int end = contentRange.indexOf('-');
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), end).trim());
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return a strong ETag or the Last-Modified date of the response, weak ETags can't be used
+     * for If-Range
+     */
+    @Nullable
+    private static String getValidator(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    @Nullable
+    private static JSONObject readCache(@Nullable File cacheFile, String url) {
+        if (cacheFile == null || !cacheFile.exists()) {
+            return null;
+        }
+        try {
+            JSONObject cached = DownloadJournal.readJson(cacheFile);
+            if (url.equals(cached.getString(CACHE_URL)) && cached.has(CACHE_BODY)) {
+                return cached;
+            }
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static void writeCache(@Nullable File cacheFile, String url, Response response, String body) {
+        if (cacheFile == null) {
+            return;
+        }
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        if (etag == null && lastModified == null) {
+            // the response can't be validated later
+            cacheFile.delete();
+            return;
+        }
+        try {
+            JSONObject cached = new JSONObject();
+            cached.put(CACHE_URL, url);
+            cached.put(CACHE_ETAG, etag);
+            cached.put(CACHE_LAST_MODIFIED, lastModified);
+            cached.put(CACHE_BODY, body);
+            DownloadJournal.writeJson(cacheFile, cached);
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
 }
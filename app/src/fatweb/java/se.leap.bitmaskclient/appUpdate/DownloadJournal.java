@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.appUpdate;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Remembers how much of a download has been written to its partial file and which version of
+ * the file it is, so a failed download can be resumed with a Range request.
+ */
+class DownloadJournal {
+
+    private static final String URL = "url";
+    private static final String VALIDATOR = "validator";
+    private static final String LENGTH = "length";
+    private static final String COMMITTED = "committed";
+
+    final String url;
+    // ETag or Last-Modified header of the file, sent as If-Range when resuming
+    String validator;
+    // total length of the file, -1 if unknown
+    long length = -1;
+    // bytes of the partial file that have been synced to disk
+    long committed;
+
+    DownloadJournal(@NonNull String url) {
+        this.url = url;
+    }
+
+    /**
+     * @return the journal saved for url or a new one
+     */
+    static DownloadJournal load(@NonNull File journalFile, @NonNull String url) {
+        if (!journalFile.exists()) {
+            return new DownloadJournal(url);
+        }
+        try {
+            JSONObject json = readJson(journalFile);
+            if (!url.equals(json.getString(URL))) {
+                return new DownloadJournal(url);
+            }
+            DownloadJournal journal = new DownloadJournal(url);
+            journal.validator = json.optString(VALIDATOR, null);
+            journal.length = json.getLong(LENGTH);
+            journal.committed = json.getLong(COMMITTED);
+            return journal;
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+            return new DownloadJournal(url);
+        }
+    }
+
+    void save(@NonNull File journalFile) throws IOException {
+        try {
+            JSONObject json = new JSONObject();
+            json.put(URL, url);
+            json.put(VALIDATOR, validator);
+            json.put(LENGTH, length);
+            json.put(COMMITTED, committed);
+            writeJson(journalFile, json);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static JSONObject readJson(@NonNull File file) throws IOException, JSONException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            byte[] content = new byte[(int) file.length()];
+            int read = 0;
+            int count;
+            while (read < content.length && (count = inputStream.read(content, read, content.length - read)) != -1) {
+                read += count;
+            }
+            return new JSONObject(new String(content, 0, read, "UTF-8"));
+        }
+    }
+
+    /**
+     * Replaces file at once, so it's never read half written.
+     */
+    static void writeJson(@NonNull File file, @NonNull JSONObject json) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(tmpFile)) {
+            outputStream.write(json.toString().getBytes("UTF-8"));
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("could not write " + file);
+        }
+    }
+
+    /**
+     * Truncates the partial file to the committed bytes.
+     * @return the offset to resume the download at, 0 if it needs to start over
+     */
+    long prepareResume(@NonNull File partFile) throws IOException {
+        if (validator == null || committed <= 0 || !partFile.exists() || partFile.length() < committed ||
+                (length != -1 && committed > length)) {
+            partFile.delete();
+            committed = 0;
+            return 0;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(committed);
+        }
+        return committed;
+    }
+}
@@ -60,6 +60,10 @@ public class InstallActivity extends Activity {
         Intent installIntent = new Intent(Intent.ACTION_VIEW);
         File update = UpdateDownloadManager.getUpdateFile(this.getApplicationContext());
         if (update.exists()) {
+            if (Build.VERSION.SDK_INT < 24) {
+                // the package installer opens file uris itself, only the app can write to its files dir
+                update.setReadable(true, false);
+            }
             installIntent.setDataAndType(getUriFor(this.getApplicationContext(), update), APP_TYPE);
             installIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             installIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
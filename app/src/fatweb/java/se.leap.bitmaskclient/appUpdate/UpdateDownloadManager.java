@@ -54,6 +54,8 @@ public class UpdateDownloadManager implements Logger, DownloadConnector.Download
 
 
     private static final String TAG = UpdateDownloadManager.class.getSimpleName();
+    // a failed download is resumed where it stopped
+    private static final int DOWNLOAD_ATTEMPTS = 3;
 
     public interface DownloadServiceCallback {
         void broadcastEvent(Intent intent);
@@ -115,8 +117,29 @@ public class UpdateDownloadManager implements Logger, DownloadConnector.Download
         }
     }
 
+    /**
+     * The update is kept in app-private storage, so no other app can replace it after its signature
+     * has been verified.
+     */
     public static File getUpdateFile(Context context) {
-        return new File(context.getExternalFilesDir(null) + "/" + context.getString(R.string.app_name) + "_update.apk");
+        return new File(context.getFilesDir(), context.getString(R.string.app_name) + "_update.apk");
+    }
+
+    /**
+     * Removes an update downloaded to external storage by former versions.
+     */
+    private static void deleteExternalUpdateFile(Context context) {
+        File externalFilesDir = context.getExternalFilesDir(null);
+        if (externalFilesDir != null) {
+            new File(externalFilesDir, context.getString(R.string.app_name) + "_update.apk").delete();
+        }
+    }
+
+    /**
+     * @return the file keeping the last response for the version or signature file
+     */
+    private static File getCacheFile(Context context, String name) {
+        return new File(context.getCacheDir(), "update_" + name + "_file.json");
     }
 
     private Bundle downloadUpdate(Bundle task) {
@@ -129,19 +152,24 @@ public class UpdateDownloadManager implements Logger, DownloadConnector.Download
         }
 
         OkHttpClient client = clientGenerator.init();
-        String signature = DownloadConnector.requestTextFileFromServer(BuildConfig.signature_url, client);
+        String signature = DownloadConnector.requestTextFileFromServer(BuildConfig.signature_url, client, getCacheFile(context, "signature"));
         if (signature == null) {
             task.putBoolean(BROADCAST_RESULT_KEY, false);
             task.putBoolean(DOWNLOAD_FAILED, true);
             return task;
         }
 
+        deleteExternalUpdateFile(context);
         File destinationFile = getUpdateFile(context);
         if (destinationFile.exists()) {
             destinationFile.delete();
         }
 
-        destinationFile = DownloadConnector.requestFileFromServer(BuildConfig.update_apk_url, client, destinationFile, this);
+        File downloadedFile = null;
+        for (int i = 0; i < DOWNLOAD_ATTEMPTS && downloadedFile == null; i++) {
+            downloadedFile = DownloadConnector.requestFileFromServer(BuildConfig.update_apk_url, client, destinationFile, this);
+        }
+        destinationFile = downloadedFile;
 
         if (destinationFile == null) {
             task.putBoolean(BROADCAST_RESULT_KEY, false);
@@ -163,7 +191,7 @@ public class UpdateDownloadManager implements Logger, DownloadConnector.Download
 
     private Bundle checkVersionFile(Bundle task) {
         OkHttpClient client = clientGenerator.init();
-        String versionString = DownloadConnector.requestTextFileFromServer(BuildConfig.version_file_url, client);
+        String versionString = DownloadConnector.requestTextFileFromServer(BuildConfig.version_file_url, client, getCacheFile(context, "version"));
 
         if (versionString != null) {
             versionString = versionString.replace("\n", "").trim();
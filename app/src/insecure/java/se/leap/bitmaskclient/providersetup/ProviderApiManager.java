@@ -49,6 +49,7 @@ import de.blinkt.openvpn.core.VpnStatus;
 import okhttp3.OkHttpClient;
 import se.leap.bitmaskclient.R;
 import se.leap.bitmaskclient.base.models.Provider;
+import se.leap.bitmaskclient.base.utils.CertificateCache;
 import se.leap.bitmaskclient.base.utils.ConfigHelper;
 import se.leap.bitmaskclient.eip.EIP;
 import se.leap.bitmaskclient.providersetup.connectivity.OkHttpClientGenerator;
@@ -110,7 +111,7 @@ public class ProviderApiManager extends ProviderApiManagerBase {
             return currentDownload;
         }
 
-        getPersistedProviderUpdates(provider);
+        getPersistedProviderUpdates(provider, task);
         currentDownload = validateProviderDetails(provider);
 
         //provider details invalid
@@ -129,7 +130,7 @@ public class ProviderApiManager extends ProviderApiManagerBase {
             if (!provider.hasCaCert())
                 currentDownload = downloadCACert(provider, lastDangerOn);
             if (provider.hasCaCert() || (currentDownload.containsKey(BROADCAST_RESULT_KEY) && currentDownload.getBoolean(BROADCAST_RESULT_KEY))) {
-                currentDownload = getAndSetEipServiceJson(provider);
+                currentDownload = downloadProviderServices(provider);
             }
             if (provider.hasEIP() && !provider.allowsRegistered() && !provider.allowsAnonymous()) {
                 setErrorResult(currentDownload, setup_error_text, null);
@@ -296,6 +297,10 @@ public class ProviderApiManager extends ProviderApiManagerBase {
             String certString = downloadWithCommercialCA(caCertUrl, dangerOn);
 
             if (validCertificate(provider, certString)) {
+                clientGenerator.invalidateSelfSignedCAClient(provider.getCaCert(), certString);
+                if (!certString.equals(provider.getCaCert())) {
+                    CertificateCache.getInstance().invalidate(provider.getCaCert());
+                }
                 provider.setCaCert(certString);
                 if (DEBUG_MODE) {
                     VpnStatus.logDebug("[API] CA CERT: " + certString);
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.blinkt.openvpn.core.VpnStatus.ByteCountListener;
+
+/**
+ * Hands byte counts to the ByteCountListeners on an executor instead of the management thread.
+ *
+ * Every listener gets at most one update per its minimum interval. Updates arriving in between,
+ * or while the listener is still busy with the last one, are merged into a single pending update
+ * with the newest totals and the sum of the differences, so no traffic is lost.
+ */
+public class ByteCountDispatcher {
+
+    private final ScheduledExecutorService executor;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ByteCountDispatcher(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return a single daemon thread for the dispatcher, so the listeners are called in order
+     */
+    static ScheduledExecutorService newExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ByteCountDispatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds listener unless it is already added.
+     * @param minIntervalMillis minimum time between two updates of this listener, 0 for every
+     *                          byte count
+     * @return false if listener has already been added
+     */
+    public boolean add(ByteCountListener listener, long minIntervalMillis) {
+        return subscriptions.addIfAbsent(new Subscription(listener, minIntervalMillis));
+    }
+
+    public void remove(ByteCountListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+                subscription.cancel();
+            }
+        }
+    }
+
+    public void dispatch(long in, long out, long diffIn, long diffOut) {
+        dispatched.incrementAndGet();
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(in, out, diffIn, diffOut);
+        }
+    }
+
+    /**
+     * @return number of byte counts passed to {@link #dispatch}
+     */
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    /**
+     * @return number of updates the listeners have been called with
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return number of updates merged into a pending update of the same listener
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return number of pending updates dropped because their listener has been removed
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public String getStatistics() {
+        return String.format(Locale.US, "Byte counts: %d dispatched, %d delivered, %d coalesced, %d dropped",
+                getDispatchedCount(), getDeliveredCount(), getCoalescedCount(), getDroppedCount());
+    }
+
+    private class Subscription implements Runnable {
+        private final ByteCountListener listener;
+        private final long minIntervalNanos;
+
+        // guarded by this
+        private boolean pending;
+        private boolean scheduled;
+        private boolean cancelled;
+        private boolean hasDelivered;
+        private long lastDelivery;
+        private long in;
+        private long out;
+        private long diffIn;
+        private long diffOut;
+
+        Subscription(ByteCountListener listener, long minIntervalMillis) {
+            this.listener = listener;
+            this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        }
+
+        void offer(long in, long out, long diffIn, long diffOut) {
+            long delay;
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                if (pending) {
+                    coalesced.incrementAndGet();
+                    this.diffIn += diffIn;
+                    this.diffOut += diffOut;
+                } else {
+                    this.diffIn = diffIn;
+                    this.diffOut = diffOut;
+                    pending = true;
+                }
+                this.in = in;
+                this.out = out;
+                if (scheduled)
+                    return;
+                scheduled = true;
+                delay = hasDelivered ? lastDelivery + minIntervalNanos - System.nanoTime() : 0;
+            }
+            executor.schedule(this, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        }
+
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                if (pending)
+                    dropped.incrementAndGet();
+                pending = false;
+            }
+        }
+
+        @Override
+        public void run() {
+            long in, out, diffIn, diffOut;
+            synchronized (this) {
+                scheduled = false;
+                if (!pending)
+                    return;
+                pending = false;
+                hasDelivered = true;
+                lastDelivery = System.nanoTime();
+                in = this.in;
+                out = this.out;
+                diffIn = this.diffIn;
+                diffOut = this.diffOut;
+            }
+            delivered.incrementAndGet();
+            try {
+                listener.updateByteCount(in, out, diffIn, diffOut);
+            } catch (RuntimeException e) {
+                // keep the executor alive for the other listeners
+                VpnStatus.logException("Byte count listener failed", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Subscription && ((Subscription) obj).listener == listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(listener);
+        }
+    }
+}
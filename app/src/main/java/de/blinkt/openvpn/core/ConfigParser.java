@@ -9,7 +9,6 @@ import android.os.Build;
 import androidx.core.util.Pair;
 import android.text.TextUtils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
@@ -139,6 +138,7 @@ public class ConfigParser {
 
     private HashMap<String, Vector<Vector<String>>> options = new HashMap<>();
     private HashMap<String, Vector<String>> meta = new HashMap<String, Vector<String>>();
+    private HashMap<String, String> optionAliases = new HashMap<>();
     private String auth_user_pass_file;
     private Obfs4Options obfs4Options;
 
@@ -161,38 +161,35 @@ public class ConfigParser {
         }
     }
 
-    public void parseConfig(Reader reader) throws IOException, ConfigParseError {
-
-        HashMap<String, String> optionAliases = new HashMap<>();
+    public ConfigParser() {
         optionAliases.put("server-poll-timeout", "timeout-connect");
+    }
 
-        BufferedReader br = new BufferedReader(reader);
+    public void parseConfig(Reader reader) throws IOException, ConfigParseError {
 
         int lineno = 0;
         try {
-            while (true) {
-                String line = br.readLine();
+            ConfigTokenizer tokenizer = new ConfigTokenizer(reader);
+            while (tokenizer.nextLine()) {
                 lineno++;
-                if (line == null)
-                    break;
 
                 if (lineno == 1) {
-                    if ((line.startsWith("PK\003\004")
-                            || (line.startsWith("PK\007\008")))) {
+                    if ((tokenizer.lineStartsWith("PK\003\004")
+                            || (tokenizer.lineStartsWith("PK\007\008")))) {
                         throw new ConfigParseError("Input looks like a ZIP Archive. Import is only possible for OpenVPN config files (.ovpn/.conf)");
                     }
-                    if (line.startsWith("\uFEFF")) {
-                        line = line.substring(1);
+                    if (tokenizer.lineStartsWith("\uFEFF")) {
+                        tokenizer.skipLineStart(1);
                     }
                 }
 
                 // Check for OpenVPN Access Server Meta information
-                if (line.startsWith("# OVPN_ACCESS_SERVER_")) {
-                    Vector<String> metaarg = parsemeta(line);
+                if (tokenizer.lineStartsWith("# OVPN_ACCESS_SERVER_")) {
+                    Vector<String> metaarg = parsemeta(tokenizer.getLine());
                     meta.put(metaarg.get(0), metaarg);
                     continue;
                 }
-                Vector<String> args = parseline(line);
+                Vector<String> args = tokenizer.parseLine();
 
                 if (args.size() == 0)
                     continue;
@@ -201,22 +198,62 @@ public class ConfigParser {
                 if (args.get(0).startsWith("--"))
                     args.set(0, args.get(0).substring(2));
 
-                checkinlinefile(args, br);
+                checkinlinefile(args, tokenizer);
 
-                String optionname = args.get(0);
-                if (optionAliases.get(optionname) != null)
-                    optionname = optionAliases.get(optionname);
-
-                if (!options.containsKey(optionname)) {
-                    options.put(optionname, new Vector<Vector<String>>());
-                }
-                options.get(optionname).add(args);
+                putOption(args);
             }
         } catch (java.lang.OutOfMemoryError memoryError) {
             throw new ConfigParseError("File too large to parse: " + memoryError.getLocalizedMessage());
         }
     }
 
+    /**
+     * Adds an option that is already split into its arguments, e.g. because it has been
+     * created from a structured configuration. This avoids rendering the option into a
+     * config file that needs to be parsed again.
+     * @param args option name followed by its arguments
+     */
+    public void addOption(Vector<String> args) {
+        if (args.size() == 0)
+            return;
+
+        if (args.get(0).startsWith("--"))
+            args.set(0, args.get(0).substring(2));
+
+        putOption(args);
+    }
+
+    /**
+     * Adds an inlined file like &lt;ca&gt;, &lt;cert&gt; or &lt;key&gt; without rendering
+     * and parsing a config file. The content is stored the same way parseConfig() stores
+     * inline files: line endings are normalized to '\n'.
+     * @param name name of the option, e.g. ca
+     * @param content content of the inlined file
+     */
+    public void addInlineOption(String name, String content) {
+        Vector<String> args = new Vector<>(2);
+        args.add(name);
+        args.add(VpnProfile.INLINE_TAG + normalizeLineEndings(content));
+        putOption(args);
+    }
+
+    private String normalizeLineEndings(String content) {
+        if (content.indexOf('\r') == -1)
+            return content;
+        return content.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    private void putOption(Vector<String> args) {
+        String optionname = args.get(0);
+        if (optionAliases.get(optionname) != null)
+            optionname = optionAliases.get(optionname);
+
+        if (!options.containsKey(optionname)) {
+            options.put(optionname, new Vector<Vector<String>>());
+        }
+        options.get(optionname).add(args);
+    }
+
     private Vector<String> parsemeta(String line) {
         String meta = line.split("#\\sOVPN_ACCESS_SERVER_", 2)[1];
         String[] parts = meta.split("=", 2);
@@ -226,33 +263,21 @@ public class ConfigParser {
 
     }
 
-    private void checkinlinefile(Vector<String> args, BufferedReader br) throws IOException, ConfigParseError {
+    private void checkinlinefile(Vector<String> args, ConfigTokenizer tokenizer) throws ConfigParseError {
         String arg0 = args.get(0).trim();
         // CHeck for <foo>
         if (arg0.startsWith("<") && arg0.endsWith(">")) {
             String argname = arg0.substring(1, arg0.length() - 1);
-            String inlinefile = VpnProfile.INLINE_TAG;
 
             String endtag = String.format("</%s>", argname);
-            do {
-                String line = br.readLine();
-                if (line == null) {
-                    throw new ConfigParseError(String.format("No endtag </%s> for starttag <%s> found", argname, argname));
-                }
-                if (line.trim().equals(endtag))
-                    break;
-                else {
-                    inlinefile += line;
-                    inlinefile += "\n";
-                }
-            } while (true);
-
-            if (inlinefile.endsWith("\n"))
-                inlinefile = inlinefile.substring(0, inlinefile.length() - 1);
+            String inlinefile = tokenizer.readInlineFile(endtag);
+            if (inlinefile == null) {
+                throw new ConfigParseError(String.format("No endtag </%s> for starttag <%s> found", argname, argname));
+            }
 
             args.clear();
             args.add(argname);
-            args.add(inlinefile);
+            args.add(VpnProfile.INLINE_TAG + inlinefile);
         }
 
     }
@@ -261,94 +286,6 @@ public class ConfigParser {
         return auth_user_pass_file;
     }
 
-    private boolean space(char c) {
-        // I really hope nobody is using zero bytes inside his/her config file
-        // to sperate parameter but here we go:
-        return Character.isWhitespace(c) || c == '\0';
-
-    }
-
-    // adapted openvpn's parse function to java
-    private Vector<String> parseline(String line) throws ConfigParseError {
-        Vector<String> parameters = new Vector<String>();
-
-        if (line.length() == 0)
-            return parameters;
-
-
-        linestate state = linestate.initial;
-        boolean backslash = false;
-        char out = 0;
-
-        int pos = 0;
-        String currentarg = "";
-
-        do {
-            // Emulate the c parsing ...
-            char in;
-            if (pos < line.length())
-                in = line.charAt(pos);
-            else
-                in = '\0';
-
-            if (!backslash && in == '\\' && state != linestate.readin_single_quote) {
-                backslash = true;
-            } else {
-                if (state == linestate.initial) {
-                    if (!space(in)) {
-                        if (in == ';' || in == '#') /* comment */
-                            break;
-                        if (!backslash && in == '\"')
-                            state = linestate.reading_quoted;
-                        else if (!backslash && in == '\'')
-                            state = linestate.readin_single_quote;
-                        else {
-                            out = in;
-                            state = linestate.reading_unquoted;
-                        }
-                    }
-                } else if (state == linestate.reading_unquoted) {
-                    if (!backslash && space(in))
-                        state = linestate.done;
-                    else
-                        out = in;
-                } else if (state == linestate.reading_quoted) {
-                    if (!backslash && in == '\"')
-                        state = linestate.done;
-                    else
-                        out = in;
-                } else if (state == linestate.readin_single_quote) {
-                    if (in == '\'')
-                        state = linestate.done;
-                    else
-                        out = in;
-                }
-
-                if (state == linestate.done) {
-                    /* ASSERT (parm_len > 0); */
-                    state = linestate.initial;
-                    parameters.add(currentarg);
-                    currentarg = "";
-                    out = 0;
-                }
-
-                if (backslash && out != 0) {
-                    if (!(out == '\\' || out == '\"' || space(out))) {
-                        throw new ConfigParseError("Options warning: Bad backslash ('\\') usage");
-                    }
-                }
-                backslash = false;
-            }
-
-            /* store parameter character */
-            if (out != 0) {
-                currentarg += out;
-            }
-        } while (pos++ < line.length());
-
-        return parameters;
-    }
-
     // This method is far too long
     @SuppressWarnings("ConstantConditions")
     public VpnProfile convertProfile(Connection.TransportType transportType) throws ConfigParseError, IOException {
@@ -1032,11 +969,6 @@ public class ConfigParser {
         return args;
     }
 
-    enum linestate {
-        initial,
-        readin_single_quote, reading_quoted, reading_unquoted, done
-    }
-
     public static class ConfigParseError extends Exception {
         private static final long serialVersionUID = -60L;
 
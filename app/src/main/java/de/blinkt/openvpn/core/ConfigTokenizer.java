@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Vector;
+
+/**
+ * Splits an OpenVPN config file into lines and options in a single pass over a char buffer.
+ * Lines end like in BufferedReader.readLine(): at '\n', '\r' or "\r\n".
+ *
+ * parseLine() follows openvpn's parse_line, like the former ConfigParser.parseline did. An
+ * argument is only recorded as a span of the buffer and copied once it's complete. Only arguments
+ * containing backslashes are built char by char. Inline files are copied from the buffer at once.
+ */
+class ConfigTokenizer {
+
+    private final char[] buf;
+    private final int length;
+    // start of the next line
+    private int next = 0;
+    // the current line
+    private int lineStart = -1;
+    private int lineEnd = -1;
+
+    private final StringBuilder escapedArg = new StringBuilder();
+
+    ConfigTokenizer(Reader reader) throws IOException {
+        char[] buf = new char[8192];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buf, length, buf.length - length)) != -1) {
+            length += read;
+            if (length == buf.length) {
+                char[] larger = new char[buf.length * 2];
+                System.arraycopy(buf, 0, larger, 0, length);
+                buf = larger;
+            }
+        }
+        this.buf = buf;
+        this.length = length;
+    }
+
+    ConfigTokenizer(String config) {
+        this.buf = config.toCharArray();
+        this.length = buf.length;
+    }
+
+    /**
+     * Moves to the next line.
+     * @return false if there are no more lines
+     */
+    boolean nextLine() {
+        if (next >= length)
+            return false;
+
+        lineStart = next;
+        int end = next;
+        while (end < length && buf[end] != '\n' && buf[end] != '\r')
+            end++;
+        lineEnd = end;
+
+        if (end < length && buf[end] == '\r' && end + 1 < length && buf[end + 1] == '\n')
+            next = end + 2;
+        else
+            next = end + 1;
+        return true;
+    }
+
+    boolean lineStartsWith(String prefix) {
+        if (lineEnd - lineStart < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf[lineStart + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Skips the first count characters of the current line, e.g. a byte order mark.
+     */
+    void skipLineStart(int count) {
+        lineStart = Math.min(lineStart + count, lineEnd);
+    }
+
+    String getLine() {
+        return new String(buf, lineStart, lineEnd - lineStart);
+    }
+
+    // I really hope nobody is using zero bytes inside his/her config file
+    // to sperate parameter but here we go:
+    private static boolean space(char c) {
+        return Character.isWhitespace(c) || c == '\0';
+    }
+
+    private enum LineState {
+        initial,
+        readin_single_quote, reading_quoted, reading_unquoted, done
+    }
+
+    /**
+     * Splits the current line into its arguments.
+     */
+    Vector<String> parseLine() throws ConfigParser.ConfigParseError {
+        Vector<String> parameters = new Vector<>();
+
+        int length = lineEnd - lineStart;
+        if (length == 0)
+            return parameters;
+
+        LineState state = LineState.initial;
+        boolean backslash = false;
+        char out = 0;
+
+        // the argument read so far is buf[argStart, argEnd) unless escaped is set
+        int argStart = 0;
+        int argEnd = -1;
+        boolean escaped = false;
+
+        int pos = 0;
+        do {
+            // Emulate the c parsing ...
+            int index = lineStart + pos;
+            char in;
+            if (pos < length)
+                in = buf[index];
+            else
+                in = '\0';
+
+            if (!backslash && in == '\\' && state != LineState.readin_single_quote) {
+                backslash = true;
+            } else {
+                if (state == LineState.initial) {
+                    if (!space(in)) {
+                        if (in == ';' || in == '#') /* comment */
+                            break;
+                        if (!backslash && in == '\"')
+                            state = LineState.reading_quoted;
+                        else if (!backslash && in == '\'')
+                            state = LineState.readin_single_quote;
+                        else {
+                            out = in;
+                            state = LineState.reading_unquoted;
+                        }
+                    }
+                } else if (state == LineState.reading_unquoted) {
+                    if (!backslash && space(in))
+                        state = LineState.done;
+                    else
+                        out = in;
+                } else if (state == LineState.reading_quoted) {
+                    if (!backslash && in == '\"')
+                        state = LineState.done;
+                    else
+                        out = in;
+                } else if (state == LineState.readin_single_quote) {
+                    if (in == '\'')
+                        state = LineState.done;
+                    else
+                        out = in;
+                }
+
+                if (state == LineState.done) {
+                    /* ASSERT (parm_len > 0); */
+                    state = LineState.initial;
+                    if (escaped)
+                        parameters.add(escapedArg.toString());
+                    else if (argEnd == -1)
+                        parameters.add("");
+                    else
+                        parameters.add(new String(buf, argStart, argEnd - argStart));
+                    argEnd = -1;
+                    escaped = false;
+                    out = 0;
+                }
+
+                if (backslash && out != 0) {
+                    if (!(out == '\\' || out == '\"' || space(out))) {
+                        throw new ConfigParser.ConfigParseError("Options warning: Bad backslash ('\\') usage");
+                    }
+                }
+                backslash = false;
+            }
+
+            /* store parameter character */
+            if (out != 0) {
+                // out is not always the current character: after a backslash or a quote, and the
+                // former parser appended the previous character again for a backslash
+                if (!escaped && pos < length && in == out && (argEnd == -1 || argEnd == index)) {
+                    if (argEnd == -1)
+                        argStart = index;
+                    argEnd = index + 1;
+                } else {
+                    if (!escaped) {
+                        escaped = true;
+                        escapedArg.setLength(0);
+                        if (argEnd != -1)
+                            escapedArg.append(buf, argStart, argEnd - argStart);
+                    }
+                    escapedArg.append(out);
+                }
+            }
+        } while (pos++ < length);
+
+        return parameters;
+    }
+
+    /**
+     * Reads the lines up to the end tag of an inline file.
+     * @return the lines joined by '\n' or null if there's no line with endtag
+     */
+    String readInlineFile(String endtag) {
+        int contentStart = next;
+        int contentEnd = -1;
+        // whether a line break inside the content needs to be replaced by '\n'
+        boolean carriageReturn = false;
+        while (nextLine()) {
+            if (trimmedLineEquals(endtag)) {
+                if (contentEnd == -1)
+                    return "";
+                String content = new String(buf, contentStart, contentEnd - contentStart);
+                if (carriageReturn)
+                    content = content.replace("\r\n", "\n").replace('\r', '\n');
+                return content;
+            }
+            if (contentEnd != -1 && buf[contentEnd] == '\r')
+                carriageReturn = true;
+            contentEnd = lineEnd;
+        }
+        return null;
+    }
+
+    // String.trim() removes all characters up to ' '
+    private boolean trimmedLineEquals(String s) {
+        int start = lineStart;
+        int end = lineEnd;
+        while (start < end && buf[start] <= ' ')
+            start++;
+        while (end > start && buf[end - 1] <= ' ')
+            end--;
+        if (end - start != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[start + i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
@@ -19,21 +19,25 @@ import se.leap.bitmaskclient.R;
 import de.blinkt.openvpn.core.VpnStatus.ByteCountListener;
 import se.leap.bitmaskclient.tethering.TetheringObservable;
 
-import java.util.LinkedList;
 import java.util.Objects;
 import java.util.StringTokenizer;
 
 import static de.blinkt.openvpn.core.OpenVPNManagement.pauseReason;
 
-public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountListener, OpenVPNManagement.PausedStateCallback {
+public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountListener, OpenVPNManagement.PausedStateCallback, SharedPreferences.OnSharedPreferenceChangeListener {
     private final Handler mDisconnectHandler;
     private int lastNetwork = -1;
     private OpenVPNManagement mManagement;
 
+    private static final String SCREEN_OFF_PAUSE = "screenoff";
+
     // Window time in s
-    private final int TRAFFIC_WINDOW = 60;
+    private static final int TRAFFIC_WINDOW = 60;
     // Data traffic limit in bytes
-    private final long TRAFFIC_LIMIT = 64 * 1024;
+    private static final long TRAFFIC_LIMIT = 64 * 1024;
+
+    // cached value of the screenoff preference, updated on changes
+    private volatile boolean screenOffPause;
 
     // Time to wait after network disconnect to pause the VPN
     private final int DISCONNECT_WAIT = 20;
@@ -72,39 +76,25 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
         DISCONNECTED
     }
 
-    private static class Datapoint {
-        private Datapoint(long t, long d) {
-            timestamp = t;
-            data = d;
-        }
-
-        long timestamp;
-        long data;
-    }
-
-    private LinkedList<Datapoint> trafficdata = new LinkedList<>();
+    private final TrafficWindow trafficWindow = new TrafficWindow(TRAFFIC_WINDOW);
+    // the traffic is only judged after a full window since the screen has been turned off
+    private long screenOffTimestamp;
 
 
     @Override
-    public void updateByteCount(long in, long out, long diffIn, long diffOut) {
+    public synchronized void updateByteCount(long in, long out, long diffIn, long diffOut) {
         if (screen != connectState.PENDINGDISCONNECT)
             return;
 
-        long total = diffIn + diffOut;
-        trafficdata.add(new Datapoint(System.currentTimeMillis(), total));
-
-        while (trafficdata.getFirst().timestamp <= (System.currentTimeMillis() - TRAFFIC_WINDOW * 1000)) {
-            trafficdata.removeFirst();
-        }
-
-        long windowtraffic = 0;
-        for (Datapoint dp : trafficdata)
-            windowtraffic += dp.data;
+        long now = System.currentTimeMillis();
+        trafficWindow.add(now, diffIn, diffOut);
+        if (now - screenOffTimestamp < TRAFFIC_WINDOW * 1000L)
+            return;
 
-        if (windowtraffic < TRAFFIC_LIMIT) {
+        if (trafficWindow.getTotal(now) < TRAFFIC_LIMIT) {
             screen = connectState.DISCONNECTED;
             VpnStatus.logInfo(R.string.screenoff_pause,
-                    "64 kB", TRAFFIC_WINDOW);
+                    TRAFFIC_LIMIT / 1024 + " kB", TRAFFIC_WINDOW);
 
             mManagement.pause(getPauseReason());
         }
@@ -134,23 +124,39 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
         mDisconnectHandler = new Handler();
     }
 
+    /**
+     * Reads the preferences checked on screen off and keeps them up to date until
+     * {@link #stopObservingPreferences(Context)} is called.
+     */
+    public void observePreferences(Context context) {
+        SharedPreferences prefs = Preferences.getDefaultSharedPreferences(context);
+        prefs.registerOnSharedPreferenceChangeListener(this);
+        screenOffPause = prefs.getBoolean(SCREEN_OFF_PAUSE, false);
+    }
+
+    public void stopObservingPreferences(Context context) {
+        Preferences.getDefaultSharedPreferences(context).unregisterOnSharedPreferenceChangeListener(this);
+    }
 
     @Override
-    public void onReceive(Context context, Intent intent) {
-        SharedPreferences prefs = Preferences.getDefaultSharedPreferences(context);
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (SCREEN_OFF_PAUSE.equals(key))
+            screenOffPause = sharedPreferences.getBoolean(SCREEN_OFF_PAUSE, false);
+    }
 
 
+    @Override
+    public void onReceive(Context context, Intent intent) {
         if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
             networkStateChange(context);
         } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
-            boolean screenOffPause = prefs.getBoolean("screenoff", false);
             boolean isTethering = TetheringObservable.getInstance().getTetheringState().isVpnTetheringRunning();
             if (screenOffPause && !isTethering) {
                 if (VpnStatus.getLastConnectedVpnProfile() != null && !VpnStatus.getLastConnectedVpnProfile().mPersistTun)
                     VpnStatus.logError(R.string.screen_nopersistenttun);
 
                 screen = connectState.PENDINGDISCONNECT;
-                fillTrafficData();
+                resetTrafficWindow();
                 if (network == connectState.DISCONNECTED || userpause == connectState.DISCONNECTED)
                     screen = connectState.DISCONNECTED;
             }
@@ -172,8 +178,9 @@ public class DeviceStateReceiver extends BroadcastReceiver implements ByteCountL
     }
 
 
-    private void fillTrafficData() {
-        trafficdata.add(new Datapoint(System.currentTimeMillis(), TRAFFIC_LIMIT));
+    private synchronized void resetTrafficWindow() {
+        screenOffTimestamp = System.currentTimeMillis();
+        trafficWindow.clear();
     }
 
     public static boolean equalsObj(Object a, Object b) {
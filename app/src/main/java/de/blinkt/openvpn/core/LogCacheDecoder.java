@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static de.blinkt.openvpn.core.LogFileHandler.MAGIC_BYTE;
+
+/**
+ * Decodes the framing written by {@link LogCacheEncoder}. The input is read in large chunks and
+ * every item is unescaped into the same reusable buffer before it is handed to the
+ * {@link ItemCallback}. Corrupted items are skipped, decoding continues at the next magic byte.
+ *
+ * Not thread safe, an instance must only be used by a single thread.
+ */
+class LogCacheDecoder {
+
+    private static final int READ_SIZE = 65536;
+
+    interface ItemCallback {
+        /**
+         * @param buf the unescaped marshaled item, only valid until the callback returns
+         * @param len length of the item in buf
+         */
+        void onItem(byte[] buf, int len) throws IOException;
+    }
+
+    private final byte[] input = new byte[READ_SIZE];
+    private int position;
+    private int limit;
+    private InputStream in;
+
+    private byte[] item = new byte[16384];
+    private int itemsRead;
+    private int bytesSkipped;
+    private int itemsCorrupted;
+
+    /**
+     * Decodes the items of in and passes them to callback. Stops after more than maxItems items.
+     * @return the number of items passed to callback
+     */
+    int decode(InputStream in, int maxItems, ItemCallback callback) throws IOException {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        itemsRead = 0;
+        bytesSkipped = 0;
+        itemsCorrupted = 0;
+
+        int b = read();
+        readloop:
+        while (b != -1) {
+            if (b != MAGIC_BYTE) {
+                bytesSkipped++;
+                b = read();
+                continue;
+            }
+
+            int len = 0;
+            for (int i = 0; i < 4; i++) {
+                b = read();
+                if (b == -1) {
+                    break readloop;
+                }
+                len = (len << 8) | b;
+            }
+            if (len < 0 || len > LogCacheEncoder.MAX_ITEM_SIZE) {
+                itemsCorrupted++;
+                b = read();
+                continue;
+            }
+            if (item.length < len) {
+                item = new byte[Math.max(len, item.length * 2)];
+            }
+
+            int pos = 0;
+            while (pos < len) {
+                b = read();
+                if (b == -1) {
+                    itemsCorrupted++;
+                    break readloop;
+                } else if (b == MAGIC_BYTE) {
+                    // abort current item, the magic byte starts the next one
+                    itemsCorrupted++;
+                    continue readloop;
+                } else if (b == MAGIC_BYTE + 1) {
+                    b = read();
+                    if (b == 0 || b == 1) {
+                        b += MAGIC_BYTE;
+                    } else {
+                        itemsCorrupted++;
+                        continue readloop;
+                    }
+                }
+                item[pos++] = (byte) b;
+            }
+
+            callback.onItem(item, len);
+            itemsRead++;
+            if (itemsRead > maxItems) {
+                break;
+            }
+            b = read();
+        }
+        this.in = null;
+        return itemsRead;
+    }
+
+    int getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    int getItemsCorrupted() {
+        return itemsCorrupted;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = in.read(input, 0, input.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return input[position++] & 0xff;
+    }
+}
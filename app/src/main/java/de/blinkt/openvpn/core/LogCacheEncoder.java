@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static de.blinkt.openvpn.core.LogFileHandler.MAGIC_BYTE;
+
+/**
+ * Encodes LogItems into the framing of the log cache file: a magic byte, the 4 byte length of
+ * the marshaled item and the marshaled item with all magic bytes escaped. Items are marshaled
+ * into one reusable buffer and appended escaped to a growable direct buffer, so that many items
+ * can be written to disk with a single channel write.
+ *
+ * Not thread safe, an instance must only be used by a single thread.
+ */
+class LogCacheEncoder {
+
+    private static final int INITIAL_CAPACITY = 16384;
+    // largest marshaled item accepted, bigger items are dropped with a BufferOverflowException
+    static final int MAX_ITEM_SIZE = 1024 * 1024;
+
+    private ByteBuffer marshaled = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private ByteBuffer pending = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+    /**
+     * Appends the framed and escaped representation of li to the pending bytes.
+     */
+    void encode(LogItem li) throws UnsupportedEncodingException, BufferOverflowException {
+        marshal(li);
+        int length = marshaled.position();
+        byte[] bytes = marshaled.array();
+
+        // escaping at most doubles the size of the item
+        ensureRemaining(5 + 2 * length);
+        pending.put((byte) MAGIC_BYTE);
+        pending.putInt(length);
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1) {
+                pending.put((byte) (MAGIC_BYTE + 1));
+                pending.put((byte) (b - MAGIC_BYTE));
+            } else {
+                pending.put(b);
+            }
+        }
+    }
+
+    /**
+     * @return number of encoded bytes not yet written
+     */
+    int pendingBytes() {
+        return pending.position();
+    }
+
+    /**
+     * Writes all pending bytes to channel.
+     */
+    void writeTo(WritableByteChannel channel) throws IOException {
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Drops all pending bytes without writing them.
+     */
+    void discard() {
+        pending.clear();
+    }
+
+    private void marshal(LogItem li) throws UnsupportedEncodingException {
+        while (true) {
+            marshaled.clear();
+            try {
+                li.marschal(marshaled);
+                return;
+            } catch (BufferOverflowException e) {
+                if (marshaled.capacity() >= MAX_ITEM_SIZE) {
+                    throw e;
+                }
+                marshaled = ByteBuffer.allocate(marshaled.capacity() * 2);
+            }
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (pending.remaining() >= bytes) {
+            return;
+        }
+        int capacity = pending.capacity();
+        while (capacity - pending.position() < bytes) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+    }
+}
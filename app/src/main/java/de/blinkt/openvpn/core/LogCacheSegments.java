@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores the log cache as a ring of segment files. New items are appended to the newest segment,
+ * once it holds segmentItems items a new segment is started and the oldest segments beyond
+ * maxSegments are deleted. Trimming the cache thus only deletes whole segments and never
+ * rewrites items.
+ *
+ * Unlike the single log file of former versions, the cache isn't truncated when the service
+ * starts: open() continues the newest segment unless it is full. Restarts therefore don't add
+ * segments, and there are never more than maxSegments segment files.
+ *
+ * Not thread safe, an instance must only be used by a single thread.
+ */
+class LogCacheSegments {
+
+    private static final String SEGMENT_PREFIX = "logcache-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("logcache-(\\d+)\\.dat");
+
+    interface SegmentReader {
+        /**
+         * @return the number of items read from in
+         */
+        int read(InputStream in) throws IOException;
+    }
+
+    private static class Segment {
+        final long sequence;
+        final File file;
+        int items;
+
+        Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+    }
+
+    private final File cacheDir;
+    private final int segmentItems;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private FileOutputStream currentStream;
+    private FileChannel currentChannel;
+
+    LogCacheSegments(File cacheDir, int segmentItems, int maxSegments) {
+        this.cacheDir = cacheDir;
+        this.segmentItems = segmentItems;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Reads all existing segments from the oldest to the newest one. A log cache written by
+     * former versions in a single file is read as the oldest segment.
+     * @return the number of items read
+     */
+    int load(SegmentReader reader) throws IOException {
+        segments.clear();
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            List<Segment> found = new ArrayList<>();
+            for (File file : files) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+                if (matcher.matches()) {
+                    found.add(new Segment(Long.parseLong(matcher.group(1)), file));
+                }
+            }
+            Collections.sort(found, (a, b) -> Long.compare(a.sequence, b.sequence));
+            segments.addAll(found);
+        }
+        migrateLegacyLogFile();
+
+        int itemsRead = 0;
+        for (Segment segment : segments) {
+            try (FileInputStream in = new FileInputStream(segment.file)) {
+                segment.items = reader.read(in);
+            }
+            itemsRead += segment.items;
+        }
+        return itemsRead;
+    }
+
+    /**
+     * Opens the newest segment for appending items, or starts a new one if there is none or
+     * the newest one is full.
+     */
+    void open() throws IOException {
+        if (segments.isEmpty() || segments.getLast().items >= segmentItems) {
+            startSegment();
+            return;
+        }
+        close();
+        currentStream = new FileOutputStream(segments.getLast().file, true);
+        currentChannel = currentStream.getChannel();
+    }
+
+    /**
+     * Writes all pending bytes of encoder, which contain the given number of items, to the
+     * newest segment. Starts a new segment first if the newest one is full.
+     */
+    void append(LogCacheEncoder encoder, int items) throws IOException {
+        if (currentChannel == null || segments.getLast().items >= segmentItems) {
+            startSegment();
+        }
+        encoder.writeTo(currentChannel);
+        segments.getLast().items += items;
+    }
+
+    /**
+     * Deletes the oldest segments as long as the remaining segments still contain at least
+     * keepItems items.
+     */
+    void trim(int keepItems) {
+        int items = getItemCount();
+        while (segments.size() > 1 && items - segments.getFirst().items >= keepItems) {
+            items -= segments.getFirst().items;
+            deleteOldestSegment();
+        }
+    }
+
+    /**
+     * Deletes all segments and starts a new one.
+     */
+    void clear() throws IOException {
+        close();
+        while (!segments.isEmpty()) {
+            deleteOldestSegment();
+        }
+        startSegment();
+    }
+
+    int getItemCount() {
+        int items = 0;
+        for (Segment segment : segments) {
+            items += segment.items;
+        }
+        return items;
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    void close() throws IOException {
+        if (currentStream != null) {
+            currentStream.close();
+            currentStream = null;
+            currentChannel = null;
+        }
+    }
+
+    private void startSegment() throws IOException {
+        close();
+        long sequence = segments.isEmpty() ? 0 : segments.getLast().sequence + 1;
+        Segment segment = new Segment(sequence, new File(cacheDir, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX));
+        currentStream = new FileOutputStream(segment.file);
+        currentChannel = currentStream.getChannel();
+        segments.addLast(segment);
+        while (segments.size() > maxSegments) {
+            deleteOldestSegment();
+        }
+    }
+
+    private void deleteOldestSegment() {
+        //noinspection ResultOfMethodCallIgnored
+        segments.removeFirst().file.delete();
+    }
+
+    private void migrateLegacyLogFile() {
+        File legacyLogFile = new File(cacheDir, LogFileHandler.LOGFILE_NAME);
+        if (!legacyLogFile.exists()) {
+            return;
+        }
+        // segments are numbered upwards from 0, so the legacy file can only precede them if
+        // there are none yet
+        if (!segments.isEmpty()) {
+            //noinspection ResultOfMethodCallIgnored
+            legacyLogFile.delete();
+            return;
+        }
+        long sequence = 0;
+        File segmentFile = new File(cacheDir, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+        if (legacyLogFile.renameTo(segmentFile)) {
+            segments.addFirst(new Segment(sequence, segmentFile));
+        }
+    }
+}
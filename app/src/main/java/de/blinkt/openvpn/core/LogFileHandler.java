@@ -9,17 +9,13 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.BufferOverflowException;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 import se.leap.bitmaskclient.R;
@@ -32,14 +28,39 @@ class LogFileHandler extends Handler {
     static final int FLUSH_TO_DISK = 101;
     static final int LOG_INIT = 102;
     public static final int LOG_MESSAGE = 103;
+    static final int COMMIT = 104;
+    static final int CLEAR_LOG_FILE = 105;
     public static final int MAGIC_BYTE = 0x55;
-    protected OutputStream mLogFile;
-
+    // log messages arriving within this window are written to disk together
+    static final long DEFAULT_COMMIT_WINDOW_MS = 1000;
+    // pending log messages are written immediately once they exceed this size
+    static final int DEFAULT_COMMIT_BYTES = 16384;
+    // the log cache keeps between MAXLOGENTRIES and MAXLOGENTRIES + SEGMENT_ITEMS entries on disk
+    static final int SEGMENT_ITEMS = VpnStatus.MAXLOGENTRIES / 4;
+    static final int MAX_SEGMENTS = 7;
+
+    private final long mCommitWindowMs;
+    private final int mCommitBytes;
+    private final LogCacheEncoder mEncoder = new LogCacheEncoder();
+    private int mPendingItems;
+    private LogCacheSegments mLogSegments;
+    // log items read from the cache, only set while reading it
+    private List<LogItem> mRestoredItems;
+
+    /**
+     * Log file name used by former versions, which kept the log cache in a single file
+     */
     public static final String LOGFILE_NAME = "logcache.dat";
 
 
     public LogFileHandler(Looper looper) {
+        this(looper, DEFAULT_COMMIT_WINDOW_MS, DEFAULT_COMMIT_BYTES);
+    }
+
+    public LogFileHandler(Looper looper, long commitWindowMs, int commitBytes) {
         super(looper);
+        mCommitWindowMs = commitWindowMs;
+        mCommitBytes = commitBytes;
     }
 
 
@@ -47,24 +68,36 @@ class LogFileHandler extends Handler {
     public void handleMessage(Message msg) {
         try {
             if (msg.what == LOG_INIT) {
-                if (mLogFile != null)
-                    throw new RuntimeException("mLogFile not null");
-                readLogCache((File) msg.obj);
-                openLogFile((File) msg.obj);
+                if (mLogSegments != null)
+                    throw new RuntimeException("mLogSegments not null");
+                mLogSegments = new LogCacheSegments((File) msg.obj, SEGMENT_ITEMS, MAX_SEGMENTS);
+                readLogCache();
+                mLogSegments.open();
+                mLogSegments.trim(VpnStatus.MAXLOGENTRIES);
             } else if (msg.what == LOG_MESSAGE && msg.obj instanceof LogItem) {
                 // Ignore log messages if not yet initialized
-                if (mLogFile == null)
+                if (mLogSegments == null)
                     return;
                 writeLogItemToDisk((LogItem) msg.obj);
+            } else if (msg.what == COMMIT || msg.what == FLUSH_TO_DISK) {
+                commit();
             } else if (msg.what == TRIM_LOG_FILE) {
-                trimLogFile();
-                for (LogItem li : VpnStatus.getlogbuffer())
-                    writeLogItemToDisk(li);
-            } else if (msg.what == FLUSH_TO_DISK) {
-                flushToDisk();
+                if (mLogSegments == null)
+                    return;
+                commit();
+                mLogSegments.trim(VpnStatus.MAXLOGENTRIES);
+            } else if (msg.what == CLEAR_LOG_FILE) {
+                if (mLogSegments == null)
+                    return;
+                mEncoder.discard();
+                mPendingItems = 0;
+                removeMessages(COMMIT);
+                mLogSegments.clear();
             }
 
         } catch (IOException | BufferOverflowException e) {
+            mEncoder.discard();
+            mPendingItems = 0;
             e.printStackTrace();
             VpnStatus.logError("Error during log cache: " + msg.what);
             VpnStatus.logException(e);
@@ -72,78 +105,54 @@ class LogFileHandler extends Handler {
 
     }
 
-    private void flushToDisk() throws IOException {
-        mLogFile.flush();
-    }
-
-    private void trimLogFile() {
-        try {
-            mLogFile.flush();
-            ((FileOutputStream) mLogFile).getChannel().truncate(0);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     private void writeLogItemToDisk(LogItem li) throws IOException {
 
         // We do not really care if the log cache breaks between Android upgrades,
         // write binary format to disc
 
-        byte[] liBytes = li.getMarschaledBytes();
-
-        writeEscapedBytes(liBytes);
-    }
-
-    public void writeEscapedBytes(byte[] bytes) throws IOException {
-        int magic = 0;
-        for (byte b : bytes)
-            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1)
-                magic++;
-
-        byte eBytes[] = new byte[bytes.length + magic];
-
-        int i = 0;
-        for (byte b : bytes) {
-            if (b == MAGIC_BYTE || b == MAGIC_BYTE + 1) {
-                eBytes[i++] = MAGIC_BYTE + 1;
-                eBytes[i++] = (byte) (b - MAGIC_BYTE);
-            } else {
-                eBytes[i++] = b;
-            }
-        }
-
-        byte[] lenBytes = ByteBuffer.allocate(4).putInt(bytes.length).array();
-        synchronized (mLogFile) {
-            mLogFile.write(MAGIC_BYTE);
-            mLogFile.write(lenBytes);
-            mLogFile.write(eBytes);
-        }
+        mEncoder.encode(li);
+        mPendingItems++;
+        if (mEncoder.pendingBytes() >= mCommitBytes)
+            commit();
+        else if (!hasMessages(COMMIT))
+            sendEmptyMessageDelayed(COMMIT, mCommitWindowMs);
     }
 
-    private void openLogFile(File cacheDir) throws FileNotFoundException {
-        File logfile = new File(cacheDir, LOGFILE_NAME);
-        mLogFile = new FileOutputStream(logfile);
+    private void commit() throws IOException {
+        removeMessages(COMMIT);
+        if (mPendingItems == 0)
+            return;
+        int items = mPendingItems;
+        mPendingItems = 0;
+        mLogSegments.append(mEncoder, items);
     }
 
-    private void readLogCache(File cacheDir) {
+    private void readLogCache() {
         try {
-            File logfile = new File(cacheDir, LOGFILE_NAME);
-
-
-            if (!logfile.exists() || !logfile.canRead())
-                return;
-
-            FileInputStream log = new FileInputStream(logfile);
-            readCacheContents(log);
-            log.close();
-
+            mRestoredItems = new ArrayList<>();
+            final int maxItems = 2 * VpnStatus.MAXLOGENTRIES;
+            final int[] remaining = {maxItems};
+            int itemsRead = mLogSegments.load(in -> {
+                if (remaining[0] < 0)
+                    return 0;
+                int read = readCacheContents(in, remaining[0]);
+                remaining[0] -= read;
+                return read;
+            });
+
+            if (itemsRead > maxItems)
+                VpnStatus.logError("Too many logentries read from cache, aborting.");
+            VpnStatus.logDebug(R.string.reread_log, itemsRead);
         } catch (java.io.IOException | java.lang.RuntimeException e) {
             VpnStatus.logError("Reading cached logfile failed");
             VpnStatus.logException(e);
             e.printStackTrace();
             // ignore reading file error
         } finally {
+            // the restored items are older than everything logged since the app started,
+            // items read before an error are kept as well
+            VpnStatus.restoreLogItems(mRestoredItems);
+            mRestoredItems = null;
             synchronized (VpnStatus.readFileLock) {
                 VpnStatus.readFileLog = true;
                 VpnStatus.readFileLock.notifyAll();
@@ -152,73 +161,26 @@ class LogFileHandler extends Handler {
     }
 
 
-    protected void readCacheContents(InputStream in) throws IOException {
-        BufferedInputStream logFile = new BufferedInputStream(in);
-
-        byte[] buf = new byte[16384];
-        int read = logFile.read(buf, 0, 5);
-        int itemsRead = 0;
-
+    /**
+     * Restores the log items of in, stops after more than maxItems items.
+     * @return the number of items read
+     */
+    protected int readCacheContents(InputStream in, int maxItems) throws IOException {
+        LogCacheDecoder decoder = new LogCacheDecoder();
+        int itemsRead = decoder.decode(in, maxItems, this::restoreLogItem);
 
-        readloop:
-        while (read >= 5) {
-            int skipped = 0;
-            while (buf[skipped] != MAGIC_BYTE) {
-                skipped++;
-                if (!(logFile.read(buf, skipped + 4, 1) == 1) || skipped + 10 > buf.length) {
-                    VpnStatus.logDebug(String.format(Locale.US, "Skipped %d bytes and no a magic byte found", skipped));
-                    break readloop;
-                }
-            }
-            if (skipped > 0)
-                VpnStatus.logDebug(String.format(Locale.US, "Skipped %d bytes before finding a magic byte", skipped));
-
-            int len = ByteBuffer.wrap(buf, skipped + 1, 4).asIntBuffer().get();
-
-            // Marshalled LogItem
-            int pos = 0;
-            byte buf2[] = new byte[buf.length];
-
-            while (pos < len) {
-                byte b = (byte) logFile.read();
-                if (b == MAGIC_BYTE) {
-                    VpnStatus.logDebug(String.format(Locale.US, "Unexpected magic byte found at pos %d, abort current log item", pos));
-                    read = logFile.read(buf, 1, 4) + 1;
-                    continue readloop;
-                } else if (b == MAGIC_BYTE + 1) {
-                    b = (byte) logFile.read();
-                    if (b == 0)
-                        b = MAGIC_BYTE;
-                    else if (b == 1)
-                        b = MAGIC_BYTE + 1;
-                    else {
-                        VpnStatus.logDebug(String.format(Locale.US, "Escaped byte not 0 or 1: %d", b));
-                        read = logFile.read(buf, 1, 4) + 1;
-                        continue readloop;
-                    }
-                }
-                buf2[pos++] = b;
-            }
-
-            restoreLogItem(buf2, len);
-
-            //Next item
-            read = logFile.read(buf, 0, 5);
-            itemsRead++;
-            if (itemsRead > 2 * VpnStatus.MAXLOGENTRIES) {
-                VpnStatus.logError("Too many logentries read from cache, aborting.");
-                read = 0;
-            }
-
-        }
-        VpnStatus.logDebug(R.string.reread_log, itemsRead);
+        if (decoder.getBytesSkipped() > 0)
+            VpnStatus.logDebug(String.format(Locale.US, "Skipped %d bytes outside of log items", decoder.getBytesSkipped()));
+        if (decoder.getItemsCorrupted() > 0)
+            VpnStatus.logDebug(String.format(Locale.US, "Aborted %d corrupted log items", decoder.getItemsCorrupted()));
+        return itemsRead;
     }
 
     protected void restoreLogItem(byte[] buf, int len) throws UnsupportedEncodingException {
 
         LogItem li = new LogItem(buf, len);
         if (li.verify()) {
-            VpnStatus.newLogItem(li, true);
+            mRestoredItems.add(li);
         } else {
             VpnStatus.logError(String.format(Locale.getDefault(),
                     "Could not read log item from file: %d: %s",
@@ -91,8 +91,15 @@ public class LogItem implements Parcelable {
 
     public byte[] getMarschaledBytes() throws UnsupportedEncodingException, BufferOverflowException {
         ByteBuffer bb = ByteBuffer.allocate(16384);
+        marschal(bb);
+        return Arrays.copyOf(bb.array(), bb.position());
+    }
 
-
+    /**
+     * Writes the binary representation of this item to bb, starting at its current position.
+     * Allows callers to reuse the same buffer for many items.
+     */
+    void marschal(ByteBuffer bb) throws UnsupportedEncodingException, BufferOverflowException {
         bb.put((byte) 0x0);               //version
         bb.putLong(logtime);              //8
         bb.putInt(mVerbosityLevel);      //4
@@ -133,11 +140,6 @@ public class LogItem implements Parcelable {
 
             }
         }
-
-        int pos = bb.position();
-        bb.rewind();
-        return Arrays.copyOf(bb.array(), pos);
-
     }
 
     public LogItem(byte[] in, int length) throws UnsupportedEncodingException {
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed capacity ring buffer of LogItems. Every appended item gets the next sequence number,
+ * once the buffer is full the oldest item is overwritten.
+ *
+ * Appending must be serialized by the caller, readers never block and never block the writer.
+ * A reader that is overtaken by the writer simply misses the overwritten items.
+ */
+class LogRingBuffer {
+
+    private static class Entry {
+        final long sequence;
+        final LogItem item;
+
+        Entry(long sequence, LogItem item) {
+            this.sequence = sequence;
+            this.item = item;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> entries;
+    // sequence number of the next item
+    private volatile long head;
+    // sequence number of the first item after the last clear()
+    private volatile long tail;
+
+    LogRingBuffer(int capacity) {
+        this.capacity = capacity;
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Appends an item, overwriting the oldest one if the buffer is full. Must not be called
+     * concurrently.
+     * @return the sequence number of the item
+     */
+    long append(LogItem item) {
+        long sequence = head;
+        entries.set(index(sequence), new Entry(sequence, item));
+        head = sequence + 1;
+        return sequence;
+    }
+
+    /**
+     * Removes all items. Sequence numbers keep increasing. Must not be called concurrently
+     * with append().
+     */
+    void clear() {
+        tail = head;
+    }
+
+    /**
+     * @return the sequence number of the first item after the last clear()
+     */
+    long getClearedSequence() {
+        return tail;
+    }
+
+    /**
+     * @return the sequence number the next appended item will get
+     */
+    long getNextSequence() {
+        return head;
+    }
+
+    int size() {
+        long head = this.head;
+        return (int) (head - getFirstSequence(head));
+    }
+
+    /**
+     * @return all items in the buffer, oldest first
+     */
+    LogItem[] snapshot() {
+        ArrayList<LogItem> items = new ArrayList<>(capacity);
+        readSince(0, items);
+        return items.toArray(new LogItem[items.size()]);
+    }
+
+    /**
+     * Adds all items with a sequence number of at least sequence that are still in the buffer,
+     * oldest first.
+     * @return the sequence number to pass to the next call to only get newer items
+     */
+    long readSince(long sequence, List<LogItem> out) {
+        int outSize = out.size();
+        long head = this.head;
+        long s = Math.max(sequence, getFirstSequence(head));
+        while (s < head) {
+            Entry entry = entries.get(index(s));
+            if (entry == null || entry.sequence != s) {
+                // the writer overtook us, start again with the oldest item that is left
+                out.subList(outSize, out.size()).clear();
+                head = this.head;
+                s = Math.max(sequence, getFirstSequence(head));
+                continue;
+            }
+            if (s >= tail) {
+                out.add(entry.item);
+            }
+            s++;
+        }
+        return head;
+    }
+
+    private long getFirstSequence(long head) {
+        return Math.max(tail, head - capacity);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
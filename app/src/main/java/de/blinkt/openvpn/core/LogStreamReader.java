@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads the frames written by {@link LogStreamWriter}. Every frame is read into one reusable
+ * buffer before its items are unmarshaled.
+ */
+public class LogStreamReader {
+
+    private final DataInputStream in;
+    private byte[] frame = new byte[LogStreamWriter.FRAME_SIZE];
+    private byte[] item = new byte[LogStreamWriter.FRAME_SIZE];
+
+    public LogStreamReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Reads all items up to the end of the stream into out.
+     * @return the sequence number to pass to the next registration to only get newer items
+     */
+    public long read(List<LogItem> out) throws IOException {
+        while (true) {
+            int items = in.readInt();
+            if (items == 0)
+                return in.readLong();
+
+            int length = in.readInt();
+            if (items < 0 || length < 0 || length > LogStreamWriter.MAX_ITEM_SIZE)
+                throw new IOException("Invalid log frame: " + items + " items, " + length + " bytes");
+            if (frame.length < length)
+                frame = new byte[length];
+            in.readFully(frame, 0, length);
+
+            ByteBuffer bb = ByteBuffer.wrap(frame, 0, length);
+            for (int i = 0; i < items; i++) {
+                int itemLength = bb.getInt();
+                if (itemLength < 0 || itemLength > bb.remaining())
+                    throw new IOException("Invalid log item length " + itemLength);
+                if (item.length < itemLength)
+                    item = new byte[itemLength];
+                bb.get(item, 0, itemLength);
+                out.add(new LogItem(item, itemLength));
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Writes log items in batched frames to the pipe handed out by
+ * {@link IServiceStatus#registerStatusCallbackSince}:
+ *
+ * frame: int number of items (> 0), int length of the items, the items
+ * item: int length of the marshaled item, the marshaled item
+ * end: int 0, long sequence number to request only newer items next time
+ *
+ * All items of a frame are marshaled into one reusable buffer and written with a single write,
+ * so a client reading slowly blocks the writer after at most one frame.
+ *
+ * Not thread safe, an instance must only be used by a single thread.
+ */
+public class LogStreamWriter {
+
+    static final int FRAME_SIZE = 16384;
+    // largest marshaled item accepted, bigger items are skipped
+    static final int MAX_ITEM_SIZE = 1024 * 1024;
+    private static final int FRAME_HEADER = 8;
+    private static final int ITEM_HEADER = 4;
+
+    private final OutputStream out;
+    private ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+    private int itemsInFrame;
+
+    public LogStreamWriter(OutputStream out) {
+        this.out = out;
+        frame.position(FRAME_HEADER);
+    }
+
+    /**
+     * Writes items followed by the end of the stream.
+     * @param nextSequence the sequence number the client passes to the next registration
+     */
+    public void write(List<LogItem> items, long nextSequence) throws IOException {
+        for (LogItem item : items) {
+            add(item);
+        }
+        flushFrame();
+        frame.clear();
+        frame.putInt(0);
+        frame.putLong(nextSequence);
+        out.write(frame.array(), 0, frame.position());
+        out.flush();
+        frame.clear();
+        frame.position(FRAME_HEADER);
+    }
+
+    private void add(LogItem item) throws IOException {
+        try {
+            if (marshal(item))
+                return;
+            if (itemsInFrame > 0) {
+                // the item starts the next frame
+                flushFrame();
+                if (marshal(item))
+                    return;
+            }
+            while (frame.capacity() < MAX_ITEM_SIZE) {
+                frame = ByteBuffer.allocate(frame.capacity() * 2);
+                frame.position(FRAME_HEADER);
+                if (marshal(item))
+                    return;
+            }
+            VpnStatus.logDebug("Skipping log item bigger than " + MAX_ITEM_SIZE + " bytes");
+        } catch (UnsupportedEncodingException e) {
+            VpnStatus.logException(e);
+        }
+    }
+
+    /**
+     * @return false if the item does not fit into the rest of the frame
+     */
+    private boolean marshal(LogItem item) throws UnsupportedEncodingException {
+        int start = frame.position();
+        if (frame.remaining() < ITEM_HEADER)
+            return false;
+        try {
+            frame.position(start + ITEM_HEADER);
+            item.marschal(frame);
+        } catch (BufferOverflowException e) {
+            frame.position(start);
+            return false;
+        }
+        frame.putInt(start, frame.position() - start - ITEM_HEADER);
+        itemsInFrame++;
+        return true;
+    }
+
+    private void flushFrame() throws IOException {
+        if (itemsInFrame > 0) {
+            frame.putInt(0, itemsInFrame);
+            frame.putInt(4, frame.position() - FRAME_HEADER);
+            out.write(frame.array(), 0, frame.position());
+        }
+        if (frame.capacity() > FRAME_SIZE) {
+            frame = ByteBuffer.allocate(FRAME_SIZE);
+        }
+        frame.clear();
+        frame.position(FRAME_HEADER);
+        itemsInFrame = 0;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Splits the byte stream of the OpenVPN management interface into lines and dispatches them
+ * by their prefix. Input is read into a single reusable buffer, lines are never copied. The
+ * frequent >BYTECOUNT messages are parsed without allocating anything, >LOG and >STATE messages
+ * only decode the fields that are handed to the listener. All other lines are decoded as a
+ * whole and passed to {@link Listener#onCommand(String)}.
+ */
+public class ManagementLineFramer {
+
+    private static final int INITIAL_CAPACITY = 2048;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] LOG = ascii(">LOG:");
+    private static final byte[] STATE = ascii(">STATE:");
+    private static final byte[] BYTECOUNT = ascii(">BYTECOUNT:");
+    private static final byte[] PASSWORD = ascii(">PASSWORD:");
+    private static final byte[] NEED_OK = ascii(">NEED-OK:");
+
+    public interface Listener {
+        /** >LOG:{TIMESTAMP},{FLAGS},{OPENVPN LEVEL},{MESSAGE} */
+        void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message);
+
+        /** >STATE:{TIMESTAMP},{STATE},{DETAILS} */
+        void onState(String state, String details);
+
+        /** >BYTECOUNT:{BYTES_IN},{BYTES_OUT} */
+        void onByteCount(long in, long out);
+
+        /** argument of >PASSWORD: */
+        void onPassword(String argument);
+
+        /** argument of >NEED-OK: */
+        void onNeedOk(String argument);
+
+        /** any other line */
+        void onCommand(String command);
+    }
+
+    private final Listener listener;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    // unprocessed input is buffer[start, end)
+    private int start;
+    private int end;
+    // position up to which buffer[start, end) has already been searched for a line break
+    private int scanned;
+
+    public ManagementLineFramer(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the next chunk of input into the buffer without dispatching it.
+     * @return the number of bytes read or -1 if the end of the stream has been reached
+     */
+    public int read(InputStream inputStream) throws IOException {
+        ensureCapacity();
+        int read = inputStream.read(buffer, end, buffer.length - end);
+        if (read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    /**
+     * Appends input to the buffer and dispatches all complete lines.
+     */
+    public void feed(byte[] input, int offset, int length) {
+        while (length > 0) {
+            ensureCapacity();
+            int count = Math.min(length, buffer.length - end);
+            System.arraycopy(input, offset, buffer, end, count);
+            end += count;
+            offset += count;
+            length -= count;
+            processLines();
+        }
+    }
+
+    /**
+     * Dispatches all complete lines in the buffer. An incomplete last line stays buffered until
+     * its line break arrives.
+     */
+    public void processLines() {
+        for (int i = scanned; i < end; i++) {
+            if (buffer[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > start && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            int lineStart = start;
+            start = i + 1;
+            dispatch(buffer, lineStart, lineEnd);
+        }
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+        scanned = end;
+    }
+
+    private void dispatch(byte[] line, int from, int to) {
+        if (startsWith(line, from, to, BYTECOUNT)) {
+            if (dispatchByteCount(line, from + BYTECOUNT.length, to)) {
+                return;
+            }
+        } else if (startsWith(line, from, to, LOG)) {
+            if (dispatchLogMessage(line, from + LOG.length, to)) {
+                return;
+            }
+        } else if (startsWith(line, from, to, STATE)) {
+            if (dispatchState(line, from + STATE.length, to)) {
+                return;
+            }
+        } else if (startsWith(line, from, to, PASSWORD)) {
+            listener.onPassword(decode(line, from + PASSWORD.length, to));
+            return;
+        } else if (startsWith(line, from, to, NEED_OK)) {
+            listener.onNeedOk(decode(line, from + NEED_OK.length, to));
+            return;
+        }
+        listener.onCommand(decode(line, from, to));
+    }
+
+    private boolean dispatchByteCount(byte[] line, int from, int to) {
+        int comma = indexOf(line, from, to, (byte) ',');
+        if (comma < 0) {
+            return false;
+        }
+        listener.onByteCount(parseLong(line, from, comma), parseLong(line, comma + 1, to));
+        return true;
+    }
+
+    private boolean dispatchLogMessage(byte[] line, int from, int to) {
+        int flagsStart = indexOf(line, from, to, (byte) ',') + 1;
+        int levelStart = flagsStart > 0 ? indexOf(line, flagsStart, to, (byte) ',') + 1 : 0;
+        int messageStart = levelStart > 0 ? indexOf(line, levelStart, to, (byte) ',') + 1 : 0;
+        if (messageStart <= 0) {
+            return false;
+        }
+
+        VpnStatus.LogLevel level = VpnStatus.LogLevel.INFO;
+        if (levelStart - flagsStart == 2) {
+            switch (line[flagsStart]) {
+                case 'W':
+                    level = VpnStatus.LogLevel.WARNING;
+                    break;
+                case 'D':
+                    level = VpnStatus.LogLevel.VERBOSE;
+                    break;
+                case 'F':
+                    level = VpnStatus.LogLevel.ERROR;
+                    break;
+                default:
+                    break;
+            }
+        }
+        int ovpnLevel = (int) parseLong(line, levelStart, messageStart - 1) & 0x0F;
+        listener.onLogMessage(level, ovpnLevel, decode(line, messageStart, to));
+        return true;
+    }
+
+    private boolean dispatchState(byte[] line, int from, int to) {
+        int stateStart = indexOf(line, from, to, (byte) ',') + 1;
+        if (stateStart <= 0) {
+            return false;
+        }
+        int stateEnd = indexOf(line, stateStart, to, (byte) ',');
+        if (stateEnd < 0) {
+            return false;
+        }
+        String details = to - stateEnd == 3 && line[stateEnd + 1] == ',' && line[stateEnd + 2] == ',' ?
+                "" :
+                decode(line, stateEnd + 1, to);
+        listener.onState(decode(line, stateStart, stateEnd), details);
+        return true;
+    }
+
+    private void ensureCapacity() {
+        if (end < buffer.length) {
+            return;
+        }
+        int pending = end - start;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, pending);
+        } else {
+            // a single line fills the whole buffer
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, pending);
+            buffer = grown;
+        }
+        scanned -= start;
+        start = 0;
+        end = pending;
+    }
+
+    static boolean startsWith(byte[] line, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int indexOf(byte[] line, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static long parseLong(byte[] line, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("empty number");
+        }
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + decode(line, from, to) + "\"");
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    private static String decode(byte[] line, int from, int to) {
+        return new String(line, from, to - from, UTF_8);
+    }
+
+    private static byte[] ascii(String prefix) {
+        return prefix.getBytes(UTF_8);
+    }
+}
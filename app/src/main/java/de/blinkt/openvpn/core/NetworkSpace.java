@@ -8,11 +8,12 @@ package de.blinkt.openvpn.core;
 import android.os.Build;
 import androidx.annotation.NonNull;
 
-import java.math.BigInteger;
 import java.net.Inet6Address;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Locale;
-import java.util.PriorityQueue;
 import java.util.TreeSet;
 import java.util.Vector;
 
@@ -28,13 +29,20 @@ public class NetworkSpace {
             throw new IllegalStateException();
     }
 
+    /**
+     * A network in CIDR notation. Addresses are kept as unsigned 128 bit numbers split into a
+     * high and a low long, IPv4 addresses only use the low long.
+     */
     static class IpAddress implements Comparable<IpAddress> {
-        private BigInteger netAddress;
+        private final long netAddressHigh;
+        private final long netAddressLow;
         public int networkMask;
         private boolean included;
         private boolean isV4;
-        private BigInteger firstAddress;
-        private BigInteger lastAddress;
+        private final long firstHigh;
+        private final long firstLow;
+        private final long lastHigh;
+        private final long lastLow;
 
 
         /**
@@ -44,7 +52,7 @@ public class NetworkSpace {
          */
         @Override
         public int compareTo(@NonNull IpAddress another) {
-            int comp = getFirstAddress().compareTo(another.getFirstAddress());
+            int comp = compareUnsigned(firstHigh, firstLow, another.firstHigh, another.firstLow);
             if (comp != 0)
                 return comp;
 
@@ -69,60 +77,52 @@ public class NetworkSpace {
 
 
             IpAddress on = (IpAddress) o;
-            return (networkMask == on.networkMask) && on.getFirstAddress().equals(getFirstAddress());
+            return (networkMask == on.networkMask) && on.firstHigh == firstHigh && on.firstLow == firstLow;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = firstHigh * 31 + firstLow;
+            return (int) (h ^ (h >>> 32)) * 31 + networkMask;
         }
 
         public IpAddress(CIDRIP ip, boolean include) {
-            included = include;
-            netAddress = BigInteger.valueOf(ip.getInt());
-            networkMask = ip.len;
-            isV4 = true;
+            this(0, ip.getInt(), ip.len, include, true);
         }
 
         public IpAddress(Inet6Address address, int mask, boolean include) {
-            networkMask = mask;
-            included = include;
+            this(toLong(address.getAddress(), 0), toLong(address.getAddress(), 8), mask, include, false);
+        }
 
-            int s = 128;
+        IpAddress(long baseAddressHigh, long baseAddressLow, int mask, boolean included, boolean isV4) {
+            this.netAddressHigh = baseAddressHigh;
+            this.netAddressLow = baseAddressLow;
+            this.networkMask = mask;
+            this.included = included;
+            this.isV4 = isV4;
 
-            netAddress = BigInteger.ZERO;
-            for (byte b : address.getAddress()) {
-                s -= 8;
-                netAddress = netAddress.add(BigInteger.valueOf((b & 0xFF)).shiftLeft(s));
-            }
+            int numBits = getMaxMask() - mask;
+            long hostMaskHigh = numBits > 64 ? lowBits(numBits - 64) : 0;
+            long hostMaskLow = numBits >= 64 ? -1L : lowBits(numBits);
+            firstHigh = baseAddressHigh & ~hostMaskHigh;
+            firstLow = baseAddressLow & ~hostMaskLow;
+            lastHigh = baseAddressHigh | hostMaskHigh;
+            lastLow = baseAddressLow | hostMaskLow;
         }
 
-        public BigInteger getLastAddress() {
-            if (lastAddress == null)
-                lastAddress = getMaskedAddress(true);
-            return lastAddress;
+        private static long toLong(byte[] address, int offset) {
+            long value = 0;
+            for (int i = offset; i < offset + 8; i++)
+                value = (value << 8) | (address[i] & 0xFF);
+            return value;
         }
 
-
-        public BigInteger getFirstAddress() {
-            if (firstAddress == null)
-                firstAddress = getMaskedAddress(false);
-            return firstAddress;
+        private static long lowBits(int bits) {
+            return bits >= 64 ? -1L : (1L << bits) - 1;
         }
 
-
-        private BigInteger getMaskedAddress(boolean one) {
-            BigInteger numAddress = netAddress;
-
-            int numBits;
-            if (isV4) {
-                numBits = 32 - networkMask;
-            } else {
-                numBits = 128 - networkMask;
-            }
-
-            for (int i = 0; i < numBits; i++) {
-                if (one)
-                    numAddress = numAddress.setBit(i);
-                else
-                    numAddress = numAddress.clearBit(i);
-            }
-            return numAddress;
+        int getMaxMask() {
+            return isV4 ? 32 : 128;
         }
 
 
@@ -135,53 +135,52 @@ public class NetworkSpace {
                 return String.format(Locale.US, "%s/%d", getIPv6Address(), networkMask);
         }
 
-        IpAddress(BigInteger baseAddress, int mask, boolean included, boolean isV4) {
-            this.netAddress = baseAddress;
-            this.networkMask = mask;
-            this.included = included;
-            this.isV4 = isV4;
-        }
-
 
         public IpAddress[] split() {
-            IpAddress firstHalf = new IpAddress(getFirstAddress(), networkMask + 1, included, isV4);
-            IpAddress secondHalf = new IpAddress(firstHalf.getLastAddress().add(BigInteger.ONE), networkMask + 1, included, isV4);
+            IpAddress firstHalf = new IpAddress(firstHigh, firstLow, networkMask + 1, included, isV4);
+            // the second half starts right after the last address of the first half
+            long secondLow = firstHalf.lastLow + 1;
+            long secondHigh = secondLow == 0 ? firstHalf.lastHigh + 1 : firstHalf.lastHigh;
+            IpAddress secondHalf = new IpAddress(secondHigh, secondLow, networkMask + 1, included, isV4);
             if (BuildConfig.DEBUG)
-                assertTrue(secondHalf.getLastAddress().equals(getLastAddress()));
+                assertTrue(secondHalf.lastHigh == lastHigh && secondHalf.lastLow == lastLow);
             return new IpAddress[]{firstHalf, secondHalf};
         }
 
         String getIPv4Address() {
             if (BuildConfig.DEBUG) {
                 assertTrue(isV4);
-                assertTrue(netAddress.longValue() <= 0xffffffffl);
-                assertTrue(netAddress.longValue() >= 0);
+                assertTrue(netAddressHigh == 0);
+                assertTrue(netAddressLow <= 0xffffffffl);
+                assertTrue(netAddressLow >= 0);
             }
-            long ip = netAddress.longValue();
+            long ip = netAddressLow;
             return String.format(Locale.US, "%d.%d.%d.%d", (ip >> 24) % 256, (ip >> 16) % 256, (ip >> 8) % 256, ip % 256);
         }
 
         String getIPv6Address() {
             if (BuildConfig.DEBUG) assertTrue(!isV4);
-            BigInteger r = netAddress;
+            long high = netAddressHigh;
+            long low = netAddressLow;
 
             String ipv6str = null;
             boolean lastPart = true;
 
-            while (r.compareTo(BigInteger.ZERO) == 1) {
+            while (high != 0 || low != 0) {
 
-                long part = r.mod(BigInteger.valueOf(0x10000)).longValue();
+                long part = low & 0xFFFF;
                 if (ipv6str != null || part != 0) {
                     if (ipv6str == null && !lastPart)
                             ipv6str = ":";
 
                     if (lastPart)
-                        ipv6str = String.format(Locale.US, "%x", part, ipv6str);
+                        ipv6str = String.format(Locale.US, "%x", part);
                     else
                         ipv6str = String.format(Locale.US, "%x:%s", part, ipv6str);
                 }
 
-                r = r.shiftRight(16);
+                low = (low >>> 16) | (high << 48);
+                high = high >>> 16;
                 lastPart = false;
             }
             if (ipv6str == null)
@@ -192,19 +191,23 @@ public class NetworkSpace {
         }
 
         public boolean containsNet(IpAddress network) {
-            // this.first >= net.first &&  this.last <= net.last
-            BigInteger ourFirst = getFirstAddress();
-            BigInteger ourLast = getLastAddress();
-            BigInteger netFirst = network.getFirstAddress();
-            BigInteger netLast = network.getLastAddress();
-
-            boolean a = ourFirst.compareTo(netFirst) != 1;
-            boolean b = ourLast.compareTo(netLast) != -1;
-            return a && b;
-
+            // this.first <= net.first &&  this.last >= net.last
+            return compareUnsigned(firstHigh, firstLow, network.firstHigh, network.firstLow) <= 0
+                    && compareUnsigned(lastHigh, lastLow, network.lastHigh, network.lastLow) >= 0;
         }
     }
 
+    /**
+     * Compares two unsigned 128 bit numbers. Long.compareUnsigned is not available before API 26.
+     */
+    static int compareUnsigned(long aHigh, long aLow, long bHigh, long bLow) {
+        if (aHigh != bHigh)
+            return (aHigh + Long.MIN_VALUE) < (bHigh + Long.MIN_VALUE) ? -1 : 1;
+        if (aLow != bLow)
+            return (aLow + Long.MIN_VALUE) < (bLow + Long.MIN_VALUE) ? -1 : 1;
+        return 0;
+    }
+
 
     TreeSet<IpAddress> mIpAddresses = new TreeSet<IpAddress>();
 
@@ -239,104 +242,168 @@ public class NetworkSpace {
         mIpAddresses.add(new IpAddress(address, mask, included));
     }
 
-    TreeSet<IpAddress> generateIPList() {
-
-        PriorityQueue<IpAddress> networks = new PriorityQueue<IpAddress>(mIpAddresses);
+    /**
+     * A network of mIpAddresses together with the networks of mIpAddresses directly inside it
+     */
+    private static class RouteNode {
+        final IpAddress net;
+        final ArrayList<RouteNode> children = new ArrayList<RouteNode>(0);
+        // true if every address of the network ends up with the type of net
+        boolean uniform = true;
+
+        RouteNode(IpAddress net) {
+            this.net = net;
+        }
+    }
 
+    /**
+     * Resolves overlapping networks into disjoint ones. Every address gets the type of the most
+     * specific network containing it. A network is only split where a more specific network of a
+     * different type lies inside it, the remaining parts are emitted as the largest possible
+     * networks.
+     */
+    TreeSet<IpAddress> generateIPList() {
         TreeSet<IpAddress> ipsDone = new TreeSet<IpAddress>();
 
-        IpAddress currentNet = networks.poll();
-        if (currentNet == null)
-            return ipsDone;
-
-        while (currentNet != null) {
-            // Check if it and the next of it are compatible
-            IpAddress nextNet = networks.poll();
-
-            if (BuildConfig.DEBUG) assertTrue(currentNet!=null);
-            if (nextNet == null || currentNet.getLastAddress().compareTo(nextNet.getFirstAddress()) == -1) {
-                // Everything good, no overlapping nothing to do
-                ipsDone.add(currentNet);
-
-                currentNet = nextNet;
-            } else {
-                // This network is smaller or equal to the next but has the same base address
-                if (currentNet.getFirstAddress().equals(nextNet.getFirstAddress()) && currentNet.networkMask >= nextNet.networkMask) {
-                    if (currentNet.included == nextNet.included) {
-                        // Included in the next next and same type
-                        // Simply forget our current network
-                        currentNet = nextNet;
-                    } else {
-                        // our currentNet is included in next and types differ. Need to split the next network
-                        IpAddress[] newNets = nextNet.split();
-
-
-                        // TODO: The contains method of the Priority is stupid linear search
-
-                        // First add the second half to keep the order in networks
-                        if (!networks.contains(newNets[1]))
-                            networks.add(newNets[1]);
-
-                        if (newNets[0].getLastAddress().equals(currentNet.getLastAddress())) {
-                            if (BuildConfig.DEBUG)
-                                assertTrue(newNets[0].networkMask == currentNet.networkMask);
-                            // Don't add the lower half that would conflict with currentNet
-                        } else {
-                            if (!networks.contains(newNets[0]))
-                                networks.add(newNets[0]);
-                        }
-                        // Keep currentNet as is
-                    }
-                } else {
-                    if (BuildConfig.DEBUG) {
-                        assertTrue(currentNet.networkMask < nextNet.networkMask);
-                        assertTrue(nextNet.getFirstAddress().compareTo(currentNet.getFirstAddress()) == 1);
-                        assertTrue(currentNet.getLastAddress().compareTo(nextNet.getLastAddress()) != -1);
-                    }
-                    // This network is bigger than the next and last ip of current >= next
-
-                    //noinspection StatementWithEmptyBody
-                    if (currentNet.included == nextNet.included) {
-                        // Next network is in included in our network with the same type,
-                        // simply ignore the next and move on
-                    } else {
-                        // We need to split our network
-                        IpAddress[] newNets = currentNet.split();
-
-
-                        if (newNets[1].networkMask == nextNet.networkMask) {
-                            if (BuildConfig.DEBUG) {
-                                assertTrue(newNets[1].getFirstAddress().equals(nextNet.getFirstAddress()));
-                                assertTrue(newNets[1].getLastAddress().equals(currentNet.getLastAddress()));
-                                // split second equal the next network, do not add it
-                            }
-                            networks.add(nextNet);
-                        } else {
-                            // Add the smaller network first
-                            networks.add(newNets[1]);
-                            networks.add(nextNet);
-                        }
-                        currentNet = newNets[0];
-
-                    }
-                }
+        // Networks are either disjoint or nested. Sorted by first address and bigger networks
+        // first, every network comes right after the networks containing it.
+        IpAddress[] sorted = mIpAddresses.toArray(new IpAddress[mIpAddresses.size()]);
+        Arrays.sort(sorted, new Comparator<IpAddress>() {
+            @Override
+            public int compare(IpAddress a, IpAddress b) {
+                int comp = compareUnsigned(a.firstHigh, a.firstLow, b.firstHigh, b.firstLow);
+                return comp != 0 ? comp : a.networkMask - b.networkMask;
             }
+        });
+
+        RouteNode[] nodes = new RouteNode[sorted.length];
+        ArrayList<RouteNode> roots = new ArrayList<RouteNode>();
+        ArrayList<RouteNode> stack = new ArrayList<RouteNode>();
+        for (int i = 0; i < sorted.length; i++) {
+            RouteNode node = new RouteNode(sorted[i]);
+            nodes[i] = node;
+            while (!stack.isEmpty() && !stack.get(stack.size() - 1).net.containsNet(node.net))
+                stack.remove(stack.size() - 1);
+
+            if (stack.isEmpty())
+                roots.add(node);
+            else
+                stack.get(stack.size() - 1).children.add(node);
+            stack.add(node);
+        }
 
+        // children come after their parents, so going backwards visits them first
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            RouteNode node = nodes[i];
+            for (RouteNode child : node.children) {
+                if (!child.uniform || child.net.included != node.net.included) {
+                    node.uniform = false;
+                    break;
+                }
+            }
         }
 
+        for (RouteNode root : roots)
+            resolve(root, ipsDone);
+
         return ipsDone;
     }
 
+    private static void resolve(RouteNode node, TreeSet<IpAddress> ipsDone) {
+        IpAddress net = node.net;
+        if (node.uniform) {
+            ipsDone.add(net);
+            return;
+        }
+
+        // walk through the children and fill the gaps between them with the type of net.
+        // Children that resolve to the type of net are simply part of the gaps.
+        long fromHigh = net.firstHigh;
+        long fromLow = net.firstLow;
+        boolean atEnd = false;
+        for (RouteNode child : node.children) {
+            IpAddress childNet = child.net;
+            if (child.uniform && childNet.included == net.included)
+                continue;
+
+            if (compareUnsigned(fromHigh, fromLow, childNet.firstHigh, childNet.firstLow) < 0) {
+                long toLow = childNet.firstLow - 1;
+                long toHigh = childNet.firstLow == 0 ? childNet.firstHigh - 1 : childNet.firstHigh;
+                addRange(fromHigh, fromLow, toHigh, toLow, net, ipsDone);
+            }
+            resolve(child, ipsDone);
+
+            if (childNet.lastHigh == net.lastHigh && childNet.lastLow == net.lastLow) {
+                atEnd = true;
+                break;
+            }
+            fromLow = childNet.lastLow + 1;
+            fromHigh = fromLow == 0 ? childNet.lastHigh + 1 : childNet.lastHigh;
+        }
+        if (!atEnd)
+            addRange(fromHigh, fromLow, net.lastHigh, net.lastLow, net, ipsDone);
+    }
+
+    /**
+     * Adds the addresses from..to as the fewest networks possible with the type and address
+     * family of net.
+     */
+    private static void addRange(long fromHigh, long fromLow, long toHigh, long toLow, IpAddress net,
+                                 TreeSet<IpAddress> ipsDone) {
+        int maxMask = net.getMaxMask();
+        while (true) {
+            // number of addresses left is to - from + 1
+            long sizeLow = toLow - fromLow;
+            long sizeHigh = toHigh - fromHigh - (compareUnsigned(0, toLow, 0, fromLow) < 0 ? 1 : 0);
+            sizeLow++;
+            if (sizeLow == 0)
+                sizeHigh++;
+
+            int sizeBits;
+            if (sizeHigh != 0)
+                sizeBits = 127 - Long.numberOfLeadingZeros(sizeHigh);
+            else if (sizeLow != 0)
+                sizeBits = 63 - Long.numberOfLeadingZeros(sizeLow);
+            else
+                // the whole address space
+                sizeBits = 128;
+
+            int alignBits;
+            if (fromLow != 0)
+                alignBits = Long.numberOfTrailingZeros(fromLow);
+            else if (fromHigh != 0)
+                alignBits = 64 + Long.numberOfTrailingZeros(fromHigh);
+            else
+                alignBits = 128;
+
+            int hostBits = Math.min(Math.min(sizeBits, alignBits), maxMask);
+            IpAddress part = new IpAddress(fromHigh, fromLow, maxMask - hostBits, net.included, net.isV4);
+            ipsDone.add(part);
+
+            if (part.lastHigh == toHigh && part.lastLow == toLow)
+                return;
+            fromLow = part.lastLow + 1;
+            fromHigh = fromLow == 0 ? part.lastHigh + 1 : part.lastHigh;
+        }
+    }
+
     Collection<IpAddress> getPositiveIPList() {
+        return getPositiveIPList(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT);
+    }
+
+    Collection<IpAddress> getPositiveIPList(boolean includeOriginalRoutes) {
         TreeSet<IpAddress> ipsSorted = generateIPList();
 
         Vector<IpAddress> ips = new Vector<IpAddress>();
+        TreeSet<IpAddress> excluded = new TreeSet<IpAddress>();
         for (IpAddress ia : ipsSorted) {
             if (ia.included)
                 ips.add(ia);
+            else
+                excluded.add(ia);
         }
 
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+        if (includeOriginalRoutes) {
             // Include postive routes from the original set under < 4.4 since these might overrule the local
             // network but only if no smaller negative route exists
             for (IpAddress origIp : mIpAddresses) {
@@ -347,16 +414,12 @@ public class NetworkSpace {
                 if (ipsSorted.contains(origIp))
                     continue;
 
-                boolean skipIp = false;
-                // If there is any smaller net that is excluded we may not add the positive route back
-
-                for (IpAddress calculatedIp : ipsSorted) {
-                    if (!calculatedIp.included && origIp.containsNet(calculatedIp)) {
-                        skipIp = true;
-                        break;
-                    }
-                }
-                if (skipIp)
+                // If there is any smaller net that is excluded we may not add the positive route back.
+                // The calculated networks are disjoint, so it suffices to look at the first excluded
+                // net starting inside origIp.
+                IpAddress firstExcluded = excluded.ceiling(new IpAddress(origIp.firstHigh, origIp.firstLow,
+                        origIp.getMaxMask(), false, origIp.isV4));
+                if (firstExcluded != null && origIp.containsNet(firstExcluded))
                     continue;
 
                 // It is safe to include the IP
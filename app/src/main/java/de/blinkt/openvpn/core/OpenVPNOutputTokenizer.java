@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import android.annotation.SuppressLint;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import static de.blinkt.openvpn.core.OpenVPNThread.M_DEBUG;
+import static de.blinkt.openvpn.core.OpenVPNThread.M_FATAL;
+import static de.blinkt.openvpn.core.OpenVPNThread.M_NONFATAL;
+import static de.blinkt.openvpn.core.OpenVPNThread.M_WARN;
+
+/**
+ * Splits the output of the openvpn binary into lines and tokenizes the machine readable log
+ * format {TIMESTAMP} {FLAGS} {MESSAGE}, e.g.
+ * 1380308330.240114 18000002 Send to HTTP proxy: 'X-Online-Host: bla.blabla.com'
+ *
+ * Input is read into a single reusable char buffer, Strings are only created for the lines
+ * handed to the listener.
+ */
+public class OpenVPNOutputTokenizer {
+
+    private static final int INITIAL_CAPACITY = 2048;
+
+    private static final String DUMP_PATH_STRING = "Dump path: ";
+    @SuppressLint("SdCardPath")
+    private static final String BROKEN_PIE_SUPPORT = "/data/data/de.blinkt.openvpn/cache/pievpn";
+    private final static String BROKEN_PIE_SUPPORT2 = "syntax error";
+    private static final String MANAGEMENT_COMMAND = "MANAGEMENT: CMD";
+
+    public interface Listener {
+        /** a line in the machine readable log format */
+        void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message);
+
+        /** any other line */
+        void onOtherLine(String line);
+
+        /** path of a minidump written by openvpn */
+        void onDumpPath(String path);
+
+        /** the binary failed because the device does not support position independent executables */
+        void onBrokenPie();
+    }
+
+    private final Listener listener;
+    private char[] buffer = new char[INITIAL_CAPACITY];
+    // unprocessed input is buffer[start, end)
+    private int start;
+    private int end;
+    // position up to which buffer[start, end) has already been searched for a line break
+    private int scanned;
+    // the last line ended with \r, a directly following \n belongs to it
+    private boolean skipLineFeed;
+
+    public OpenVPNOutputTokenizer(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the next chunk of input into the buffer without dispatching it.
+     * @return the number of chars read or -1 if the end of the stream has been reached
+     */
+    public int read(Reader reader) throws IOException {
+        ensureCapacity();
+        int read = reader.read(buffer, end, buffer.length - end);
+        if (read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    /**
+     * Appends input to the buffer and dispatches all complete lines.
+     */
+    public void feed(char[] input, int offset, int length) {
+        while (length > 0) {
+            ensureCapacity();
+            int count = Math.min(length, buffer.length - end);
+            System.arraycopy(input, offset, buffer, end, count);
+            end += count;
+            offset += count;
+            length -= count;
+            processLines();
+        }
+    }
+
+    /**
+     * Dispatches all complete lines in the buffer. Lines end with \n, \r or \r\n, an incomplete
+     * last line stays buffered until its line break arrives.
+     */
+    public void processLines() {
+        for (int i = scanned; i < end; i++) {
+            char c = buffer[i];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    start = i + 1;
+                    continue;
+                }
+            }
+            if (c != '\n' && c != '\r') {
+                continue;
+            }
+            int lineStart = start;
+            start = i + 1;
+            skipLineFeed = c == '\r';
+            dispatch(buffer, lineStart, i);
+        }
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+        scanned = end;
+    }
+
+    /**
+     * Dispatches a last line that is not terminated by a line break.
+     */
+    public void finish() {
+        processLines();
+        if (start < end) {
+            int lineStart = start;
+            int lineEnd = end;
+            start = 0;
+            end = 0;
+            scanned = 0;
+            dispatch(buffer, lineStart, lineEnd);
+        }
+    }
+
+    private void dispatch(char[] line, int from, int to) {
+        if (startsWith(line, from, to, DUMP_PATH_STRING)) {
+            listener.onDumpPath(new String(line, from + DUMP_PATH_STRING.length(), to - from - DUMP_PATH_STRING.length()));
+        }
+        if (startsWith(line, from, to, BROKEN_PIE_SUPPORT) || indexOf(line, from, to, BROKEN_PIE_SUPPORT2) >= 0) {
+            listener.onBrokenPie();
+        }
+        if (!dispatchLogMessage(line, from, to)) {
+            listener.onOtherLine(new String(line, from, to - from));
+        }
+    }
+
+    /**
+     * @return false if the line is not in the machine readable log format
+     */
+    private boolean dispatchLogMessage(char[] line, int from, int to) {
+        // {SECONDS}.{MICROSECONDS}
+        int timestampEnd = indexOf(line, from, to, ' ');
+        if (timestampEnd < 0 || !isTimestamp(line, from, timestampEnd)) {
+            return false;
+        }
+
+        int flagsStart = timestampEnd + 1;
+        int flags = 0;
+        int i = flagsStart;
+        for (; i < to; i++) {
+            // openvpn prints the flags in lower case
+            char c = line[i];
+            int digit;
+            if (c >= '0' && c <= '9')
+                digit = c - '0';
+            else if (c >= 'a' && c <= 'f')
+                digit = c - 'a' + 10;
+            else
+                break;
+            flags = (flags << 4) | digit;
+        }
+        if (i == flagsStart || i == to || line[i] != ' ') {
+            return false;
+        }
+        int messageStart = i + 1;
+
+        int logLevel = flags & 0x0F;
+        if (startsWith(line, messageStart, to, MANAGEMENT_COMMAND)) {
+            logLevel = Math.max(4, logLevel);
+        }
+
+        VpnStatus.LogLevel logStatus = VpnStatus.LogLevel.INFO;
+        if ((flags & M_FATAL) != 0)
+            logStatus = VpnStatus.LogLevel.ERROR;
+        else if ((flags & M_NONFATAL) != 0)
+            logStatus = VpnStatus.LogLevel.WARNING;
+        else if ((flags & M_WARN) != 0)
+            logStatus = VpnStatus.LogLevel.WARNING;
+        else if ((flags & M_DEBUG) != 0)
+            logStatus = VpnStatus.LogLevel.VERBOSE;
+
+        listener.onLogMessage(logStatus, logLevel, new String(line, messageStart, to - messageStart));
+        return true;
+    }
+
+    /**
+     * Digits with a single separator that is neither the first nor the last char, like the
+     * former pattern (\d+).(\d+)
+     */
+    private static boolean isTimestamp(char[] line, int from, int to) {
+        if (to - from < 3) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            char c = line[i];
+            if (c >= '0' && c <= '9') {
+                continue;
+            }
+            if (i == from || i == to - 1) {
+                return false;
+            }
+            for (int j = i + 1; j < to; j++) {
+                if (line[j] < '0' || line[j] > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return true;
+    }
+
+    private void ensureCapacity() {
+        if (end < buffer.length) {
+            return;
+        }
+        int pending = end - start;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, pending);
+        } else {
+            // a single line fills the whole buffer
+            char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, pending);
+            buffer = grown;
+        }
+        scanned -= start;
+        start = 0;
+        end = pending;
+    }
+
+    static boolean startsWith(char[] line, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[from + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int indexOf(char[] line, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (line[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int indexOf(char[] line, int from, int to, String s) {
+        for (int i = from; i <= to - s.length(); i++) {
+            if (startsWith(line, i, to, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
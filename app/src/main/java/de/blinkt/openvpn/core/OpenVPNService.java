@@ -22,6 +22,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.Log;
@@ -29,6 +30,7 @@ import android.widget.Toast;
 
 import androidx.annotation.RequiresApi;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.Inet6Address;
@@ -66,6 +68,9 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     public final static String ORBOT_PACKAGE_NAME = "org.torproject.android";
     private static final String PAUSE_VPN = "de.blinkt.openvpn.PAUSE_VPN";
     private static final String RESUME_VPN = "se.leap.bitmaskclient.RESUME_VPN";
+    private static final String TRAFFIC_ROLLUP_FILE = "trafficrollup.dat";
+    // the notification is updated at most this often with the byte count
+    private static final long NOTIFICATION_BYTECOUNT_INTERVAL = 4000;
     private static boolean mNotificationAlwaysVisible = false;
     private final Vector<String> mDnslist = new Vector<>();
     private final NetworkSpace mRoutes = new NetworkSpace();
@@ -77,7 +82,11 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
     private int mMtu;
     private String mLocalIPv6 = null;
     private DeviceStateReceiver mDeviceStateReceiver;
-    private boolean mDisplayBytecount = false;
+    private volatile boolean mDisplayBytecount = false;
+    // byte count line of the current notification, to skip rebuilding it for the same text
+    private volatile String mLastBytecountText;
+    // elapsed realtime of the last byte count, 0 before the first one
+    private volatile long mLastBytecountTime;
     private boolean mStarting = false;
     private long mConnecttime;
     private OpenVPNManagement mManagement;
@@ -183,6 +192,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
             mProcessThread = null;
         }
         VpnStatus.removeByteCountListener(this);
+        mLastBytecountTime = 0;
         unregisterDeviceStateReceiver();
         mOpenVPNThread = null;
         if (!mStarting) {
@@ -203,6 +213,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         filter.addAction(Intent.ACTION_SCREEN_OFF);
         filter.addAction(Intent.ACTION_SCREEN_ON);
         mDeviceStateReceiver = new DeviceStateReceiver(magnagement);
+        mDeviceStateReceiver.observePreferences(this);
 
         // Fetch initial network state
         mDeviceStateReceiver.networkStateChange(this);
@@ -216,6 +227,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         if (mDeviceStateReceiver != null)
             try {
                 VpnStatus.removeByteCountListener(mDeviceStateReceiver);
+                mDeviceStateReceiver.stopObservingPreferences(this);
                 this.unregisterReceiver(mDeviceStateReceiver);
             } catch (IllegalArgumentException iae) {
                 // I don't know why  this happens:
@@ -281,7 +293,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
             mNotificationAlwaysVisible = true;
 
         VpnStatus.addStateListener(this);
-        VpnStatus.addByteCountListener(this);
+        VpnStatus.addByteCountListener(this, NOTIFICATION_BYTECOUNT_INTERVAL);
 
         guiHandler = new Handler(getMainLooper());
 
@@ -519,6 +531,18 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         super.onCreate();
         notificationManager = new VpnNotificationManager(this);
         firewallManager = new FirewallManager(this, true);
+        openTrafficRollup();
+    }
+
+    private void openTrafficRollup() {
+        TrafficHistory trafficHistory = VpnStatus.trafficHistory;
+        if (trafficHistory.getRollup() != null)
+            return;
+        try {
+            trafficHistory.setRollup(TrafficRollup.open(new File(getFilesDir(), TRAFFIC_ROLLUP_FILE)));
+        } catch (IOException e) {
+            VpnStatus.logException("Could not open traffic statistics", e);
+        }
     }
 
     @Override
@@ -534,7 +558,11 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         }
         // Just in case unregister for state
         VpnStatus.removeStateListener(this);
+        VpnStatus.logDebug(VpnStatus.getByteCountDispatcher().getStatistics());
         VpnStatus.flushLog();
+        TrafficRollup trafficRollup = VpnStatus.trafficHistory.getRollup();
+        if (trafficRollup != null)
+            trafficRollup.flush();
         firewallManager.onDestroy();
         notificationManager.cancelAll();
     }
@@ -1012,6 +1040,7 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
         } else {
             mDisplayBytecount = false;
         }
+        mLastBytecountText = null;
 
         notificationManager.buildOpenVpnNotification(
                 mProfile != null ? mProfile.mName : "",
@@ -1038,12 +1067,24 @@ public class OpenVPNService extends VpnService implements StateListener, Callbac
 
     @Override
     public void updateByteCount(long in, long out, long diffIn, long diffOut) {
+        // the differences of several byte counts are merged while the notification is not updated,
+        // so the speed is computed from the time since the last update. The first one only starts
+        // the clock.
+        long now = SystemClock.elapsedRealtime();
+        long lastBytecountTime = mLastBytecountTime;
+        mLastBytecountTime = now;
+        if (lastBytecountTime == 0 || now <= lastBytecountTime)
+            return;
+        long millis = now - lastBytecountTime;
         if (mDisplayBytecount) {
             String netstat = String.format(getString(R.string.statusline_bytecount),
                     humanReadableByteCount(in, false, getResources()),
-                    humanReadableByteCount(diffIn / OpenVPNManagement.mBytecountInterval, true, getResources()),
+                    humanReadableByteCount(diffIn * 1000 / millis, true, getResources()),
                     humanReadableByteCount(out, false, getResources()),
-                    humanReadableByteCount(diffOut / OpenVPNManagement.mBytecountInterval, true, getResources()));
+                    humanReadableByteCount(diffOut * 1000 / millis, true, getResources()));
+            if (netstat.equals(mLastBytecountText))
+                return;
+            mLastBytecountText = netstat;
             notificationManager.buildOpenVpnNotification(
                     mProfile != null ? mProfile.mName : "",
                     mProfile != null && mProfile.mUsePluggableTransports,
@@ -19,7 +19,15 @@ import android.util.Pair;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by arne on 08.11.16.
@@ -36,6 +44,16 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
     static final RemoteCallbackList<IStatusCallbacks> mCallbacks =
             new RemoteCallbackList<>();
 
+    // grows with the number of clients streaming the log at once, idle threads end after a minute
+    private static final ExecutorService logStreamExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pushLogs");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -62,49 +80,39 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
         @Override
         public ParcelFileDescriptor registerStatusCallback(IStatusCallbacks cb) throws RemoteException {
             final LogItem[] logbuffer = VpnStatus.getlogbuffer();
-            if (mLastUpdateMessage != null)
-                sendUpdate(cb, mLastUpdateMessage);
-
-            mCallbacks.register(cb);
-            try {
-                final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
-                new Thread("pushLogs") {
-                    @Override
-                    public void run() {
-                        DataOutputStream fd = new DataOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]));
-                        try {
-                            synchronized (VpnStatus.readFileLock) {
-                                if (!VpnStatus.readFileLog) {
-                                    VpnStatus.readFileLock.wait();
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            VpnStatus.logException(e);
-                        }
+            return registerAndStreamLog(cb, new LogStreamTask() {
+                @Override
+                public void writeLog(OutputStream out) throws IOException {
+                    // the former format: a short length prefix per item and no resumption
+                    DataOutputStream fd = new DataOutputStream(out);
+                    ByteBuffer marshaled = ByteBuffer.allocate(16384);
+                    for (LogItem logItem : logbuffer) {
+                        marshaled.clear();
                         try {
-
-                            for (LogItem logItem : logbuffer) {
-                                byte[] bytes = logItem.getMarschaledBytes();
-                                fd.writeShort(bytes.length);
-                                fd.write(bytes);
-                            }
-                            // Mark end
-                            fd.writeShort(0x7fff);
-                            fd.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                            logItem.marschal(marshaled);
+                        } catch (BufferOverflowException | UnsupportedEncodingException e) {
+                            continue;
                         }
-
+                        fd.writeShort(marshaled.position());
+                        fd.write(marshaled.array(), 0, marshaled.position());
                     }
-                }.start();
-                return pipe[0];
-            } catch (IOException e) {
-                e.printStackTrace();
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                    throw new RemoteException(e.getMessage());
+                    // Mark end
+                    fd.writeShort(0x7fff);
                 }
-                return null;
-            }
+            });
+        }
+
+        @Override
+        public ParcelFileDescriptor registerStatusCallbackSince(IStatusCallbacks cb, long sequence) throws RemoteException {
+            // like the full log, taken before registering so no item is sent twice
+            final ArrayList<LogItem> items = new ArrayList<>();
+            final long nextSequence = VpnStatus.getLogItemsSince(sequence, items);
+            return registerAndStreamLog(cb, new LogStreamTask() {
+                @Override
+                public void writeLog(OutputStream out) throws IOException {
+                    new LogStreamWriter(out).write(items, nextSequence);
+                }
+            });
         }
 
         @Override
@@ -129,6 +137,58 @@ public class OpenVPNStatusService extends Service implements VpnStatus.LogListen
 
     };
 
+    private interface LogStreamTask {
+        void writeLog(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Registers cb and writes the log to a pipe on the shared log stream executor. Writing blocks
+     * while the pipe is full, but the executor starts a new thread whenever all are busy, so a
+     * client that doesn't read only holds up its own writer.
+     */
+    private static ParcelFileDescriptor registerAndStreamLog(IStatusCallbacks cb, final LogStreamTask task) throws RemoteException {
+        if (mLastUpdateMessage != null)
+            sendUpdate(cb, mLastUpdateMessage);
+
+        mCallbacks.register(cb);
+        try {
+            final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+            logStreamExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+                    try {
+                        synchronized (VpnStatus.readFileLock) {
+                            if (!VpnStatus.readFileLog) {
+                                VpnStatus.readFileLock.wait();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        VpnStatus.logException(e);
+                    }
+                    try {
+                        task.writeLog(out);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        try {
+                            out.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+            return pipe[0];
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+                throw new RemoteException(e.getMessage());
+            }
+            return null;
+        }
+    }
+
     @Override
     public void newLog(LogItem logItem) {
         Message msg = mHandler.obtainMessage(SEND_NEW_LOGITEM, logItem);
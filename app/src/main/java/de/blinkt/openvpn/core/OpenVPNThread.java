@@ -5,10 +5,8 @@
 
 package de.blinkt.openvpn.core;
 
-import android.annotation.SuppressLint;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -19,16 +17,10 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import se.leap.bitmaskclient.R;
 
 public class OpenVPNThread implements Runnable {
-    private static final String DUMP_PATH_STRING = "Dump path: ";
-    @SuppressLint("SdCardPath")
-    private static final String BROKEN_PIE_SUPPORT = "/data/data/de.blinkt.openvpn/cache/pievpn";
-    private final static String BROKEN_PIE_SUPPORT2 = "syntax error";
     private static final String TAG = "OpenVPN";
     public static final int M_FATAL = (1 << 4);
     public static final int M_NONFATAL = (1 << 5);
@@ -43,6 +35,30 @@ public class OpenVPNThread implements Runnable {
     private boolean mBrokenPie = false;
     private boolean mNoProcessExitStatus = false;
 
+    private final OpenVPNOutputTokenizer.Listener mOutputListener = new OpenVPNOutputTokenizer.Listener() {
+        @Override
+        public void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            VpnStatus.logMessageOpenVPN(level, ovpnLevel, message);
+            if ((message.endsWith("md too weak") && message.startsWith("OpenSSL: error")) || message.contains("error:140AB18E"))
+                VpnStatus.logError("OpenSSL reported a certificate with a weak hash, please the in app FAQ about weak hashes");
+        }
+
+        @Override
+        public void onOtherLine(String line) {
+            VpnStatus.logInfo("P:" + line);
+        }
+
+        @Override
+        public void onDumpPath(String path) {
+            mDumpPath = path;
+        }
+
+        @Override
+        public void onBrokenPie() {
+            mBrokenPie = true;
+        }
+    };
+
     public OpenVPNThread(OpenVPNService service, String[] argv, String nativelibdir, String tmpdir) {
         mArgv = argv;
         mNativeDir = nativelibdir;
@@ -138,59 +154,17 @@ public class OpenVPNThread implements Runnable {
             // Close the output, since we don't need it
             mProcess.getOutputStream().close();
             InputStream in = mProcess.getInputStream();
-            BufferedReader br = new BufferedReader(new InputStreamReader(in));
-
-            while (true) {
-                String logline = br.readLine();
-                if (logline == null)
-                    return;
-
-                if (logline.startsWith(DUMP_PATH_STRING))
-                    mDumpPath = logline.substring(DUMP_PATH_STRING.length());
+            InputStreamReader reader = new InputStreamReader(in);
+            OpenVPNOutputTokenizer tokenizer = new OpenVPNOutputTokenizer(mOutputListener);
 
-                if (logline.startsWith(BROKEN_PIE_SUPPORT) || logline.contains(BROKEN_PIE_SUPPORT2))
-                    mBrokenPie = true;
-
-
-                // 1380308330.240114 18000002 Send to HTTP proxy: 'X-Online-Host: bla.blabla.com'
-
-                Pattern p = Pattern.compile("(\\d+).(\\d+) ([0-9a-f])+ (.*)");
-                Matcher m = p.matcher(logline);
-                int logerror = 0;
-                if (m.matches()) {
-                    int flags = Integer.parseInt(m.group(3), 16);
-                    String msg = m.group(4);
-                    int logLevel = flags & 0x0F;
-
-                    VpnStatus.LogLevel logStatus = VpnStatus.LogLevel.INFO;
-
-                    if ((flags & M_FATAL) != 0)
-                        logStatus = VpnStatus.LogLevel.ERROR;
-                    else if ((flags & M_NONFATAL) != 0)
-                        logStatus = VpnStatus.LogLevel.WARNING;
-                    else if ((flags & M_WARN) != 0)
-                        logStatus = VpnStatus.LogLevel.WARNING;
-                    else if ((flags & M_DEBUG) != 0)
-                        logStatus = VpnStatus.LogLevel.VERBOSE;
-
-                    if (msg.startsWith("MANAGEMENT: CMD"))
-                        logLevel = Math.max(4, logLevel);
-
-                    if ((msg.endsWith("md too weak") && msg.startsWith("OpenSSL: error")) || msg.contains("error:140AB18E"))
-                        logerror = 1;
-
-                    VpnStatus.logMessageOpenVPN(logStatus, logLevel, msg);
-                    if (logerror==1)
-                        VpnStatus.logError("OpenSSL reported a certificate with a weak hash, please the in app FAQ about weak hashes");
-
-                } else {
-                    VpnStatus.logInfo("P:" + logline);
-                }
+            while (tokenizer.read(reader) != -1) {
+                tokenizer.processLines();
 
                 if (Thread.interrupted()) {
                     throw new InterruptedException("OpenVpn process was killed form java code");
                 }
             }
+            tokenizer.finish();
         } catch (InterruptedException | IOException e) {
             VpnStatus.logException("Error reading from output of OpenVPN process", e);
             stopProcess();
@@ -91,6 +91,38 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
             VpnStatus.logWarning("Orbot integration for external applications is disabled. Waiting %ds before connecting to the default port. Enable external app integration in Orbot or use Socks v5 config instead of Orbot to avoid this delay.");
         }
     };
+    private final ManagementLineFramer.Listener mManagementListener = new ManagementLineFramer.Listener() {
+        @Override
+        public void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            processLogMessage(level, ovpnLevel, message);
+        }
+
+        @Override
+        public void onState(String state, String details) {
+            if (!mShuttingDown)
+                VpnStatus.updateStateString(state, details);
+        }
+
+        @Override
+        public void onByteCount(long in, long out) {
+            VpnStatus.updateByteCount(in, out);
+        }
+
+        @Override
+        public void onPassword(String argument) {
+            processPWCommand(argument);
+        }
+
+        @Override
+        public void onNeedOk(String argument) {
+            processNeedCommand(argument);
+        }
+
+        @Override
+        public void onCommand(String command) {
+            processCommand(command);
+        }
+    };
     private transient Connection mCurrentProxyConnection;
 
     public OpenVpnManagementThread(VpnProfile profile, OpenVPNService openVpnService) {
@@ -171,10 +203,9 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
     @Override
     public void run() {
-        byte[] buffer = new byte[2048];
+        ManagementLineFramer framer = new ManagementLineFramer(mManagementListener);
         //	mSocket.setSoTimeout(5); // Setting a timeout cannot be that bad
 
-        String pendingInput = "";
         synchronized (active) {
             active.add(this);
         }
@@ -198,7 +229,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
 
             while (true) {
 
-                int numbytesread = instream.read(buffer);
+                int numbytesread = framer.read(instream);
                 if (numbytesread == -1)
                     return;
 
@@ -212,13 +243,7 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
                     Collections.addAll(mFDList, fds);
                 }
 
-                String input = new String(buffer, 0, numbytesread, "UTF-8");
-
-                pendingInput += input;
-
-                pendingInput = processInput(pendingInput);
-
-
+                framer.processLines();
             }
         } catch (IOException e) {
             if (!e.getMessage().equals("socket closed") && !e.getMessage().equals("Connection reset by peer"))
@@ -267,21 +292,6 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private String processInput(String pendingInput) {
-
-
-        while (pendingInput.contains("\n")) {
-            String[] tokens = pendingInput.split("\\r?\\n", 2);
-            processCommand(tokens[0]);
-            if (tokens.length == 1)
-                // No second part, newline was at the end
-                pendingInput = "";
-            else
-                pendingInput = tokens[1];
-        }
-        return pendingInput;
-    }
-
     private void processCommand(String command) {
         //Log.i(TAG, "Line from managment" + command);
 
@@ -295,28 +305,12 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
                 case "INFO":
                 /* Ignore greeting from management */
                     return;
-                case "PASSWORD":
-                    processPWCommand(argument);
-                    break;
                 case "HOLD":
                     handleHold(argument);
                     break;
-                case "NEED-OK":
-                    processNeedCommand(argument);
-                    break;
-                case "BYTECOUNT":
-                    processByteCount(argument);
-                    break;
-                case "STATE":
-                    if (!mShuttingDown)
-                        processState(argument);
-                    break;
                 case "PROXY":
                     processProxyCMD(argument);
                     break;
-                case "LOG":
-                    processLogMessage(argument);
-                    break;
                 case "PK_SIGN":
                     processSignCommand(argument);
                     break;
@@ -349,43 +343,8 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private void processLogMessage(String argument) {
-        String[] args = argument.split(",", 4);
-        // 0 unix time stamp
-        // 1 log level N,I,E etc.
-                /*
-                  (b) zero or more message flags in a single string:
-          I -- informational
-          F -- fatal error
-          N -- non-fatal error
-          W -- warning
-          D -- debug, and
-                 */
-        // 2 log message
-
-        Log.d("OpenVPN", argument);
-
-        VpnStatus.LogLevel level;
-        switch (args[1]) {
-            case "I":
-                level = VpnStatus.LogLevel.INFO;
-                break;
-            case "W":
-                level = VpnStatus.LogLevel.WARNING;
-                break;
-            case "D":
-                level = VpnStatus.LogLevel.VERBOSE;
-                break;
-            case "F":
-                level = VpnStatus.LogLevel.ERROR;
-                break;
-            default:
-                level = VpnStatus.LogLevel.INFO;
-                break;
-        }
-
-        int ovpnlevel = Integer.parseInt(args[2]) & 0x0F;
-        String msg = args[3];
+    private void processLogMessage(VpnStatus.LogLevel level, int ovpnlevel, String msg) {
+        Log.d("OpenVPN", msg);
 
         if (msg.startsWith("MANAGEMENT: CMD"))
             ovpnlevel = Math.max(4, ovpnlevel);
@@ -511,26 +470,6 @@ public class OpenVpnManagementThread implements Runnable, OpenVPNManagement {
         }
     }
 
-    private void processState(String argument) {
-        String[] args = argument.split(",", 3);
-        String currentstate = args[1];
-
-        if (args[2].equals(",,"))
-            VpnStatus.updateStateString(currentstate, "");
-        else
-            VpnStatus.updateStateString(currentstate, args[2]);
-    }
-
-    private void processByteCount(String argument) {
-        //   >BYTECOUNT:{BYTES_IN},{BYTES_OUT}
-        int comma = argument.indexOf(',');
-        long in = Long.parseLong(argument.substring(0, comma));
-        long out = Long.parseLong(argument.substring(comma + 1));
-
-        VpnStatus.updateByteCount(in, out);
-
-    }
-
     private void processNeedCommand(String argument) {
         int p1 = argument.indexOf('\'');
         int p2 = argument.indexOf('\'', p1 + 1);
@@ -8,9 +8,9 @@ package de.blinkt.openvpn.core;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.util.HashSet;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
-import java.util.Vector;
 
 import static java.lang.Math.max;
 
@@ -23,23 +23,24 @@ public class TrafficHistory implements Parcelable {
     public static final long PERIODS_TO_KEEP = 5;
     public static final int TIME_PERIOD_MINTUES = 60 * 1000;
     public static final int TIME_PERIOD_HOURS = 3600 * 1000;
-    private LinkedList<TrafficDatapoint> trafficHistorySeconds = new LinkedList<>();
-    private LinkedList<TrafficDatapoint> trafficHistoryMinutes = new LinkedList<>();
-    private LinkedList<TrafficDatapoint> trafficHistoryHours = new LinkedList<>();
+    public static final int TIME_PERIOD_DAYS = 24 * 3600 * 1000;
+    private static final int SNAPSHOT_VERSION = 1;
 
-    private TrafficDatapoint lastSecondUsedForMinute;
-    private TrafficDatapoint lastMinuteUsedForHours;
+    private final TrafficRing trafficHistorySeconds = new TrafficRing();
+    private final TrafficRing trafficHistoryMinutes = new TrafficRing();
+    private final TrafficRing trafficHistoryHours = new TrafficRing();
+
+    private long lastSecondUsedForMinute;
+    private long lastMinuteUsedForHours;
+
+    private volatile TrafficRollup rollup;
 
     public TrafficHistory() {
 
     }
 
     protected TrafficHistory(Parcel in) {
-        in.readList(trafficHistorySeconds, getClass().getClassLoader());
-        in.readList(trafficHistoryMinutes, getClass().getClassLoader());
-        in.readList(trafficHistoryHours, getClass().getClassLoader());
-        lastSecondUsedForMinute = in.readParcelable(getClass().getClassLoader());
-        lastMinuteUsedForHours = in.readParcelable(getClass().getClassLoader());
+        readSnapshot(in.createByteArray());
     }
 
     public static final Creator<TrafficHistory> CREATOR = new Creator<TrafficHistory>() {
@@ -54,28 +55,29 @@ public class TrafficHistory implements Parcelable {
         }
     };
 
+    /**
+     * Compares the newest data point with the given byte counts. Without byte counts only the
+     * newest data point is returned without a difference.
+     */
     public LastDiff getLastDiff(TrafficDatapoint tdp) {
+        if (tdp == null)
+            return getLastDiff();
 
-        TrafficDatapoint lasttdp;
+        if (trafficHistorySeconds.size() == 0)
+            return new LastDiff(0, 0, tdp.in, tdp.out);
 
+        int last = trafficHistorySeconds.size() - 1;
+        return new LastDiff(trafficHistorySeconds.getIn(last), trafficHistorySeconds.getOut(last), tdp.in, tdp.out);
+    }
 
+    private LastDiff getLastDiff() {
         if (trafficHistorySeconds.size() == 0)
-            lasttdp = new TrafficDatapoint(0, 0, System.currentTimeMillis());
-
-        else
-            lasttdp = trafficHistorySeconds.getLast();
-
-        if (tdp == null) {
-            tdp = lasttdp;
-            if (trafficHistorySeconds.size() < 2)
-                lasttdp = tdp;
-            else {
-                trafficHistorySeconds.descendingIterator().next();
-                tdp = trafficHistorySeconds.descendingIterator().next();
-            }
-        }
+            return new LastDiff(0, 0, 0, 0);
 
-        return new LastDiff(lasttdp, tdp);
+        int last = trafficHistorySeconds.size() - 1;
+        long in = trafficHistorySeconds.getIn(last);
+        long out = trafficHistorySeconds.getOut(last);
+        return new LastDiff(in, out, in, out);
     }
 
     @Override
@@ -85,24 +87,66 @@ public class TrafficHistory implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeList(trafficHistorySeconds);
-        dest.writeList(trafficHistoryMinutes);
-        dest.writeList(trafficHistoryHours);
-        dest.writeParcelable(lastSecondUsedForMinute, 0);
-        dest.writeParcelable(lastMinuteUsedForHours, 0);
+        dest.writeByteArray(getSnapshot());
+    }
 
+    /**
+     * @return all data points and the state of the rollup from seconds to minutes and hours in a
+     * compact binary form
+     */
+    byte[] getSnapshot() {
+        int entries = trafficHistorySeconds.size() + trafficHistoryMinutes.size() + trafficHistoryHours.size();
+        ByteBuffer snapshot = ByteBuffer.allocate(4 + 2 * 8 + 3 * 4 + entries * TrafficRing.ENTRY_BYTES);
+        snapshot.putInt(SNAPSHOT_VERSION);
+        snapshot.putLong(lastSecondUsedForMinute);
+        snapshot.putLong(lastMinuteUsedForHours);
+        trafficHistorySeconds.writeTo(snapshot);
+        trafficHistoryMinutes.writeTo(snapshot);
+        trafficHistoryHours.writeTo(snapshot);
+        return snapshot.array();
+    }
+
+    /**
+     * Replaces the data points with the ones of a snapshot created by {@link #getSnapshot()}.
+     * An unknown or truncated snapshot leaves the history empty.
+     */
+    void readSnapshot(byte[] bytes) {
+        trafficHistorySeconds.clear();
+        trafficHistoryMinutes.clear();
+        trafficHistoryHours.clear();
+        lastSecondUsedForMinute = 0;
+        lastMinuteUsedForHours = 0;
+        if (bytes == null)
+            return;
+
+        ByteBuffer snapshot = ByteBuffer.wrap(bytes);
+        try {
+            if (snapshot.getInt() != SNAPSHOT_VERSION)
+                return;
+            long lastSecond = snapshot.getLong();
+            long lastMinute = snapshot.getLong();
+            trafficHistorySeconds.readFrom(snapshot);
+            trafficHistoryMinutes.readFrom(snapshot);
+            trafficHistoryHours.readFrom(snapshot);
+            lastSecondUsedForMinute = lastSecond;
+            lastMinuteUsedForHours = lastMinute;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            trafficHistorySeconds.clear();
+            trafficHistoryMinutes.clear();
+            trafficHistoryHours.clear();
+        }
     }
 
     public LinkedList<TrafficDatapoint> getHours() {
-        return trafficHistoryHours;
+        return trafficHistoryHours.toList();
     }
 
     public LinkedList<TrafficDatapoint> getMinutes() {
-        return trafficHistoryMinutes;
+        return trafficHistoryMinutes.toList();
     }
 
     public LinkedList<TrafficDatapoint> getSeconds() {
-        return trafficHistorySeconds;
+        return trafficHistorySeconds.toList();
     }
 
     public static LinkedList<TrafficDatapoint> getDummyList() {
@@ -111,9 +155,20 @@ public class TrafficHistory implements Parcelable {
         return list;
     }
 
+    /**
+     * Additionally sums up the traffic per day and week in rollup, null disables it.
+     */
+    public void setRollup(TrafficRollup rollup) {
+        this.rollup = rollup;
+    }
+
+    public TrafficRollup getRollup() {
+        return rollup;
+    }
+
 
     public static class TrafficDatapoint implements Parcelable {
-        private TrafficDatapoint(long inBytes, long outBytes, long timestamp) {
+        TrafficDatapoint(long inBytes, long outBytes, long timestamp) {
             this.in = inBytes;
             this.out = outBytes;
             this.timestamp = timestamp;
@@ -155,89 +210,175 @@ public class TrafficHistory implements Parcelable {
     }
 
     LastDiff add(long in, long out) {
-        TrafficDatapoint tdp = new TrafficDatapoint(in, out, System.currentTimeMillis());
+        return add(in, out, System.currentTimeMillis());
+    }
 
-        LastDiff diff = getLastDiff(tdp);
-        addDataPoint(tdp);
+    LastDiff add(long in, long out, long timestamp) {
+        int last = trafficHistorySeconds.size() - 1;
+        long lastIn = last < 0 ? 0 : trafficHistorySeconds.getIn(last);
+        long lastOut = last < 0 ? 0 : trafficHistorySeconds.getOut(last);
+        LastDiff diff = new LastDiff(lastIn, lastOut, in, out);
+
+        TrafficRollup rollup = this.rollup;
+        if (rollup != null) {
+            // the counters start again at 0 when openvpn is restarted
+            rollup.add(timestamp, in >= lastIn ? in - lastIn : in, out >= lastOut ? out - lastOut : out);
+        }
+
+        addDataPoint(timestamp, in, out);
         return diff;
     }
 
-    private void addDataPoint(TrafficDatapoint tdp) {
-        trafficHistorySeconds.add(tdp);
+    private void addDataPoint(long timestamp, long in, long out) {
+        trafficHistorySeconds.add(timestamp, in, out);
 
-        if (lastSecondUsedForMinute == null) {
-            lastSecondUsedForMinute = new TrafficDatapoint(0, 0, 0);
-            lastMinuteUsedForHours = new TrafficDatapoint(0, 0, 0);
-        }
+        if (timestamp / TIME_PERIOD_MINTUES > lastSecondUsedForMinute / TIME_PERIOD_MINTUES) {
+            trafficHistoryMinutes.add(timestamp, in, out);
+            lastSecondUsedForMinute = timestamp;
 
-        removeAndAverage(tdp, true);
+            if (timestamp / TIME_PERIOD_HOURS > lastMinuteUsedForHours / TIME_PERIOD_HOURS) {
+                trafficHistoryHours.add(timestamp, in, out);
+                lastMinuteUsedForHours = timestamp;
+                trafficHistoryMinutes.removeOlderThan(timestamp, TIME_PERIOD_HOURS);
+                trafficHistoryHours.removeOlderThan(timestamp, TIME_PERIOD_DAYS);
+            }
+            trafficHistorySeconds.removeOlderThan(timestamp, TIME_PERIOD_MINTUES);
+        }
     }
 
-    private void removeAndAverage(TrafficDatapoint newTdp, boolean seconds) {
-        HashSet<TrafficDatapoint> toRemove = new HashSet<>();
-        Vector<TrafficDatapoint> toAverage = new Vector<>();
+    /**
+     * Circular store of data points in a single long[], oldest first. Appending and expiring
+     * the oldest data points are O(1), the array only grows if more data points are kept than
+     * fit into it.
+     */
+    static class TrafficRing {
+        private static final int INITIAL_CAPACITY = 64;
+        // timestamp, in and out of every data point
+        private static final int LONGS_PER_ENTRY = 3;
+        static final int ENTRY_BYTES = LONGS_PER_ENTRY * 8;
+
+        private long[] data = new long[INITIAL_CAPACITY * LONGS_PER_ENTRY];
+        // index of the oldest data point
+        private int head;
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        long getTimestamp(int i) {
+            return data[offset(i)];
+        }
+
+        long getIn(int i) {
+            return data[offset(i) + 1];
+        }
 
-        long timePeriod;
-        LinkedList<TrafficDatapoint> tpList, nextList;
-        TrafficDatapoint lastTsPeriod;
+        long getOut(int i) {
+            return data[offset(i) + 2];
+        }
 
-        if (seconds) {
-            timePeriod = TIME_PERIOD_MINTUES;
-            tpList = trafficHistorySeconds;
-            nextList = trafficHistoryMinutes;
-            lastTsPeriod = lastSecondUsedForMinute;
-        } else {
-            timePeriod = TIME_PERIOD_HOURS;
-            tpList = trafficHistoryMinutes;
-            nextList = trafficHistoryHours;
-            lastTsPeriod = lastMinuteUsedForHours;
+        void add(long timestamp, long in, long out) {
+            if (size == capacity())
+                grow();
+            int offset = offset(size);
+            data[offset] = timestamp;
+            data[offset + 1] = in;
+            data[offset + 2] = out;
+            size++;
+        }
+
+        /**
+         * Removes the oldest data points that are at least PERIODS_TO_KEEP periods older than
+         * timestamp.
+         */
+        void removeOlderThan(long timestamp, long period) {
+            while (size > 0 && (timestamp - getTimestamp(0)) / period >= PERIODS_TO_KEEP) {
+                head = (head + 1) % capacity();
+                size--;
+            }
         }
 
-        if (newTdp.timestamp / timePeriod > (lastTsPeriod.timestamp / timePeriod)) {
-            nextList.add(newTdp);
+        void clear() {
+            head = 0;
+            size = 0;
+        }
 
-            if (seconds) {
-                lastSecondUsedForMinute = newTdp;
-                removeAndAverage(newTdp, false);
-            } else
-                lastMinuteUsedForHours = newTdp;
+        LinkedList<TrafficDatapoint> toList() {
+            LinkedList<TrafficDatapoint> list = new LinkedList<>();
+            for (int i = 0; i < size; i++)
+                list.add(new TrafficDatapoint(getIn(i), getOut(i), getTimestamp(i)));
+            return list;
+        }
 
-            for (TrafficDatapoint tph : tpList) {
-                // List is iteratered from oldest to newest, remembert first one that we did not
-                if ((newTdp.timestamp - tph.timestamp) / timePeriod >= PERIODS_TO_KEEP)
-                    toRemove.add(tph);
+        void writeTo(ByteBuffer buffer) {
+            buffer.putInt(size);
+            for (int i = 0; i < size; i++) {
+                int offset = offset(i);
+                buffer.putLong(data[offset]);
+                buffer.putLong(data[offset + 1]);
+                buffer.putLong(data[offset + 2]);
             }
-            tpList.removeAll(toRemove);
+        }
+
+        void readFrom(ByteBuffer buffer) {
+            clear();
+            int entries = buffer.getInt();
+            if (entries < 0 || entries > buffer.remaining() / ENTRY_BYTES)
+                throw new IllegalArgumentException("Invalid number of data points: " + entries);
+            for (int i = 0; i < entries; i++)
+                add(buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+
+        private int capacity() {
+            return data.length / LONGS_PER_ENTRY;
+        }
+
+        private int offset(int i) {
+            return ((head + i) % capacity()) * LONGS_PER_ENTRY;
+        }
+
+        private void grow() {
+            long[] grown = new long[data.length * 2];
+            int firstPart = Math.min(size, capacity() - head);
+            System.arraycopy(data, head * LONGS_PER_ENTRY, grown, 0, firstPart * LONGS_PER_ENTRY);
+            System.arraycopy(data, 0, grown, firstPart * LONGS_PER_ENTRY, (size - firstPart) * LONGS_PER_ENTRY);
+            data = grown;
+            head = 0;
         }
     }
 
     static class LastDiff {
 
-        final private TrafficDatapoint tdp;
-        final private TrafficDatapoint lasttdp;
+        private final long lastIn;
+        private final long lastOut;
+        private final long in;
+        private final long out;
 
-        private LastDiff(TrafficDatapoint lasttdp, TrafficDatapoint tdp) {
-            this.lasttdp = lasttdp;
-            this.tdp = tdp;
+        private LastDiff(long lastIn, long lastOut, long in, long out) {
+            this.lastIn = lastIn;
+            this.lastOut = lastOut;
+            this.in = in;
+            this.out = out;
         }
 
         public long getDiffOut() {
-            return max(0, tdp.out - lasttdp.out);
+            return max(0, out - lastOut);
         }
 
         public long getDiffIn() {
-            return max(0, tdp.in - lasttdp.in);
+            return max(0, in - lastIn);
         }
 
         public long getIn() {
-            return tdp.in;
+            return in;
         }
 
         public long getOut() {
-            return tdp.out;
+            return out;
         }
 
     }
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2012-2017 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.TimeZone;
+
+import de.blinkt.openvpn.core.TrafficHistory.TrafficDatapoint;
+
+/**
+ * Sums up the traffic per day and per week in a small memory-mapped file of fixed size, so the
+ * long-term usage survives restarts of the service without keeping more than a few hundred
+ * bytes in memory.
+ *
+ * Both tiers are circular: the file keeps the last DAYS_TO_KEEP days and WEEKS_TO_KEEP weeks.
+ * Days start at local midnight, weeks on Monday.
+ */
+public class TrafficRollup {
+
+    public static final int DAYS_TO_KEEP = 35;
+    public static final int WEEKS_TO_KEEP = 53;
+
+    private static final int MAGIC = 0x54524146;
+    private static final int VERSION = 1;
+    private static final long DAY = 24L * 3600 * 1000;
+    // period of a slot that has not been used since the last reset
+    private static final long UNUSED = -1;
+    // the 1st of January 1970 was a Thursday
+    private static final int DAYS_FROM_MONDAY_TO_EPOCH = 3;
+
+    // magic, version, index of the newest day and of the newest week
+    private static final int HEADER_BYTES = 16;
+    // period, in and out
+    private static final int SLOT_BYTES = 24;
+    private static final int DAYS_OFFSET = HEADER_BYTES;
+    private static final int WEEKS_OFFSET = DAYS_OFFSET + DAYS_TO_KEEP * SLOT_BYTES;
+    static final int FILE_SIZE = WEEKS_OFFSET + WEEKS_TO_KEEP * SLOT_BYTES;
+
+    private final MappedByteBuffer buffer;
+    private final TimeZone timeZone;
+
+    private TrafficRollup(MappedByteBuffer buffer, TimeZone timeZone) {
+        this.buffer = buffer;
+        this.timeZone = timeZone;
+    }
+
+    public static TrafficRollup open(File file) throws IOException {
+        return open(file, TimeZone.getDefault());
+    }
+
+    /**
+     * Maps file into memory, a missing or unreadable file is started from scratch.
+     */
+    static TrafficRollup open(File file, TimeZone timeZone) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(FILE_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            TrafficRollup rollup = new TrafficRollup(buffer, timeZone);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                rollup.reset();
+            return rollup;
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Adds traffic to the day and week of timestamp. Traffic older than the newest day or week
+     * is added to it as well.
+     */
+    public synchronized void add(long timestamp, long diffIn, long diffOut) {
+        if (diffIn == 0 && diffOut == 0)
+            return;
+        long day = getDay(timestamp);
+        addToSlot(DAYS_OFFSET, DAYS_TO_KEEP, 8, day, diffIn, diffOut);
+        addToSlot(WEEKS_OFFSET, WEEKS_TO_KEEP, 12, getWeek(day), diffIn, diffOut);
+    }
+
+    /**
+     * @return in and out bytes of the kept days, oldest first, with the local midnight of the day
+     * as timestamp
+     */
+    public synchronized LinkedList<TrafficDatapoint> getDays() {
+        return getSlots(DAYS_OFFSET, DAYS_TO_KEEP, 8, 1);
+    }
+
+    /**
+     * @return in and out bytes of the kept weeks, oldest first, with the local midnight of the
+     * monday starting the week as timestamp
+     */
+    public synchronized LinkedList<TrafficDatapoint> getWeeks() {
+        return getSlots(WEEKS_OFFSET, WEEKS_TO_KEEP, 12, 7);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < DAYS_TO_KEEP; i++)
+            clearSlot(DAYS_OFFSET, i, UNUSED);
+        for (int i = 0; i < WEEKS_TO_KEEP; i++)
+            clearSlot(WEEKS_OFFSET, i, UNUSED);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, -1);
+        buffer.putInt(12, -1);
+    }
+
+    /**
+     * Writes the changes of the mapped file to the storage. Otherwise the system does this at
+     * some point, which only loses data if the device crashes.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    private long getDay(long timestamp) {
+        return (timestamp + timeZone.getOffset(timestamp)) / DAY;
+    }
+
+    private static long getWeek(long day) {
+        return (day + DAYS_FROM_MONDAY_TO_EPOCH) / 7;
+    }
+
+    private long getStartOfDay(long day) {
+        long start = day * DAY;
+        return start - timeZone.getOffset(start - timeZone.getRawOffset());
+    }
+
+    private void addToSlot(int tierOffset, int slots, int headOffset, long period, long diffIn, long diffOut) {
+        int head = buffer.getInt(headOffset);
+        int slot;
+        if (head < 0) {
+            slot = 0;
+            clearSlot(tierOffset, slot, period);
+        } else {
+            long newest = buffer.getLong(tierOffset + head * SLOT_BYTES);
+            if (period <= newest) {
+                slot = head;
+            } else {
+                // skip the periods without any traffic, they are empty as well
+                long skipped = Math.min(period - newest, slots);
+                for (int i = 1; i <= skipped; i++) {
+                    clearSlot(tierOffset, (head + i) % slots, period - skipped + i);
+                }
+                slot = (int) ((head + skipped) % slots);
+            }
+        }
+        buffer.putInt(headOffset, slot);
+
+        int offset = tierOffset + slot * SLOT_BYTES;
+        buffer.putLong(offset + 8, buffer.getLong(offset + 8) + diffIn);
+        buffer.putLong(offset + 16, buffer.getLong(offset + 16) + diffOut);
+    }
+
+    private void clearSlot(int tierOffset, int slot, long period) {
+        int offset = tierOffset + slot * SLOT_BYTES;
+        buffer.putLong(offset, period);
+        buffer.putLong(offset + 8, 0);
+        buffer.putLong(offset + 16, 0);
+    }
+
+    private LinkedList<TrafficDatapoint> getSlots(int tierOffset, int slots, int headOffset, int daysPerPeriod) {
+        LinkedList<TrafficDatapoint> list = new LinkedList<>();
+        int head = buffer.getInt(headOffset);
+        if (head < 0)
+            return list;
+
+        for (int i = 1; i <= slots; i++) {
+            int offset = tierOffset + ((head + i) % slots) * SLOT_BYTES;
+            long period = buffer.getLong(offset);
+            if (period == UNUSED)
+                continue;
+            long firstDay = daysPerPeriod == 1 ? period : period * 7 - DAYS_FROM_MONDAY_TO_EPOCH;
+            list.add(new TrafficDatapoint(buffer.getLong(offset + 8), buffer.getLong(offset + 16), getStartOfDay(firstDay)));
+        }
+        return list;
+    }
+}
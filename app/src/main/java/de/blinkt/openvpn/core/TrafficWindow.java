@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012-2016 Arne Schwabe
+ * Distributed under the GNU GPL v2 with additional terms. For full terms see the file doc/LICENSE.txt
+ */
+
+package de.blinkt.openvpn.core;
+
+import java.util.Arrays;
+
+/**
+ * Sums up the traffic of the last seconds in one slot per second with a running sum per
+ * direction. Adding traffic and querying the sums take constant time and allocate nothing,
+ * only a gap of at least the whole window clears all slots.
+ */
+public class TrafficWindow {
+
+    private static final long SECOND = 1000;
+
+    private final int windowSeconds;
+    private final long[] slotIn;
+    private final long[] slotOut;
+    // the second the newest slot belongs to, -1 if nothing has been added yet
+    private long newestSecond = -1;
+    private long sumIn;
+    private long sumOut;
+
+    public TrafficWindow(int windowSeconds) {
+        if (windowSeconds <= 0)
+            throw new IllegalArgumentException("Window must be at least one second: " + windowSeconds);
+        this.windowSeconds = windowSeconds;
+        slotIn = new long[windowSeconds];
+        slotOut = new long[windowSeconds];
+    }
+
+    /**
+     * Adds traffic at timestamp. Traffic older than the newest second is added to the newest
+     * second.
+     */
+    public void add(long timestamp, long diffIn, long diffOut) {
+        advance(timestamp);
+        int slot = (int) (newestSecond % windowSeconds);
+        slotIn[slot] += diffIn;
+        slotOut[slot] += diffOut;
+        sumIn += diffIn;
+        sumOut += diffOut;
+    }
+
+    /**
+     * @return incoming bytes in the window ending at timestamp
+     */
+    public long getIn(long timestamp) {
+        advance(timestamp);
+        return sumIn;
+    }
+
+    /**
+     * @return outgoing bytes in the window ending at timestamp
+     */
+    public long getOut(long timestamp) {
+        advance(timestamp);
+        return sumOut;
+    }
+
+    public long getTotal(long timestamp) {
+        advance(timestamp);
+        return sumIn + sumOut;
+    }
+
+    public void clear() {
+        Arrays.fill(slotIn, 0);
+        Arrays.fill(slotOut, 0);
+        newestSecond = -1;
+        sumIn = 0;
+        sumOut = 0;
+    }
+
+    /**
+     * Moves the window to the second of timestamp, the slots of the seconds that leave the
+     * window are subtracted from the sums and reused.
+     */
+    private void advance(long timestamp) {
+        long second = timestamp / SECOND;
+        if (second <= newestSecond)
+            return;
+        if (newestSecond < 0 || second - newestSecond >= windowSeconds) {
+            clear();
+        } else {
+            for (long s = newestSecond + 1; s <= second; s++) {
+                int slot = (int) (s % windowSeconds);
+                sumIn -= slotIn[slot];
+                sumOut -= slotOut[slot];
+                slotIn[slot] = 0;
+                slotOut[slot] = 0;
+            }
+        }
+        newestSecond = second;
+    }
+}
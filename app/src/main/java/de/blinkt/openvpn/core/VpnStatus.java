@@ -13,9 +13,8 @@ import android.os.Message;
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
-import java.util.Vector;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -28,11 +27,18 @@ import static se.leap.bitmaskclient.base.utils.ConfigHelper.getProviderFormatted
 public class VpnStatus {
 
 
-    private static final LinkedList<LogItem> logbuffer;
+    private static final LogRingBuffer logbuffer;
 
-    private static Vector<LogListener> logListener;
+    // serializes writers of the log buffer, readers don't need to lock
+    private static final Object logLock = new Object();
+    // log listeners are called one at a time in the order of the log buffer, holding this lock
+    private static final Object logDeliveryLock = new Object();
+    private static final Object stateLock = new Object();
+    private static final Object byteCountLock = new Object();
+
+    private static CopyOnWriteArrayList<LogListener> logListener;
     private static CopyOnWriteArrayList<StateListener> stateListener;
-    private static Vector<ByteCountListener> byteCountListener;
+    private static final ByteCountDispatcher byteCountDispatcher;
 
     private static AtomicBoolean isAlwaysOnBooting = new AtomicBoolean(false);
 
@@ -72,6 +78,8 @@ public class VpnStatus {
     }
 
     static final int MAXLOGENTRIES = 1000;
+    // trim the log cache on disk every TRIM_INTERVAL log items
+    private static final int TRIM_INTERVAL = MAXLOGENTRIES / 4;
 
     public static boolean isVPNActive() {
         return mLastLevel != ConnectionStatus.LEVEL_AUTH_FAILED && !(mLastLevel == ConnectionStatus.LEVEL_NOTCONNECTED);
@@ -233,10 +241,10 @@ public class VpnStatus {
     private static LogFileHandler mLogFileHandler;
 
     static {
-        logbuffer = new LinkedList<>();
-        logListener = new Vector<>();
+        logbuffer = new LogRingBuffer(MAXLOGENTRIES);
+        logListener = new CopyOnWriteArrayList<>();
         stateListener = new CopyOnWriteArrayList<>();
-        byteCountListener = new Vector<>();
+        byteCountDispatcher = new ByteCountDispatcher(ByteCountDispatcher.newExecutor());
         trafficHistory = new TrafficHistory();
 
         logInformation();
@@ -258,16 +266,18 @@ public class VpnStatus {
         void updateByteCount(long in, long out, long diffIn, long diffOut);
     }
 
-    public synchronized static void logMessage(LogLevel level, String prefix, String message) {
+    public static void logMessage(LogLevel level, String prefix, String message) {
         newLogItem(new LogItem(level, prefix + message));
 
     }
 
-    public synchronized static void clearLog() {
-        logbuffer.clear();
+    public static void clearLog() {
+        synchronized (logLock) {
+            logbuffer.clear();
+            if (mLogFileHandler != null)
+                mLogFileHandler.sendEmptyMessage(LogFileHandler.CLEAR_LOG_FILE);
+        }
         logInformation();
-        if (mLogFileHandler != null)
-            mLogFileHandler.sendEmptyMessage(LogFileHandler.TRIM_LOG_FILE);
     }
 
     private static void logInformation() {
@@ -282,30 +292,44 @@ public class VpnStatus {
                 nativeAPI, Build.VERSION.RELEASE, Build.ID, Build.FINGERPRINT, "", "");
     }
 
-    public synchronized static void addLogListener(LogListener ll) {
+    public static void addLogListener(LogListener ll) {
         logListener.add(ll);
     }
 
-    public synchronized static void removeLogListener(LogListener ll) {
+    public static void removeLogListener(LogListener ll) {
         logListener.remove(ll);
     }
 
-    public synchronized static void addByteCountListener(ByteCountListener bcl) {
-        TrafficHistory.LastDiff diff = trafficHistory.getLastDiff(null);
-        bcl.updateByteCount(diff.getIn(), diff.getOut(), diff.getDiffIn(),diff.getDiffOut());
-        byteCountListener.add(bcl);
+    public static void addByteCountListener(ByteCountListener bcl) {
+        addByteCountListener(bcl, 0);
+    }
+
+    /**
+     * Adds a listener that is called at most once per minIntervalMillis, on the byte count
+     * dispatcher thread. The current byte count is passed to a new listener right away.
+     */
+    public static void addByteCountListener(ByteCountListener bcl, long minIntervalMillis) {
+        synchronized (byteCountLock) {
+            if (!byteCountDispatcher.add(bcl, minIntervalMillis))
+                return;
+            TrafficHistory.LastDiff diff = trafficHistory.getLastDiff(null);
+            bcl.updateByteCount(diff.getIn(), diff.getOut(), diff.getDiffIn(), diff.getDiffOut());
+        }
+    }
+
+    public static void removeByteCountListener(ByteCountListener bcl) {
+        byteCountDispatcher.remove(bcl);
     }
 
-    public synchronized static void removeByteCountListener(ByteCountListener bcl) {
-        byteCountListener.remove(bcl);
+    public static ByteCountDispatcher getByteCountDispatcher() {
+        return byteCountDispatcher;
     }
 
 
-    public synchronized static void addStateListener(StateListener sl) {
-        if (!stateListener.contains(sl)) {
-            stateListener.add(sl);
-            if (mLaststate != null)
-                    sl.updateState(mLaststate, mLaststatemsg, mLastStateresid, mLastLevel);
+    public static void addStateListener(StateListener sl) {
+        synchronized (stateLock) {
+            if (stateListener.addIfAbsent(sl) && mLaststate != null)
+                sl.updateState(mLaststate, mLaststatemsg, mLastStateresid, mLastLevel);
         }
     }
 
@@ -392,17 +416,41 @@ public class VpnStatus {
     }
 
 
-    public synchronized static void removeStateListener(StateListener sl) {
+    public static void removeStateListener(StateListener sl) {
         stateListener.remove(sl);
     }
 
 
-    synchronized public static LogItem[] getlogbuffer() {
+    /**
+     * @return a snapshot of the log buffer, oldest item first
+     */
+    public static LogItem[] getlogbuffer() {
+        return logbuffer.snapshot();
+    }
 
-        // The stoned way of java to return an array from a vector
-        // brought to you by eclipse auto complete
-        return logbuffer.toArray(new LogItem[logbuffer.size()]);
+    /**
+     * Adds all log items with a sequence number of at least sequence, that are still in the log
+     * buffer, to out.
+     * @return the sequence number to pass to the next call to only get newer log items
+     */
+    public static long getLogItemsSince(long sequence, List<LogItem> out) {
+        return logbuffer.readSince(sequence, out);
+    }
+
+    /**
+     * @return the sequence number the next log item will get
+     */
+    public static long getNextLogSequence() {
+        return logbuffer.getNextSequence();
+    }
 
+    /**
+     * @return the sequence number of the first log item after the log buffer was cleared or
+     * rebuilt. Readers that read items up to a sequence number need to read the log buffer again
+     * once it changes.
+     */
+    public static long getLogResetSequence() {
+        return logbuffer.getClearedSequence();
     }
 
     static void updateStateString(String state, String msg) {
@@ -411,7 +459,13 @@ public class VpnStatus {
         updateStateString(state, msg, rid, level);
     }
 
-    public synchronized static void updateStateString(String state, String msg, int resid, ConnectionStatus level) {
+    public static void updateStateString(String state, String msg, int resid, ConnectionStatus level) {
+        synchronized (stateLock) {
+            updateStateStringLocked(state, msg, resid, level);
+        }
+    }
+
+    private static void updateStateStringLocked(String state, String msg, int resid, ConnectionStatus level) {
         // Workound for OpenVPN doing AUTH and wait and being connected
         // Simply ignore these state
         if (mLastLevel == ConnectionStatus.LEVEL_CONNECTED &&
@@ -457,30 +511,50 @@ public class VpnStatus {
     }
 
 
-    synchronized static void newLogItem(LogItem logItem, boolean cachedLine) {
-        if (cachedLine) {
-            logbuffer.addFirst(logItem);
-        } else {
-            logbuffer.addLast(logItem);
-            if (mLogFileHandler != null) {
-                Message m = mLogFileHandler.obtainMessage(LogFileHandler.LOG_MESSAGE, logItem);
-                mLogFileHandler.sendMessage(m);
+    static void newLogItem(LogItem logItem, boolean cachedLine) {
+        synchronized (logDeliveryLock) {
+            synchronized (logLock) {
+                long sequence = logbuffer.append(logItem);
+                if (!cachedLine && mLogFileHandler != null) {
+                    Message m = mLogFileHandler.obtainMessage(LogFileHandler.LOG_MESSAGE, logItem);
+                    mLogFileHandler.sendMessage(m);
+                    // the log file handler keeps at least MAXLOGENTRIES items on disk
+                    if (sequence % TRIM_INTERVAL == 0)
+                        mLogFileHandler.sendEmptyMessage(LogFileHandler.TRIM_LOG_FILE);
+                }
             }
-        }
 
-        if (logbuffer.size() > MAXLOGENTRIES + MAXLOGENTRIES / 2) {
-            while (logbuffer.size() > MAXLOGENTRIES)
-                logbuffer.removeFirst();
-            if (mLogFileHandler != null)
-                mLogFileHandler.sendMessage(mLogFileHandler.obtainMessage(LogFileHandler.TRIM_LOG_FILE));
-        }
+            //if (BuildConfig.DEBUG && !cachedLine && !BuildConfig.FLAVOR.equals("test"))
+            //    Log.d("OpenVPN", logItem.getString(null));
 
-        //if (BuildConfig.DEBUG && !cachedLine && !BuildConfig.FLAVOR.equals("test"))
-        //    Log.d("OpenVPN", logItem.getString(null));
+            // listeners are called outside of logLock, but still one item after the other
+            for (LogListener ll : logListener) {
+                ll.newLog(logItem);
+            }
+        }
+    }
 
+    /**
+     * Inserts log items read from the log cache in front of the items logged since the app started.
+     */
+    static void restoreLogItems(List<LogItem> logItems) {
+        if (logItems.isEmpty())
+            return;
+        synchronized (logDeliveryLock) {
+            synchronized (logLock) {
+                LogItem[] currentItems = logbuffer.snapshot();
+                logbuffer.clear();
+                for (LogItem logItem : logItems)
+                    logbuffer.append(logItem);
+                for (LogItem logItem : currentItems)
+                    logbuffer.append(logItem);
+            }
 
-        for (LogListener ll : logListener) {
-            ll.newLog(logItem);
+            for (LogItem logItem : logItems) {
+                for (LogListener ll : logListener) {
+                    ll.newLog(logItem);
+                }
+            }
         }
     }
 
@@ -516,11 +590,10 @@ public class VpnStatus {
 
     }
 
-    public static synchronized void updateByteCount(long in, long out) {
-        TrafficHistory.LastDiff diff = trafficHistory.add(in, out);
-
-        for (ByteCountListener bcl : byteCountListener) {
-            bcl.updateByteCount(in, out, diff.getDiffIn(), diff.getDiffOut());
+    public static void updateByteCount(long in, long out) {
+        synchronized (byteCountLock) {
+            TrafficHistory.LastDiff diff = trafficHistory.add(in, out);
+            byteCountDispatcher.dispatch(in, out, diff.getDiffIn(), diff.getDiffOut());
         }
     }
 
@@ -14,6 +14,7 @@ import static se.leap.bitmaskclient.base.models.Constants.APP_ACTION_CONFIGURE_A
 import static se.leap.bitmaskclient.base.models.Constants.EIP_RESTART_ON_BOOT;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICATE;
 import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getFromCurrentProvider;
 
 public class OnBootReceiver extends BroadcastReceiver {
 
@@ -27,7 +28,7 @@ public class OnBootReceiver extends BroadcastReceiver {
             return;
         }
         preferences = context.getSharedPreferences(SHARED_PREFERENCES, Context.MODE_PRIVATE);
-        boolean providerConfigured = !preferences.getString(PROVIDER_VPN_CERTIFICATE, "").isEmpty();
+        boolean providerConfigured = !getFromCurrentProvider(PROVIDER_VPN_CERTIFICATE, preferences).isEmpty();
         boolean startOnBoot = preferences.getBoolean(EIP_RESTART_ON_BOOT, false) && Build.VERSION.SDK_INT < Build.VERSION_CODES.O;
         boolean isAlwaysOnConfigured = VpnStatus.isAlwaysOn();
         Log.d("OpenVPN", "OpenVPN onBoot intent received. Provider configured? " + providerConfigured + "  Start on boot? " + startOnBoot + "  isAlwaysOn feature configured: " + isAlwaysOnConfigured);
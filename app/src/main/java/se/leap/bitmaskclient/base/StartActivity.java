@@ -38,6 +38,7 @@ import se.leap.bitmaskclient.base.models.Provider;
 import se.leap.bitmaskclient.base.models.ProviderObservable;
 import se.leap.bitmaskclient.providersetup.activities.CustomProviderSetupActivity;
 import se.leap.bitmaskclient.base.utils.PreferenceHelper;
+import se.leap.bitmaskclient.base.utils.ProviderStore;
 
 import static se.leap.bitmaskclient.base.models.Constants.APP_ACTION_CONFIGURE_ALWAYS_ON_PROFILE;
 import static se.leap.bitmaskclient.base.models.Constants.EIP_RESTART_ON_BOOT;
@@ -48,6 +49,7 @@ import static se.leap.bitmaskclient.base.models.Constants.REQUEST_CODE_CONFIGURE
 import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.MainActivity.ACTION_SHOW_VPN_FRAGMENT;
 import static se.leap.bitmaskclient.base.utils.ConfigHelper.isDefaultBitmask;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.migrateProvidersToStore;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.storeProviderInPreferences;
 
 /**
@@ -143,7 +145,11 @@ public class StartActivity extends Activity{
             String eipJson = preferences.getString(PROVIDER_KEY, null);
             if (eipJson != null) {
                 preferences.edit().putString(PROVIDER_EIP_DEFINITION, eipJson).
-                        remove(PROVIDER_KEY).apply();
+                        remove(PROVIDER_KEY).commit();
+                ProviderStore store = ProviderStore.getInstance();
+                if (store != null) {
+                    migrateProvidersToStore(preferences, store);
+                }
             }
         }
 
@@ -5,11 +5,7 @@
 
 package se.leap.bitmaskclient.base.fragments;
 
-import android.Manifest;
-import android.app.Activity;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import androidx.fragment.app.Fragment;
 import android.text.TextUtils;
@@ -31,12 +27,11 @@ import android.widget.TextView;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
-import java.util.Vector;
 
 import de.blinkt.openvpn.VpnProfile;
 import se.leap.bitmaskclient.R;
+import se.leap.bitmaskclient.base.utils.AppCatalog;
 import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 
 /**
@@ -75,7 +70,7 @@ public class ExcludeAppsFragment extends Fragment implements AdapterView.OnItemC
     }
 
     static class AppViewHolder {
-        public ApplicationInfo mInfo;
+        public AppCatalog.App mApp;
         public View rootView;
         public TextView appName;
         public ImageView appIcon;
@@ -124,41 +119,24 @@ public class ExcludeAppsFragment extends Fragment implements AdapterView.OnItemC
         }
     }
 
-    class PackageAdapter extends BaseAdapter implements Filterable {
-        private Vector<ApplicationInfo> mPackages;
+    class PackageAdapter extends BaseAdapter implements Filterable, AppCatalog.CatalogListener {
+        private volatile AppCatalog.Catalog mCatalog;
         private final LayoutInflater mInflater;
-        private final PackageManager mPm;
         private ItemFilter mFilter = new ItemFilter();
-        private Vector<ApplicationInfo> mFilteredData;
+        private List<AppCatalog.App> mFilteredData;
+        private CharSequence mConstraint;
 
 
         private class ItemFilter extends Filter {
             @Override
             protected FilterResults performFiltering(CharSequence constraint) {
-
-                String filterString = constraint.toString().toLowerCase(Locale.getDefault());
-
                 FilterResults results = new FilterResults();
-
-
-                int count = mPackages.size();
-                final Vector<ApplicationInfo> nlist = new Vector<>(count);
-
-                for (int i = 0; i < count; i++) {
-                    ApplicationInfo pInfo = mPackages.get(i);
-                    CharSequence appName = pInfo.loadLabel(mPm);
-
-                    if (TextUtils.isEmpty(appName))
-                        appName = pInfo.packageName;
-
-                    if (appName instanceof  String) {
-                        if (((String) appName).toLowerCase(Locale.getDefault()).contains(filterString))
-                                nlist.add(pInfo);
-                    } else {
-                        if (appName.toString().toLowerCase(Locale.getDefault()).contains(filterString))
-                            nlist.add(pInfo);
-                    }
+                AppCatalog.Catalog catalog = mCatalog;
+                if (catalog == null) {
+                    return results;
                 }
+
+                List<AppCatalog.App> nlist = catalog.search(constraint == null ? "" : constraint.toString());
                 results.values = nlist;
                 results.count = nlist.size();
 
@@ -167,7 +145,10 @@ public class ExcludeAppsFragment extends Fragment implements AdapterView.OnItemC
 
             @Override
             protected void publishResults(CharSequence constraint, FilterResults results) {
-                mFilteredData = (Vector<ApplicationInfo>) results.values;
+                mConstraint = constraint;
+                if (results.values != null) {
+                    mFilteredData = (List<AppCatalog.App>) results.values;
+                }
                 notifyDataSetChanged();
             }
 
@@ -175,49 +156,21 @@ public class ExcludeAppsFragment extends Fragment implements AdapterView.OnItemC
 
 
         PackageAdapter(Context c, VpnProfile vp) {
-            mPm = c.getPackageManager();
             mProfile = vp;
             mInflater = LayoutInflater.from(c);
 
-            mPackages = new Vector<>();
-            mFilteredData = mPackages;
+            mFilteredData = Collections.emptyList();
         }
 
-        private void populateList(Activity c) {
-            List<ApplicationInfo> installedPackages = mPm.getInstalledApplications(PackageManager.GET_META_DATA);
-
-            // Remove apps not using Internet
-
-            int androidSystemUid = 0;
-            ApplicationInfo system = null;
-            Vector<ApplicationInfo> apps = new Vector<ApplicationInfo>();
-
-            try {
-                system = mPm.getApplicationInfo("android", PackageManager.GET_META_DATA);
-                androidSystemUid = system.uid;
-                apps.add(system);
-            } catch (PackageManager.NameNotFoundException e) {
-            }
-
-
-            for (ApplicationInfo app : installedPackages) {
-
-                if (mPm.checkPermission(Manifest.permission.INTERNET, app.packageName) == PackageManager.PERMISSION_GRANTED &&
-                        app.uid != androidSystemUid) {
-
-                    apps.add(app);
-                }
+        @Override
+        public void onCatalogChanged(AppCatalog.Catalog catalog) {
+            mCatalog = catalog;
+            if (TextUtils.isEmpty(mConstraint)) {
+                mFilteredData = catalog.apps;
+                notifyDataSetChanged();
+            } else {
+                mFilter.filter(mConstraint);
             }
-
-            Collections.sort(apps, new ApplicationInfo.DisplayNameComparator(mPm));
-            mPackages = apps;
-            mFilteredData = apps;
-            c.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    notifyDataSetChanged();
-                }
-            });
         }
 
         @Override
@@ -239,19 +192,16 @@ public class ExcludeAppsFragment extends Fragment implements AdapterView.OnItemC
         public View getView(int position, View convertView, ViewGroup parent) {
             AppViewHolder viewHolder = AppViewHolder.createOrRecycle(mInflater, convertView, parent);
 
-            viewHolder.mInfo = mFilteredData.get(position);
-            final ApplicationInfo mInfo = mFilteredData.get(position);
-
-
-            CharSequence appName = mInfo.loadLabel(mPm);
+            final AppCatalog.App app = mFilteredData.get(position);
+            viewHolder.mApp = app;
 
-            if (TextUtils.isEmpty(appName))
-                appName = mInfo.packageName;
-            viewHolder.appName.setText(appName);
-            viewHolder.appIcon.setImageDrawable(mInfo.loadIcon(mPm));
-            viewHolder.checkBox.setTag(mInfo.packageName);
+            viewHolder.appName.setText(app.label);
+            AppCatalog.getInstance().loadIcon(app, viewHolder.appIcon);
+            viewHolder.checkBox.setTag(app.packageName);
+            // unbind before recycling, otherwise setChecked toggles the app shown before
+            viewHolder.checkBox.setOnCheckedChangeListener(null);
+            viewHolder.checkBox.setChecked(apps.contains(app.packageName));
             viewHolder.checkBox.setOnCheckedChangeListener(ExcludeAppsFragment.this);
-            viewHolder.checkBox.setChecked(apps.contains(mInfo.packageName));
 
             return viewHolder.rootView;
         }
@@ -327,9 +277,17 @@ public class ExcludeAppsFragment extends Fragment implements AdapterView.OnItemC
 
         mListView.setEmptyView(v.findViewById(R.id.loading_container));
 
-        new Thread(() -> mListAdapter.populateList(getActivity())).start();
+        AppCatalog appCatalog = AppCatalog.getInstance();
+        appCatalog.init(getContext());
+        appCatalog.addListener(mListAdapter);
 
         return v;
     }
 
+    @Override
+    public void onDestroyView() {
+        AppCatalog.getInstance().removeListener(mListAdapter);
+        super.onDestroyView();
+    }
+
 }
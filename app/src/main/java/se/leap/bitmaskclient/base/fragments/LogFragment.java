@@ -18,11 +18,12 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.Message;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.ListFragment;
-import android.text.SpannableString;
 import android.text.format.DateFormat;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -41,17 +42,22 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.text.SimpleDateFormat;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.blinkt.openvpn.VpnProfile;
 import de.blinkt.openvpn.core.ConnectionStatus;
 import de.blinkt.openvpn.core.LogItem;
-import de.blinkt.openvpn.core.OpenVPNManagement;
 import de.blinkt.openvpn.core.OpenVPNService;
 import de.blinkt.openvpn.core.Preferences;
+import de.blinkt.openvpn.core.TrafficHistory;
+import de.blinkt.openvpn.core.TrafficHistory.TrafficDatapoint;
+import de.blinkt.openvpn.core.TrafficRollup;
 import de.blinkt.openvpn.core.VpnStatus;
 import de.blinkt.openvpn.core.VpnStatus.LogListener;
 import de.blinkt.openvpn.core.VpnStatus.StateListener;
@@ -73,6 +79,9 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     private TextView mUpStatus;
     private TextView mDownStatus;
     private TextView mConnectStatus;
+    private TextView mTrafficUsage;
+    // elapsed realtime of the last byte count, 0 before the first one
+    private volatile long mLastBytecountTime;
     private boolean mShowOptionsLayout;
     private CheckBox mClearLogCheckBox;
 
@@ -107,27 +116,70 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
     @Override
     public void updateByteCount(long in, long out, long diffIn, long diffOut) {
+        // merged byte counts cover more than one interval, the first one only starts the clock
+        long now = SystemClock.elapsedRealtime();
+        long lastBytecountTime = mLastBytecountTime;
+        mLastBytecountTime = now;
+        if (lastBytecountTime == 0 || now <= lastBytecountTime)
+            return;
+        long millis = now - lastBytecountTime;
+
         //%2$s/s %1$s - ↑%4$s/s %3$s
         Resources res = getActivity().getResources();
-        final String down = String.format("%2$s %1$s", humanReadableByteCount(in, false, res), humanReadableByteCount(diffIn / OpenVPNManagement.mBytecountInterval, true, res));
-        final String up = String.format("%2$s %1$s", humanReadableByteCount(out, false, res), humanReadableByteCount(diffOut / OpenVPNManagement.mBytecountInterval, true, res));
-
-        if (mUpStatus != null && mDownStatus != null) {
-            if (getActivity() != null) {
-                getActivity().runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
+        final String down = String.format("%2$s %1$s", humanReadableByteCount(in, false, res), humanReadableByteCount(diffIn * 1000 / millis, true, res));
+        final String up = String.format("%2$s %1$s", humanReadableByteCount(out, false, res), humanReadableByteCount(diffOut * 1000 / millis, true, res));
+        final String usage = getTrafficUsage(res);
+
+        if (getActivity() != null) {
+            getActivity().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mUpStatus != null && mDownStatus != null) {
                         mUpStatus.setText(up);
                         mDownStatus.setText(down);
                     }
-                });
-            }
+                    if (mTrafficUsage != null && usage != null) {
+                        mTrafficUsage.setText(usage);
+                    }
+                }
+            });
         }
 
     }
 
+    /**
+     * @return the traffic of the current day and week, null if the service doesn't sum it up
+     */
+    private String getTrafficUsage(Resources res) {
+        TrafficRollup rollup = VpnStatus.trafficHistory.getRollup();
+        if (rollup == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        TrafficDatapoint today = getCurrentPeriod(rollup.getDays(), now, TrafficHistory.TIME_PERIOD_DAYS);
+        TrafficDatapoint thisWeek = getCurrentPeriod(rollup.getWeeks(), now, 7L * TrafficHistory.TIME_PERIOD_DAYS);
+        return res.getString(R.string.traffic_usage,
+                humanReadableByteCount(today == null ? 0 : today.in, false, res),
+                humanReadableByteCount(today == null ? 0 : today.out, false, res),
+                humanReadableByteCount(thisWeek == null ? 0 : thisWeek.in, false, res),
+                humanReadableByteCount(thisWeek == null ? 0 : thisWeek.out, false, res));
+    }
+
+    /**
+     * @return the newest period if now lies within it, null if there was no traffic in it yet
+     */
+    private static TrafficDatapoint getCurrentPeriod(LinkedList<TrafficDatapoint> periods, long now, long periodLength) {
+        if (periods.isEmpty() || now - periods.getLast().timestamp >= periodLength)
+            return null;
+        return periods.getLast();
+    }
+
 
-    class LogWindowListAdapter implements ListAdapter, LogListener, Callback {
+    /**
+     * Reads the log from VpnStatus by sequence number. New log items only schedule a read for the
+     * next display frame, so a burst of log lines results in one list update per frame.
+     */
+    class LogWindowListAdapter implements ListAdapter, LogListener, Callback, Choreographer.FrameCallback {
 
         private static final int MESSAGE_NEWLOG = 0;
 
@@ -141,9 +193,16 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
         public static final int TIME_FORMAT_ISO = 2;
         private static final int MAX_STORED_LOG_ENTRIES = 1000;
 
-        private Vector<LogItem> allEntries = new Vector<>();
+        private final LogLevelIndex logLevelIndex = new LogLevelIndex(VpnProfile.MAXLOGLEVEL, MAX_STORED_LOG_ENTRIES);
 
-        private Vector<LogItem> currentLevelEntries = new Vector<LogItem>();
+        private List<LogLevelIndex.Row> currentLevelEntries;
+
+        // sequence number of the next log item to read from VpnStatus
+        private long nextLogSequence = 0;
+        // changes when VpnStatus clears the log or inserts the items restored from the log cache
+        private long logResetSequence = 0;
+        private final ArrayList<LogItem> newLogItems = new ArrayList<>();
+        private final AtomicBoolean readScheduled = new AtomicBoolean();
 
         private Handler mHandler;
 
@@ -151,9 +210,12 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         private int mTimeFormat = 0;
         private int mLogLevel = 3;
+        private java.text.DateFormat isoTimeFormat;
+        private java.text.DateFormat shortTimeFormat;
 
 
         public LogWindowListAdapter() {
+            currentLevelEntries = logLevelIndex.getRows(mLogLevel);
             initLogBuffer();
             if (mHandler == null) {
                 mHandler = new Handler(this);
@@ -164,17 +226,41 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
 
         private void initLogBuffer() {
-            allEntries.clear();
-            Collections.addAll(allEntries, VpnStatus.getlogbuffer());
-            initCurrentMessages();
+            logLevelIndex.clear();
+            logResetSequence = VpnStatus.getLogResetSequence();
+            nextLogSequence = logResetSequence;
+            readNewLogItems();
+        }
+
+        /**
+         * @return true if the entries of the current log level changed
+         */
+        private boolean readNewLogItems() {
+            boolean reset = false;
+            long resetSequence = VpnStatus.getLogResetSequence();
+            if (resetSequence != logResetSequence) {
+                // older items were inserted in front of the ones already read, read all of them again
+                logLevelIndex.clear();
+                logResetSequence = resetSequence;
+                nextLogSequence = resetSequence;
+                reset = true;
+            }
+            newLogItems.clear();
+            nextLogSequence = VpnStatus.getLogItemsSince(nextLogSequence, newLogItems);
+            if (newLogItems.isEmpty()) {
+                return reset;
+            }
+            boolean changed = logLevelIndex.add(newLogItems, mLogLevel) || reset;
+            newLogItems.clear();
+            return changed;
         }
 
         String getLogStr() {
-            String str = "";
-            for (LogItem entry : allEntries) {
-                str += getTime(entry, TIME_FORMAT_ISO) + entry.getString(getActivity()) + '\n';
+            StringBuilder str = new StringBuilder();
+            for (LogLevelIndex.Row row : logLevelIndex.getRows(VpnProfile.MAXLOGLEVEL)) {
+                str.append(getTime(row.item, TIME_FORMAT_ISO)).append(row.item.getString(getActivity())).append('\n');
             }
-            return str;
+            return str.toString();
         }
 
 
@@ -204,12 +290,12 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public Object getItem(int position) {
-            return currentLevelEntries.get(position);
+            return currentLevelEntries.get(position).item;
         }
 
         @Override
         public long getItemId(int position) {
-            return ((Object) currentLevelEntries.get(position)).hashCode();
+            return System.identityHashCode(currentLevelEntries.get(position));
         }
 
         @Override
@@ -225,16 +311,13 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             else
                 v = (TextView) convertView;
 
-            LogItem le = currentLevelEntries.get(position);
-            String msg = le.getString(getActivity());
-            String time = getTime(le, mTimeFormat);
-            msg = time + msg;
-
-            int spanStart = time.length();
-
-            SpannableString t = new SpannableString(msg);
+            LogLevelIndex.Row row = currentLevelEntries.get(position);
+            if (row.text == null || row.timeFormat != mTimeFormat) {
+                row.text = getTime(row.item, mTimeFormat) + row.item.getString(getActivity());
+                row.timeFormat = mTimeFormat;
+            }
 
-            v.setText(t);
+            v.setText(row.text);
             return v;
         }
 
@@ -242,10 +325,15 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             if (time != TIME_FORMAT_NONE) {
                 Date d = new Date(le.getLogtime());
                 java.text.DateFormat timeformat;
-                if (time == TIME_FORMAT_ISO)
-                    timeformat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-                else
-                    timeformat = DateFormat.getTimeFormat(getActivity());
+                if (time == TIME_FORMAT_ISO) {
+                    if (isoTimeFormat == null)
+                        isoTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+                    timeformat = isoTimeFormat;
+                } else {
+                    if (shortTimeFormat == null)
+                        shortTimeFormat = DateFormat.getTimeFormat(getActivity());
+                    timeformat = shortTimeFormat;
+                }
 
                 return timeformat.format(d) + " ";
 
@@ -283,25 +371,33 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
         @Override
         public void newLog(LogItem logMessage) {
-            Message msg = Message.obtain();
-            assert (msg != null);
-            msg.what = MESSAGE_NEWLOG;
-            Bundle bundle = new Bundle();
-            bundle.putParcelable("logmessage", logMessage);
-            msg.setData(bundle);
-            mHandler.sendMessage(msg);
+            // the item itself is read from VpnStatus with all others of the same frame
+            if (readScheduled.compareAndSet(false, true)) {
+                mHandler.sendEmptyMessage(MESSAGE_NEWLOG);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            readScheduled.set(false);
+            if (readNewLogItems()) {
+                for (DataSetObserver observer : observers) {
+                    observer.onChanged();
+                }
+            }
+        }
+
+        void stop() {
+            VpnStatus.removeLogListener(this);
+            mHandler.removeCallbacksAndMessages(null);
+            Choreographer.getInstance().removeFrameCallback(this);
         }
 
         @Override
         public boolean handleMessage(Message msg) {
             // We have been called
             if (msg.what == MESSAGE_NEWLOG) {
-
-                LogItem logMessage = msg.getData().getParcelable("logmessage");
-                if (addLogMessage(logMessage))
-                    for (DataSetObserver observer : observers) {
-                        observer.onChanged();
-                    }
+                Choreographer.getInstance().postFrameCallback(this);
             } else if (msg.what == MESSAGE_CLEARLOG) {
                 for (DataSetObserver observer : observers) {
                     observer.onInvalidated();
@@ -312,7 +408,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
                     observer.onInvalidated();
                 }
             } else if (msg.what == MESSAGE_NEWLOGLEVEL) {
-                initCurrentMessages();
+                currentLevelEntries = logLevelIndex.getRows(mLogLevel);
 
                 for (DataSetObserver observer : observers) {
                     observer.onChanged();
@@ -323,40 +419,6 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
             return true;
         }
 
-        private void initCurrentMessages() {
-            currentLevelEntries.clear();
-            for (LogItem li : allEntries) {
-                if (li.getVerbosityLevel() <= mLogLevel ||
-                        mLogLevel == VpnProfile.MAXLOGLEVEL)
-                    currentLevelEntries.add(li);
-            }
-        }
-
-        /**
-         * @param logmessage
-         * @return True if the current entries have changed
-         */
-        private boolean addLogMessage(LogItem logmessage) {
-            allEntries.add(logmessage);
-
-            if (allEntries.size() > MAX_STORED_LOG_ENTRIES) {
-                Vector<LogItem> oldAllEntries = allEntries;
-                allEntries = new Vector<LogItem>(allEntries.size());
-                for (int i = 50; i < oldAllEntries.size(); i++) {
-                    allEntries.add(oldAllEntries.elementAt(i));
-                }
-                initCurrentMessages();
-                return true;
-            } else {
-                if (logmessage.getVerbosityLevel() <= mLogLevel) {
-                    currentLevelEntries.add(logmessage);
-                    return true;
-                } else {
-                    return false;
-                }
-            }
-        }
-
         void clearLog() {
             // Actually is probably called from GUI Thread as result of the user
             // pressing a button. But better safe than sorry
@@ -447,6 +509,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
     public void onStart() {
         super.onStart();
         VpnStatus.addStateListener(this);
+        mLastBytecountTime = 0;
         VpnStatus.addByteCountListener(this);
     }
 
@@ -527,6 +590,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
         mUpStatus = v.findViewById(R.id.speedUp);
         mDownStatus = v.findViewById(R.id.speedDown);
         mConnectStatus = v.findViewById(R.id.speedStatus);
+        mTrafficUsage = v.findViewById(R.id.trafficUsage);
         if (mShowOptionsLayout)
             mOptionsLayout.setVisibility(View.VISIBLE);
         return v;
@@ -580,7 +644,7 @@ public class LogFragment extends ListFragment implements StateListener, SeekBar.
 
     @Override
     public void onDestroy() {
-        VpnStatus.removeLogListener(ladapter);
+        ladapter.stop();
         super.onDestroy();
     }
 
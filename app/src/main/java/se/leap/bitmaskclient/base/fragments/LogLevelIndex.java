@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.fragments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.blinkt.openvpn.core.LogItem;
+
+/**
+ * The rows of the log view for every verbosity level, so changing the level only swaps the list
+ * that is shown. A row is shared by the lists of all levels showing its LogItem and keeps the
+ * text rendered for it.
+ *
+ * Each list keeps at most maxRows rows, older rows are dropped in chunks. Not thread safe.
+ */
+class LogLevelIndex {
+
+    private static final int TRIM_ROWS = 50;
+
+    static class Row {
+        final LogItem item;
+        // rendered text and the time format it has been rendered with
+        String text;
+        int timeFormat = -1;
+
+        Row(LogItem item) {
+            this.item = item;
+        }
+    }
+
+    private final int maxLevel;
+    private final int maxRows;
+    private final ArrayList<ArrayList<Row>> rowsByLevel;
+
+    /**
+     * @param maxLevel the highest verbosity level, it shows all log items
+     */
+    LogLevelIndex(int maxLevel, int maxRows) {
+        this.maxLevel = maxLevel;
+        this.maxRows = maxRows;
+        rowsByLevel = new ArrayList<>(maxLevel);
+        for (int i = 0; i < maxLevel; i++) {
+            rowsByLevel.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Appends items to the lists of all levels showing them.
+     * @return true if the rows of level changed
+     */
+    boolean add(List<LogItem> items, int level) {
+        level = clampLevel(level);
+        int sizeBefore = getRows(level).size();
+        Row firstBefore = sizeBefore > 0 ? getRows(level).get(0) : null;
+        for (LogItem item : items) {
+            Row row = new Row(item);
+            // the highest level shows all items, regardless of their verbosity
+            int lowestLevel = Math.max(1, Math.min(item.getVerbosityLevel(), maxLevel));
+            for (int l = lowestLevel; l <= maxLevel; l++) {
+                rowsByLevel.get(l - 1).add(row);
+            }
+        }
+        for (ArrayList<Row> rows : rowsByLevel) {
+            if (rows.size() > maxRows) {
+                rows.subList(0, Math.min(rows.size(), rows.size() - maxRows + TRIM_ROWS)).clear();
+            }
+        }
+        List<Row> rows = getRows(level);
+        return rows.size() != sizeBefore || (rows.size() > 0 && rows.get(0) != firstBefore);
+    }
+
+    /**
+     * @return the rows shown at level, oldest first. The list changes with add() and clear().
+     */
+    List<Row> getRows(int level) {
+        return rowsByLevel.get(clampLevel(level) - 1);
+    }
+
+    void clear() {
+        for (ArrayList<Row> rows : rowsByLevel) {
+            rows.clear();
+        }
+    }
+
+    private int clampLevel(int level) {
+        return Math.max(1, Math.min(level, maxLevel));
+    }
+}
@@ -117,6 +117,7 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
     private IconSwitchEntry saveBattery;
     private IconTextEntry tethering;
     private IconSwitchEntry firewall;
+    private IconSwitchEntry raceConnect;
     private IconTextEntry manualGatewaySelection;
     private View experimentalFeatureFooter;
 
@@ -263,6 +264,7 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
         initShowExperimentalHint();
         initTetheringEntry();
         initFirewallEntry();
+        initRaceConnectEntry();
         initExperimentalFeatureFooter();
         initDonateEntry();
         initLogEntry();
@@ -385,11 +387,13 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
             if (shown) {
                 tethering.setVisibility(GONE);
                 firewall.setVisibility(GONE);
+                raceConnect.setVisibility(GONE);
                 experimentalFeatureFooter.setVisibility(GONE);
                 ((TextView) v).setText(R.string.show_experimental);
             } else {
                 tethering.setVisibility(VISIBLE);
                 firewall.setVisibility(VISIBLE);
+                raceConnect.setVisibility(VISIBLE);
                 experimentalFeatureFooter.setVisibility(VISIBLE);
                 ((TextView) v).setText(R.string.hide_experimental);
             }
@@ -417,6 +421,19 @@ public class NavigationDrawerFragment extends Fragment implements SharedPreferen
         });
     }
 
+    private void initRaceConnectEntry() {
+        raceConnect = drawerView.findViewById(R.id.race_connect_switch);
+        boolean show = showExperimentalFeatures(getContext());
+        raceConnect.setVisibility(show ? VISIBLE : GONE);
+        raceConnect.setChecked(PreferenceHelper.getUseRaceConnect(getContext()));
+        raceConnect.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (!buttonView.isPressed()) {
+                return;
+            }
+            PreferenceHelper.setUseRaceConnect(getContext(), isChecked);
+        });
+    }
+
     private void initManualGatewayEntry() {
         if (!BuildConfig.allow_manual_gateway_selection) {
             return;
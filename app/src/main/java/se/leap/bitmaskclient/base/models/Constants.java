@@ -27,6 +27,7 @@ public interface Constants {
     /////////////////////////////////////////////
 
     String SHARED_PREFERENCES = "LEAPPreferences";
+    String PROVIDER_STORE_DIR = "providers";
     String PREFERENCES_APP_VERSION = "bitmask version";
     String ALWAYS_ON_SHOW_DIALOG = "DIALOG.ALWAYS_ON_SHOW_DIALOG";
     String CLEARLOG = "clearlogconnect";
@@ -41,6 +42,7 @@ public interface Constants {
     String RESTART_ON_UPDATE = "restart_on_update";
     String LAST_UPDATE_CHECK = "last_update_check";
     String PREFERRED_CITY = "preferred_city";
+    String USE_RACE_CONNECT = "use_race_connect";
 
 
      //////////////////////////////////////////////
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.models;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A JSON object kept as text until its JSONObject is needed, and as JSONObject without being
+ * serialized again until its text is needed. Both forms are cached.
+ *
+ * Providers copied from the same snapshot share their LazyJsons, so the JSONObjects returned by
+ * get() must be treated as read only.
+ */
+final class LazyJson {
+
+    private String text;
+    private JSONObject json;
+
+    LazyJson(@NonNull String text) {
+        this.text = text;
+    }
+
+    LazyJson(@NonNull JSONObject json) {
+        this.json = json;
+    }
+
+    static LazyJson empty() {
+        return new LazyJson(new JSONObject());
+    }
+
+    synchronized JSONObject get() {
+        if (json == null) {
+            try {
+                json = new JSONObject(text);
+            } catch (JSONException e) {
+                e.printStackTrace();
+                json = new JSONObject();
+            }
+        }
+        return json;
+    }
+
+    synchronized String getText() {
+        if (text == null) {
+            text = json.toString();
+        }
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof LazyJson)) {
+            return false;
+        }
+        LazyJson other = (LazyJson) o;
+        // the same text is the common case, different texts may still differ only in formatting
+        return getText().equals(other.getText()) || get().toString().equals(other.get().toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return get().toString().hashCode();
+    }
+}
@@ -47,9 +47,9 @@ public final class Provider implements Parcelable {
 
     private static long EIP_SERVICE_TIMEOUT = 1000 * 60 * 60 * 24 * 3;
     private static long GEOIP_SERVICE_TIMEOUT = 1000 * 60 * 60;
-    private JSONObject definition = new JSONObject(); // Represents our Provider's provider.json
-    private JSONObject eipServiceJson = new JSONObject();
-    private JSONObject geoIpJson = new JSONObject();
+    private LazyJson definition = LazyJson.empty(); // Represents our Provider's provider.json
+    private LazyJson eipServiceJson = LazyJson.empty();
+    private LazyJson geoIpJson = LazyJson.empty();
     private DefaultedURL mainUrl = new DefaultedURL();
     private DefaultedURL apiUrl = new DefaultedURL();
     private DefaultedURL geoipUrl = new DefaultedURL();
@@ -66,6 +66,9 @@ public final class Provider implements Parcelable {
 
     private boolean allowAnonymous;
     private boolean allowRegistered;
+    // version of the snapshot taken when this provider was last written to a Parcel, 0 if it has
+    // changed since
+    private transient long snapshotVersion = 0L;
 
     final public static String
             API_URL = "api_uri",
@@ -141,7 +144,7 @@ public final class Provider implements Parcelable {
     public static final Parcelable.Creator<Provider> CREATOR
             = new Parcelable.Creator<Provider>() {
         public Provider createFromParcel(Parcel in) {
-            return new Provider(in);
+            return readFromParcel(in);
         }
 
         public Provider[] newArray(int size) {
@@ -161,7 +164,7 @@ public final class Provider implements Parcelable {
 
     public boolean supportsPluggableTransports() {
         try {
-            JSONArray gatewayJsons = eipServiceJson.getJSONArray(GATEWAYS);
+            JSONArray gatewayJsons = getEipServiceJson().getJSONArray(GATEWAYS);
             for (int i = 0; i < gatewayJsons.length(); i++) {
                 JSONArray transports = gatewayJsons.getJSONObject(i).
                         getJSONObject(CAPABILITIES).
@@ -196,11 +199,13 @@ public final class Provider implements Parcelable {
     public void setProviderApiIp(String providerApiIp) {
         if (providerApiIp == null) return;
         this.providerApiIp = providerApiIp;
+        changed();
     }
 
     public void setProviderIp(String providerIp) {
         if (providerIp == null) return;
         this.providerIp = providerIp;
+        changed();
     }
 
     public String getProviderIp() {
@@ -209,6 +214,7 @@ public final class Provider implements Parcelable {
 
     public void setMainUrl(URL url) {
         mainUrl.setUrl(url);
+        changed();
     }
 
     public void setMainUrl(String url) {
@@ -217,19 +223,21 @@ public final class Provider implements Parcelable {
         } catch (MalformedURLException e) {
             e.printStackTrace();
         }
+        changed();
     }
 
     public boolean define(JSONObject providerJson) {
-        definition = providerJson;
-        return parseDefinition(definition);
+        definition = new LazyJson(providerJson);
+        changed();
+        return parseDefinition(providerJson);
     }
 
     public JSONObject getDefinition() {
-        return definition;
+        return definition.get();
     }
 
     public String getDefinitionString() {
-        return getDefinition().toString();
+        return definition.getText();
     }
 
     public String getDomain() {
@@ -258,6 +266,7 @@ public final class Provider implements Parcelable {
         } catch (MalformedURLException e) {
             this.geoipUrl = new DefaultedURL();
         }
+        changed();
     }
 
     public String getApiUrlWithVersion() {
@@ -278,11 +287,11 @@ public final class Provider implements Parcelable {
     }
 
     public boolean hasDefinition() {
-        return definition != null && definition.length() > 0;
+        return getDefinition().length() > 0;
     }
 
     public boolean hasGeoIpJson() {
-        return geoIpJson != null && geoIpJson.length() > 0;
+        return getGeoIpJson().length() > 0;
     }
 
 
@@ -294,6 +303,7 @@ public final class Provider implements Parcelable {
         // Should we pass the locale in, or query the system here?
         String lang = Locale.getDefault().getLanguage();
         String name = "";
+        JSONObject definition = getDefinition();
         try {
             if (definition != null)
                 name = definition.getJSONObject(API_TERM_NAME).getString(lang);
@@ -315,6 +325,7 @@ public final class Provider implements Parcelable {
     public String getDescription() {
         String lang = Locale.getDefault().getLanguage();
         String desc = null;
+        JSONObject definition = getDefinition();
         try {
             desc = definition.getJSONObject("description").getString(lang);
         } catch (JSONException e) {
@@ -347,13 +358,40 @@ public final class Provider implements Parcelable {
         return 0;
     }
 
+    /**
+     * Writes a version tag followed by the provider. The JSON is written as text that is only
+     * parsed when needed. A Parcel read in this process takes an immutable snapshot of the
+     * provider instead and skips the rest.
+     */
     @Override
     public void writeToParcel(Parcel parcel, int i) {
+        long version;
+        synchronized (this) {
+            if (snapshotVersion == 0L) {
+                snapshotVersion = ProviderSnapshots.nextVersion();
+            }
+            version = snapshotVersion;
+            // again if the snapshot has been evicted in the meantime
+            ProviderSnapshots.putIfAbsent(getDomain(), version, this);
+        }
+        parcel.writeLong(ProviderSnapshots.PROCESS_TOKEN);
+        parcel.writeString(getDomain());
+        parcel.writeLong(version);
+        int sizePosition = parcel.dataPosition();
+        parcel.writeInt(0);
+        int start = parcel.dataPosition();
+
         parcel.writeString(getMainUrlString());
         parcel.writeString(getProviderIp());
         parcel.writeString(getProviderApiIp());
         parcel.writeString(getGeoipUrl().toString());
         parcel.writeString(getDefinitionString());
+        parcel.writeString(getApiUrlString());
+        parcel.writeString(getApiVersion());
+        parcel.writeString(getCertificatePin());
+        parcel.writeString(getCertificatePinEncoding());
+        parcel.writeByte((byte) (allowAnonymous ? 1 : 0));
+        parcel.writeByte((byte) (allowRegistered ? 1 : 0));
         parcel.writeString(getCaCert());
         parcel.writeString(getEipServiceJsonString());
         parcel.writeString(getGeoIpJsonString());
@@ -361,10 +399,33 @@ public final class Provider implements Parcelable {
         parcel.writeString(getVpnCertificate());
         parcel.writeLong(lastEipServiceUpdate);
         parcel.writeLong(lastGeoIpUpdate);
-    }
 
+        int end = parcel.dataPosition();
+        parcel.setDataPosition(sizePosition);
+        parcel.writeInt(end - start);
+        parcel.setDataPosition(end);
+    }
+
+    private static Provider readFromParcel(Parcel in) {
+        long processToken = in.readLong();
+        String domain = in.readString();
+        long version = in.readLong();
+        int size = in.readInt();
+        int start = in.dataPosition();
+        Provider snapshot = processToken == ProviderSnapshots.PROCESS_TOKEN ?
+                ProviderSnapshots.get(domain, version) : null;
+        if (snapshot != null) {
+            in.setDataPosition(start + size);
+            Provider provider = new Provider(snapshot);
+            provider.snapshotVersion = version;
+            return provider;
+        }
+        Provider provider = new Provider(in);
+        // also skips what's left after a malformed url
+        in.setDataPosition(start + size);
+        return provider;
+    }
 
-    //TODO: write a test for marshalling!
     private Provider(Parcel in) {
         try {
             mainUrl.setUrl(new URL(in.readString()));
@@ -380,47 +441,68 @@ public final class Provider implements Parcelable {
             if (!tmpString.isEmpty()) {
                 geoipUrl.setUrl(new URL(tmpString));
             }
-            tmpString = in.readString();
-            if (!tmpString.isEmpty()) {
-                definition = new JSONObject((tmpString));
-                parseDefinition(definition);
-            }
-            tmpString = in.readString();
-            if (!tmpString.isEmpty()) {
-                this.caCert = tmpString;
-            }
-            tmpString = in.readString();
-            if (!tmpString.isEmpty()) {
-                this.setEipServiceJson(new JSONObject(tmpString));
-            }
-            tmpString = in.readString();
-            if (!tmpString.isEmpty()) {
-                this.setGeoIpJson(new JSONObject(tmpString));
-            }
-            tmpString = in.readString();
-            if (!tmpString.isEmpty()) {
-                this.setPrivateKey(tmpString);
-            }
-            tmpString = in.readString();
-            if (!tmpString.isEmpty()) {
-                this.setVpnCertificate(tmpString);
-            }
+            definition = new LazyJson(in.readString());
+            apiUrl.setUrl(new URL(in.readString()));
+            apiVersion = in.readString();
+            certificatePin = in.readString();
+            certificatePinEncoding = in.readString();
+            allowAnonymous = in.readByte() != 0;
+            allowRegistered = in.readByte() != 0;
+            caCert = in.readString();
+            eipServiceJson = new LazyJson(in.readString());
+            geoIpJson = new LazyJson(in.readString());
+            privateKey = in.readString();
+            vpnCertificate = in.readString();
             this.lastEipServiceUpdate = in.readLong();
             this.lastGeoIpUpdate = in.readLong();
-        } catch (MalformedURLException | JSONException e) {
+        } catch (MalformedURLException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Copies all fields, the JSON is shared
+     */
+    private Provider(Provider provider) {
+        definition = provider.definition;
+        eipServiceJson = provider.eipServiceJson;
+        geoIpJson = provider.geoIpJson;
+        mainUrl = copyOf(provider.mainUrl);
+        apiUrl = copyOf(provider.apiUrl);
+        geoipUrl = copyOf(provider.geoipUrl);
+        providerIp = provider.providerIp;
+        providerApiIp = provider.providerApiIp;
+        certificatePin = provider.certificatePin;
+        certificatePinEncoding = provider.certificatePinEncoding;
+        caCert = provider.caCert;
+        apiVersion = provider.apiVersion;
+        privateKey = provider.privateKey;
+        vpnCertificate = provider.vpnCertificate;
+        lastEipServiceUpdate = provider.lastEipServiceUpdate;
+        lastGeoIpUpdate = provider.lastGeoIpUpdate;
+        allowAnonymous = provider.allowAnonymous;
+        allowRegistered = provider.allowRegistered;
+    }
+
+    private static DefaultedURL copyOf(DefaultedURL url) {
+        DefaultedURL copy = new DefaultedURL();
+        copy.setUrl(url.getUrl());
+        return copy;
+    }
+
+    private synchronized void changed() {
+        snapshotVersion = 0L;
+    }
+
 
     @Override
     public boolean equals(Object o) {
         if (o instanceof Provider) {
             Provider p = (Provider) o;
             return p.getDomain().equals(getDomain()) &&
-            definition.toString().equals(p.getDefinition().toString()) &&
-            eipServiceJson.toString().equals(p.getEipServiceJsonString()) &&
-            geoIpJson.toString().equals(p.getGeoIpJsonString()) &&
+            definition.equals(p.definition) &&
+            eipServiceJson.equals(p.eipServiceJson) &&
+            geoIpJson.equals(p.geoIpJson) &&
             providerIp.equals(p.getProviderIp()) &&
             providerApiIp.equals(p.getProviderApiIp()) &&
             apiUrl.equals(p.getApiUrl()) &&
@@ -474,6 +556,7 @@ public final class Provider implements Parcelable {
 
     public void setCaCert(String cert) {
         this.caCert = cert;
+        changed();
     }
 
     public boolean allowsAnonymous() {
@@ -486,6 +569,11 @@ public final class Provider implements Parcelable {
 
     public void setLastEipServiceUpdate(long timestamp) {
         lastEipServiceUpdate = timestamp;
+        changed();
+    }
+
+    public long getLastEipServiceUpdate() {
+        return lastEipServiceUpdate;
     }
 
     public boolean shouldUpdateEipServiceJson() {
@@ -495,6 +583,11 @@ public final class Provider implements Parcelable {
 
     public void setLastGeoIpUpdate(long timestamp) {
         lastGeoIpUpdate = timestamp;
+        changed();
+    }
+
+    public long getLastGeoIpUpdate() {
+        return lastGeoIpUpdate;
     }
 
     public boolean shouldUpdateGeoIpJson() {
@@ -506,7 +599,8 @@ public final class Provider implements Parcelable {
         if (eipServiceJson.has(ERRORS)) {
             return false;
         }
-        this.eipServiceJson = eipServiceJson;
+        this.eipServiceJson = new LazyJson(eipServiceJson);
+        changed();
         return true;
     }
 
@@ -514,24 +608,25 @@ public final class Provider implements Parcelable {
         if (geoIpJson.has(ERRORS)) {
             return false;
         }
-        this.geoIpJson = geoIpJson;
+        this.geoIpJson = new LazyJson(geoIpJson);
+        changed();
         return true;
     }
 
     public JSONObject getEipServiceJson() {
-        return eipServiceJson;
+        return eipServiceJson.get();
     }
 
     public JSONObject getGeoIpJson() {
-        return geoIpJson;
+        return geoIpJson.get();
     }
 
     public String getGeoIpJsonString() {
-        return geoIpJson.toString();
+        return geoIpJson.getText();
     }
 
     public String getEipServiceJsonString() {
-        return getEipServiceJson().toString();
+        return eipServiceJson.getText();
     }
 
     public boolean isDefault() {
@@ -549,6 +644,7 @@ public final class Provider implements Parcelable {
 
     public void setPrivateKey(String privateKey) {
         this.privateKey = privateKey;
+        changed();
     }
 
     public boolean hasPrivateKey() {
@@ -561,6 +657,7 @@ public final class Provider implements Parcelable {
 
     public void setVpnCertificate(String vpnCertificate) {
         this.vpnCertificate = vpnCertificate;
+        changed();
     }
 
     public boolean hasVpnCertificate() {
@@ -579,14 +676,22 @@ public final class Provider implements Parcelable {
         return getCertificatePinEncoding() + ":" + getCertificatePin();
     }
 
+    /**
+     * @return an independent provider with the same content, e.g. to be modified by a background
+     * download while this provider is still in use
+     */
+    public Provider copy() {
+        return new Provider(this);
+    }
+
     /**
      * resets everything except the main url, the providerIp and the geoip
      * service url (currently preseeded)
      */
     public void reset() {
-        definition = new JSONObject();
-        eipServiceJson = new JSONObject();
-        geoIpJson = new JSONObject();
+        definition = LazyJson.empty();
+        eipServiceJson = LazyJson.empty();
+        geoIpJson = LazyJson.empty();
         apiUrl = new DefaultedURL();
         certificatePin = "";
         certificatePinEncoding = "";
@@ -598,5 +703,6 @@ public final class Provider implements Parcelable {
         allowAnonymous = false;
         lastGeoIpUpdate = 0L;
         lastEipServiceUpdate = 0L;
+        changed();
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.models;
+
+import androidx.annotation.Nullable;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable copies of the Providers most recently written to a Parcel, keyed by domain and
+ * version. A Parcel read in the process that wrote it takes the Provider from here instead of
+ * reading and parsing the JSON again, so the parsed JSONObjects are shared as well.
+ */
+final class ProviderSnapshots {
+
+    // distinguishes Parcels written by this process from those of a former process, e.g. in a
+    // restored instance state
+    static final long PROCESS_TOKEN = new SecureRandom().nextLong();
+    private static final int MAX_SNAPSHOTS = 4;
+
+    private static final AtomicLong lastVersion = new AtomicLong();
+    private static final LinkedHashMap<String, Provider> snapshots = new LinkedHashMap<String, Provider>(MAX_SNAPSHOTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Provider> eldest) {
+            return size() > MAX_SNAPSHOTS;
+        }
+    };
+
+    private ProviderSnapshots() { }
+
+    static long nextVersion() {
+        return lastVersion.incrementAndGet();
+    }
+
+    /**
+     * Stores a copy of provider unless there is a snapshot for domain and version already.
+     */
+    static synchronized void putIfAbsent(String domain, long version, Provider provider) {
+        String key = key(domain, version);
+        if (!snapshots.containsKey(key)) {
+            snapshots.put(key, provider.copy());
+        }
+    }
+
+    @Nullable
+    static synchronized Provider get(String domain, long version) {
+        return snapshots.get(key(domain, version));
+    }
+
+    static synchronized void clear() {
+        snapshots.clear();
+    }
+
+    private static String key(String domain, long version) {
+        return domain + "#" + version;
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import se.leap.bitmaskclient.R;
+
+/**
+ * Installed apps using the internet, indexed once on a background thread and kept current by
+ * package broadcasts afterwards. Labels are loaded while indexing, icons on demand. Icons are
+ * downscaled to the list icon size and kept in a LRU cache.
+ *
+ * Listeners are called on the main thread with a new immutable Catalog after each change.
+ */
+public class AppCatalog {
+
+    private static final int MAX_ICON_CACHE_BYTES = 8 * 1024 * 1024;
+    private static final String ANDROID_SYSTEM_PACKAGE = "android";
+    private static AppCatalog instance;
+
+    public interface CatalogListener {
+        void onCatalogChanged(Catalog catalog);
+    }
+
+    public static class App {
+        public final String packageName;
+        public final String label;
+        final ApplicationInfo info;
+
+        App(ApplicationInfo info, String label) {
+            this.packageName = info.packageName;
+            this.label = label;
+            this.info = info;
+        }
+    }
+
+    public static class Catalog {
+        public final List<App> apps;
+        public final AppSearchIndex index;
+
+        Catalog(List<App> apps) {
+            this.apps = Collections.unmodifiableList(apps);
+            ArrayList<String> labels = new ArrayList<>(apps.size());
+            for (App app : apps) {
+                labels.add(app.label);
+            }
+            this.index = new AppSearchIndex(labels);
+        }
+
+        /**
+         * @return the apps whose label matches query, best matches first
+         */
+        public List<App> search(@NonNull String query) {
+            int[] positions = index.search(query);
+            ArrayList<App> result = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                result.add(apps.get(position));
+            }
+            return result;
+        }
+    }
+
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService iconExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private PackageManager packageManager;
+    private int iconSize;
+    private LruCache<String, Bitmap> iconCache;
+    // only accessed on the indexExecutor
+    private final HashMap<String, App> appsByPackage = new HashMap<>();
+    private int androidSystemUid = 0;
+    private volatile Catalog catalog;
+
+    private AppCatalog() { }
+
+    public static synchronized AppCatalog getInstance() {
+        if (instance == null) {
+            instance = new AppCatalog();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts indexing the installed apps and listening for package changes. Calls after the first
+     * one have no effect.
+     */
+    public synchronized void init(Context context) {
+        if (packageManager != null) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        packageManager = appContext.getPackageManager();
+        iconSize = appContext.getResources().getDimensionPixelSize(android.R.dimen.app_icon_size);
+        int cacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_ICON_CACHE_BYTES);
+        iconCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        intentFilter.addDataScheme("package");
+        appContext.registerReceiver(new PackageChangeReceiver(), intentFilter);
+
+        indexExecutor.execute(this::indexAll);
+    }
+
+    /**
+     * Adds a listener. If the apps are indexed already, it is called with the current catalog.
+     */
+    public void addListener(CatalogListener listener) {
+        listeners.add(listener);
+        Catalog current = catalog;
+        if (current != null) {
+            mainHandler.post(() -> {
+                if (listeners.contains(listener)) {
+                    listener.onCatalogChanged(current);
+                }
+            });
+        }
+    }
+
+    public void removeListener(CatalogListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Nullable
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Shows the icon of app in imageView, loading it in background if it's not cached. Must be
+     * called on the main thread. A load finishing after imageView has been bound to another app
+     * is only cached, the tag of imageView is only read on the main thread.
+     */
+    public void loadIcon(@NonNull App app, @NonNull ImageView imageView) {
+        imageView.setTag(R.id.app_icon, app.packageName);
+        Bitmap icon = iconCache.get(app.packageName);
+        if (icon != null) {
+            imageView.setImageBitmap(icon);
+            return;
+        }
+        imageView.setImageDrawable(null);
+        iconExecutor.execute(() -> {
+            Bitmap loaded = iconCache.get(app.packageName);
+            if (loaded == null) {
+                loaded = createIcon(app.info.loadIcon(packageManager));
+                iconCache.put(app.packageName, loaded);
+            }
+            Bitmap result = loaded;
+            mainHandler.post(() -> {
+                if (app.packageName.equals(imageView.getTag(R.id.app_icon))) {
+                    imageView.setImageBitmap(result);
+                }
+            });
+        });
+    }
+
+    private Bitmap createIcon(Drawable drawable) {
+        Bitmap bitmap = Bitmap.createBitmap(iconSize, iconSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, iconSize, iconSize);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    private void indexAll() {
+        appsByPackage.clear();
+        try {
+            ApplicationInfo system = packageManager.getApplicationInfo(ANDROID_SYSTEM_PACKAGE, PackageManager.GET_META_DATA);
+            androidSystemUid = system.uid;
+            appsByPackage.put(system.packageName, createApp(system));
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        // Remove apps not using Internet
+        for (ApplicationInfo info : packageManager.getInstalledApplications(PackageManager.GET_META_DATA)) {
+            if (isExcludable(info)) {
+                appsByPackage.put(info.packageName, createApp(info));
+            }
+        }
+        publish();
+    }
+
+    private void indexPackage(String packageName) {
+        App removed = appsByPackage.remove(packageName);
+        iconCache.remove(packageName);
+        try {
+            ApplicationInfo info = packageManager.getApplicationInfo(packageName, PackageManager.GET_META_DATA);
+            // the android system is listed like in indexAll, although its uid is not excludable on its own
+            if (ANDROID_SYSTEM_PACKAGE.equals(packageName)) {
+                androidSystemUid = info.uid;
+                appsByPackage.put(packageName, createApp(info));
+            } else if (isExcludable(info)) {
+                appsByPackage.put(packageName, createApp(info));
+            } else if (removed == null) {
+                return;
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            if (removed == null) {
+                return;
+            }
+        }
+        publish();
+    }
+
+    private void publish() {
+        ArrayList<App> apps = new ArrayList<>(appsByPackage.values());
+        Collator collator = Collator.getInstance();
+        Collections.sort(apps, (a, b) -> collator.compare(a.label, b.label));
+        Catalog newCatalog = new Catalog(apps);
+        catalog = newCatalog;
+        mainHandler.post(() -> {
+            for (CatalogListener listener : listeners) {
+                listener.onCatalogChanged(newCatalog);
+            }
+        });
+    }
+
+    // apps sharing the uid of the android system are excluded together with it
+    private boolean isExcludable(ApplicationInfo info) {
+        return info.uid != androidSystemUid &&
+                packageManager.checkPermission(Manifest.permission.INTERNET, info.packageName) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private App createApp(ApplicationInfo info) {
+        CharSequence label = info.loadLabel(packageManager);
+        return new App(info, TextUtils.isEmpty(label) ? info.packageName : label.toString());
+    }
+
+    private class PackageChangeReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data == null || data.getSchemeSpecificPart() == null) {
+                return;
+            }
+            String packageName = data.getSchemeSpecificPart();
+            indexExecutor.execute(() -> indexPackage(packageName));
+        }
+    }
+}
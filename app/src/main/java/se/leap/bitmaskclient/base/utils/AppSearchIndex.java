@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Case insensitive search over a fixed list of app labels. Results are the positions of the
+ * matching labels: labels containing a word starting with the query come first, labels containing
+ * the query anywhere else follow, both in list order.
+ *
+ * Word prefixes are looked up by binary search in the sorted label tails starting at each word.
+ * Substring matches of a query extending the previous one are only searched among the previous
+ * matches, which is the common case while typing.
+ */
+public class AppSearchIndex {
+
+    private final Locale locale;
+    private final String[] labels;
+    // label tails starting at a word, sorted, and the position of the label each one belongs to
+    private final String[] wordTails;
+    private final int[] wordTailPositions;
+
+    private String lastQuery;
+    private BitSet lastMatches;
+
+    public AppSearchIndex(@NonNull List<String> labels) {
+        this(labels, Locale.getDefault());
+    }
+
+    AppSearchIndex(@NonNull List<String> labels, @NonNull Locale locale) {
+        this.locale = locale;
+        this.labels = new String[labels.size()];
+        ArrayList<String> tails = new ArrayList<>();
+        ArrayList<Integer> tailPositions = new ArrayList<>();
+        for (int i = 0; i < this.labels.length; i++) {
+            String label = labels.get(i).toLowerCase(locale);
+            this.labels[i] = label;
+            for (int start = 0; start < label.length(); start++) {
+                if (isWordStart(label, start)) {
+                    tails.add(label.substring(start));
+                    tailPositions.add(i);
+                }
+            }
+        }
+
+        Integer[] order = new Integer[tails.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> tails.get(a).compareTo(tails.get(b)));
+        wordTails = new String[order.length];
+        wordTailPositions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            wordTails[i] = tails.get(order[i]);
+            wordTailPositions[i] = tailPositions.get(order[i]);
+        }
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * @return positions of the labels matching query, word prefix matches first
+     */
+    public synchronized int[] search(@NonNull String query) {
+        query = query.toLowerCase(locale);
+        if (query.isEmpty()) {
+            lastQuery = null;
+            lastMatches = null;
+            int[] all = new int[labels.length];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        BitSet matches = new BitSet(labels.length);
+        if (lastQuery != null && query.startsWith(lastQuery)) {
+            for (int i = lastMatches.nextSetBit(0); i >= 0; i = lastMatches.nextSetBit(i + 1)) {
+                if (labels[i].contains(query)) {
+                    matches.set(i);
+                }
+            }
+        } else {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i].contains(query)) {
+                    matches.set(i);
+                }
+            }
+        }
+        lastQuery = query;
+        lastMatches = matches;
+
+        BitSet prefixMatches = searchWordPrefix(query);
+        BitSet otherMatches = (BitSet) matches.clone();
+        otherMatches.andNot(prefixMatches);
+
+        int[] result = new int[matches.cardinality()];
+        int n = 0;
+        for (int i = prefixMatches.nextSetBit(0); i >= 0; i = prefixMatches.nextSetBit(i + 1)) {
+            result[n++] = i;
+        }
+        for (int i = otherMatches.nextSetBit(0); i >= 0; i = otherMatches.nextSetBit(i + 1)) {
+            result[n++] = i;
+        }
+        return result;
+    }
+
+    private BitSet searchWordPrefix(String query) {
+        BitSet matches = new BitSet(labels.length);
+        int low = 0;
+        int high = wordTails.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (wordTails[middle].compareTo(query) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < wordTails.length && wordTails[i].startsWith(query); i++) {
+            matches.set(wordTailPositions[i]);
+        }
+        return matches;
+    }
+
+    private static boolean isWordStart(String label, int index) {
+        char c = label.charAt(index);
+        if (!Character.isLetterOrDigit(c)) {
+            return false;
+        }
+        return index == 0 || !Character.isLetterOrDigit(label.charAt(index - 1));
+    }
+}
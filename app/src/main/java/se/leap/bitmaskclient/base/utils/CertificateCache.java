@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the certificates, private keys and trust stores parsed from PEM strings, so the provider
+ * CA and the VPN certificate are parsed once instead of for every connection, download and
+ * validity check. Entries are keyed by a SHA-256 hash of the PEM string and are immutable once
+ * cached, a KeyStore returned by getKeyStore() must not be modified.
+ *
+ * Entries of a replaced certificate are dropped with invalidate(), the least recently used
+ * entries are dropped if the cache is full.
+ */
+public class CertificateCache {
+
+    static final int MAX_ENTRIES = 16;
+    static final String PROVIDER_CA_ALIAS = "provider_ca_certificate";
+
+    private static final String X509_CERTIFICATE = "x509:";
+    private static final String RSA_KEY = "rsa:";
+    private static final String KEY_STORE = "keystore:";
+
+    private static CertificateCache instance;
+
+    private static class Entry {
+        final Object value;
+        // time it took to create the value
+        final long parseNanos;
+
+        Entry(Object value, long parseNanos) {
+            this.value = value;
+            this.parseNanos = parseNanos;
+        }
+    }
+
+    // guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private long hits;
+    private long misses;
+    private long parseNanos;
+    private long savedNanos;
+
+    CertificateCache() {
+    }
+
+    public static synchronized CertificateCache getInstance() {
+        if (instance == null) {
+            instance = new CertificateCache();
+        }
+        return instance;
+    }
+
+    /**
+     * @return the parsed certificate or null if certificateString isn't a valid certificate
+     */
+    @Nullable
+    public X509Certificate getX509Certificate(@Nullable String certificateString) {
+        if (certificateString == null) {
+            return null;
+        }
+        String key = X509_CERTIFICATE + hash(certificateString);
+        X509Certificate certificate = (X509Certificate) get(key);
+        if (certificate != null) {
+            return certificate;
+        }
+        long start = System.nanoTime();
+        certificate = ConfigHelper.parseX509CertificateFromString(certificateString);
+        if (certificate != null) {
+            put(key, certificate, System.nanoTime() - start);
+        }
+        return certificate;
+    }
+
+    /**
+     * @return the parsed key or null if rsaKeyString isn't a valid RSA private key
+     */
+    @Nullable
+    public RSAPrivateKey getRsaPrivateKey(@Nullable String rsaKeyString) {
+        if (rsaKeyString == null) {
+            return null;
+        }
+        String key = RSA_KEY + hash(rsaKeyString);
+        RSAPrivateKey privateKey = (RSAPrivateKey) get(key);
+        if (privateKey != null) {
+            return privateKey;
+        }
+        long start = System.nanoTime();
+        privateKey = ConfigHelper.parseRsaKeyFromString(rsaKeyString);
+        if (privateKey != null) {
+            put(key, privateKey, System.nanoTime() - start);
+        }
+        return privateKey;
+    }
+
+    /**
+     * @return a KeyStore of the default type trusting only the given CA certificate
+     */
+    @NonNull
+    public KeyStore getKeyStore(@NonNull String caCertificateString) throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+        String key = KEY_STORE + hash(caCertificateString);
+        KeyStore keyStore = (KeyStore) get(key);
+        if (keyStore != null) {
+            return keyStore;
+        }
+        long start = System.nanoTime();
+        keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry(PROVIDER_CA_ALIAS, getX509Certificate(caCertificateString));
+        put(key, keyStore, System.nanoTime() - start);
+        return keyStore;
+    }
+
+    /**
+     * Adds a certificate that has been parsed already, e.g. before it was stored in a different
+     * encoding.
+     */
+    public void putX509Certificate(@NonNull String certificateString, @NonNull X509Certificate certificate) {
+        put(X509_CERTIFICATE + hash(certificateString), certificate, 0);
+    }
+
+    public void putRsaPrivateKey(@NonNull String rsaKeyString, @NonNull RSAPrivateKey privateKey) {
+        put(RSA_KEY + hash(rsaKeyString), privateKey, 0);
+    }
+
+    /**
+     * Drops everything parsed from pemString. Call it if a certificate or key is replaced.
+     */
+    public void invalidate(@Nullable String pemString) {
+        if (pemString == null || pemString.isEmpty()) {
+            return;
+        }
+        String hash = hash(pemString);
+        synchronized (this) {
+            for (Iterator<String> iterator = entries.keySet().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().endsWith(hash)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the time spent parsing and building entries
+     */
+    public synchronized long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return the time the cache hits would have taken to parse again
+     */
+    public synchronized long getSavedNanos() {
+        return savedNanos;
+    }
+
+    public synchronized String getStatistics() {
+        long lookups = hits + misses;
+        return String.format(Locale.US, "Certificate cache: %d hits, %d misses (%d%% hit rate), %d ms parsing, %d ms saved",
+                hits, misses, lookups == 0 ? 0 : hits * 100 / lookups,
+                parseNanos / 1000000, savedNanos / 1000000);
+    }
+
+    private synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        savedNanos += entry.parseNanos;
+        return entry.value;
+    }
+
+    private synchronized void put(String key, Object value, long parseNanos) {
+        this.parseNanos += parseNanos;
+        entries.put(key, new Entry(value, parseNanos));
+    }
+
+    private static String hash(String pemString) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(pemString.getBytes("UTF-8"));
+            return String.format("%064x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // SHA-256 and UTF-8 are always available
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -14,78 +14,34 @@
  * You should have received a copy of the GNU General Public License
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
-
 package se.leap.bitmaskclient.base.utils;
 
 import androidx.annotation.WorkerThread;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
 
 public class Cmd {
 
     private static final String TAG = Cmd.class.getSimpleName();
+    private static final long TIMEOUT_SECONDS = 30;
 
+    /**
+     * Runs the commands in a new shell and appends its stdout and then its stderr to log.
+     * @return the exit code of the shell or -1 if it has been killed after a timeout
+     */
     @WorkerThread
     public static int runBlockingCmd(String[] cmds, StringBuilder log) throws Exception {
-        return runCmd(cmds, log, true);
-    }
-
-    @WorkerThread
-    private static int runCmd(String[] cmds, StringBuilder log,
-                       boolean waitFor) throws Exception {
-
-        int exitCode = -1;
-        Process proc = Runtime.getRuntime().exec("sh");
-        OutputStreamWriter out = new OutputStreamWriter(proc.getOutputStream());
-
-        try {
-            for (String cmd : cmds) {
-                out.write(cmd);
-                out.write("\n");
-            }
-
-            out.flush();
-            out.write("exit\n");
-            out.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            out.close();
+        StringBuilder script = new StringBuilder();
+        for (String cmd : cmds) {
+            script.append(cmd).append('\n');
         }
+        script.append("exit\n");
 
-        if (waitFor) {
-            // Consume the "stdout"
-            InputStreamReader reader = new InputStreamReader(proc.getInputStream());
-            readToLogString(reader, log);
-
-            // Consume the "stderr"
-            reader = new InputStreamReader(proc.getErrorStream());
-            readToLogString(reader, log);
-
-            try {
-                exitCode = proc.waitFor();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-
-        return exitCode;
-    }
-
-    private static void readToLogString(InputStreamReader reader, StringBuilder log) throws IOException {
-        final char buf[] = new char[10];
-        int read = 0;
-        try {
-            while ((read = reader.read(buf)) != -1) {
-                if (log != null)
-                    log.append(buf, 0, read);
-            }
-        } catch (IOException e) {
-            reader.close();
-            throw new IOException(e);
+        ProcessRunner.Result result = ProcessRunner.start(new String[]{"sh"}, script.toString())
+                .waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (log != null) {
+            log.append(result.stdout).append(result.stderr);
         }
-        reader.close();
+        return result.killed ? -1 : result.exitCode;
     }
 }
@@ -47,7 +47,7 @@ public class KeyStoreHelper {
     public static void addTrustedCertificate(String provider, String certificate) {
 
         try {
-            X509Certificate cert = ConfigHelper.parseX509CertificateFromString(certificate);
+            X509Certificate cert = CertificateCache.getInstance().getX509Certificate(certificate);
             if (trustedKeystore == null) {
                 trustedKeystore = KeyStore.getInstance("BKS");
                 trustedKeystore.load(null);
@@ -7,9 +7,13 @@ import androidx.annotation.NonNull;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import de.blinkt.openvpn.VpnProfile;
@@ -34,6 +38,7 @@ import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.models.Constants.SHOW_EXPERIMENTAL;
 import static se.leap.bitmaskclient.base.models.Constants.USE_IPv6_FIREWALL;
 import static se.leap.bitmaskclient.base.models.Constants.USE_PLUGGABLE_TRANSPORTS;
+import static se.leap.bitmaskclient.base.models.Constants.USE_RACE_CONNECT;
 
 /**
  * Created by cyberta on 18.03.18.
@@ -41,18 +46,32 @@ import static se.leap.bitmaskclient.base.models.Constants.USE_PLUGGABLE_TRANSPOR
 
 public class PreferenceHelper {
 
+    // details of a provider kept in the ProviderStore, the shared preferences only keep the main url
+    // of the current provider
+    private static final String[] PROVIDER_FIELDS = {
+            Provider.MAIN_URL,
+            Provider.PROVIDER_IP,
+            Provider.PROVIDER_API_IP,
+            Provider.GEOIP_URL,
+            Provider.KEY,
+            Provider.CA_CERT,
+            PROVIDER_EIP_DEFINITION,
+            PROVIDER_PRIVATE_KEY,
+            PROVIDER_VPN_CERTIFICATE
+    };
+
     public static Provider getSavedProviderFromSharedPreferences(@NonNull SharedPreferences preferences) {
         Provider provider = new Provider();
         try {
             provider.setMainUrl(new URL(preferences.getString(Provider.MAIN_URL, "")));
-            provider.setProviderIp(preferences.getString(Provider.PROVIDER_IP, ""));
-            provider.setProviderApiIp(preferences.getString(Provider.PROVIDER_API_IP, ""));
-            provider.setGeoipUrl(preferences.getString(Provider.GEOIP_URL, ""));
-            provider.define(new JSONObject(preferences.getString(Provider.KEY, "")));
-            provider.setCaCert(preferences.getString(Provider.CA_CERT, ""));
-            provider.setVpnCertificate(preferences.getString(PROVIDER_VPN_CERTIFICATE, ""));
-            provider.setPrivateKey(preferences.getString(PROVIDER_PRIVATE_KEY, ""));
-            provider.setEipServiceJson(new JSONObject(preferences.getString(PROVIDER_EIP_DEFINITION, "")));
+            provider.setProviderIp(getFromCurrentProvider(Provider.PROVIDER_IP, preferences));
+            provider.setProviderApiIp(getFromCurrentProvider(Provider.PROVIDER_API_IP, preferences));
+            provider.setGeoipUrl(getFromCurrentProvider(Provider.GEOIP_URL, preferences));
+            provider.define(new JSONObject(getFromCurrentProvider(Provider.KEY, preferences)));
+            provider.setCaCert(getFromCurrentProvider(Provider.CA_CERT, preferences));
+            provider.setVpnCertificate(getFromCurrentProvider(PROVIDER_VPN_CERTIFICATE, preferences));
+            provider.setPrivateKey(getFromCurrentProvider(PROVIDER_PRIVATE_KEY, preferences));
+            provider.setEipServiceJson(new JSONObject(getFromCurrentProvider(PROVIDER_EIP_DEFINITION, preferences)));
         } catch (MalformedURLException | JSONException e) {
             e.printStackTrace();
         }
@@ -61,12 +80,75 @@ public class PreferenceHelper {
     }
 
     public static String getFromPersistedProvider(String toFetch, String providerDomain, SharedPreferences preferences) {
+        ProviderStore store = ProviderStore.getInstance();
+        if (store != null) {
+            return store.get(providerDomain, toFetch);
+        }
         return preferences.getString(toFetch + "." + providerDomain, "");
     }
 
+    public static boolean hasPersistedProvider(String toFetch, String providerDomain, SharedPreferences preferences) {
+        ProviderStore store = ProviderStore.getInstance();
+        if (store != null) {
+            return store.contains(providerDomain, toFetch);
+        }
+        return preferences.contains(toFetch + "." + providerDomain);
+    }
+
+    /**
+     * @return a detail of the current provider or an empty string
+     */
+    public static String getFromCurrentProvider(String toFetch, SharedPreferences preferences) {
+        ProviderStore store = ProviderStore.getInstance();
+        if (store != null) {
+            return store.get(getCurrentProviderDomain(preferences), toFetch);
+        }
+        return preferences.getString(toFetch, "");
+    }
+
+    private static String getCurrentProviderDomain(SharedPreferences preferences) {
+        try {
+            return new URL(preferences.getString(Provider.MAIN_URL, "")).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
     // TODO: replace commit with apply after refactoring EIP
-    //FIXME: don't save private keys in shared preferences! use the keystore
+    //FIXME: don't save private keys unencrypted! use the keystore
     public static void storeProviderInPreferences(SharedPreferences preferences, Provider provider) {
+        ProviderStore store = ProviderStore.getInstance();
+        if (store == null) {
+            storeProviderInLegacyPreferences(preferences, provider);
+            return;
+        }
+
+        HashMap<String, String> fields = new HashMap<>();
+        fields.put(Provider.PROVIDER_IP, provider.getProviderIp());
+        fields.put(Provider.GEOIP_URL, provider.getGeoipUrl().toString());
+        fields.put(Provider.PROVIDER_API_IP, provider.getProviderApiIp());
+        fields.put(Provider.MAIN_URL, provider.getMainUrlString());
+        fields.put(Provider.KEY, provider.getDefinitionString());
+        fields.put(Provider.CA_CERT, provider.getCaCert());
+        fields.put(PROVIDER_EIP_DEFINITION, provider.getEipServiceJsonString());
+        fields.put(PROVIDER_PRIVATE_KEY, provider.getPrivateKey());
+        fields.put(PROVIDER_VPN_CERTIFICATE, provider.getVpnCertificate());
+        try {
+            store.put(provider.getDomain(), fields);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        preferences.edit().putBoolean(PROVIDER_CONFIGURED, true).
+                putString(Provider.MAIN_URL, provider.getMainUrlString()).
+                commit();
+    }
+
+    /**
+     * Former layout storing the provider twice in the shared preferences, used as long as no
+     * ProviderStore has been initialized
+     */
+    private static void storeProviderInLegacyPreferences(SharedPreferences preferences, Provider provider) {
         preferences.edit().putBoolean(PROVIDER_CONFIGURED, true).
                 putString(Provider.PROVIDER_IP, provider.getProviderIp()).
                 putString(Provider.GEOIP_URL, provider.getGeoipUrl().toString()).
@@ -91,6 +173,70 @@ public class PreferenceHelper {
                 apply();
     }
 
+    /**
+     * Moves the provider details written by former versions from the shared preferences into store.
+     * The details of the current provider win over the copy stored under its domain.
+     */
+    public static void migrateProvidersToStore(@NonNull SharedPreferences preferences, @NonNull ProviderStore store) {
+        Map<String, ?> all = preferences.getAll();
+        if (all == null) {
+            return;
+        }
+        HashMap<String, HashMap<String, String>> providers = new HashMap<>();
+        ArrayList<String> migratedKeys = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            for (String field : PROVIDER_FIELDS) {
+                String key = entry.getKey();
+                if (key.length() > field.length() + 1 && key.startsWith(field + ".")) {
+                    getOrCreate(providers, key.substring(field.length() + 1)).put(field, (String) entry.getValue());
+                    migratedKeys.add(key);
+                }
+            }
+        }
+
+        String currentDomain = getCurrentProviderDomain(preferences);
+        if (!currentDomain.isEmpty()) {
+            for (String field : PROVIDER_FIELDS) {
+                if (all.get(field) instanceof String) {
+                    getOrCreate(providers, currentDomain).put(field, (String) all.get(field));
+                    if (!Provider.MAIN_URL.equals(field)) {
+                        migratedKeys.add(field);
+                    }
+                }
+            }
+        }
+        if (migratedKeys.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, HashMap<String, String>> provider : providers.entrySet()) {
+            try {
+                store.put(provider.getKey(), provider.getValue());
+            } catch (IOException e) {
+                // keep the old keys and try again on next start
+                e.printStackTrace();
+                return;
+            }
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String key : migratedKeys) {
+            editor.remove(key);
+        }
+        editor.commit();
+    }
+
+    private static HashMap<String, String> getOrCreate(HashMap<String, HashMap<String, String>> providers, String domain) {
+        HashMap<String, String> fields = providers.get(domain);
+        if (fields == null) {
+            fields = new HashMap<>();
+            providers.put(domain, fields);
+        }
+        return fields;
+    }
+
     /**
      * Sets the profile that is connected (to connect if the service restarts)
      */
@@ -111,6 +257,11 @@ public class PreferenceHelper {
     }
 
     public static void deleteProviderDetailsFromPreferences(@NonNull SharedPreferences preferences, String providerDomain) {
+        ProviderStore store = ProviderStore.getInstance();
+        if (store != null) {
+            store.delete(providerDomain);
+            return;
+        }
         preferences.edit().
                 remove(Provider.KEY + "." + providerDomain).
                 remove(Provider.CA_CERT + "." + providerDomain).
@@ -196,6 +347,14 @@ public class PreferenceHelper {
         return getBoolean(context, USE_IPv6_FIREWALL, false);
     }
 
+    public static void setUseRaceConnect(Context context, boolean useRaceConnect) {
+        putBoolean(context, USE_RACE_CONNECT, useRaceConnect);
+    }
+
+    public static boolean getUseRaceConnect(Context context) {
+        return getBoolean(context, USE_RACE_CONNECT, false);
+    }
+
     public static void saveShowAlwaysOnDialog(Context context, boolean showAlwaysOnDialog) {
         putBoolean(context, ALWAYS_ON_SHOW_DIALOG, showAlwaysOnDialog);
     }
@@ -215,7 +374,7 @@ public class PreferenceHelper {
     public static JSONObject getEipDefinitionFromPreferences(SharedPreferences preferences) {
         JSONObject result = new JSONObject();
         try {
-            String eipDefinitionString = preferences.getString(PROVIDER_EIP_DEFINITION, "");
+            String eipDefinitionString = getFromCurrentProvider(PROVIDER_EIP_DEFINITION, preferences);
             if (!eipDefinitionString.isEmpty()) {
                 result = new JSONObject(eipDefinitionString);
             }
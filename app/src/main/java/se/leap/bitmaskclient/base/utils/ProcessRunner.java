@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a process and drains its stdout and stderr concurrently, so a child writing a lot to one
+ * stream can't block on a full pipe while the other one is read. Each stream keeps only its last
+ * bufferSize characters, which allows long running processes like the obfs4 dispatcher to log
+ * without growing the memory.
+ *
+ * The command is exec'd by a shell that reports its pid first, so the pid of the command is known
+ * right after it has been started.
+ */
+public class ProcessRunner {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    // how long to wait for the remaining output after a timeout, children of the process might
+    // keep its streams open
+    private static final long DRAIN_TIMEOUT_MS = 1000;
+
+    // drains and waits for processes, threads end after a minute without work
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    public static class Result {
+        public final int exitCode;
+        public final String stdout;
+        public final String stderr;
+        // the process has been destroyed after the timeout or by cancel()
+        public final boolean killed;
+
+        Result(int exitCode, String stdout, String stderr, boolean killed) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.killed = killed;
+        }
+    }
+
+    /**
+     * Keeps the last characters written to it.
+     */
+    static class RingBuffer {
+        private final char[] buffer;
+        private int start;
+        private int length;
+        private long dropped;
+
+        RingBuffer(int capacity) {
+            buffer = new char[capacity];
+        }
+
+        synchronized void write(char[] chars, int offset, int count) {
+            if (count >= buffer.length) {
+                dropped += length + count - buffer.length;
+                System.arraycopy(chars, offset + count - buffer.length, buffer, 0, buffer.length);
+                start = 0;
+                length = buffer.length;
+                return;
+            }
+            int overflow = length + count - buffer.length;
+            if (overflow > 0) {
+                dropped += overflow;
+                start = (start + overflow) % buffer.length;
+                length -= overflow;
+            }
+            int end = (start + length) % buffer.length;
+            int firstPart = Math.min(count, buffer.length - end);
+            System.arraycopy(chars, offset, buffer, end, firstPart);
+            System.arraycopy(chars, offset + firstPart, buffer, 0, count - firstPart);
+            length += count;
+        }
+
+        /**
+         * @return the number of characters that didn't fit
+         */
+        synchronized long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public synchronized String toString() {
+            int firstPart = Math.min(length, buffer.length - start);
+            StringBuilder builder = new StringBuilder(length);
+            builder.append(buffer, start, firstPart);
+            builder.append(buffer, 0, length - firstPart);
+            return builder.toString();
+        }
+    }
+
+    private final Process process;
+    private final RingBuffer stdout;
+    private final RingBuffer stderr;
+    private final CountDownLatch pidReported = new CountDownLatch(1);
+    private final CountDownLatch exited = new CountDownLatch(1);
+    private final CountDownLatch drained = new CountDownLatch(2);
+    private volatile int pid = -1;
+    private volatile int exitCode = -1;
+    private volatile boolean killed;
+
+    private ProcessRunner(Process process, int bufferSize) {
+        this.process = process;
+        this.stdout = new RingBuffer(bufferSize);
+        this.stderr = new RingBuffer(bufferSize);
+    }
+
+    /**
+     * Starts command and writes stdin to it.
+     * @param command the executable and its arguments, not interpreted by a shell
+     * @param stdin the input for the process, its stdin is closed afterwards
+     */
+    public static ProcessRunner start(@NonNull String[] command, @Nullable String stdin, int bufferSize) throws IOException {
+        String[] shellCommand = new String[command.length + 3];
+        shellCommand[0] = "sh";
+        shellCommand[1] = "-c";
+        shellCommand[2] = "echo $$; exec \"$0\" \"$@\"";
+        System.arraycopy(command, 0, shellCommand, 3, command.length);
+
+        ProcessRunner runner = new ProcessRunner(Runtime.getRuntime().exec(shellCommand), bufferSize);
+        runner.drain(runner.process.getInputStream(), runner.stdout, true);
+        runner.drain(runner.process.getErrorStream(), runner.stderr, false);
+        executor.execute(runner::waitForExit);
+        runner.writeStdin(stdin);
+        return runner;
+    }
+
+    public static ProcessRunner start(@NonNull String[] command, @Nullable String stdin) throws IOException {
+        return start(command, stdin, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @return the pid of the process or -1 if it couldn't be started
+     */
+    @WorkerThread
+    public int getPid() throws InterruptedException {
+        pidReported.await();
+        return pid;
+    }
+
+    public boolean isRunning() {
+        return exited.getCount() > 0;
+    }
+
+    /**
+     * Waits until the process has ended and its output has been read.
+     */
+    @WorkerThread
+    public Result waitFor() throws InterruptedException {
+        exited.await();
+        drained.await();
+        return getResult();
+    }
+
+    /**
+     * Waits until the process has ended and its output has been read. The process is destroyed if
+     * it's still running after the timeout.
+     */
+    @WorkerThread
+    public Result waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!exited.await(timeout, unit)) {
+            cancel();
+            exited.await();
+        }
+        drained.await(Math.max(deadline - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS)), TimeUnit.NANOSECONDS);
+        return getResult();
+    }
+
+    /**
+     * Destroys the process. Doesn't block.
+     */
+    public void cancel() {
+        if (isRunning()) {
+            killed = true;
+            process.destroy();
+        }
+    }
+
+    public String getStdout() {
+        return stdout.toString();
+    }
+
+    public String getStderr() {
+        return stderr.toString();
+    }
+
+    private Result getResult() {
+        return new Result(exitCode, stdout.toString(), stderr.toString(), killed);
+    }
+
+    private void writeStdin(@Nullable String input) {
+        try (OutputStream outputStream = process.getOutputStream()) {
+            if (input != null) {
+                outputStream.write(input.getBytes("UTF-8"));
+            }
+        } catch (IOException e) {
+            // the process has ended before reading its input
+            e.printStackTrace();
+        }
+    }
+
+    private void drain(InputStream inputStream, RingBuffer ringBuffer, boolean readPid) {
+        executor.execute(() -> {
+            try (Reader reader = new InputStreamReader(inputStream, "UTF-8")) {
+                if (readPid) {
+                    readPid(reader);
+                }
+                char[] buf = new char[4096];
+                int read;
+                while ((read = reader.read(buf)) != -1) {
+                    ringBuffer.write(buf, 0, read);
+                }
+            } catch (IOException e) {
+                // the stream is closed when the process is destroyed
+            } finally {
+                pidReported.countDown();
+                drained.countDown();
+            }
+        });
+    }
+
+    /**
+     * Reads the first line of stdout, written by the shell before it exec'd the command.
+     */
+    private void readPid(Reader reader) throws IOException {
+        int value = 0;
+        int c;
+        while ((c = reader.read()) != -1 && c != '\n') {
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + c - '0';
+            }
+        }
+        if (c == '\n') {
+            pid = value;
+        }
+        pidReported.countDown();
+    }
+
+    private void waitForExit() {
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            exited.countDown();
+        }
+    }
+}
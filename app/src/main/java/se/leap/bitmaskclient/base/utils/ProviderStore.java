@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.base.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the details of each provider (provider.json, CA cert, eip-service.json, VPN certificate,
+ * private key, ...) in a file of its own instead of in the shared preferences.
+ *
+ * File layout, all numbers big endian:
+ * header: int magic, short version, short number of fields, int length of the table
+ * table: per field the key (modified UTF-8), int offset of the value after the table, int length
+ * values: the UTF-8 encoded values
+ *
+ * Only the table is read when a provider is first accessed, values are read on demand and cached.
+ * A provider is always written as a whole to a temporary file that is renamed over the old one,
+ * so readers never see a partly written provider.
+ */
+public class ProviderStore {
+
+    private static final String TAG = ProviderStore.class.getSimpleName();
+
+    static final int MAGIC = 0x4c505256; // "LPRV"
+    static final int VERSION = 1;
+    static final String FILE_EXTENSION = ".provider";
+    private static final String TMP_EXTENSION = ".tmp";
+    private static final int HEADER_SIZE = 12;
+
+    private static ProviderStore instance;
+
+    private final File directory;
+    private final HashMap<String, Record> records = new HashMap<>();
+
+    /**
+     * Initializes the store shared by the app, called once the app's files directory is known.
+     */
+    public static synchronized ProviderStore init(@NonNull File directory) {
+        if (instance == null) {
+            instance = new ProviderStore(directory);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the shared store or null if it has not been initialized yet
+     */
+    @Nullable
+    public static synchronized ProviderStore getInstance() {
+        return instance;
+    }
+
+    ProviderStore(@NonNull File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create provider store " + directory);
+        }
+        deleteTemporaryFiles();
+    }
+
+    /**
+     * @return the value of field for the provider of domain or an empty string if there is none
+     */
+    @NonNull
+    public synchronized String get(String domain, String field) {
+        Record record = getRecord(domain);
+        String value = record.values.get(field);
+        if (value != null) {
+            return value;
+        }
+        long[] position = record.positions.get(field);
+        if (position == null) {
+            return "";
+        }
+        try {
+            value = readValue(record, position);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "";
+        }
+        record.values.put(field, value);
+        return value;
+    }
+
+    public synchronized boolean contains(String domain, String field) {
+        Record record = getRecord(domain);
+        return record.values.containsKey(field) || record.positions.containsKey(field);
+    }
+
+    public synchronized boolean contains(String domain) {
+        return !getRecord(domain).isEmpty();
+    }
+
+    /**
+     * Adds or replaces fields of the provider of domain, fields that are not passed are kept.
+     */
+    public synchronized void put(String domain, Map<String, String> fields) throws IOException {
+        Record record = getRecord(domain);
+        LinkedHashMap<String, String> values = new LinkedHashMap<>();
+        for (String field : record.positions.keySet()) {
+            values.put(field, get(domain, field));
+        }
+        values.putAll(record.values);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            values.put(field.getKey(), field.getValue() != null ? field.getValue() : "");
+        }
+        write(record.file, values);
+        record.positions.clear();
+        record.values.clear();
+        record.values.putAll(values);
+    }
+
+    public synchronized void put(String domain, String field, String value) throws IOException {
+        HashMap<String, String> fields = new HashMap<>();
+        fields.put(field, value);
+        put(domain, fields);
+    }
+
+    /**
+     * Removes all fields of the provider of domain.
+     */
+    public synchronized void delete(String domain) {
+        Record record = getRecord(domain);
+        if (record.file.exists() && !record.file.delete()) {
+            Log.e(TAG, "Could not delete " + record.file);
+        }
+        record.positions.clear();
+        record.values.clear();
+    }
+
+    private Record getRecord(String domain) {
+        Record record = records.get(domain);
+        if (record == null) {
+            record = new Record(new File(directory, fileName(domain)));
+            try {
+                readTable(record);
+            } catch (IOException e) {
+                // a damaged or unknown file is treated like a missing one and replaced by the next put
+                e.printStackTrace();
+                record.positions.clear();
+            }
+            records.put(domain, record);
+        }
+        return record;
+    }
+
+    static String fileName(String domain) {
+        StringBuilder name = new StringBuilder(domain.length() + FILE_EXTENSION.length());
+        for (int i = 0; i < domain.length(); i++) {
+            char c = domain.charAt(i);
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                    c == '-' || c == '_' || (c == '.' && i > 0);
+            name.append(allowed ? c : '_');
+        }
+        return name.append(FILE_EXTENSION).toString();
+    }
+
+    private static void readTable(Record record) throws IOException {
+        if (!record.file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(record.file));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a provider file: " + record.file);
+            }
+            int version = in.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IOException("Unknown provider file version " + version + ": " + record.file);
+            }
+            int fields = in.readUnsignedShort();
+            record.valuesStart = HEADER_SIZE + in.readInt();
+            for (int i = 0; i < fields; i++) {
+                String field = in.readUTF();
+                int offset = in.readInt();
+                int length = in.readInt();
+                record.positions.put(field, new long[]{offset, length});
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readValue(Record record, long[] position) throws IOException {
+        byte[] bytes = new byte[(int) position[1]];
+        RandomAccessFile file = new RandomAccessFile(record.file, "r");
+        try {
+            file.seek(record.valuesStart + position[0]);
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void write(File file, Map<String, String> values) throws IOException {
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream tableOut = new DataOutputStream(table);
+        byte[][] encoded = new byte[values.size()][];
+        int offset = 0;
+        int i = 0;
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            encoded[i] = value.getValue().getBytes("UTF-8");
+            tableOut.writeUTF(value.getKey());
+            tableOut.writeInt(offset);
+            tableOut.writeInt(encoded[i].length);
+            offset += encoded[i].length;
+            i++;
+        }
+
+        File tmp = new File(file.getPath() + TMP_EXTENSION);
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(values.size());
+            out.writeInt(table.size());
+            table.writeTo(out);
+            for (byte[] value : encoded) {
+                out.write(value);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    private void deleteTemporaryFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            // left over from a write that has been interrupted before the rename
+            if (file.getName().endsWith(FILE_EXTENSION + TMP_EXTENSION)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static class Record {
+        final File file;
+        // offset and length of the values that have not been read yet
+        final HashMap<String, long[]> positions = new HashMap<>();
+        final HashMap<String, String> values = new HashMap<>();
+        long valuesStart;
+
+        Record(File file) {
+            this.file = file;
+        }
+
+        boolean isEmpty() {
+            return positions.isEmpty() && values.isEmpty();
+        }
+    }
+}
@@ -57,6 +57,7 @@ import de.blinkt.openvpn.core.connection.Connection;
 import se.leap.bitmaskclient.R;
 import se.leap.bitmaskclient.base.OnBootReceiver;
 import se.leap.bitmaskclient.base.models.ProviderObservable;
+import se.leap.bitmaskclient.base.utils.CertificateCache;
 import se.leap.bitmaskclient.base.utils.PreferenceHelper;
 
 import static android.app.Activity.RESULT_CANCELED;
@@ -84,7 +85,9 @@ import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_PROFILE;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICATE;
 import static se.leap.bitmaskclient.base.models.Constants.SHARED_PREFERENCES;
 import static se.leap.bitmaskclient.base.utils.ConfigHelper.ensureNotOnMainThread;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getFromCurrentProvider;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getPreferredCity;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getUseRaceConnect;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getUsePluggableTransports;
 import static se.leap.bitmaskclient.eip.EIP.EIPErrors.ERROR_INVALID_PROFILE;
 import static se.leap.bitmaskclient.eip.EIP.EIPErrors.ERROR_INVALID_VPN_CERTIFICATE;
@@ -122,6 +125,12 @@ public final class EIP extends JobIntentService implements Observer {
      */
     static final int JOB_ID = 1312;
 
+    /**
+     * Number of gateways probed before a connection is established, the gateways select() would
+     * try first.
+     */
+    static final int PROBE_CANDIDATES = 3;
+
     public enum EIPErrors {
         UNKNOWN,
         ERROR_INVALID_VPN_CERTIFICATE,
@@ -228,6 +237,17 @@ public final class EIP extends JobIntentService implements Observer {
     private void startEIP(boolean earlyRoutes, int nClosestGateway) {
         Log.d(TAG, "start EIP with early routes: " +  earlyRoutes + " and nClosest Gateway: " + nClosestGateway);
         Bundle result = new Bundle();
+        // the gateway is selected with the ranking of the probing
+        GatewaysManager gatewaysManager = new GatewaysManager(getApplicationContext());
+        if (nClosestGateway == 0 && !eipStatus.isBlockingVpnEstablished() && !VpnStatus.isVPNActive()) {
+            // probes need to be sent before the blocking vpn captures all traffic
+            if (getUseRaceConnect(getApplicationContext())) {
+                int winner = gatewaysManager.race(PROBE_CANDIDATES, GatewayProber.DEFAULT_TIMEOUT_MILLIS);
+                nClosestGateway = Math.max(winner, 0);
+            } else {
+                gatewaysManager.probeGateways(PROBE_CANDIDATES, GatewayProber.DEFAULT_TIMEOUT_MILLIS);
+            }
+        }
         if (!eipStatus.isBlockingVpnEstablished() && earlyRoutes) {
             earlyRoutes(result);
         }
@@ -242,7 +262,6 @@ public final class EIP extends JobIntentService implements Observer {
             return;
         }
 
-        GatewaysManager gatewaysManager = new GatewaysManager(getApplicationContext());
         if (gatewaysManager.isEmpty()) {
             setErrorResult(result, warning_client_parsing_error_gateways, null);
             tellToReceiverOrBroadcast(this, EIP_ACTION_START, RESULT_CANCELED, result);
@@ -395,7 +414,7 @@ public final class EIP extends JobIntentService implements Observer {
     }
 
     /**
-     * read VPN certificate from preferences and check it
+     * read VPN certificate of the current provider and check it
      * broadcast result
      */
     private void checkVPNCertificateValidity() {
@@ -406,13 +425,15 @@ public final class EIP extends JobIntentService implements Observer {
     }
 
     /**
-     * read VPN certificate from preferences and check it
+     * read VPN certificate of the current provider and check it
      *
      * @return true if VPN certificate is valid false otherwise
      */
     private boolean isVPNCertificateValid() {
-        VpnCertificateValidator validator = new VpnCertificateValidator(preferences.getString(PROVIDER_VPN_CERTIFICATE, ""));
-        return validator.isValid();
+        VpnCertificateValidator validator = new VpnCertificateValidator(getFromCurrentProvider(PROVIDER_VPN_CERTIFICATE, preferences));
+        boolean isValid = validator.isValid();
+        VpnStatus.logDebug(CertificateCache.getInstance().getStatistics());
+        return isValid;
     }
 
     /**
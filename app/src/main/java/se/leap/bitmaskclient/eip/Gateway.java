@@ -28,6 +28,7 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import de.blinkt.openvpn.VpnProfile;
@@ -93,10 +94,38 @@ public class Gateway {
         vpnProfiles = createVPNProfiles(context);
     }
 
+    /**
+     * Copies the parsed definition of gateway. The VpnProfiles are cloned, so that the copy can
+     * be changed and started without affecting other copies.
+     */
+    private Gateway(Gateway gateway, Set<String> excludedAppsVpn) {
+        this.gateway = gateway.gateway;
+        this.secrets = gateway.secrets;
+        this.generalConfiguration = gateway.generalConfiguration;
+        this.timezone = gateway.timezone;
+        this.name = gateway.name;
+        this.apiVersion = gateway.apiVersion;
+        this.vpnProfiles = new HashMap<>();
+        for (Map.Entry<Connection.TransportType, VpnProfile> entry : gateway.vpnProfiles.entrySet()) {
+            VpnProfile profile = entry.getValue().copy(entry.getValue().mName);
+            profile.mAllowedAppsVpn = excludedAppsVpn != null ? new HashSet<>(excludedAppsVpn) : new HashSet<>();
+            vpnProfiles.put(entry.getKey(), profile);
+        }
+    }
+
     public void updateLoad(JSONObject load) {
         this.load = load;
     }
 
+    /**
+     * Gateways are cached across GatewaysManager instances and threads. Each GatewaysManager works
+     * on its own copy without load information.
+     * @param excludedAppsVpn the apps currently excluded from the VPN
+     */
+    Gateway copy(Set<String> excludedAppsVpn) {
+        return new Gateway(this, excludedAppsVpn);
+    }
+
     private void addProfileInfos(Context context, HashMap<Connection.TransportType, VpnProfile> profiles) {
         Set<String> excludedAppsVpn = PreferenceHelper.getExcludedApps(context);
         for (VpnProfile profile : profiles.values()) {
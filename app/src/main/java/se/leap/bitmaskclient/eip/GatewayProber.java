@@ -0,0 +1,591 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.blinkt.openvpn.VpnProfile;
+import de.blinkt.openvpn.core.connection.Connection;
+import de.blinkt.openvpn.core.connection.Obfs4Connection;
+import se.leap.bitmaskclient.pluggableTransports.Obfs4Options;
+
+/**
+ * Probes the reachability of gateways before a VPN connection is established. For each gateway
+ * all remotes of the VpnProfile belonging to the used transport are probed concurrently on a
+ * single non-blocking selector: TCP remotes with a TCP handshake, UDP remotes with an OpenVPN
+ * P_CONTROL_HARD_RESET_CLIENT_V2 packet.
+ *
+ * A gateway counts as reachable if any of its remotes answered. Gateways using tls-auth or
+ * tls-crypt silently drop unauthenticated UDP packets, that's why unanswered UDP probes don't
+ * count as failures, only ICMP port unreachable responses do. Such gateways are treated as
+ * unknown: they keep their position in rank() and win race() against lower ranked candidates.
+ *
+ * GatewayProber keeps an exponentially weighted moving average of the round trip times and of
+ * the failures per host. rank() uses these statistics to reorder reachable gateways by latency
+ * and to move failing gateways to the end of a list of gateways. race() probes a few candidates
+ * and returns the first one that answered, so that a VPN connection can be established without
+ * waiting for the connection timeouts of unreachable gateways.
+ *
+ * The statistics used by rank() are a snapshot taken after the last probing finished, so that a
+ * position returned by rank() stays valid until the next probing.
+ */
+public class GatewayProber {
+
+    private static final String TAG = GatewayProber.class.getSimpleName();
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1500;
+    static final int MAX_CONCURRENT_PROBES = 16;
+    static final double ALPHA = 0.3;
+    // hosts failing more often than that are ranked after hosts without statistics
+    static final double FAILURE_THRESHOLD = 0.5;
+    // round trip times within the same bucket are considered equal, so the original order is kept
+    static final long RTT_BUCKET_MILLIS = 25;
+    static final long MAX_STATISTICS_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final byte P_CONTROL_HARD_RESET_CLIENT_V2 = 7 << 3;
+
+    private static GatewayProber instance;
+
+    private final HashMap<String, HostStatistics> statistics = new HashMap<>();
+    // recent statistics at the end of the last probing, used for ranking
+    private HashMap<String, HostStatistics> rankingStatistics = new HashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    public static class Endpoint {
+        final String ip;
+        final int port;
+        final boolean udp;
+
+        public Endpoint(String ip, int port, boolean udp) {
+            this.ip = ip;
+            this.port = port;
+            this.udp = udp;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Endpoint)) {
+                return false;
+            }
+            Endpoint endpoint = (Endpoint) obj;
+            return ip.equals(endpoint.ip) && port == endpoint.port && udp == endpoint.udp;
+        }
+
+        @Override
+        public int hashCode() {
+            return (ip.hashCode() * 31 + port) * 31 + (udp ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return ip + ":" + port + (udp ? "/udp" : "/tcp");
+        }
+    }
+
+    public static class HostStatistics {
+        private double rttMillis = -1;
+        private double failureScore = -1;
+        private long lastUpdate;
+
+        HostStatistics() { }
+
+        HostStatistics(HostStatistics hostStatistics) {
+            rttMillis = hostStatistics.rttMillis;
+            failureScore = hostStatistics.failureScore;
+            lastUpdate = hostStatistics.lastUpdate;
+        }
+
+        void update(long rttSampleMillis, boolean failed, long now) {
+            if (!failed) {
+                rttMillis = rttMillis < 0 ? rttSampleMillis : ALPHA * rttSampleMillis + (1 - ALPHA) * rttMillis;
+            }
+            double failureSample = failed ? 1 : 0;
+            failureScore = failureScore < 0 ? failureSample : ALPHA * failureSample + (1 - ALPHA) * failureScore;
+            lastUpdate = now;
+        }
+
+        /**
+         * @return the smoothed round trip time in milliseconds or -1 if the host never answered
+         */
+        public double getRttMillis() {
+            return rttMillis;
+        }
+
+        /**
+         * @return a value between 0 (never failed) and 1 (always failed)
+         */
+        public double getFailureScore() {
+            return failureScore;
+        }
+
+        public long getLastUpdate() {
+            return lastUpdate;
+        }
+
+        boolean isReachable() {
+            return rttMillis >= 0 && failureScore < FAILURE_THRESHOLD;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("rtt: %.1f ms, failure score: %.2f", rttMillis, failureScore);
+        }
+    }
+
+    private enum Result {
+        REACHABLE,
+        UNREACHABLE,
+        UNKNOWN
+    }
+
+    private static class Probe {
+        final String host;
+        final Endpoint endpoint;
+        SelectableChannel channel;
+        long startNanos;
+
+        Probe(String host, Endpoint endpoint) {
+            this.host = host;
+            this.endpoint = endpoint;
+        }
+    }
+
+    private static class HostResult {
+        Result result = Result.UNKNOWN;
+        long rttMillis = Long.MAX_VALUE;
+        int pending;
+
+        void add(Result probeResult, long probeRttMillis) {
+            pending--;
+            if (probeResult == Result.REACHABLE) {
+                result = Result.REACHABLE;
+                rttMillis = Math.min(rttMillis, probeRttMillis);
+            } else if (probeResult == Result.UNREACHABLE && result != Result.REACHABLE) {
+                result = Result.UNREACHABLE;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    GatewayProber() { }
+
+    public static synchronized GatewayProber getInstance() {
+        if (instance == null) {
+            instance = new GatewayProber();
+        }
+        return instance;
+    }
+
+    /**
+     * Probes all remotes of the given gateways for the given transport type. Blocks at most
+     * timeoutMillis.
+     */
+    @WorkerThread
+    public void probe(Collection<Gateway> gateways, Connection.TransportType transportType, long timeoutMillis) {
+        LinkedHashMap<String, Set<Endpoint>> endpoints = new LinkedHashMap<>();
+        for (Gateway gateway : gateways) {
+            Set<Endpoint> gatewayEndpoints = getEndpoints(gateway.getProfile(transportType));
+            if (!gatewayEndpoints.isEmpty()) {
+                endpoints.put(gateway.getHost(), gatewayEndpoints);
+            }
+        }
+        probe(endpoints, timeoutMillis);
+    }
+
+    /**
+     * Probes all remotes of the given gateways for the given transport type concurrently and
+     * returns as soon as the first gateway answered. Blocks at most timeoutMillis.
+     * @param gateways candidates in the order of preference
+     * @return the first reachable gateway or null if none answered in time. A gateway reachable
+     * only via UDP that neither answered nor has been reported unreachable is returned instead of
+     * a less preferred gateway that answered.
+     */
+    @WorkerThread
+    public @Nullable Gateway race(List<Gateway> gateways, Connection.TransportType transportType, long timeoutMillis) {
+        LinkedHashMap<String, Set<Endpoint>> endpoints = new LinkedHashMap<>();
+        HashMap<String, Gateway> gatewaysByHost = new HashMap<>();
+        for (Gateway gateway : gateways) {
+            Set<Endpoint> gatewayEndpoints = getEndpoints(gateway.getProfile(transportType));
+            if (!gatewayEndpoints.isEmpty()) {
+                endpoints.put(gateway.getHost(), gatewayEndpoints);
+                gatewaysByHost.put(gateway.getHost(), gateway);
+            }
+        }
+        String host = race(endpoints, timeoutMillis);
+        return host != null ? gatewaysByHost.get(host) : null;
+    }
+
+    /**
+     * Probes the given endpoints of each host concurrently. Blocks at most timeoutMillis. The
+     * statistics of hosts that could neither be reached nor be confirmed as unreachable within the
+     * timeout remain unchanged.
+     */
+    @WorkerThread
+    void probe(Map<String, ? extends Collection<Endpoint>> endpoints, long timeoutMillis) {
+        runProbes(endpoints, timeoutMillis, false);
+    }
+
+    /**
+     * Like probe(), but stops as soon as the first host answered. Probes that are still running
+     * at that point don't change the statistics.
+     * @param endpoints endpoints per host, iterated in the order of preference
+     * @return the first reachable host, a more preferred UDP-only host that didn't answer or null
+     */
+    @WorkerThread
+    @Nullable String race(Map<String, ? extends Collection<Endpoint>> endpoints, long timeoutMillis) {
+        HashMap<String, HostResult> hostResults = new HashMap<>();
+        String winner = runProbes(endpoints, timeoutMillis, true, hostResults);
+        if (winner == null) {
+            return null;
+        }
+        for (Map.Entry<String, ? extends Collection<Endpoint>> entry : endpoints.entrySet()) {
+            if (entry.getKey().equals(winner)) {
+                break;
+            }
+            if (isUdpOnly(entry.getValue()) && hostResults.get(entry.getKey()).result == Result.UNKNOWN) {
+                return entry.getKey();
+            }
+        }
+        return winner;
+    }
+
+    private @Nullable String runProbes(Map<String, ? extends Collection<Endpoint>> endpoints, long timeoutMillis, boolean stopAtFirstReachable) {
+        return runProbes(endpoints, timeoutMillis, stopAtFirstReachable, new HashMap<>());
+    }
+
+    private @Nullable String runProbes(Map<String, ? extends Collection<Endpoint>> endpoints, long timeoutMillis, boolean stopAtFirstReachable, HashMap<String, HostResult> hostResults) {
+        ArrayDeque<Probe> queue = new ArrayDeque<>();
+        for (Map.Entry<String, ? extends Collection<Endpoint>> entry : endpoints.entrySet()) {
+            HostResult hostResult = new HostResult();
+            for (Endpoint endpoint : entry.getValue()) {
+                queue.add(new Probe(entry.getKey(), endpoint));
+                hostResult.pending++;
+            }
+            hostResults.put(entry.getKey(), hostResult);
+        }
+
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long deadline = System.nanoTime() + timeoutNanos;
+        ArrayList<Probe> inFlight = new ArrayList<>();
+        String firstReachableHost = null;
+        try (Selector selector = Selector.open()) {
+            while ((!queue.isEmpty() || !inFlight.isEmpty()) && System.nanoTime() < deadline &&
+                    !(stopAtFirstReachable && firstReachableHost != null)) {
+                dropProbesOfReachableHosts(inFlight, queue, hostResults);
+                while (inFlight.size() < MAX_CONCURRENT_PROBES && !queue.isEmpty()) {
+                    Probe probe = queue.poll();
+                    Result result = start(probe, selector);
+                    if (result == null) {
+                        inFlight.add(probe);
+                    } else {
+                        finish(probe, result, hostResults);
+                        if (result == Result.REACHABLE && firstReachableHost == null) {
+                            firstReachableHost = probe.host;
+                        }
+                    }
+                }
+
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (inFlight.isEmpty() || remainingMillis <= 0) {
+                    continue;
+                }
+                selector.select(remainingMillis);
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Probe probe = (Probe) key.attachment();
+                    inFlight.remove(probe);
+                    Result result = handle(key);
+                    finish(probe, result, hostResults);
+                    if (result == Result.REACHABLE && firstReachableHost == null) {
+                        firstReachableHost = probe.host;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // tcp handshakes that didn't complete in time count as failures, unless probing stopped early
+        boolean timedOut = firstReachableHost == null || !stopAtFirstReachable;
+        for (Probe probe : inFlight) {
+            finish(probe, probe.endpoint.udp || !timedOut ? Result.UNKNOWN : Result.UNREACHABLE, hostResults);
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Map.Entry<String, HostResult> entry : hostResults.entrySet()) {
+                HostResult hostResult = entry.getValue();
+                // hosts with probes that never started due to the timeout remain undecided
+                if (hostResult.result == Result.UNKNOWN ||
+                        (hostResult.result == Result.UNREACHABLE && hostResult.pending > 0)) {
+                    continue;
+                }
+                HostStatistics hostStatistics = statistics.get(entry.getKey());
+                if (hostStatistics == null) {
+                    hostStatistics = new HostStatistics();
+                    statistics.put(entry.getKey(), hostStatistics);
+                }
+                hostStatistics.update(hostResult.rttMillis, hostResult.result == Result.UNREACHABLE, now);
+            }
+            updateRankingStatistics(now);
+        }
+        return firstReachableHost;
+    }
+
+    /**
+     * @return true if the statistics of any of the given gateways are older than
+     * MAX_STATISTICS_AGE_MILLIS or if any gateway hasn't been probed yet
+     */
+    public synchronized boolean needsProbing(Collection<Gateway> gateways) {
+        long now = System.currentTimeMillis();
+        for (Gateway gateway : gateways) {
+            HostStatistics hostStatistics = statistics.get(gateway.getHost());
+            if (hostStatistics == null || now - hostStatistics.lastUpdate > MAX_STATISTICS_AGE_MILLIS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the last probing produced statistics of any of the given gateways
+     */
+    public synchronized boolean hasStatistics(Collection<Gateway> gateways) {
+        for (Gateway gateway : gateways) {
+            if (rankingStatistics.containsKey(gateway.getHost())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized @Nullable HostStatistics getStatistics(String host) {
+        return statistics.get(host);
+    }
+
+    /**
+     * Sorts the gateways by the statistics of the last probing: reachable gateways are reordered
+     * by their round trip time among the positions they occupy, gateways without statistics keep
+     * their position and gateways that failed repeatedly are moved to the end. The sort is stable,
+     * so the given order is kept among gateways with similar round trip times.
+     */
+    public synchronized List<Gateway> rank(List<Gateway> gateways) {
+        ArrayList<Gateway> rankedGateways = new ArrayList<>(gateways.size());
+        ArrayList<Gateway> failingGateways = new ArrayList<>();
+        ArrayList<Gateway> reachableGateways = new ArrayList<>();
+        ArrayList<Integer> reachablePositions = new ArrayList<>();
+        for (Gateway gateway : gateways) {
+            HostStatistics hostStatistics = rankingStatistics.get(gateway.getHost());
+            if (hostStatistics == null) {
+                rankedGateways.add(gateway);
+            } else if (hostStatistics.isReachable()) {
+                reachablePositions.add(rankedGateways.size());
+                reachableGateways.add(gateway);
+                rankedGateways.add(gateway);
+            } else {
+                failingGateways.add(gateway);
+            }
+        }
+        Collections.sort(reachableGateways, (first, second) -> Long.compare(getRttBucket(first), getRttBucket(second)));
+        for (int i = 0; i < reachableGateways.size(); i++) {
+            rankedGateways.set(reachablePositions.get(i), reachableGateways.get(i));
+        }
+        rankedGateways.addAll(failingGateways);
+        return rankedGateways;
+    }
+
+    public synchronized void clear() {
+        statistics.clear();
+        rankingStatistics = new HashMap<>();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + " " + statistics;
+    }
+
+    private long getRttBucket(Gateway gateway) {
+        return (long) rankingStatistics.get(gateway.getHost()).rttMillis / RTT_BUCKET_MILLIS;
+    }
+
+    /**
+     * Takes a snapshot of the recent statistics for rank(). Needs to be called holding the lock.
+     */
+    private void updateRankingStatistics(long now) {
+        HashMap<String, HostStatistics> recentStatistics = new HashMap<>();
+        for (Map.Entry<String, HostStatistics> entry : statistics.entrySet()) {
+            if (now - entry.getValue().lastUpdate <= MAX_STATISTICS_AGE_MILLIS) {
+                recentStatistics.put(entry.getKey(), new HostStatistics(entry.getValue()));
+            }
+        }
+        rankingStatistics = recentStatistics;
+    }
+
+    private static boolean isUdpOnly(Collection<Endpoint> endpoints) {
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.udp) {
+                return false;
+            }
+        }
+        return !endpoints.isEmpty();
+    }
+
+    private @NonNull Set<Endpoint> getEndpoints(@Nullable VpnProfile profile) {
+        LinkedHashSet<Endpoint> endpoints = new LinkedHashSet<>();
+        if (profile == null) {
+            return endpoints;
+        }
+        for (Connection connection : profile.mConnections) {
+            try {
+                if (connection instanceof Obfs4Connection) {
+                    Obfs4Options options = ((Obfs4Connection) connection).getDispatcherOptions();
+                    endpoints.add(new Endpoint(options.remoteIP, Integer.parseInt(options.remotePort), false));
+                } else {
+                    endpoints.add(new Endpoint(connection.getServerName(), Integer.parseInt(connection.getServerPort()), connection.isUseUdp()));
+                }
+            } catch (NumberFormatException | NullPointerException e) {
+                e.printStackTrace();
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Once any remote of a host answered, the remaining probes of that host are not needed anymore.
+     */
+    private void dropProbesOfReachableHosts(ArrayList<Probe> inFlight, ArrayDeque<Probe> queue, HashMap<String, HostResult> hostResults) {
+        Iterator<Probe> iterator = inFlight.iterator();
+        while (iterator.hasNext()) {
+            Probe probe = iterator.next();
+            if (hostResults.get(probe.host).result == Result.REACHABLE) {
+                iterator.remove();
+                finish(probe, Result.UNKNOWN, hostResults);
+            }
+        }
+        iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Probe probe = iterator.next();
+            if (hostResults.get(probe.host).result == Result.REACHABLE) {
+                iterator.remove();
+                hostResults.get(probe.host).pending--;
+            }
+        }
+    }
+
+    /**
+     * @return the result if the probe finished immediately, otherwise null
+     */
+    private @Nullable Result start(Probe probe, Selector selector) {
+        probe.startNanos = System.nanoTime();
+        try {
+            InetSocketAddress address = new InetSocketAddress(probe.endpoint.ip, probe.endpoint.port);
+            if (address.isUnresolved()) {
+                return Result.UNREACHABLE;
+            }
+            if (probe.endpoint.udp) {
+                DatagramChannel channel = DatagramChannel.open();
+                probe.channel = channel;
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.write(ByteBuffer.wrap(createHardResetPacket()));
+                channel.register(selector, SelectionKey.OP_READ, probe);
+            } else {
+                SocketChannel channel = SocketChannel.open();
+                probe.channel = channel;
+                channel.configureBlocking(false);
+                if (channel.connect(address)) {
+                    return Result.REACHABLE;
+                }
+                channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            }
+            return null;
+        } catch (IOException | IllegalArgumentException | SecurityException e) {
+            return Result.UNREACHABLE;
+        }
+    }
+
+    private Result handle(SelectionKey key) {
+        Probe probe = (Probe) key.attachment();
+        key.cancel();
+        try {
+            if (probe.endpoint.udp) {
+                int read = ((DatagramChannel) probe.channel).read(ByteBuffer.allocate(1500));
+                return read > 0 ? Result.REACHABLE : Result.UNKNOWN;
+            }
+            return ((SocketChannel) probe.channel).finishConnect() ? Result.REACHABLE : Result.UNKNOWN;
+        } catch (PortUnreachableException e) {
+            return Result.UNREACHABLE;
+        } catch (IOException e) {
+            return probe.endpoint.udp ? Result.UNKNOWN : Result.UNREACHABLE;
+        }
+    }
+
+    private void finish(Probe probe, Result result, HashMap<String, HostResult> hostResults) {
+        long rttMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probe.startNanos);
+        if (probe.channel != null) {
+            try {
+                probe.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        hostResults.get(probe.host).add(result, rttMillis);
+    }
+
+    /**
+     * The first packet of an OpenVPN handshake: opcode and key id, a random session id,
+     * an empty packet id array and the message packet id 0.
+     */
+    private byte[] createHardResetPacket() {
+        byte[] packet = new byte[14];
+        packet[0] = P_CONTROL_HARD_RESET_CLIENT_V2;
+        byte[] sessionId = new byte[8];
+        random.nextBytes(sessionId);
+        System.arraycopy(sessionId, 0, packet, 1, sessionId.length);
+        // packet[9]: packet id array length, packet[10..13]: message packet id
+        return packet;
+    }
+}
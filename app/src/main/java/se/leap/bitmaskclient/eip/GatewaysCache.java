@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.eip;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.blinkt.openvpn.core.ConfigParser;
+import se.leap.bitmaskclient.base.models.Provider;
+
+import static se.leap.bitmaskclient.base.models.Constants.HOST;
+import static se.leap.bitmaskclient.base.models.Constants.LOCATION;
+import static se.leap.bitmaskclient.base.models.Constants.LOCATIONS;
+import static se.leap.bitmaskclient.base.models.Constants.OPENVPN_CONFIGURATION;
+import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_PRIVATE_KEY;
+import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICATE;
+import static se.leap.bitmaskclient.base.models.Constants.VERSION;
+
+/**
+ * Process wide registry of parsed Gateways. Creating a Gateway generates and parses an OpenVPN
+ * configuration for every supported transport, which is expensive for providers with many gateways.
+ * GatewaysCache keeps the parsed Gateways across GatewaysManager instances and only rebuilds those
+ * whose JSON definition changed. If the configuration shared by all gateways (general openvpn
+ * configuration, api version or secrets) changes, all Gateways are rebuilt.
+ *
+ * The last complete parsing run is kept as a snapshot, keyed by a hash of the provider's domain,
+ * its eip-service json and its secrets. A GatewaysManager reuses the snapshot as a whole only if
+ * that content is unchanged, otherwise it compares the gateway definitions again.
+ *
+ * The cached Gateways are templates that are never handed out: GatewaysManager works on copies,
+ * so load information and excluded apps of one manager don't leak into other managers and threads.
+ */
+public class GatewaysCache {
+
+    private static final String TAG = GatewaysCache.class.getSimpleName();
+
+    private static GatewaysCache instance;
+
+    private final HashMap<String, CachedGateway> cachedGateways = new HashMap<>();
+    private LinkedHashMap<String, Gateway> snapshot;
+    private String snapshotKey = "";
+    private String sharedConfigurationKey = "";
+
+    private int hits = 0;
+    private int misses = 0;
+
+    private static class CachedGateway {
+        final String key;
+        final Gateway gateway;
+
+        CachedGateway(String key, Gateway gateway) {
+            this.key = key;
+            this.gateway = gateway;
+        }
+    }
+
+    private GatewaysCache() { }
+
+    public static synchronized GatewaysCache getInstance() {
+        if (instance == null) {
+            instance = new GatewaysCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Drops all cached Gateways and resets the statistics.
+     */
+    public synchronized void clear() {
+        cachedGateways.clear();
+        snapshot = null;
+        snapshotKey = "";
+        sharedConfigurationKey = "";
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @param providerKey the key of the provider's content, see getProviderKey()
+     * @return the gateway templates of the last complete parsing run if it was done for the same
+     * provider content, otherwise null
+     */
+    synchronized @Nullable LinkedHashMap<String, Gateway> getSnapshot(@NonNull String providerKey) {
+        if (snapshot == null || !snapshotKey.equals(providerKey)) {
+            return null;
+        }
+        hits += snapshot.size();
+        return new LinkedHashMap<>(snapshot);
+    }
+
+    /**
+     * Stores the result of a complete parsing run. Gateways of earlier runs that are not part of
+     * the snapshot anymore are evicted.
+     */
+    synchronized void putSnapshot(@NonNull String providerKey, LinkedHashMap<String, Gateway> gateways) {
+        Iterator<Map.Entry<String, CachedGateway>> iterator = cachedGateways.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (!gateways.containsKey(iterator.next().getKey())) {
+                iterator.remove();
+            }
+        }
+        snapshot = new LinkedHashMap<>(gateways);
+        snapshotKey = providerKey;
+    }
+
+    /**
+     * Checks if the configuration all gateways depend on has changed and drops all cached gateways
+     * in that case.
+     */
+    synchronized void prepare(JSONObject eipDefinition, JSONObject secrets) {
+        String key = getSharedConfigurationKey(eipDefinition, secrets);
+        if (!sharedConfigurationKey.equals(key)) {
+            cachedGateways.clear();
+            snapshot = null;
+            sharedConfigurationKey = key;
+        }
+    }
+
+    /**
+     * Returns a cached Gateway if its definition didn't change since it was created, otherwise
+     * a new Gateway is created and cached. The returned Gateway is a template and must be copied
+     * before it's changed or used.
+     */
+    synchronized @NonNull Gateway getGateway(JSONObject eipDefinition, JSONObject secrets, JSONObject gatewayJson, Context context)
+            throws ConfigParser.ConfigParseError, JSONException, IOException {
+        String host = gatewayJson.optString(HOST);
+        String key = getGatewayKey(eipDefinition, gatewayJson);
+        CachedGateway cachedGateway = cachedGateways.get(host);
+        if (cachedGateway != null && cachedGateway.key.equals(key)) {
+            hits++;
+            return cachedGateway.gateway;
+        }
+
+        misses++;
+        Gateway gateway = new Gateway(eipDefinition, secrets, gatewayJson, context);
+        cachedGateways.put(host, new CachedGateway(key, gateway));
+        return gateway;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + " hits: " + hits + ", misses: " + misses;
+    }
+
+    /**
+     * @return a hash of everything the parsed gateways of provider depend on
+     */
+    static @NonNull String getProviderKey(@NonNull Provider provider, @NonNull JSONObject secrets) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(provider.getDomain()).getBytes("UTF-8"));
+            digest.update((byte) '\n');
+            digest.update(String.valueOf(provider.getEipServiceJsonString()).getBytes("UTF-8"));
+            digest.update((byte) '\n');
+            digest.update(secrets.toString().getBytes("UTF-8"));
+            return String.format("%064x", new BigInteger(1, digest.digest()));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // SHA-256 and UTF-8 are always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String getSharedConfigurationKey(JSONObject eipDefinition, JSONObject secrets) {
+        if (eipDefinition == null || secrets == null) {
+            return "";
+        }
+        return eipDefinition.optInt(VERSION) + "\n" +
+                eipDefinition.optJSONObject(OPENVPN_CONFIGURATION) + "\n" +
+                secrets.optString(Provider.CA_CERT) + "\n" +
+                secrets.optString(PROVIDER_PRIVATE_KEY) + "\n" +
+                secrets.optString(PROVIDER_VPN_CERTIFICATE);
+    }
+
+    private String getGatewayKey(JSONObject eipDefinition, JSONObject gatewayJson) {
+        JSONObject locations = eipDefinition.optJSONObject(LOCATIONS);
+        JSONObject location = locations != null ? locations.optJSONObject(gatewayJson.optString(LOCATION)) : null;
+        return gatewayJson.toString() + "\n" + location;
+    }
+}
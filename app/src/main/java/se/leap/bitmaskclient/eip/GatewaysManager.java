@@ -20,6 +20,7 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
@@ -35,6 +36,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 
 import de.blinkt.openvpn.VpnProfile;
 import de.blinkt.openvpn.core.ConfigParser;
@@ -66,6 +68,9 @@ public class GatewaysManager {
     private LinkedHashMap<String, Gateway> gateways = new LinkedHashMap<>();
     private Type listType = new TypeToken<ArrayList<Gateway>>() {}.getType();
     private ArrayList<Gateway> presortedList = new ArrayList<>();
+    private ArrayList<Gateway> timezoneSortedList;
+    // ranking used by all selections of this instance, updated after probing
+    private List<Gateway> sortedGateways;
 
     public GatewaysManager(Context context) {
         this.context = context;
@@ -83,20 +88,28 @@ public class GatewaysManager {
 
     public Gateway select(int nClosest, String city) {
         Connection.TransportType transportType = getUsePluggableTransports(context) ? OBFS4 : OPENVPN;
-        if (presortedList.size() > 0) {
-            return getGatewayFromPresortedList(nClosest, transportType, city);
+        int found = 0;
+        for (Gateway gateway : getSortedGateways()) {
+            if ((city == null && gateway.supportsTransport(transportType)) ||
+                    (gateway.getName().equals(city) && gateway.supportsTransport(transportType))) {
+                if (found == nClosest) {
+                    return gateway;
+                }
+                found++;
+            }
         }
-
-        return getGatewayFromTimezoneCalculation(nClosest, transportType, city);
+        return null;
     }
 
     public List<Location> getGatewayLocations() {
         String selectedCity = PreferenceHelper.getPreferredCity(context);
+        Connection.TransportType transportType = getUsePluggableTransports(context) ? OBFS4 : OPENVPN;
         HashMap<String, Integer> locationNames = new HashMap<>();
         ArrayList<Location> locations = new ArrayList<>();
-        int n = 0;
-        Gateway gateway;
-        while ((gateway = select(n, null)) != null) {
+        for (Gateway gateway : getSortedGateways()) {
+            if (!gateway.supportsTransport(transportType)) {
+                continue;
+            }
             if (!locationNames.containsKey(gateway.getName())) {
                 locationNames.put(gateway.getName(), locations.size());
                 Location location = new Location(
@@ -112,43 +125,102 @@ public class GatewaysManager {
                 location.numberOfGateways += 1;
                 locations.set(index, location);
             }
-            n++;
         }
 
         return locations;
     }
 
-    private Gateway getGatewayFromTimezoneCalculation(int nClosest, Connection.TransportType transportType, @Nullable String city) {
-        List<Gateway> list = new ArrayList<>(gateways.values());
-        GatewaySelector gatewaySelector = new GatewaySelector(list);
+    /**
+     * Probes the first nCandidates gateways select() would return if the last probing results are
+     * outdated, so that select() and getPosition() prefer reachable gateways with a low latency.
+     * Only the candidates are probed, the probes are sent unencrypted and reveal the probed
+     * gateways to the network. Needs to be called before a VPN or the blocking VPN is established,
+     * blocks at most timeoutMillis.
+     */
+    @WorkerThread
+    public void probeGateways(int nCandidates, long timeoutMillis) {
+        Connection.TransportType transportType = getUsePluggableTransports(context) ? OBFS4 : OPENVPN;
+        List<Gateway> candidates = getCandidates(nCandidates);
+        GatewayProber gatewayProber = GatewayProber.getInstance();
+        if (candidates.isEmpty() || !gatewayProber.needsProbing(candidates)) {
+            return;
+        }
+        gatewayProber.probe(candidates, transportType, timeoutMillis);
+        sortedGateways = null;
+        Log.d(TAG, gatewayProber.toString());
+    }
+
+    /**
+     * Probes the first nCandidates gateways select() would return concurrently and picks the first
+     * one that answered. Needs to be called before a VPN or the blocking VPN is established, blocks
+     * at most timeoutMillis.
+     * @return the position of the winning gateway to be used with select() of this instance, or -1
+     * if none answered
+     */
+    @WorkerThread
+    public int race(int nCandidates, long timeoutMillis) {
+        Connection.TransportType transportType = getUsePluggableTransports(context) ? OBFS4 : OPENVPN;
+        List<Gateway> candidates = getCandidates(nCandidates);
+        if (candidates.isEmpty()) {
+            return -1;
+        }
+
+        Gateway winner = GatewayProber.getInstance().race(candidates, transportType, timeoutMillis);
+        Log.d(TAG, "race winner: " + (winner != null ? winner.getHost() : null) + " " + GatewayProber.getInstance());
+        // the probing results might have changed the ranking
+        sortedGateways = null;
+        if (winner == null) {
+            return -1;
+        }
+        String city = getPreferredCity(context);
+        int position = 0;
         Gateway gateway;
-        int found  = 0;
-        int i = 0;
-        while ((gateway = gatewaySelector.select(i)) != null) {
-            if ((city == null && gateway.supportsTransport(transportType)) ||
-                    (gateway.getName().equals(city) && gateway.supportsTransport(transportType))) {
-                if (found == nClosest) {
-                    return gateway;
-                }
-                found++;
+        while ((gateway = select(position, city)) != null) {
+            if (gateway == winner) {
+                return position;
             }
-            i++;
+            position++;
         }
-        return null;
+        return -1;
     }
 
-    private Gateway getGatewayFromPresortedList(int nClosest, Connection.TransportType transportType, @Nullable String city) {
-        int found = 0;
-        for (Gateway gateway : presortedList) {
-            if ((city == null && gateway.supportsTransport(transportType)) ||
-                    (gateway.getName().equals(city) && gateway.supportsTransport(transportType))) {
-                if (found == nClosest) {
-                    return gateway;
-                }
-                found++;
+    private List<Gateway> getCandidates(int nCandidates) {
+        String city = getPreferredCity(context);
+        ArrayList<Gateway> candidates = new ArrayList<>();
+        Gateway gateway;
+        while (candidates.size() < nCandidates && (gateway = select(candidates.size(), city)) != null) {
+            candidates.add(gateway);
+        }
+        return candidates;
+    }
+
+    /**
+     * Gateways are ordered by menshen's presorted list if available, otherwise by the distance of
+     * their time zone to the user's time zone. If there are probing results, reachable gateways
+     * are reordered by latency and failing gateways are moved to the end. The order is determined once per instance, so
+     * that positions returned by getPosition() and race() match select().
+     */
+    private List<Gateway> getSortedGateways() {
+        if (sortedGateways == null) {
+            List<Gateway> orderedGateways = presortedList.size() > 0 ? presortedList : getTimezoneSortedList();
+            GatewayProber gatewayProber = GatewayProber.getInstance();
+            sortedGateways = gatewayProber.hasStatistics(orderedGateways) ? gatewayProber.rank(orderedGateways) : orderedGateways;
+        }
+        return sortedGateways;
+    }
+
+    private List<Gateway> getTimezoneSortedList() {
+        if (timezoneSortedList == null) {
+            timezoneSortedList = new ArrayList<>();
+            GatewaySelector gatewaySelector = new GatewaySelector(new ArrayList<>(gateways.values()));
+            Gateway gateway;
+            int i = 0;
+            while (i < gateways.size() && (gateway = gatewaySelector.select(i)) != null) {
+                timezoneSortedList.add(gateway);
+                i++;
             }
         }
-        return null;
+        return timezoneSortedList;
     }
 
     /**
@@ -157,41 +229,15 @@ public class GatewaysManager {
      * @return position of the gateway owning to the profile
      */
     public int getPosition(VpnProfile profile) {
-        if (presortedList.size() > 0) { 
-            return getPositionFromPresortedList(profile);
-        } 
-        
-        return getPositionFromTimezoneCalculatedList(profile);
-    }
-    
-    private int getPositionFromPresortedList(VpnProfile profile) {
-        Connection.TransportType transportType = profile.mUsePluggableTransports ? OBFS4 : OPENVPN;
-        int nClosest = 0;
-        for (Gateway gateway : presortedList) {
-            if (gateway.supportsTransport(transportType)) {
-                if (profile.equals(gateway.getProfile(transportType))) {
-                    return nClosest;
-                }
-                nClosest++;
-            }
-        }
-        return -1;
-    }
-    
-    private int getPositionFromTimezoneCalculatedList(VpnProfile profile) {
         Connection.TransportType transportType = profile.mUsePluggableTransports ? OBFS4 : OPENVPN;
-        GatewaySelector gatewaySelector = new GatewaySelector(new ArrayList<>(gateways.values()));
-        Gateway gateway;
         int nClosest = 0;
-        int i = 0;
-        while ((gateway = gatewaySelector.select(i)) != null) {
+        for (Gateway gateway : getSortedGateways()) {
             if (gateway.supportsTransport(transportType)) {
                 if (profile.equals(gateway.getProfile(transportType))) {
                     return nClosest;
                 }
                 nClosest++;
             }
-            i++;
         }
         return -1;
     }
@@ -224,7 +270,19 @@ public class GatewaysManager {
          try {
              JSONObject eipDefinition = provider.getEipServiceJson();
              JSONObject secrets = secretsConfigurationFromCurrentProvider();
+             GatewaysCache gatewaysCache = GatewaysCache.getInstance();
+             Set<String> excludedApps = PreferenceHelper.getExcludedApps(context);
+
+             String providerKey = GatewaysCache.getProviderKey(provider, secrets);
+             LinkedHashMap<String, Gateway> cachedGateways = gatewaysCache.getSnapshot(providerKey);
+             if (cachedGateways != null) {
+                 for (Gateway gateway : cachedGateways.values()) {
+                     addGateway(gateway.copy(excludedApps));
+                 }
+                 return;
+             }
 
+             gatewaysCache.prepare(eipDefinition, secrets);
              JSONArray gatewaysDefined = new JSONArray();
              try {
                  gatewaysDefined = eipDefinition.getJSONArray(GATEWAYS);
@@ -232,18 +290,22 @@ public class GatewaysManager {
                  e.printStackTrace();
              }
 
+             LinkedHashMap<String, Gateway> templates = new LinkedHashMap<>();
              for (int i = 0; i < gatewaysDefined.length(); i++) {
                  try {
                      JSONObject gw = gatewaysDefined.getJSONObject(i);
-                     Gateway aux = new Gateway(eipDefinition, secrets, gw, this.context);
+                     Gateway aux = gatewaysCache.getGateway(eipDefinition, secrets, gw, this.context);
                      if (gateways.get(aux.getHost()) == null) {
-                         addGateway(aux);
+                         templates.put(aux.getHost(), aux);
+                         addGateway(aux.copy(excludedApps));
                      }
                  } catch (JSONException | ConfigParser.ConfigParseError | IOException e) {
                      e.printStackTrace();
                      VpnStatus.logError("Unable to parse gateway config!");
                  }
              }
+             gatewaysCache.putSnapshot(providerKey, templates);
+             Log.d(TAG, gatewaysCache.toString());
          } catch (NullPointerException npe) {
              npe.printStackTrace();
          }
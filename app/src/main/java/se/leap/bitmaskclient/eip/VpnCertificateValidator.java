@@ -22,7 +22,7 @@ import java.security.cert.X509Certificate;
 import java.util.Calendar;
 import java.util.Date;
 
-import se.leap.bitmaskclient.base.utils.ConfigHelper;
+import se.leap.bitmaskclient.base.utils.CertificateCache;
 
 public class VpnCertificateValidator {
     public final static String TAG = VpnCertificateValidator.class.getSimpleName();
@@ -48,7 +48,7 @@ public class VpnCertificateValidator {
             return false;
         }
 
-        X509Certificate x509Certificate = ConfigHelper.parseX509CertificateFromString(certificate);
+        X509Certificate x509Certificate = CertificateCache.getInstance().getX509Certificate(certificate);
         return isValid(x509Certificate);
     }
 
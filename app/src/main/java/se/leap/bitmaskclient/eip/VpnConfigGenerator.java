@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Vector;
 
 import de.blinkt.openvpn.VpnProfile;
 import de.blinkt.openvpn.core.ConfigParser;
@@ -104,21 +105,24 @@ public class VpnConfigGenerator {
         return obfs4Transport != null;
     }
 
-    private String getConfigurationString(Connection.TransportType transportType) {
-        return generalConfiguration()
-                + newLine
-                + gatewayConfiguration(transportType)
-                + newLine
-                + androidCustomizations()
-                + newLine
-                + secretsConfiguration();
-    }
-
+    /**
+     * Creates the VpnProfile for a transport type by passing the options
+     * derived from the eip-service json directly to the ConfigParser. Only the small general
+     * configuration block is rendered and parsed, so that its quoting semantics are kept.
+     * Remotes, routes and inlined secrets are added as structured options, there's no
+     * intermediate OpenVPN config file anymore.
+     */
     @VisibleForTesting
     protected VpnProfile createProfile(Connection.TransportType transportType) throws IOException, ConfigParser.ConfigParseError, JSONException {
-        String configuration = getConfigurationString(transportType);
         ConfigParser icsOpenvpnConfigParser = new ConfigParser();
-        icsOpenvpnConfigParser.parseConfig(new StringReader(configuration));
+        icsOpenvpnConfigParser.parseConfig(new StringReader(generalConfiguration()));
+        for (Vector<String> option : gatewayOptions(transportType)) {
+            icsOpenvpnConfigParser.addOption(option);
+        }
+        for (Vector<String> option : androidCustomizationOptions()) {
+            icsOpenvpnConfigParser.addOption(option);
+        }
+        addSecretsOptions(icsOpenvpnConfigParser);
         if (transportType == OBFS4) {
             icsOpenvpnConfigParser.setObfs4Options(getObfs4Options());
         }
@@ -135,16 +139,16 @@ public class VpnConfigGenerator {
     }
 
     private String generalConfiguration() {
-        String commonOptions = "";
+        StringBuilder commonOptions = new StringBuilder();
         try {
             Iterator keys = generalConfiguration.keys();
             while (keys.hasNext()) {
                 String key = keys.next().toString();
 
-                commonOptions += key + " ";
+                commonOptions.append(key).append(" ");
                 for (String word : String.valueOf(generalConfiguration.get(key)).split(" "))
-                    commonOptions += word + " ";
-                commonOptions += newLine;
+                    commonOptions.append(word).append(" ");
+                commonOptions.append(newLine);
 
             }
         } catch (JSONException e) {
@@ -152,15 +156,13 @@ public class VpnConfigGenerator {
             e.printStackTrace();
         }
 
-        commonOptions += "client";
+        commonOptions.append("client");
 
-        return commonOptions;
+        return commonOptions.toString();
     }
 
-    private String gatewayConfiguration(Connection.TransportType transportType) {
-        String remotes = "";
-
-        StringBuilder stringBuilder = new StringBuilder();
+    private Vector<Vector<String>> gatewayOptions(Connection.TransportType transportType) {
+        Vector<Vector<String>> options = new Vector<>();
         try {
             String ipAddress = gateway.getString(IP_ADDRESS);
             JSONObject capabilities = gateway.getJSONObject(CAPABILITIES);
@@ -168,7 +170,7 @@ public class VpnConfigGenerator {
                 default:
                 case 1:
                 case 2:
-                    gatewayConfigApiv1(stringBuilder, ipAddress, capabilities);
+                    gatewayConfigApiv1(options, ipAddress, capabilities);
                     break;
                 case 3:
                 case 4:
@@ -177,30 +179,25 @@ public class VpnConfigGenerator {
                             new String[]{ipAddress} :
                             new String[]{ipAddress6, ipAddress};
                     JSONArray transports = capabilities.getJSONArray(TRANSPORT);
-                    gatewayConfigMinApiv3(transportType, stringBuilder, ipAddresses, transports);
+                    gatewayConfigMinApiv3(transportType, options, ipAddresses, transports);
                     break;
             }
         } catch (JSONException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
-
-        remotes = stringBuilder.toString();
-        if (remotes.endsWith(newLine)) {
-            remotes = remotes.substring(0, remotes.lastIndexOf(newLine));
-        }
-        return remotes;
+        return options;
     }
 
-    private void gatewayConfigMinApiv3(Connection.TransportType transportType, StringBuilder stringBuilder, String[] ipAddresses, JSONArray transports) throws JSONException {
+    private void gatewayConfigMinApiv3(Connection.TransportType transportType, Vector<Vector<String>> options, String[] ipAddresses, JSONArray transports) throws JSONException {
         if (transportType == OBFS4) {
-            obfs4GatewayConfigMinApiv3(stringBuilder, ipAddresses, transports);
+            obfs4GatewayConfigMinApiv3(options, ipAddresses, transports);
         } else {
-            ovpnGatewayConfigMinApi3(stringBuilder, ipAddresses, transports);
+            ovpnGatewayConfigMinApi3(options, ipAddresses, transports);
         }
     }
 
-    private void gatewayConfigApiv1(StringBuilder stringBuilder, String ipAddress, JSONObject capabilities) throws JSONException {
+    private void gatewayConfigApiv1(Vector<Vector<String>> options, String ipAddress, JSONObject capabilities) throws JSONException {
         int port;
         String protocol;
         JSONArray ports = capabilities.getJSONArray(PORTS);
@@ -209,13 +206,12 @@ public class VpnConfigGenerator {
             JSONArray protocols = capabilities.getJSONArray(PROTOCOLS);
             for (int j = 0; j < protocols.length(); j++) {
                 protocol = protocols.optString(j);
-                String newRemote = REMOTE + " " + ipAddress + " " + port + " " + protocol + newLine;
-                stringBuilder.append(newRemote);
+                options.add(option(REMOTE, ipAddress, String.valueOf(port), protocol));
             }
         }
     }
 
-    private void ovpnGatewayConfigMinApi3(StringBuilder stringBuilder, String[] ipAddresses, JSONArray transports) throws JSONException {
+    private void ovpnGatewayConfigMinApi3(Vector<Vector<String>> options, String[] ipAddresses, JSONArray transports) throws JSONException {
         String port;
         String protocol;
         JSONObject openvpnTransport = getTransport(transports, OPENVPN);
@@ -226,8 +222,7 @@ public class VpnConfigGenerator {
             for (int k = 0; k < protocols.length(); k++) {
                 protocol = protocols.optString(k);
                 for (String ipAddress : ipAddresses) {
-                    String newRemote = REMOTE + " " + ipAddress + " " + port + " " + protocol + newLine;
-                    stringBuilder.append(newRemote);
+                    options.add(option(REMOTE, ipAddress, port, protocol));
                 }
             }
         }
@@ -245,13 +240,12 @@ public class VpnConfigGenerator {
         return selectedTransport;
     }
 
-    private void obfs4GatewayConfigMinApiv3(StringBuilder stringBuilder, String[] ipAddresses, JSONArray transports) throws JSONException {
+    private void obfs4GatewayConfigMinApiv3(Vector<Vector<String>> options, String[] ipAddresses, JSONArray transports) throws JSONException {
         JSONObject obfs4Transport = getTransport(transports, OBFS4);
         //for now only use ipv4 gateway the syntax route remote_host 255.255.255.255 net_gateway is not yet working
         // https://community.openvpn.net/openvpn/ticket/1161
         /*for (String ipAddress : ipAddresses) {
-            String route = "route " + ipAddress + " 255.255.255.255 net_gateway" + newLine;
-            stringBuilder.append(route);
+            options.add(option("route", ipAddress, "255.255.255.255", "net_gateway"));
         }*/
 
         if (ipAddresses.length == 0) {
@@ -259,48 +253,42 @@ public class VpnConfigGenerator {
         }
 
         String ipAddress = ipAddresses[ipAddresses.length - 1];
-        String route = "route " + ipAddress + " 255.255.255.255 net_gateway" + newLine;
-        stringBuilder.append(route);
-        String remote = REMOTE + " " + DISPATCHER_IP + " " + DISPATCHER_PORT + " " + obfs4Transport.getJSONArray(PROTOCOLS).getString(0) + newLine;
-        stringBuilder.append(remote);
+        options.add(option("route", ipAddress, "255.255.255.255", "net_gateway"));
+        options.add(option(REMOTE, DISPATCHER_IP, DISPATCHER_PORT, obfs4Transport.getJSONArray(PROTOCOLS).getString(0)));
     }
 
-    private String secretsConfiguration() {
+    private void addSecretsOptions(ConfigParser configParser) {
         try {
-            String ca =
-                    "<ca>"
-                            + newLine
-                            + secrets.getString(Provider.CA_CERT)
-                            + newLine
-                            + "</ca>";
-
-            String key =
-                    "<key>"
-                            + newLine
-                            + secrets.getString(PROVIDER_PRIVATE_KEY)
-                            + newLine
-                            + "</key>";
-
-            String openvpnCert =
-                    "<cert>"
-                            + newLine
-                            + secrets.getString(PROVIDER_VPN_CERTIFICATE)
-                            + newLine
-                            + "</cert>";
-
-            return ca + newLine + key + newLine + openvpnCert;
+            String ca = secrets.getString(Provider.CA_CERT);
+            String key = secrets.getString(PROVIDER_PRIVATE_KEY);
+            String openvpnCert = secrets.getString(PROVIDER_VPN_CERTIFICATE);
+            configParser.addInlineOption("ca", ca);
+            configParser.addInlineOption("key", key);
+            configParser.addInlineOption("cert", openvpnCert);
         } catch (JSONException e) {
             e.printStackTrace();
-            return "";
         }
     }
 
-    private String androidCustomizations() {
-        return
-                "remote-cert-tls server"
-                        + newLine
-                        + "persist-tun"
-                        + newLine
-                        + "auth-retry nointeract";
+    private Vector<Vector<String>> androidCustomizationOptions() {
+        Vector<Vector<String>> options = new Vector<>();
+        options.add(option("remote-cert-tls", "server"));
+        options.add(option("persist-tun"));
+        options.add(option("auth-retry", "nointeract"));
+        return options;
+    }
+
+    /**
+     * Creates an option from its arguments. Empty arguments are skipped, as they would have been
+     * dropped when parsing a rendered config file.
+     */
+    private static Vector<String> option(String... args) {
+        Vector<String> option = new Vector<>(args.length);
+        for (String arg : args) {
+            if (arg != null && !arg.isEmpty()) {
+                option.add(arg);
+            }
+        }
+        return option;
     }
 }
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.firewall;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The chains Bitmask owns in the tables of either iptables or ip6tables, their rules and the
+ * jumps from built-in chains into them. Rules are kept in the form iptables-save prints them,
+ * e.g. "-A bitmask_forward -j ACCEPT", so desired rules can be compared with installed ones.
+ *
+ * getChanges() turns the difference between two rule sets into a single iptables-restore
+ * --noflush batch, which is applied atomically per table.
+ */
+class FirewallRules {
+
+    private static class Table {
+        // chain -> rules, null if the rules of an installed chain are unknown
+        final LinkedHashMap<String, List<String>> chains = new LinkedHashMap<>();
+        final ArrayList<String> jumps = new ArrayList<>();
+    }
+
+    private final TreeMap<String, Table> tables = new TreeMap<>();
+
+    /**
+     * Adds a chain with the given rules, e.g. "-p tcp -j REJECT".
+     */
+    FirewallRules addChain(@NonNull String table, @NonNull String chain, String... ruleSpecs) {
+        List<String> rules = new ArrayList<>();
+        for (String ruleSpec : ruleSpecs) {
+            rules.add(normalize("-A " + chain + " " + ruleSpec));
+        }
+        getTable(table).chains.put(chain, rules);
+        return this;
+    }
+
+    /**
+     * Adds an installed chain whose rules are unknown. It's rewritten if it is part of the desired
+     * rules, too.
+     */
+    FirewallRules addChain(@NonNull String table, @NonNull String chain) {
+        getTable(table).chains.put(chain, null);
+        return this;
+    }
+
+    FirewallRules addJump(@NonNull String table, @NonNull String builtinChain, @NonNull String chain) {
+        getTable(table).jumps.add("-A " + builtinChain + " -j " + chain);
+        return this;
+    }
+
+    boolean hasChain(@NonNull String table, @NonNull String chain) {
+        Table t = tables.get(table);
+        return t != null && t.chains.containsKey(chain);
+    }
+
+    /**
+     * @return the built-in chain jumping into chain or null
+     */
+    @Nullable
+    String getJumpSource(@NonNull String table, @NonNull String chain) {
+        Table t = tables.get(table);
+        if (t == null) {
+            return null;
+        }
+        for (String jump : t.jumps) {
+            String[] parts = jump.split(" ");
+            if (chain.equals(getJumpTarget(parts))) {
+                return parts[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the owned chains, their rules and the jumps into them from the output of iptables-save.
+     */
+    static FirewallRules parse(@NonNull String iptablesSave, @NonNull Collection<String> ownedChains) {
+        FirewallRules rules = new FirewallRules();
+        Table table = null;
+        for (String line : iptablesSave.split("\n")) {
+            line = normalize(line);
+            if (line.startsWith("*")) {
+                table = rules.getTable(line.substring(1));
+            } else if (table == null || line.isEmpty() || line.startsWith("#") || line.equals("COMMIT")) {
+                continue;
+            } else if (line.startsWith(":")) {
+                String chain = line.substring(1).split(" ", 2)[0];
+                if (ownedChains.contains(chain)) {
+                    table.chains.put(chain, new ArrayList<>());
+                }
+            } else if (line.startsWith("-A ")) {
+                String[] parts = line.split(" ");
+                List<String> chainRules = table.chains.get(parts[1]);
+                if (chainRules != null) {
+                    chainRules.add(line);
+                } else if (ownedChains.contains(getJumpTarget(parts))) {
+                    table.jumps.add(line);
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * @return an iptables-restore --noflush script turning installed into these rules or an empty
+     * String if both are equal
+     */
+    String getChanges(@NonNull FirewallRules installed) {
+        TreeSet<String> tableNames = new TreeSet<>(tables.keySet());
+        tableNames.addAll(installed.tables.keySet());
+
+        StringBuilder script = new StringBuilder();
+        for (String tableName : tableNames) {
+            Table desired = getTable(tables, tableName);
+            Table current = getTable(installed.tables, tableName);
+            List<String> declarations = new ArrayList<>();
+            List<String> deletions = new ArrayList<>();
+            List<String> appends = new ArrayList<>();
+            List<String> inserts = new ArrayList<>();
+
+            // unwanted and duplicate jumps are deleted before chains are removed
+            List<String> remainingJumps = new ArrayList<>(current.jumps);
+            for (String jump : desired.jumps) {
+                if (!remainingJumps.remove(jump)) {
+                    inserts.add("-I" + jump.substring(2));
+                }
+            }
+            for (String jump : remainingJumps) {
+                deletions.add("-D" + jump.substring(2));
+            }
+            for (String chain : current.chains.keySet()) {
+                if (!desired.chains.containsKey(chain)) {
+                    deletions.add("-F " + chain);
+                    deletions.add("-X " + chain);
+                }
+            }
+            // declaring an existing chain with --noflush flushes it
+            for (Map.Entry<String, List<String>> entry : desired.chains.entrySet()) {
+                String chain = entry.getKey();
+                List<String> currentRules = current.chains.get(chain);
+                if (currentRules == null || !currentRules.equals(entry.getValue())) {
+                    declarations.add(":" + chain + " - [0:0]");
+                    appends.addAll(entry.getValue());
+                }
+            }
+
+            if (declarations.isEmpty() && deletions.isEmpty() && appends.isEmpty() && inserts.isEmpty()) {
+                continue;
+            }
+            script.append('*').append(tableName).append('\n');
+            for (List<String> lines : Arrays.asList(declarations, deletions, appends, inserts)) {
+                for (String line : lines) {
+                    script.append(line).append('\n');
+                }
+            }
+            script.append("COMMIT\n");
+        }
+        return script.toString();
+    }
+
+    /**
+     * Converts an iptables-restore script into single iptables commands for devices without
+     * iptables-restore. The commands stop at the first error, but aren't atomic.
+     */
+    static String toCommands(@NonNull String command, @NonNull String restoreScript) {
+        StringBuilder commands = new StringBuilder("(\nset -e\n");
+        String table = null;
+        for (String line : restoreScript.split("\n")) {
+            if (line.startsWith("*")) {
+                table = line.substring(1);
+            } else if (line.startsWith(":")) {
+                String chain = line.substring(1).split(" ", 2)[0];
+                commands.append(command).append(" -t ").append(table).append(" -N ").append(chain)
+                        .append(" 2>/dev/null || ")
+                        .append(command).append(" -t ").append(table).append(" -F ").append(chain).append('\n');
+            } else if (!line.isEmpty() && !line.equals("COMMIT")) {
+                commands.append(command).append(" -t ").append(table).append(' ').append(line).append('\n');
+            }
+        }
+        return commands.append(")").toString();
+    }
+
+    @Nullable
+    private static String getJumpTarget(String[] ruleParts) {
+        for (int i = 0; i < ruleParts.length - 1; i++) {
+            if (ruleParts[i].equals("-j") || ruleParts[i].equals("--jump")) {
+                return ruleParts[i + 1];
+            }
+        }
+        return null;
+    }
+
+    private static String normalize(String rule) {
+        return rule.trim().replaceAll("\\s+", " ");
+    }
+
+    private Table getTable(String name) {
+        Table table = tables.get(name);
+        if (table == null) {
+            table = new Table();
+            tables.put(name, table);
+        }
+        return table;
+    }
+
+    private static Table getTable(Map<String, Table> tables, String name) {
+        Table table = tables.get(name);
+        return table != null ? table : new Table();
+    }
+}
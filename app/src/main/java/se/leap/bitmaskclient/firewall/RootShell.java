@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.firewall;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A long-lived shell session, by default a root shell. Commands are queued and run one after the
+ * other in the same session, so su is only asked once instead of once per command. If the session
+ * ends, e.g. because root access has been denied, the next command starts a new one. A command
+ * that doesn't finish in time ends the session as well, so a hanging command or su prompt doesn't
+ * block the queue.
+ *
+ * Each command is followed by an echo of a random marker and the exit code. The output of the
+ * command is everything written to stdout and stderr before the marker.
+ */
+public class RootShell {
+
+    public interface ProcessStarter {
+        /**
+         * @return a running shell reading commands from stdin, with stderr redirected to stdout
+         */
+        Process start() throws IOException;
+    }
+
+    public static class Result {
+        public final int exitCode;
+        public final String output;
+
+        Result(int exitCode, String output) {
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+    }
+
+    private static final ProcessStarter SU = () -> new ProcessBuilder("su").redirectErrorStream(true).start();
+    // long enough for the user to answer the su prompt of the first command
+    private static final long COMMAND_TIMEOUT_MILLIS = 60 * 1000;
+    private static RootShell instance;
+
+    private final ProcessStarter processStarter;
+    private final long timeoutMillis;
+    private final ExecutorService queue = Executors.newSingleThreadExecutor();
+    private final String marker = "__bitmask_" + Long.toHexString(new SecureRandom().nextLong());
+
+    // written on the queue thread, destroyed by a waiting thread if a command times out
+    private volatile Process process;
+    // only accessed on the queue thread
+    private Writer stdin;
+    private BufferedReader stdout;
+    private Boolean isRoot;
+
+    RootShell(ProcessStarter processStarter) {
+        this(processStarter, COMMAND_TIMEOUT_MILLIS);
+    }
+
+    RootShell(ProcessStarter processStarter, long timeoutMillis) {
+        this.processStarter = processStarter;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static synchronized RootShell getInstance() {
+        if (instance == null) {
+            instance = new RootShell(SU);
+        }
+        return instance;
+    }
+
+    /**
+     * Queues a command. It may consist of several lines, its exit code is the one of the last
+     * command run.
+     */
+    public Future<Result> submit(@NonNull String command) {
+        return queue.submit(() -> execute(command));
+    }
+
+    /**
+     * Queues a command and waits for its result. If it doesn't finish in time, the session is
+     * ended and the next command starts a new one.
+     */
+    @WorkerThread
+    public Result run(@NonNull String command) throws IOException, InterruptedException {
+        try {
+            return await(submit(command));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("command timed out: " + command, e);
+        }
+    }
+
+    /**
+     * @return true if the session runs as root. Checked once per session.
+     */
+    @WorkerThread
+    public boolean isRoot() {
+        try {
+            return await(queue.submit(() -> {
+                if (isRoot == null || process == null) {
+                    isRoot = execute("id").output.contains("uid=0");
+                }
+                return isRoot;
+            }));
+        } catch (ExecutionException | InterruptedException | TimeoutException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Ends the current session. The next command starts a new one.
+     */
+    public void close() {
+        queue.execute(this::closeSession);
+    }
+
+    /**
+     * Waits for a queued task. On timeout the session is destroyed, which ends the blocked read on
+     * the queue thread, and the commands queued afterwards run in a new session.
+     */
+    private <T> T await(Future<T> future) throws ExecutionException, InterruptedException, TimeoutException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            Process hanging = process;
+            if (hanging != null) {
+                hanging.destroy();
+            }
+            throw e;
+        }
+    }
+
+    private Result execute(String command) throws IOException {
+        if (process == null) {
+            process = processStarter.start();
+            stdin = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+            stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+            isRoot = null;
+        }
+        try {
+            stdin.write(command);
+            stdin.write("\necho \"" + marker + " $?\"\n");
+            stdin.flush();
+
+            StringBuilder output = new StringBuilder();
+            String line;
+            while ((line = stdout.readLine()) != null) {
+                int markerIndex = line.indexOf(marker);
+                if (markerIndex == -1) {
+                    output.append(line).append('\n');
+                    continue;
+                }
+                // the command's output didn't end with a new line
+                output.append(line, 0, markerIndex);
+                int exitCode = Integer.parseInt(line.substring(markerIndex + marker.length()).trim());
+                return new Result(exitCode, output.toString());
+            }
+            throw new IOException("shell session ended: " + output);
+        } catch (IOException | NumberFormatException e) {
+            closeSession();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    private void closeSession() {
+        if (process == null) {
+            return;
+        }
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            // the session has ended already
+        }
+        process.destroy();
+        process = null;
+        stdin = null;
+        stdout = null;
+        isRoot = null;
+    }
+}
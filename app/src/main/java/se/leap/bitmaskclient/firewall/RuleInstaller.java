@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.firewall;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_CHAIN;
+import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_FORWARD;
+import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_POSTROUTING;
+
+/**
+ * Installs FirewallRules through a RootShell. Before each change the installed rules are read with
+ * iptables-save, since netd and other apps change iptables as well, e.g. when tethering or the
+ * network changes. A task then only changes what differs from the desired rules, in a single
+ * iptables-restore call. Without iptables-save / iptables-restore on the device, the chains are
+ * probed and the changes applied command by command.
+ */
+class RuleInstaller {
+
+    static final String IPTABLES = "iptables";
+    static final String IP6TABLES = "ip6tables";
+    private static final int COMMAND_NOT_FOUND = 127;
+    private static final String END_OF_RULES = "BITMASK_RULES";
+
+    private static RuleInstaller instance;
+
+    private final RootShell shell;
+
+    RuleInstaller(RootShell shell) {
+        this.shell = shell;
+    }
+
+    static synchronized RuleInstaller getInstance() {
+        if (instance == null) {
+            instance = new RuleInstaller(RootShell.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * The rules of the tethering chains while VPN tethering is on.
+     */
+    static FirewallRules getTetheringRules() {
+        return new FirewallRules()
+                .addChain("filter", BITMASK_FORWARD, "-j ACCEPT")
+                .addJump("filter", "FORWARD", BITMASK_FORWARD)
+                .addChain("nat", BITMASK_POSTROUTING, "-j MASQUERADE")
+                .addJump("nat", "POSTROUTING", BITMASK_POSTROUTING);
+    }
+
+    /**
+     * The rules blocking IPv6 traffic while the VPN is on.
+     */
+    static FirewallRules getIPv6FirewallRules() {
+        return new FirewallRules()
+                .addChain("filter", BITMASK_CHAIN,
+                        "-p tcp -j REJECT --reject-with icmp6-port-unreachable",
+                        "-p udp -j REJECT --reject-with icmp6-port-unreachable")
+                .addJump("filter", "OUTPUT", BITMASK_CHAIN);
+    }
+
+    @WorkerThread
+    boolean hasRoot() {
+        return shell.isRoot();
+    }
+
+    RootShell getShell() {
+        return shell;
+    }
+
+    @WorkerThread
+    synchronized boolean installIPv4(@NonNull FirewallRules desired, @NonNull StringBuilder log) throws IOException, InterruptedException {
+        FirewallRules installed = readInstalledRules(IPTABLES, getTetheringRules(),
+                Arrays.asList(BITMASK_FORWARD, BITMASK_POSTROUTING));
+        return install(IPTABLES, installed, desired, log);
+    }
+
+    @WorkerThread
+    synchronized boolean installIPv6(@NonNull FirewallRules desired, @NonNull StringBuilder log) throws IOException, InterruptedException {
+        FirewallRules installed = readInstalledRules(IP6TABLES, getIPv6FirewallRules(),
+                Arrays.asList(BITMASK_CHAIN));
+        return install(IP6TABLES, installed, desired, log);
+    }
+
+    private boolean install(String command, FirewallRules installed, FirewallRules desired, StringBuilder log) throws IOException, InterruptedException {
+        String changes = desired.getChanges(installed);
+        if (changes.isEmpty()) {
+            return true;
+        }
+        RootShell.Result result = shell.run(command + "-restore --noflush <<'" + END_OF_RULES + "'\n" +
+                changes + END_OF_RULES);
+        if (result.exitCode == COMMAND_NOT_FOUND) {
+            result = shell.run(FirewallRules.toCommands(command, changes));
+        }
+        log.append(result.output);
+        return result.exitCode == 0;
+    }
+
+    /**
+     * @param allRules all chains and jumps that might be installed, used to guess the installed
+     *                 jumps if iptables-save isn't available
+     */
+    private FirewallRules readInstalledRules(String command, FirewallRules allRules, List<String> ownedChains) throws IOException, InterruptedException {
+        RootShell.Result result = shell.run(command + "-save 2>/dev/null");
+        if (result.exitCode == 0) {
+            return FirewallRules.parse(result.output, ownedChains);
+        }
+
+        FirewallRules installed = new FirewallRules();
+        for (String table : new String[]{"filter", "nat"}) {
+            for (String chain : ownedChains) {
+                if (allRules.hasChain(table, chain) &&
+                        shell.run(command + " -t " + table + " -n --list " + chain + " >/dev/null 2>&1").exitCode == 0) {
+                    installed.addChain(table, chain);
+                    installed.addJump(table, allRules.getJumpSource(table, chain), chain);
+                }
+            }
+        }
+        return installed;
+    }
+}
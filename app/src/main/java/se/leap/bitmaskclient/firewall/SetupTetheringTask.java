@@ -17,6 +17,7 @@
 package se.leap.bitmaskclient.firewall;
 
 import android.os.AsyncTask;
+import android.text.TextUtils;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
@@ -29,7 +30,6 @@ import se.leap.bitmaskclient.tethering.TetheringState;
 
 import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_FORWARD;
 import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_POSTROUTING;
-import static se.leap.bitmaskclient.base.utils.Cmd.runBlockingCmd;
 
 public class SetupTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
 
@@ -43,16 +43,11 @@ public class SetupTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
     @Override
     protected Boolean doInBackground(Void... args) {
         TetheringState tetheringState = TetheringObservable.getInstance().getTetheringState();
+        RuleInstaller ruleInstaller = RuleInstaller.getInstance();
         StringBuilder log = new StringBuilder();
 
-        String[] bitmaskChain = new String[]{
-                "su",
-                "id",
-                "iptables -t filter --list " + BITMASK_FORWARD + " && iptables -t nat --list " + BITMASK_POSTROUTING };
-
         try {
-            boolean hasBitmaskChain = runBlockingCmd(bitmaskChain, log) == 0;
-            boolean allowSu = log.toString().contains("uid=0");
+            boolean allowSu = ruleInstaller.hasRoot();
             FirewallCallback callback = callbackWeakReference.get();
             if (callback != null) {
                 callback.onSuRequested(allowSu);
@@ -62,36 +57,42 @@ public class SetupTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
             }
 
             boolean success = true;
-            log = new StringBuilder();
-
-            if (!hasBitmaskChain && tetheringState.hasAnyVpnTetheringAllowed() && tetheringState.hasAnyDeviceTetheringEnabled()) {
-                createChains(log);
+            if (tetheringState.hasAnyVpnTetheringAllowed() && tetheringState.hasAnyDeviceTetheringEnabled()) {
+                success = ruleInstaller.installIPv4(RuleInstaller.getTetheringRules(), log);
+                Log.d(FirewallManager.TAG, "installed " + BITMASK_FORWARD + " and " + BITMASK_POSTROUTING + " in iptables: " + success);
+                logError(success, log);
             }
 
+            log = new StringBuilder();
             if (tetheringState.tetherWifiVpn()) {
-                log = new StringBuilder();
-                success = addWifiTetheringRules(tetheringState, log);
+                Log.d(TAG, "add Wifi tethering Rules");
+                success = runCommands(getAdditionRules(tetheringState.wifiAddress, tetheringState.wifiInterface), log) && success;
                 logError(success, log);
             } else if (!tetheringState.isVpnWifiTetheringAllowed){
-                success = removeWifiTetheringRules(tetheringState, log);
+                Log.d(TAG, "remove Wifi tethering Rules");
+                success = runCommands(getDeletionRules(tetheringState, tetheringState.lastSeenWifiAddress, tetheringState.lastSeenWifiInterface), log) && success;
                 logError(success, log);
             }
 
             log = new StringBuilder();
             if (tetheringState.tetherUsbVpn()) {
-                success = success && addUsbTetheringRules(tetheringState, log);
+                Log.d(TAG, "add usb tethering rules");
+                success = success && runCommands(getAdditionRules(tetheringState.usbAddress, tetheringState.usbInterface), log);
                 logError(success, log);
             } else if (!tetheringState.isVpnUsbTetheringAllowed) {
-                success = success && removeUsbTetheringRules(tetheringState, log);
+                Log.d(TAG, "remove usb tethering rules");
+                success = success && runCommands(getDeletionRules(tetheringState, tetheringState.lastSeenUsbAddress, tetheringState.lastSeenUsbInterface), log);
                 logError(success, log);
             }
 
             log = new StringBuilder();
             if (tetheringState.tetherBluetoothVpn()) {
-                success = success && addBluetoothTetheringRules(tetheringState, log);
+                Log.d(TAG, "add bluetooth tethering rules");
+                success = success && runCommands(getAdditionRules(tetheringState.bluetoothAddress, tetheringState.bluetoothInterface), log);
                 logError(success, log);
             } else if (!tetheringState.isVpnBluetoothTetheringAllowed) {
-                success = success && removeBluetoothTetheringRules(tetheringState, log);
+                Log.d(TAG, "remove bluetooth tethering rules");
+                success = success && runCommands(getDeletionRules(tetheringState, tetheringState.lastSeenBluetoothAddress, tetheringState.lastSeenBluetoothInterface), log);
                 logError(success, log);
             }
             return success;
@@ -108,65 +109,21 @@ public class SetupTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
         }
     }
 
-
-    private void createChains(StringBuilder log) throws Exception {
-        boolean success;
-        String[] createChains = new String[]{
-                "su",
-                "iptables -t filter --new-chain " + BITMASK_FORWARD,
-                "iptables -t nat --new-chain " + BITMASK_POSTROUTING,
-                "iptables -t filter --insert FORWARD --jump " + BITMASK_FORWARD,
-                "iptables -t nat --insert POSTROUTING --jump " + BITMASK_POSTROUTING,
-        };
-        success = runBlockingCmd(createChains, log) == 0;
-        Log.d(FirewallManager.TAG, "added " + BITMASK_FORWARD + " and " + BITMASK_POSTROUTING+" to iptables: " + success);
-        Log.d(FirewallManager.TAG, log.toString());
-    }
-
-    private boolean addWifiTetheringRules(TetheringState state, StringBuilder log) throws Exception {
-        Log.d(TAG, "add Wifi tethering Rules");
-        String[] addRules = getAdditionRules(state.wifiAddress, state.wifiInterface);
-        return runBlockingCmd(addRules, log) == 0;
-    }
-
-    private boolean removeWifiTetheringRules(TetheringState state, StringBuilder log) throws Exception {
-        Log.d(TAG, "remove Wifi tethering Rules");
-        String[] removeRules = getDeletionRules(state, state.lastSeenWifiAddress, state.lastSeenWifiInterface);
-        return runBlockingCmd(removeRules, log) == 0;
+    /**
+     * Runs the commands in the root shell session.
+     * @return true if the last command succeeded
+     */
+    private boolean runCommands(String[] commands, StringBuilder log) throws Exception {
+        RootShell.Result result = RuleInstaller.getInstance().getShell().run(TextUtils.join("\n", commands));
+        log.append(result.output);
+        return result.exitCode == 0;
     }
 
-    private boolean addUsbTetheringRules(TetheringState state, StringBuilder log) throws Exception {
-        Log.d(TAG, "add usb tethering rules");
-        String[] addRules = getAdditionRules(state.usbAddress, state.usbInterface);
-        return runBlockingCmd(addRules, log) == 0;
-    }
-
-    private boolean removeUsbTetheringRules(TetheringState state, StringBuilder log) throws Exception {
-        Log.d(TAG, "remove usb tethering rules");
-        String[] addRules = getDeletionRules(state, state.lastSeenUsbAddress, state.lastSeenUsbInterface);
-        return runBlockingCmd(addRules, log) == 0;
-    }
-
-    private boolean addBluetoothTetheringRules(TetheringState state, StringBuilder log) throws Exception {
-        Log.d(TAG, "add bluetooth tethering rules");
-        String[] addRules = getAdditionRules(state.bluetoothAddress, state.bluetoothInterface);
-        return runBlockingCmd(addRules, log) == 0;
-    }
-
-    private boolean removeBluetoothTetheringRules(TetheringState state, StringBuilder log) throws Exception {
-        Log.d(TAG, "remove bluetooth tethering rules");
-        String[] addRules = getDeletionRules(state, state.lastSeenBluetoothAddress, state.lastSeenBluetoothInterface);
-        return runBlockingCmd(addRules, log) == 0;
-    }
-
-
+    /**
+     * The policy routing for a tethered interface. The chains are installed separately.
+     */
     private String[] getAdditionRules(String addressRange, String interfaceName) {
         return new String[] {
-                "su",
-                "iptables -t filter --flush " + BITMASK_FORWARD,
-                "iptables -t nat --flush " + BITMASK_POSTROUTING,
-                "iptables -t filter --append " + BITMASK_FORWARD + " --jump ACCEPT",
-                "iptables -t nat --append " + BITMASK_POSTROUTING + " --jump MASQUERADE",
                 "if [[ ! `ip rule show from "+ addressRange+" lookup 61` ]]; " +
                         "then ip rule add from " + addressRange + " lookup 61; " +
                         "fi",
@@ -184,7 +141,6 @@ public class SetupTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
 
     private String[] getDeletionRules(TetheringState state, String addressRange, String interfaceName) {
         ArrayList<String> list = new ArrayList<>();
-        list.add("su");
         list.add("ip route delete broadcast 255.255.255.255 dev " + addressRange +" scope link table 61");
         list.add("ip route delete " + addressRange + " dev " + interfaceName +" scope link table 61");
         if (!state.hasAnyVpnTetheringAllowed() || !state.hasAnyDeviceTetheringEnabled()) {
@@ -197,8 +153,6 @@ public class SetupTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
         return list.toArray(new String[0]);
     }
 
-
-
     private String getTunName() {
         try {
             for (Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces(); en.hasMoreElements(); ) {
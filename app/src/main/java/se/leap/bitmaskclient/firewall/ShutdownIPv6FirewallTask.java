@@ -21,9 +21,6 @@ import android.util.Log;
 
 import java.lang.ref.WeakReference;
 
-import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_CHAIN;
-import static se.leap.bitmaskclient.base.utils.Cmd.runBlockingCmd;
-
 class ShutdownIPv6FirewallTask extends AsyncTask<Void, Boolean, Boolean> {
 
     private WeakReference<FirewallCallback> callbackWeakReference;
@@ -34,30 +31,26 @@ class ShutdownIPv6FirewallTask extends AsyncTask<Void, Boolean, Boolean> {
 
     @Override
     protected Boolean doInBackground(Void... voids) {
-        boolean success;
+        RuleInstaller ruleInstaller = RuleInstaller.getInstance();
         StringBuilder log = new StringBuilder();
-        String[] deleteChain = new String[]{
-                "su",
-                "id",
-                "ip6tables --delete OUTPUT --jump " + BITMASK_CHAIN,
-                "ip6tables --flush " + BITMASK_CHAIN,
-                "ip6tables --delete-chain " + BITMASK_CHAIN
-        };
+        boolean allowSu = ruleInstaller.hasRoot();
         try {
-            success = runBlockingCmd(deleteChain, log) == 0;
+            callbackWeakReference.get().onSuRequested(allowSu);
         } catch (Exception e) {
-            e.printStackTrace();
-            Log.e(FirewallManager.TAG, log.toString());
+            //ignore
+        }
+        if (!allowSu) {
             return false;
         }
 
         try {
-            boolean allowSu = log.toString().contains("uid=0");
-            callbackWeakReference.get().onSuRequested(allowSu);
+            // no desired rules: removes the chain
+            return ruleInstaller.installIPv6(new FirewallRules(), log);
         } catch (Exception e) {
-            //ignore
+            e.printStackTrace();
+            Log.e(FirewallManager.TAG, log.toString());
+            return false;
         }
-        return success;
     }
 
     @Override
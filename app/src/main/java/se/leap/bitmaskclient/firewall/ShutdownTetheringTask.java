@@ -20,15 +20,10 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 
 import se.leap.bitmaskclient.tethering.TetheringObservable;
 import se.leap.bitmaskclient.tethering.TetheringState;
 
-import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_FORWARD;
-import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_POSTROUTING;
-import static se.leap.bitmaskclient.base.utils.Cmd.runBlockingCmd;
-
 public class ShutdownTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
 
     private WeakReference<FirewallCallback> callbackWeakReference;
@@ -40,42 +35,26 @@ public class ShutdownTetheringTask extends AsyncTask<Void, Boolean, Boolean> {
     @Override
     protected Boolean doInBackground(Void... args) {
         TetheringState tetheringState = TetheringObservable.getInstance().getTetheringState();
+        RuleInstaller ruleInstaller = RuleInstaller.getInstance();
         StringBuilder log = new StringBuilder();
 
-        String[] bitmaskChain = new String[]{
-                "su",
-                "id",
-                "iptables -t filter --list " + BITMASK_FORWARD + " && iptables -t nat --list " + BITMASK_POSTROUTING };
-
         try {
-            boolean hasBitmaskChain = runBlockingCmd(bitmaskChain, log) == 0;
-            boolean allowSu = log.toString().contains("uid=0");
+            boolean allowSu = ruleInstaller.hasRoot();
             callbackWeakReference.get().onSuRequested(allowSu);
             if (!allowSu) {
                 return false;
             }
 
-            log = new StringBuilder();
-
-            ArrayList<String> removeChains = new ArrayList<>();
-            removeChains.add("su");
-            removeChains.add("ip route flush table 61");
-            removeChains.add("if [[ `ip rule show from " + tetheringState.lastSeenWifiAddress+ " lookup 61` ]]; " +
+            String removeRoutes = "ip route flush table 61\n" +
+                    "if [[ `ip rule show from " + tetheringState.lastSeenWifiAddress+ " lookup 61` ]]; " +
                     "then ip rule del from " + tetheringState.lastSeenWifiAddress + " lookup 61; " +
-                    "fi");
-            removeChains.add("if [[ `ip rule show from " + tetheringState.lastSeenUsbAddress+ " lookup 61` ]]; " +
+                    "fi\n" +
+                    "if [[ `ip rule show from " + tetheringState.lastSeenUsbAddress+ " lookup 61` ]]; " +
                     "then ip rule del from " + tetheringState.lastSeenUsbAddress + " lookup 61; " +
-                    "fi");
-            if (hasBitmaskChain) {
-                removeChains.add("iptables -t filter --delete FORWARD --jump " + BITMASK_FORWARD);
-                removeChains.add("iptables -t nat --delete POSTROUTING --jump " + BITMASK_POSTROUTING);
-                removeChains.add("iptables -t filter --flush " + BITMASK_FORWARD);
-                removeChains.add("iptables -t nat --flush " + BITMASK_POSTROUTING);
-                removeChains.add("iptables -t filter --delete-chain " + BITMASK_FORWARD);
-                removeChains.add("iptables -t nat --delete-chain " + BITMASK_POSTROUTING);
-            }
-            return runBlockingCmd(removeChains.toArray(new String[0]), log) == 0;
-
+                    "fi";
+            log.append(ruleInstaller.getShell().run(removeRoutes).output);
+            // no desired rules: removes the chains
+            return ruleInstaller.installIPv4(new FirewallRules(), log);
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(FirewallManager.TAG, log.toString());
@@ -22,7 +22,6 @@ import android.util.Log;
 import java.lang.ref.WeakReference;
 
 import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_CHAIN;
-import static se.leap.bitmaskclient.base.utils.Cmd.runBlockingCmd;
 
 class StartIPv6FirewallTask extends AsyncTask<Void, Boolean, Boolean> {
 
@@ -34,42 +33,20 @@ class StartIPv6FirewallTask extends AsyncTask<Void, Boolean, Boolean> {
 
     @Override
     protected Boolean doInBackground(Void... voids) {
+        RuleInstaller ruleInstaller = RuleInstaller.getInstance();
         StringBuilder log = new StringBuilder();
-        String[] bitmaskChain = new String[]{
-                "su",
-                "id",
-                "ip6tables --list " + BITMASK_CHAIN };
-
 
         try {
-            boolean hasBitmaskChain = runBlockingCmd(bitmaskChain, log) == 0;
-            boolean allowSu = log.toString().contains("uid=0");
+            boolean allowSu = ruleInstaller.hasRoot();
             callbackWeakReference.get().onSuRequested(allowSu);
             if (!allowSu) {
                 return false;
             }
 
-            boolean success;
-            log = new StringBuilder();
-            if (!hasBitmaskChain) {
-                String[] createChainAndRules = new String[]{
-                        "su",
-                        "ip6tables --new-chain " + BITMASK_CHAIN,
-                        "ip6tables --insert OUTPUT --jump " + BITMASK_CHAIN,
-                        "ip6tables --append " + BITMASK_CHAIN + " -p tcp --jump REJECT",
-                        "ip6tables --append " + BITMASK_CHAIN + " -p udp --jump REJECT"
-                };
-                success = runBlockingCmd(createChainAndRules, log) == 0;
-                Log.d(FirewallManager.TAG, "added " + BITMASK_CHAIN + " to ip6tables: " + success);
-                Log.d(FirewallManager.TAG, log.toString());
-                return success;
-            } else {
-                String[] addRules = new String[] {
-                        "su",
-                        "ip6tables --append " + BITMASK_CHAIN + " -p tcp --jump REJECT",
-                        "ip6tables --append " + BITMASK_CHAIN + " -p udp --jump REJECT" };
-                return runBlockingCmd(addRules, log) == 0;
-            }
+            boolean success = ruleInstaller.installIPv6(RuleInstaller.getIPv6FirewallRules(), log);
+            Log.d(FirewallManager.TAG, "installed " + BITMASK_CHAIN + " in ip6tables: " + success);
+            Log.d(FirewallManager.TAG, log.toString());
+            return success;
         } catch (Exception e) {
             e.printStackTrace();
             Log.e(FirewallManager.TAG, log.toString());
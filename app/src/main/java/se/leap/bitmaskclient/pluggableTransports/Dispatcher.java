@@ -23,9 +23,10 @@ import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.util.StringTokenizer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import se.leap.bitmaskclient.base.utils.ProcessRunner;
 
 
 /**
@@ -37,14 +38,15 @@ public class Dispatcher {
     public static final String DISPATCHER_PORT = "4430";
     public static final String DISPATCHER_IP = "127.0.0.1";
     private static final String TAG = Dispatcher.class.getName();
+    private static final int LISTEN_TIMEOUT_MILLIS = 3000;
+    private static final int LISTEN_POLL_INTERVAL_MILLIS = 50;
     private final String remoteIP;
     private final String remotePort;
     private final String certificate;
     private final String iatMode;
     private File fileDispatcher;
     private Context context;
-    private Thread dispatcherThread = null;
-    private int dispatcherPid = -1;
+    private ProcessRunner dispatcherProcess = null;
 
     public Dispatcher(Context context, Obfs4Options obfs4Options) {
         this.context = context.getApplicationContext();
@@ -59,77 +61,67 @@ public class Dispatcher {
         try {
             fileDispatcher = installDispatcher();
 
-            // start dispatcher
-            dispatcherThread = new Thread(() -> {
-                try {
-                    StringBuilder dispatcherLog = new StringBuilder();
-                    String dispatcherCommand = fileDispatcher.getCanonicalPath() +
-                            " -transparent" +
-                            " -client" +
-                            " -state " + context.getFilesDir().getCanonicalPath() + "/state" +
-                            " -target " + remoteIP + ":" + remotePort +
-                            " -transports obfs4" +
-                            " -options \"" + String.format("{\\\"cert\\\": \\\"%s\\\", \\\"iatMode\\\": \\\"%s\\\"}\"", certificate, iatMode) +
-                            " -logLevel DEBUG -enableLogging" +
-                            " -proxylistenaddr "+ DISPATCHER_IP + ":" + DISPATCHER_PORT;
-
-                    Log.d(TAG, "dispatcher command: " + dispatcherCommand);
-                    runBlockingCmd(new String[]{dispatcherCommand}, dispatcherLog);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
-            dispatcherThread.start();
-
-            // get pid of dispatcher, try several times in case the dispatcher
-            // process is not spawned yet
-            StringBuilder log = new StringBuilder();
-            String pidCommand = "ps | grep piedispatcher";
-            for (int i = 0; i < 5; i++) {
-                runBlockingCmd(new String[]{pidCommand}, log);
-                if (!TextUtils.isEmpty(log))  {
-                    break;
-                }
-                Thread.sleep(100);
+            // start dispatcher, its pid is known as soon as it runs, but openvpn can only connect
+            // once it listens on the proxy port
+            String[] dispatcherCommand = new String[]{
+                    fileDispatcher.getCanonicalPath(),
+                    "-transparent",
+                    "-client",
+                    "-state", context.getFilesDir().getCanonicalPath() + "/state",
+                    "-target", remoteIP + ":" + remotePort,
+                    "-transports", "obfs4",
+                    "-options", String.format("{\"cert\": \"%s\", \"iatMode\": \"%s\"}", certificate, iatMode),
+                    "-logLevel", "DEBUG", "-enableLogging",
+                    "-proxylistenaddr", DISPATCHER_IP + ":" + DISPATCHER_PORT
+            };
+
+            Log.d(TAG, "dispatcher command: " + TextUtils.join(" ", dispatcherCommand));
+            dispatcherProcess = ProcessRunner.start(dispatcherCommand, null);
+            Log.d(TAG, "dispatcher pid: " + dispatcherProcess.getPid());
+            if (!waitForProxyPort()) {
+                Log.w(TAG, "dispatcher doesn't listen on " + DISPATCHER_IP + ":" + DISPATCHER_PORT +
+                        " after " + LISTEN_TIMEOUT_MILLIS + " ms");
             }
-
-            String output  = log.toString();
-            StringTokenizer st = new StringTokenizer(output, " ");
-            st.nextToken(); // proc owner
-            dispatcherPid = Integer.parseInt(st.nextToken().trim());
         } catch(Exception e){
-            if (dispatcherThread.isAlive()) {
-                Log.e(TAG, e.getMessage() + ". Shutting down Dispatcher thread.");
+            if (isRunning()) {
+                Log.e(TAG, e.getMessage() + ". Shutting down Dispatcher.");
                 stop();
             }
         }
     }
 
+    /**
+     * Polls the proxy port until the dispatcher accepts connections, it dies or the timeout expires.
+     * @return true if the dispatcher listens
+     */
+    private boolean waitForProxyPort() throws InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(DISPATCHER_IP, Integer.parseInt(DISPATCHER_PORT));
+        long deadline = System.currentTimeMillis() + LISTEN_TIMEOUT_MILLIS;
+        while (isRunning() && System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, LISTEN_POLL_INTERVAL_MILLIS);
+                return true;
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(LISTEN_POLL_INTERVAL_MILLIS);
+        }
+        return false;
+    }
+
     public String getPort() {
         return DISPATCHER_PORT;
     }
 
     public void stop() {
-        Log.d(TAG, "Shutting down Dispatcher thread.");
-        if (dispatcherThread != null && dispatcherThread.isAlive()) {
-            try {
-                killProcess(dispatcherPid);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            dispatcherThread.interrupt();
+        Log.d(TAG, "Shutting down Dispatcher.");
+        if (isRunning()) {
+            dispatcherProcess.cancel();
         }
     }
 
-    private void killProcess(int pid) throws Exception {
-        String killPid = "kill -9 " + pid;
-        runCmd(new String[]{killPid}, null, false);
-    }
-
     public boolean isRunning() {
-        return dispatcherThread != null && dispatcherThread.isAlive();
+        return dispatcherProcess != null && dispatcherProcess.isRunning();
     }
 
     private File installDispatcher(){
@@ -150,67 +142,4 @@ public class Dispatcher {
 
         return fileDispatcher;
     }
-
-    @WorkerThread
-    private void runBlockingCmd(String[] cmds, StringBuilder log) throws Exception {
-        runCmd(cmds, log, true);
-    }
-
-    @WorkerThread
-    private int runCmd(String[] cmds, StringBuilder log,
-                       boolean waitFor) throws Exception {
-
-        int exitCode = -1;
-        Process proc = Runtime.getRuntime().exec("sh");
-        OutputStreamWriter out = new OutputStreamWriter(proc.getOutputStream());
-
-        try {
-            for (String cmd : cmds) {
-                Log.d(TAG, "executing CMD: " + cmd);
-                out.write(cmd);
-                out.write("\n");
-            }
-
-            out.flush();
-            out.write("exit\n");
-            out.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            out.close();
-        }
-
-        if (waitFor) {
-            // Consume the "stdout"
-            InputStreamReader reader = new InputStreamReader(proc.getInputStream());
-            readToLogString(reader, log);
-
-            // Consume the "stderr"
-            reader = new InputStreamReader(proc.getErrorStream());
-            readToLogString(reader, log);
-
-            try {
-                exitCode = proc.waitFor();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-
-        return exitCode;
-    }
-
-    private void readToLogString(InputStreamReader reader, StringBuilder log) throws IOException {
-        final char buf[] = new char[10];
-        int read = 0;
-        try {
-            while ((read = reader.read(buf)) != -1) {
-                if (log != null)
-                    log.append(buf, 0, read);
-            }
-        } catch (IOException e) {
-            reader.close();
-            throw new IOException(e);
-        }
-        reader.close();
-    }
 }
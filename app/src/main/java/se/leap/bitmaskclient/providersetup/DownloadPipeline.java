@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.leap.bitmaskclient.providersetup;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static se.leap.bitmaskclient.base.models.Constants.BROADCAST_RESULT_KEY;
+
+/**
+ * Runs a set of named downloads concurrently. A download starts as soon as all downloads it
+ * depends on finished successfully and is skipped if one of them failed. Each download has its
+ * own timeout, after which it gets cancelled. If a required download fails, all remaining
+ * downloads are cancelled.
+ *
+ * A download is successful if it returns a Bundle containing BROADCAST_RESULT_KEY set to true.
+ * DownloadPipeline records the latency of each download, so that the total setup time can be
+ * attributed to the single requests.
+ *
+ * Downloads run on worker threads and must not modify shared state. Whatever they produced is
+ * handed to the stage's ResultHandler, which is called on the thread executing run() and only for
+ * downloads that succeeded before they timed out or got cancelled.
+ */
+public class DownloadPipeline {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    public interface ResultHandler {
+        void onSucceeded(@NonNull Bundle result);
+    }
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        TIMED_OUT,
+        CANCELLED,
+        SKIPPED
+    }
+
+    private static class Stage {
+        final String name;
+        final long timeoutNanos;
+        final boolean required;
+        final Callable<Bundle> download;
+        final ResultHandler resultHandler;
+        final String[] dependencies;
+
+        State state = State.PENDING;
+        Bundle result;
+        Exception exception;
+        long startNanos;
+        long latencyNanos;
+
+        Stage(String name, long timeoutMillis, boolean required, Callable<Bundle> download, ResultHandler resultHandler, String[] dependencies) {
+            this.name = name;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.required = required;
+            this.download = download;
+            this.resultHandler = resultHandler;
+            this.dependencies = dependencies;
+        }
+
+        boolean isFinished() {
+            return state != State.PENDING && state != State.RUNNING;
+        }
+    }
+
+    private static class Outcome {
+        Bundle result;
+        Exception exception;
+        long endNanos;
+    }
+
+    private final LinkedHashMap<String, Stage> stages = new LinkedHashMap<>();
+    private final HashMap<Future<Outcome>, Stage> running = new HashMap<>();
+    private CompletionService<Outcome> completionService;
+    private Clock clock = System::nanoTime;
+
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Adds a download that runs as soon as all given dependencies succeeded.
+     * @param name unique name of the download
+     * @param timeoutMillis maximum time the download may take after it has been started
+     * @param required if true, a failing download cancels the whole pipeline
+     * @param download the request, needs to return a Bundle containing BROADCAST_RESULT_KEY
+     * @param dependencies names of previously added downloads
+     */
+    public DownloadPipeline addStage(@NonNull String name, long timeoutMillis, boolean required, @NonNull Callable<Bundle> download, String... dependencies) {
+        return addStage(name, timeoutMillis, required, download, null, dependencies);
+    }
+
+    /**
+     * Adds a download that runs as soon as all given dependencies succeeded.
+     * @param resultHandler applies the result of the successful download on the thread calling run()
+     */
+    public DownloadPipeline addStage(@NonNull String name, long timeoutMillis, boolean required, @NonNull Callable<Bundle> download, @Nullable ResultHandler resultHandler, String... dependencies) {
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("Stage " + name + " already exists.");
+        }
+        for (String dependency : dependencies) {
+            if (!stages.containsKey(dependency)) {
+                throw new IllegalArgumentException("Unknown dependency " + dependency + " of stage " + name);
+            }
+        }
+        stages.put(name, new Stage(name, timeoutMillis, required, download, resultHandler, dependencies));
+        return this;
+    }
+
+    /**
+     * Starts all downloads and blocks until each of them has finished, failed, timed out
+     * or has been cancelled. Results of downloads that finish after they timed out or got
+     * cancelled are dropped.
+     */
+    public void run() throws InterruptedException {
+        completionService = new ExecutorCompletionService<>(executor);
+        try {
+            scheduleStages();
+            while (!running.isEmpty()) {
+                Future<Outcome> future = completionService.poll(getNanosUntilNextTimeout(), TimeUnit.NANOSECONDS);
+                if (future != null) {
+                    // futures of timed out or cancelled stages aren't running anymore
+                    Stage stage = running.remove(future);
+                    if (stage != null) {
+                        finishStage(stage, future);
+                    }
+                }
+                cancelTimedOutStages();
+                scheduleStages();
+            }
+        } catch (InterruptedException e) {
+            cancelAll();
+            throw e;
+        }
+    }
+
+    public @Nullable Bundle getResult(String name) {
+        Stage stage = stages.get(name);
+        return stage != null ? stage.result : null;
+    }
+
+    public State getState(String name) {
+        Stage stage = stages.get(name);
+        return stage != null ? stage.state : State.SKIPPED;
+    }
+
+    public boolean isSuccessful(String name) {
+        return getState(name) == State.SUCCEEDED;
+    }
+
+    /**
+     * @return the time in milliseconds the download took until it finished, failed or got
+     * cancelled, 0 if it never started
+     */
+    public long getLatency(String name) {
+        Stage stage = stages.get(name);
+        return stage != null ? TimeUnit.NANOSECONDS.toMillis(stage.latencyNanos) : 0;
+    }
+
+    public @Nullable Exception getException(String name) {
+        Stage stage = stages.get(name);
+        return stage != null ? stage.exception : null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (Stage stage : stages.values()) {
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append(", ");
+            }
+            stringBuilder.append(stage.name)
+                    .append(": ")
+                    .append(stage.state.toString().toLowerCase())
+                    .append(" (")
+                    .append(TimeUnit.NANOSECONDS.toMillis(stage.latencyNanos))
+                    .append(" ms)");
+        }
+        return stringBuilder.toString();
+    }
+
+    private void scheduleStages() {
+        for (Stage stage : stages.values()) {
+            if (stage.state != State.PENDING) {
+                continue;
+            }
+            boolean dependenciesSucceeded = true;
+            boolean dependenciesFinished = true;
+            for (String dependency : stage.dependencies) {
+                Stage dependencyStage = stages.get(dependency);
+                if (!dependencyStage.isFinished()) {
+                    dependenciesFinished = false;
+                } else if (dependencyStage.state != State.SUCCEEDED) {
+                    dependenciesSucceeded = false;
+                }
+            }
+            if (!dependenciesSucceeded) {
+                stage.state = State.SKIPPED;
+            } else if (dependenciesFinished) {
+                startStage(stage);
+            }
+        }
+    }
+
+    private void startStage(final Stage stage) {
+        stage.state = State.RUNNING;
+        stage.startNanos = clock.nanoTime();
+        final Callable<Bundle> download = stage.download;
+        Future<Outcome> future = completionService.submit(() -> {
+            Outcome outcome = new Outcome();
+            try {
+                outcome.result = download.call();
+            } catch (Exception e) {
+                outcome.exception = e;
+            }
+            outcome.endNanos = clock.nanoTime();
+            return outcome;
+        });
+        running.put(future, stage);
+    }
+
+    private void finishStage(Stage stage, Future<Outcome> future) throws InterruptedException {
+        try {
+            Outcome outcome = future.get();
+            stage.result = outcome.result;
+            stage.exception = outcome.exception;
+            stage.latencyNanos = outcome.endNanos - stage.startNanos;
+            stage.state = outcome.result != null && outcome.result.getBoolean(BROADCAST_RESULT_KEY) ?
+                    State.SUCCEEDED :
+                    State.FAILED;
+        } catch (ExecutionException e) {
+            stage.state = State.FAILED;
+            stage.latencyNanos = clock.nanoTime() - stage.startNanos;
+        }
+
+        if (stage.state == State.SUCCEEDED && stage.resultHandler != null) {
+            try {
+                stage.resultHandler.onSucceeded(stage.result);
+            } catch (RuntimeException e) {
+                stage.exception = e;
+                stage.state = State.FAILED;
+            }
+        }
+
+        if (stage.state == State.FAILED && stage.required) {
+            cancelAll();
+        }
+    }
+
+    private void cancelTimedOutStages() {
+        long now = clock.nanoTime();
+        boolean requiredStageTimedOut = false;
+        Iterator<Map.Entry<Future<Outcome>, Stage>> iterator = running.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Future<Outcome>, Stage> entry = iterator.next();
+            Stage stage = entry.getValue();
+            if (now - stage.startNanos >= stage.timeoutNanos) {
+                entry.getKey().cancel(true);
+                iterator.remove();
+                stage.state = State.TIMED_OUT;
+                stage.latencyNanos = now - stage.startNanos;
+                requiredStageTimedOut |= stage.required;
+            }
+        }
+        if (requiredStageTimedOut) {
+            cancelAll();
+        }
+    }
+
+    private void cancelAll() {
+        long now = clock.nanoTime();
+        for (Map.Entry<Future<Outcome>, Stage> entry : running.entrySet()) {
+            entry.getKey().cancel(true);
+            Stage stage = entry.getValue();
+            stage.state = State.CANCELLED;
+            stage.latencyNanos = now - stage.startNanos;
+        }
+        running.clear();
+        for (Stage stage : stages.values()) {
+            if (stage.state == State.PENDING) {
+                stage.state = State.SKIPPED;
+            }
+        }
+    }
+
+    private long getNanosUntilNextTimeout() {
+        long now = clock.nanoTime();
+        long nanosUntilNextTimeout = Long.MAX_VALUE;
+        for (Stage stage : running.values()) {
+            long remaining = stage.startNanos + stage.timeoutNanos - now;
+            nanosUntilNextTimeout = Math.min(nanosUntilNextTimeout, Math.max(0, remaining));
+        }
+        return nanosUntilNextTimeout;
+    }
+}
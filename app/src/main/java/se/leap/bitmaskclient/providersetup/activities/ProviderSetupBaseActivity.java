@@ -32,6 +32,7 @@ import org.json.JSONObject;
 
 import se.leap.bitmaskclient.base.FragmentManagerEnhanced;
 import se.leap.bitmaskclient.base.models.Provider;
+import se.leap.bitmaskclient.eip.VpnCertificateValidator;
 import se.leap.bitmaskclient.providersetup.ProviderAPICommand;
 import se.leap.bitmaskclient.providersetup.ProviderDetailActivity;
 import se.leap.bitmaskclient.providersetup.ProviderApiSetupBroadcastReceiver;
@@ -190,6 +191,11 @@ public abstract class ProviderSetupBaseActivity extends ConfigWizardBaseActivity
      * Asks ProviderApiService to download an anonymous (anon) VPN certificate.
      */
     protected void downloadVpnCertificate() {
+        if (provider.hasVpnCertificate() && new VpnCertificateValidator(provider.getVpnCertificate()).isValid()) {
+            // usually downloaded together with the eip-service.json during the provider setup
+            handleCorrectlyDownloadedCertificate(provider);
+            return;
+        }
         ProviderAPICommand.execute(this, DOWNLOAD_VPN_CERTIFICATE, provider);
     }
 
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2021 LEAP Encryption Access Project and contributers
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.leap.bitmaskclient.providersetup.connectivity;
+
+import androidx.annotation.Nullable;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+
+/**
+ * Counts TLS handshakes and reused connections of all OkHttpClients created by
+ * the OkHttpClientGenerator. A call that acquires a connection without connecting
+ * first reuses a pooled connection and thus avoids a TLS handshake.
+ */
+public class ConnectionStatistics implements EventListener.Factory {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final AtomicInteger connectionsReused = new AtomicInteger();
+    private final AtomicInteger handshakesAvoided = new AtomicInteger();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener();
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public int getHandshakes() {
+        return handshakes.get();
+    }
+
+    public int getConnectionsReused() {
+        return connectionsReused.get();
+    }
+
+    public int getHandshakesAvoided() {
+        return handshakesAvoided.get();
+    }
+
+    public void reset() {
+        calls.set(0);
+        handshakes.set(0);
+        connectionsReused.set(0);
+        handshakesAvoided.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "calls: " + calls.get() +
+                ", handshakes: " + handshakes.get() +
+                ", connections reused: " + connectionsReused.get() +
+                ", handshakes avoided: " + handshakesAvoided.get();
+    }
+
+    private class CallListener extends EventListener {
+        private boolean connecting;
+
+        @Override
+        public void callStart(Call call) {
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connecting = true;
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+            handshakes.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (!connecting) {
+                connectionsReused.incrementAndGet();
+                if (connection.handshake() != null) {
+                    handshakesAvoided.incrementAndGet();
+                }
+            }
+            // redirects and retries acquire connections again
+            connecting = false;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package se.leap.bitmaskclient.providersetup.connectivity;
 
 import android.content.res.Resources;
 import android.os.Build;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 
@@ -27,20 +28,26 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import okhttp3.CipherSuite;
+import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.TlsVersion;
@@ -60,6 +67,23 @@ import static se.leap.bitmaskclient.base.utils.ConfigHelper.getProviderFormatted
 
 public class OkHttpClientGenerator {
 
+    private static final String TAG = OkHttpClientGenerator.class.getSimpleName();
+    private static final int MAX_SELF_SIGNED_CA_CLIENTS = 4;
+
+    // All clients share the same connection pool and dispatcher, so that connections and TLS sessions
+    // to the provider can be reused across subsequent requests. OkHttp only reuses a pooled connection
+    // for clients with the same SSLSocketFactory, that's why the clients are cached per trust anchor.
+    private static final ConnectionPool connectionPool = new ConnectionPool();
+    private static final Dispatcher dispatcher = new Dispatcher();
+    private static final ConnectionStatistics connectionStatistics = new ConnectionStatistics();
+    private static OkHttpClient commercialCAClient;
+    private static final LinkedHashMap<String, OkHttpClient> selfSignedCAClients = new LinkedHashMap<String, OkHttpClient>(MAX_SELF_SIGNED_CA_CLIENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OkHttpClient> eldest) {
+            return size() > MAX_SELF_SIGNED_CA_CLIENTS;
+        }
+    };
+
     Resources resources;
 
     public OkHttpClientGenerator(/*SharedPreferences preferences,*/ Resources resources) {
@@ -117,27 +141,90 @@ public class OkHttpClientGenerator {
         return null;
     }
 
+    /**
+     * Drops the cached client for the previous CA certificate of a provider if a different CA
+     * certificate has been downloaded. Clients of other CA certificates and the pooled connections
+     * are kept: OkHttp only hands a pooled connection to clients with the same SSLSocketFactory,
+     * so the connections of the dropped client can't be reused and simply time out.
+     */
+    public void invalidateSelfSignedCAClient(String previousCaCert, String caCert) {
+        if (isEmpty(previousCaCert)) {
+            return;
+        }
+        String previousFingerprint = getFingerprint(previousCaCert);
+        if (!isEmpty(caCert) && previousFingerprint.equals(getFingerprint(caCert))) {
+            return;
+        }
+        synchronized (OkHttpClientGenerator.class) {
+            selfSignedCAClients.remove(previousFingerprint);
+        }
+    }
+
+    /**
+     * @return statistics about handshakes and reused connections of all clients
+     */
+    public static ConnectionStatistics getConnectionStatistics() {
+        return connectionStatistics;
+    }
+
     private OkHttpClient createClient(String certificate) throws Exception {
+        // each client gets its own cookie jar as before, the connection related parts are shared
+        return getSharedClient(certificate).newBuilder()
+                .cookieJar(getCookieJar())
+                .build();
+    }
+
+    private static synchronized OkHttpClient getSharedClient(String certificate) throws Exception {
+        boolean isCommercialCA = isEmpty(certificate);
+        String fingerprint = isCommercialCA ? null : getFingerprint(certificate);
+        OkHttpClient client = isCommercialCA ? commercialCAClient : selfSignedCAClients.get(fingerprint);
+        if (client != null) {
+            return client;
+        }
+
         TLSCompatSocketFactory sslCompatFactory;
         ConnectionSpec spec = getConnectionSpec();
         OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
 
-        if (!isEmpty(certificate)) {
+        if (!isCommercialCA) {
             sslCompatFactory = new TLSCompatSocketFactory(certificate);
         } else {
             sslCompatFactory = new TLSCompatSocketFactory();
         }
         sslCompatFactory.initSSLSocketFactory(clientBuilder);
-        clientBuilder.cookieJar(getCookieJar())
-                .connectionSpecs(Collections.singletonList(spec));
+        clientBuilder.connectionSpecs(Collections.singletonList(spec))
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .eventListenerFactory(connectionStatistics);
         clientBuilder.dns(new DnsResolver());
-        return clientBuilder.build();
-    }
+        client = clientBuilder.build();
 
+        if (isCommercialCA) {
+            commercialCAClient = client;
+        } else {
+            selfSignedCAClients.put(fingerprint, client);
+        }
+        Log.d(TAG, "created new http client. " + connectionStatistics.toString());
+        return client;
+    }
 
+    private static String getFingerprint(String certificate) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(certificate.getBytes(Charset.forName("UTF-8")));
+            StringBuilder fingerprint = new StringBuilder();
+            for (byte b : hash) {
+                fingerprint.append(String.format("%02x", b));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return certificate;
+        }
+    }
 
     @NonNull
-    private ConnectionSpec getConnectionSpec() {
+    private static ConnectionSpec getConnectionSpec() {
         ConnectionSpec.Builder connectionSpecbuilder = new ConnectionSpec.Builder(ConnectionSpec.MODERN_TLS)
                 .tlsVersions(TlsVersion.TLS_1_2, TlsVersion.TLS_1_3);
         //FIXME: restrict connection further to the following recommended cipher suites for ALL supported API levels
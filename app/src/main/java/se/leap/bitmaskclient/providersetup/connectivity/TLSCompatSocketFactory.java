@@ -22,7 +22,7 @@ import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 import okhttp3.OkHttpClient;
-import se.leap.bitmaskclient.base.utils.ConfigHelper;
+import se.leap.bitmaskclient.base.utils.CertificateCache;
 
 /**
  * Created by cyberta on 24.10.17.
@@ -51,12 +51,12 @@ public class TLSCompatSocketFactory extends SSLSocketFactory {
 
     private void initForSelfSignedCAs(String trustedSelfSignedCaCert) throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException, IllegalStateException, KeyManagementException, NoSuchProviderException {
         // Create a KeyStore containing our trusted CAs
-        String defaultType = KeyStore.getDefaultType();
-        KeyStore keyStore = KeyStore.getInstance(defaultType);
-        keyStore.load(null, null);
+        KeyStore keyStore;
         if (!TextUtils.isEmpty(trustedSelfSignedCaCert)) {
-            java.security.cert.Certificate provider_certificate = ConfigHelper.parseX509CertificateFromString(trustedSelfSignedCaCert);
-            keyStore.setCertificateEntry("provider_ca_certificate", provider_certificate);
+            keyStore = CertificateCache.getInstance().getKeyStore(trustedSelfSignedCaCert);
+        } else {
+            keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null);
         }
 
         // Create a TrustManager that trusts the CAs in our KeyStore
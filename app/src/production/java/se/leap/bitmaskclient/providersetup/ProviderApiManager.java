@@ -33,6 +33,7 @@ import de.blinkt.openvpn.core.VpnStatus;
 import okhttp3.OkHttpClient;
 import se.leap.bitmaskclient.R;
 import se.leap.bitmaskclient.base.models.Provider;
+import se.leap.bitmaskclient.base.utils.CertificateCache;
 import se.leap.bitmaskclient.base.utils.ConfigHelper;
 import se.leap.bitmaskclient.eip.EIP;
 import se.leap.bitmaskclient.providersetup.connectivity.OkHttpClientGenerator;
@@ -91,7 +92,7 @@ public class ProviderApiManager extends ProviderApiManagerBase {
             return currentDownload;
         }
 
-        getPersistedProviderUpdates(provider);
+        getPersistedProviderUpdates(provider, task);
         currentDownload = validateProviderDetails(provider);
 
         //provider certificate invalid
@@ -111,7 +112,7 @@ public class ProviderApiManager extends ProviderApiManagerBase {
                 currentDownload = downloadCACert(provider);
             }
             if (provider.hasCaCert() || (currentDownload.containsKey(BROADCAST_RESULT_KEY) && currentDownload.getBoolean(BROADCAST_RESULT_KEY))) {
-                currentDownload = getAndSetEipServiceJson(provider);
+                currentDownload = downloadProviderServices(provider);
             }
 
             if (provider.hasEIP() && !provider.allowsRegistered() && !provider.allowsAnonymous()) {
@@ -269,6 +270,10 @@ public class ProviderApiManager extends ProviderApiManagerBase {
             String certString = downloadWithCommercialCA(caCertUrl, provider);
 
             if (validCertificate(provider, certString)) {
+                clientGenerator.invalidateSelfSignedCAClient(provider.getCaCert(), certString);
+                if (!certString.equals(provider.getCaCert())) {
+                    CertificateCache.getInstance().invalidate(provider.getCaCert());
+                }
                 provider.setCaCert(certString);
                 if (DEBUG_MODE) {
                     VpnStatus.logDebug("[API] CA CERT: " + certString);
@@ -0,0 +1,181 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ByteCountDispatcherTest {
+
+    private ScheduledExecutorService executor;
+    private ByteCountDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        executor = ByteCountDispatcher.newExecutor();
+        dispatcher = new ByteCountDispatcher(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDispatch_sumOfDiffsKept() throws InterruptedException {
+        final CountDownLatch last = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener(1) {
+            @Override
+            public void updateByteCount(long in, long out, long diffIn, long diffOut) {
+                super.updateByteCount(in, out, diffIn, diffOut);
+                if (in == 1000)
+                    last.countDown();
+            }
+        };
+        assertTrue(dispatcher.add(listener, 0));
+
+        for (int i = 1; i <= 100; i++) {
+            dispatcher.dispatch(i * 10, i * 20, 10, 20);
+        }
+
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        long sumIn = 0;
+        long sumOut = 0;
+        for (long[] update : listener.updates) {
+            sumIn += update[2];
+            sumOut += update[3];
+        }
+        // updates arriving faster than the listener is called are merged
+        assertEquals(1000, sumIn);
+        assertEquals(2000, sumOut);
+        assertEquals(2000, listener.last()[1]);
+        assertEquals(100, dispatcher.getDispatchedCount());
+        assertEquals(100, dispatcher.getDeliveredCount() + dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void testDispatch_busyListener_coalesced() throws InterruptedException {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener(2) {
+            @Override
+            public void updateByteCount(long in, long out, long diffIn, long diffOut) {
+                super.updateByteCount(in, out, diffIn, diffOut);
+                if (updates.size() == 1) {
+                    busy.countDown();
+                    awaitUninterruptibly(release);
+                }
+            }
+        };
+        dispatcher.add(listener, 0);
+
+        dispatcher.dispatch(100, 10, 100, 10);
+        busy.await(5, TimeUnit.SECONDS);
+        for (int i = 1; i <= 10; i++) {
+            dispatcher.dispatch(100 + i * 5, 10 + i, 5, 1);
+        }
+        release.countDown();
+
+        listener.await();
+        assertEquals(2, listener.updates.size());
+        assertEquals(150, listener.last()[0]);
+        assertEquals(20, listener.last()[1]);
+        assertEquals(50, listener.last()[2]);
+        assertEquals(10, listener.last()[3]);
+        assertEquals(9, dispatcher.getCoalescedCount());
+        assertEquals(2, dispatcher.getDeliveredCount());
+    }
+
+    @Test
+    public void testDispatch_minInterval_rateLimited() throws InterruptedException {
+        RecordingListener listener = new RecordingListener(2);
+        dispatcher.add(listener, 300);
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= 5; i++) {
+            dispatcher.dispatch(i, 0, 1, 0);
+            Thread.sleep(10);
+        }
+
+        listener.await();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 250);
+        assertEquals(2, listener.updates.size());
+        assertEquals(1, listener.updates.get(0)[2]);
+        assertEquals(5, listener.last()[0]);
+        assertEquals(4, listener.last()[2]);
+        assertEquals(3, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void testRemove_pendingUpdateDropped() throws InterruptedException {
+        RecordingListener listener = new RecordingListener(1);
+        dispatcher.add(listener, 10000);
+        dispatcher.dispatch(1, 1, 1, 1);
+        listener.await();
+
+        dispatcher.dispatch(2, 2, 1, 1);
+        dispatcher.remove(listener);
+        dispatcher.dispatch(3, 3, 1, 1);
+
+        assertEquals(1, dispatcher.getDroppedCount());
+        assertEquals(1, listener.updates.size());
+    }
+
+    @Test
+    public void testAdd_twice_ignored() throws InterruptedException {
+        RecordingListener listener = new RecordingListener(1);
+        assertTrue(dispatcher.add(listener, 0));
+        assertFalse(dispatcher.add(listener, 0));
+
+        dispatcher.dispatch(1, 1, 1, 1);
+        listener.await();
+        // a second subscription would have delivered a second update by now
+        Thread.sleep(100);
+        assertEquals(1, listener.updates.size());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class RecordingListener implements VpnStatus.ByteCountListener {
+        final List<long[]> updates = new ArrayList<>();
+        private final CountDownLatch received;
+
+        RecordingListener(int expectedUpdates) {
+            received = new CountDownLatch(expectedUpdates);
+        }
+
+        @Override
+        public void updateByteCount(long in, long out, long diffIn, long diffOut) {
+            synchronized (updates) {
+                updates.add(new long[]{in, out, diffIn, diffOut});
+            }
+            received.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+        }
+
+        long[] last() {
+            synchronized (updates) {
+                return updates.get(updates.size() - 1);
+            }
+        }
+    }
+}
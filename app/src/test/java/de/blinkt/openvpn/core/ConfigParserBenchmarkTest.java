@@ -0,0 +1,88 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Splits the OpenVPN configs VpnConfigGenerator created for a provider with inlined ca, cert and
+ * key and compares throughput and allocations of ConfigTokenizer with the former String
+ * concatenating parser. Results are printed to stdout.
+ */
+public class ConfigParserBenchmarkTest {
+
+    private static final String[] GENERATED_CONFIGS = {"openvpnConfigs/tcp_udp.ovpn", "openvpnConfigs/udp_tcp.ovpn"};
+    private static final int WARM_UP_RUNS = 500;
+    private static final int RUNS = 2000;
+
+    private interface Splitter {
+        int split(String config) throws Exception;
+    }
+
+    @Test
+    public void benchmarkGeneratedConfigs() throws Exception {
+        List<String> configs = loadGeneratedConfigs();
+        Splitter legacy = config -> LegacyConfigParser.parse(new StringReader(config)).size();
+        Splitter tokenizer = config -> ConfigTokenizerTest.tokenize(config).size();
+
+        run(configs, legacy, WARM_UP_RUNS);
+        run(configs, tokenizer, WARM_UP_RUNS);
+
+        long[] legacyResult = run(configs, legacy, RUNS);
+        long[] tokenizerResult = run(configs, tokenizer, RUNS);
+        long chars = 0;
+        for (String config : configs) {
+            chars += config.length();
+        }
+        chars *= RUNS;
+        System.out.println(String.format(Locale.US,
+                "%d configs, %d chars | legacy: %6.1f MB/s, %6d bytes/config | tokenizer: %6.1f MB/s, %6d bytes/config",
+                configs.size(), chars / RUNS,
+                chars * 1000.0 / legacyResult[0], legacyResult[1] / configs.size() / RUNS,
+                chars * 1000.0 / tokenizerResult[0], tokenizerResult[1] / configs.size() / RUNS));
+    }
+
+    /**
+     * @return elapsed nano seconds and allocated bytes
+     */
+    private long[] run(List<String> configs, Splitter splitter, int runs) throws Exception {
+        int expectedOptions = splitter.split(configs.get(0));
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            for (String config : configs) {
+                assertEquals(expectedOptions, splitter.split(config));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, getAllocatedBytes() - allocatedBefore};
+    }
+
+    static List<String> loadGeneratedConfigs() throws IOException {
+        List<String> configs = new ArrayList<>();
+        for (String resource : GENERATED_CONFIGS) {
+            try (InputStream inputStream = ConfigParserBenchmarkTest.class.getClassLoader().getResourceAsStream(resource)) {
+                Scanner scanner = new Scanner(inputStream, "UTF-8").useDelimiter("\\A");
+                configs.add(scanner.hasNext() ? scanner.next() : "");
+            }
+        }
+        return configs;
+    }
+
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
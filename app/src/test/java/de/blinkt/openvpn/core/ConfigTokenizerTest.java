@@ -0,0 +1,161 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import de.blinkt.openvpn.VpnProfile;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+public class ConfigTokenizerTest {
+
+    private static final int FUZZ_RUNS = 20000;
+
+    @Test
+    public void testParseLine_quotingAndComments() throws Exception {
+        assertEquals(Arrays.asList("remote", "10.0.0.1", "443", "udp"), parseLine("remote 10.0.0.1 443 udp"));
+        assertEquals(Arrays.asList("setenv", "IV_GUI_VER", "se.leap.bitmaskclient 0.9.10"), parseLine("setenv IV_GUI_VER \"se.leap.bitmaskclient 0.9.10\""));
+        assertEquals(Arrays.asList("a", "b \\c"), parseLine("  a\t'b \\c' # comment"));
+        assertEquals(Arrays.asList("x", ""), parseLine("x \"\""));
+        assertEquals(Arrays.asList(), parseLine("; comment"));
+        // an unterminated quoted argument is dropped
+        assertEquals(Arrays.asList("a"), parseLine("a \"b c"));
+    }
+
+    @Test
+    public void testParseLine_backslashes() throws Exception {
+        assertEquals(LegacyConfigParser.parseline("a\\ b \"c\\\"d\" \\\\e"), parseLine("a\\ b \"c\\\"d\" \\\\e"));
+        try {
+            parseLine("a\\b");
+            fail("bad backslash accepted");
+        } catch (ConfigParser.ConfigParseError e) {
+            assertEquals("Options warning: Bad backslash ('\\') usage", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLines_likeBufferedReader() {
+        ConfigTokenizer tokenizer = new ConfigTokenizer("a\r\nb\rc\n\nd");
+        List<String> lines = new ArrayList<>();
+        while (tokenizer.nextLine()) {
+            lines.add(tokenizer.getLine());
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "", "d"), lines);
+    }
+
+    @Test
+    public void testReadInlineFile() {
+        ConfigTokenizer tokenizer = new ConfigTokenizer("<ca>\r\nline 1\r\n\rline 3\n </ca> \nverb 4");
+        tokenizer.nextLine();
+        assertEquals("line 1\n\nline 3", tokenizer.readInlineFile("</ca>"));
+        tokenizer.nextLine();
+        assertEquals("verb 4", tokenizer.getLine());
+
+        tokenizer = new ConfigTokenizer("<key>\n</key>");
+        tokenizer.nextLine();
+        assertEquals("", tokenizer.readInlineFile("</key>"));
+
+        tokenizer = new ConfigTokenizer("<key>\nno end tag\n");
+        tokenizer.nextLine();
+        assertNull(tokenizer.readInlineFile("</key>"));
+    }
+
+    @Test
+    public void testFuzz_sameResultAsLegacyParser() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < FUZZ_RUNS; i++) {
+            String config = randomConfig(random);
+            assertEquals("config: " + escape(config), legacyResult(config), result(config));
+        }
+    }
+
+    @Test
+    public void testGeneratedConfigs_sameResultAsLegacyParser() throws Exception {
+        for (String config : ConfigParserBenchmarkTest.loadGeneratedConfigs()) {
+            assertEquals(legacyResult(config), result(config));
+        }
+    }
+
+    private static Vector<String> parseLine(String line) throws ConfigParser.ConfigParseError {
+        ConfigTokenizer tokenizer = new ConfigTokenizer(line);
+        tokenizer.nextLine();
+        return tokenizer.parseLine();
+    }
+
+    /**
+     * Splits config like ConfigParser.parseConfig()
+     */
+    static List<Vector<String>> tokenize(String config) throws IOException, ConfigParser.ConfigParseError {
+        List<Vector<String>> options = new ArrayList<>();
+        ConfigTokenizer tokenizer = new ConfigTokenizer(new StringReader(config));
+        boolean firstLine = true;
+        while (tokenizer.nextLine()) {
+            if (firstLine && tokenizer.lineStartsWith("\uFEFF"))
+                tokenizer.skipLineStart(1);
+            firstLine = false;
+
+            Vector<String> args = tokenizer.parseLine();
+            if (args.size() == 0)
+                continue;
+            if (args.get(0).startsWith("--"))
+                args.set(0, args.get(0).substring(2));
+
+            String arg0 = args.get(0).trim();
+            if (arg0.startsWith("<") && arg0.endsWith(">")) {
+                String argname = arg0.substring(1, arg0.length() - 1);
+                String inlinefile = tokenizer.readInlineFile(String.format("</%s>", argname));
+                if (inlinefile == null)
+                    throw new ConfigParser.ConfigParseError(String.format("No endtag </%s> for starttag <%s> found", argname, argname));
+                args.clear();
+                args.add(argname);
+                args.add(VpnProfile.INLINE_TAG + inlinefile);
+            }
+            options.add(args);
+        }
+        return options;
+    }
+
+    private static String result(String config) throws IOException {
+        try {
+            return tokenize(config).toString();
+        } catch (ConfigParser.ConfigParseError e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private static String legacyResult(String config) throws IOException {
+        try {
+            return LegacyConfigParser.parse(new StringReader(config)).toString();
+        } catch (ConfigParser.ConfigParseError e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private static final String[] FRAGMENTS = {
+            "a", "b", "remote", "--verb", " ", "  ", "\t", "\"", "'", "\\", "\\\\", "\\\"", "\\ ",
+            "#", ";", "\0", "\n", "\r", "\r\n", "\uFEFF", "<ca>", "</ca>", " </ca> ", "<key>\n",
+            "\n</key>\n", "<>", "</>", "\u00e4", "\n<cert>\r\n-----BEGIN-----\r\nAb+/\n</cert>\n"
+    };
+
+    private static String randomConfig(Random random) {
+        StringBuilder config = new StringBuilder();
+        int fragments = random.nextInt(30);
+        for (int i = 0; i < fragments; i++) {
+            config.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return config.toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\0", "\\0").replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,174 @@
+package de.blinkt.openvpn.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import de.blinkt.openvpn.VpnProfile;
+
+/**
+ * Copy of the String concatenating line parser of ConfigParser the ConfigTokenizer is checked
+ * against. parse() returns the options in the order ConfigParser.parseConfig() used to add them.
+ */
+class LegacyConfigParser {
+
+    static List<Vector<String>> parse(Reader reader) throws IOException, ConfigParser.ConfigParseError {
+        List<Vector<String>> options = new ArrayList<>();
+        BufferedReader br = new BufferedReader(reader);
+
+        int lineno = 0;
+        while (true) {
+            String line = br.readLine();
+            lineno++;
+            if (line == null)
+                break;
+
+            if (lineno == 1) {
+                if (line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+            }
+
+            Vector<String> args = parseline(line);
+
+            if (args.size() == 0)
+                continue;
+
+
+            if (args.get(0).startsWith("--"))
+                args.set(0, args.get(0).substring(2));
+
+            checkinlinefile(args, br);
+
+            options.add(args);
+        }
+        return options;
+    }
+
+    private static void checkinlinefile(Vector<String> args, BufferedReader br) throws IOException, ConfigParser.ConfigParseError {
+        String arg0 = args.get(0).trim();
+        // CHeck for <foo>
+        if (arg0.startsWith("<") && arg0.endsWith(">")) {
+            String argname = arg0.substring(1, arg0.length() - 1);
+            String inlinefile = VpnProfile.INLINE_TAG;
+
+            String endtag = String.format("</%s>", argname);
+            do {
+                String line = br.readLine();
+                if (line == null) {
+                    throw new ConfigParser.ConfigParseError(String.format("No endtag </%s> for starttag <%s> found", argname, argname));
+                }
+                if (line.trim().equals(endtag))
+                    break;
+                else {
+                    inlinefile += line;
+                    inlinefile += "\n";
+                }
+            } while (true);
+
+            if (inlinefile.endsWith("\n"))
+                inlinefile = inlinefile.substring(0, inlinefile.length() - 1);
+
+            args.clear();
+            args.add(argname);
+            args.add(inlinefile);
+        }
+
+    }
+
+    private static boolean space(char c) {
+        // I really hope nobody is using zero bytes inside his/her config file
+        // to sperate parameter but here we go:
+        return Character.isWhitespace(c) || c == '\0';
+
+    }
+
+    // adapted openvpn's parse function to java
+    static Vector<String> parseline(String line) throws ConfigParser.ConfigParseError {
+        Vector<String> parameters = new Vector<String>();
+
+        if (line.length() == 0)
+            return parameters;
+
+
+        linestate state = linestate.initial;
+        boolean backslash = false;
+        char out = 0;
+
+        int pos = 0;
+        String currentarg = "";
+
+        do {
+            // Emulate the c parsing ...
+            char in;
+            if (pos < line.length())
+                in = line.charAt(pos);
+            else
+                in = '\0';
+
+            if (!backslash && in == '\\' && state != linestate.readin_single_quote) {
+                backslash = true;
+            } else {
+                if (state == linestate.initial) {
+                    if (!space(in)) {
+                        if (in == ';' || in == '#') /* comment */
+                            break;
+                        if (!backslash && in == '\"')
+                            state = linestate.reading_quoted;
+                        else if (!backslash && in == '\'')
+                            state = linestate.readin_single_quote;
+                        else {
+                            out = in;
+                            state = linestate.reading_unquoted;
+                        }
+                    }
+                } else if (state == linestate.reading_unquoted) {
+                    if (!backslash && space(in))
+                        state = linestate.done;
+                    else
+                        out = in;
+                } else if (state == linestate.reading_quoted) {
+                    if (!backslash && in == '\"')
+                        state = linestate.done;
+                    else
+                        out = in;
+                } else if (state == linestate.readin_single_quote) {
+                    if (in == '\'')
+                        state = linestate.done;
+                    else
+                        out = in;
+                }
+
+                if (state == linestate.done) {
+                    /* ASSERT (parm_len > 0); */
+                    state = linestate.initial;
+                    parameters.add(currentarg);
+                    currentarg = "";
+                    out = 0;
+                }
+
+                if (backslash && out != 0) {
+                    if (!(out == '\\' || out == '\"' || space(out))) {
+                        throw new ConfigParser.ConfigParseError("Options warning: Bad backslash ('\\') usage");
+                    }
+                }
+                backslash = false;
+            }
+
+            /* store parameter character */
+            if (out != 0) {
+                currentarg += out;
+            }
+        } while (pos++ < line.length());
+
+        return parameters;
+    }
+
+    enum linestate {
+        initial,
+        readin_single_quote, reading_quoted, reading_unquoted, done
+    }
+}
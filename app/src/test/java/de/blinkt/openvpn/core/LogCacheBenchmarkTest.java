@@ -0,0 +1,228 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares time and allocations of the former LogFileHandler encoding and decoding with
+ * LogCacheEncoder and LogCacheDecoder, for steady-state logging of single items and for
+ * replaying a full log cache at startup. Results are printed to stdout.
+ */
+public class LogCacheBenchmarkTest {
+
+    private static final int STEADY_STATE_ITEMS = 20_000;
+    private static final int CACHED_ITEMS = VpnStatus.MAXLOGENTRIES + VpnStatus.MAXLOGENTRIES / 2;
+    private static final int REPLAYS = 20;
+
+    private File logFile;
+    private List<LogItem> items;
+
+    private interface Benchmark {
+        void run() throws IOException;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("logcache", ".dat");
+        items = new ArrayList<>();
+        for (int i = 0; i < STEADY_STATE_ITEMS; i++) {
+            items.add(new LogItem(VpnStatus.LogLevel.INFO, i % 5,
+                    "read UDP: Connection refused (code=111) [AF_INET]37.218.241." + (i % 256) + ":1194 #" + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        logFile.delete();
+    }
+
+    @Test
+    public void benchmarkSteadyStateLogging() throws IOException {
+        Benchmark legacy = () -> {
+            try (FileOutputStream outputStream = new FileOutputStream(logFile)) {
+                for (LogItem item : items) {
+                    legacyWriteEscapedBytes(outputStream, item.getMarschaledBytes());
+                }
+            }
+        };
+        Benchmark encoder = () -> {
+            LogCacheEncoder logCacheEncoder = new LogCacheEncoder();
+            try (FileOutputStream outputStream = new FileOutputStream(logFile)) {
+                FileChannel channel = outputStream.getChannel();
+                for (LogItem item : items) {
+                    logCacheEncoder.encode(item);
+                    logCacheEncoder.writeTo(channel);
+                }
+            }
+        };
+
+        legacy.run();
+        long legacySize = logFile.length();
+        encoder.run();
+        assertEquals(legacySize, logFile.length());
+
+        long[] legacyResult = measure(legacy);
+        long[] encoderResult = measure(encoder);
+        System.out.println(String.format(Locale.US,
+                "steady state, %d items | legacy: %6d ns/item, %5d bytes/item | encoder: %6d ns/item, %5d bytes/item",
+                STEADY_STATE_ITEMS,
+                legacyResult[0] / STEADY_STATE_ITEMS, legacyResult[1] / STEADY_STATE_ITEMS,
+                encoderResult[0] / STEADY_STATE_ITEMS, encoderResult[1] / STEADY_STATE_ITEMS));
+    }
+
+    @Test
+    public void benchmarkStartupReplay() throws IOException {
+        LogCacheEncoder logCacheEncoder = new LogCacheEncoder();
+        try (FileOutputStream outputStream = new FileOutputStream(logFile)) {
+            for (LogItem item : items.subList(0, CACHED_ITEMS)) {
+                logCacheEncoder.encode(item);
+            }
+            logCacheEncoder.writeTo(outputStream.getChannel());
+        }
+
+        final int[] counts = new int[2];
+        Benchmark legacy = () -> {
+            for (int i = 0; i < REPLAYS; i++) {
+                try (InputStream inputStream = new FileInputStream(logFile)) {
+                    counts[0] = legacyReadCacheContents(inputStream);
+                }
+            }
+        };
+        Benchmark decoder = () -> {
+            LogCacheDecoder logCacheDecoder = new LogCacheDecoder();
+            for (int i = 0; i < REPLAYS; i++) {
+                try (InputStream inputStream = new FileInputStream(logFile)) {
+                    counts[1] = logCacheDecoder.decode(inputStream, Integer.MAX_VALUE, LogItem::new);
+                }
+            }
+        };
+
+        legacy.run();
+        decoder.run();
+        long[] legacyResult = measure(legacy);
+        long[] decoderResult = measure(decoder);
+        System.out.println(String.format(Locale.US,
+                "startup replay, %d items | legacy: %6d us/replay, %8d bytes/replay | decoder: %6d us/replay, %8d bytes/replay",
+                CACHED_ITEMS,
+                legacyResult[0] / 1000 / REPLAYS, legacyResult[1] / REPLAYS,
+                decoderResult[0] / 1000 / REPLAYS, decoderResult[1] / REPLAYS));
+
+        assertEquals(CACHED_ITEMS, counts[0]);
+        assertEquals(CACHED_ITEMS, counts[1]);
+    }
+
+    /**
+     * @return elapsed nano seconds and allocated bytes
+     */
+    private long[] measure(Benchmark benchmark) throws IOException {
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        benchmark.run();
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, getAllocatedBytes() - allocatedBefore};
+    }
+
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * The former LogFileHandler.writeEscapedBytes
+     */
+    private static void legacyWriteEscapedBytes(OutputStream logFile, byte[] bytes) throws IOException {
+        int magic = 0;
+        for (byte b : bytes)
+            if (b == LogFileHandler.MAGIC_BYTE || b == LogFileHandler.MAGIC_BYTE + 1)
+                magic++;
+
+        byte[] eBytes = new byte[bytes.length + magic];
+
+        int i = 0;
+        for (byte b : bytes) {
+            if (b == LogFileHandler.MAGIC_BYTE || b == LogFileHandler.MAGIC_BYTE + 1) {
+                eBytes[i++] = LogFileHandler.MAGIC_BYTE + 1;
+                eBytes[i++] = (byte) (b - LogFileHandler.MAGIC_BYTE);
+            } else {
+                eBytes[i++] = b;
+            }
+        }
+
+        byte[] lenBytes = ByteBuffer.allocate(4).putInt(bytes.length).array();
+        logFile.write(LogFileHandler.MAGIC_BYTE);
+        logFile.write(lenBytes);
+        logFile.write(eBytes);
+    }
+
+    /**
+     * The former LogFileHandler.readCacheContents without its error logging
+     */
+    private static int legacyReadCacheContents(InputStream in) throws IOException {
+        BufferedInputStream logFile = new BufferedInputStream(in);
+
+        byte[] buf = new byte[16384];
+        int read = logFile.read(buf, 0, 5);
+        int itemsRead = 0;
+
+        readloop:
+        while (read >= 5) {
+            int skipped = 0;
+            while (buf[skipped] != LogFileHandler.MAGIC_BYTE) {
+                skipped++;
+                if (!(logFile.read(buf, skipped + 4, 1) == 1) || skipped + 10 > buf.length) {
+                    break readloop;
+                }
+            }
+
+            int len = ByteBuffer.wrap(buf, skipped + 1, 4).asIntBuffer().get();
+
+            int pos = 0;
+            byte[] buf2 = new byte[buf.length];
+
+            while (pos < len) {
+                byte b = (byte) logFile.read();
+                if (b == LogFileHandler.MAGIC_BYTE) {
+                    read = logFile.read(buf, 1, 4) + 1;
+                    continue readloop;
+                } else if (b == LogFileHandler.MAGIC_BYTE + 1) {
+                    b = (byte) logFile.read();
+                    if (b == 0)
+                        b = LogFileHandler.MAGIC_BYTE;
+                    else if (b == 1)
+                        b = LogFileHandler.MAGIC_BYTE + 1;
+                    else {
+                        read = logFile.read(buf, 1, 4) + 1;
+                        continue readloop;
+                    }
+                }
+                buf2[pos++] = b;
+            }
+
+            new LogItem(buf2, len);
+
+            read = logFile.read(buf, 0, 5);
+            itemsRead++;
+        }
+        return itemsRead;
+    }
+}
@@ -0,0 +1,124 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LogCacheCodecTest {
+
+    private LogCacheEncoder encoder;
+    private LogCacheDecoder decoder;
+    private List<LogItem> decoded;
+
+    @Before
+    public void setUp() {
+        encoder = new LogCacheEncoder();
+        decoder = new LogCacheDecoder();
+        decoded = new ArrayList<>();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<LogItem> items = Arrays.asList(
+                new LogItem(VpnStatus.LogLevel.INFO, 1, "Initialization Sequence Completed"),
+                new LogItem(VpnStatus.LogLevel.WARNING, 3, "UUUUVVVV contains magic bytes"),
+                new LogItem(VpnStatus.LogLevel.ERROR, 0, "Verbindung \u00fcber \u6771\u4eac"));
+
+        byte[] encoded = encode(items);
+
+        assertEquals(3, decode(encoded));
+        assertEquals(items, decoded);
+        assertEquals(0, decoder.getBytesSkipped());
+        assertEquals(0, decoder.getItemsCorrupted());
+    }
+
+    @Test
+    public void testRoundTrip_itemLargerThanInitialBuffers() throws IOException {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            message.append('U');
+        }
+        List<LogItem> items = Arrays.asList(
+                new LogItem(VpnStatus.LogLevel.INFO, 1, "before"),
+                new LogItem(VpnStatus.LogLevel.INFO, 1, message.toString()),
+                new LogItem(VpnStatus.LogLevel.INFO, 1, "after"));
+
+        assertEquals(3, decode(encode(items)));
+        assertEquals(items, decoded);
+    }
+
+    @Test
+    public void testEncode_matchesLegacyFormat() throws IOException {
+        LogItem item = new LogItem(VpnStatus.LogLevel.INFO, 1, "UV escaped");
+        byte[] marshaled = item.getMarschaledBytes();
+
+        byte[] encoded = encode(Arrays.asList(item));
+
+        // magic byte, length, escaped U and V
+        assertEquals(1 + 4 + marshaled.length + 2, encoded.length);
+        assertEquals(LogFileHandler.MAGIC_BYTE, encoded[0]);
+        assertEquals(marshaled.length, ((encoded[1] & 0xff) << 24) | ((encoded[2] & 0xff) << 16) | ((encoded[3] & 0xff) << 8) | (encoded[4] & 0xff));
+    }
+
+    @Test
+    public void testDecode_corruptedInput_skipsToNextItem() throws IOException {
+        LogItem first = new LogItem(VpnStatus.LogLevel.INFO, 1, "first");
+        LogItem second = new LogItem(VpnStatus.LogLevel.INFO, 1, "second");
+        byte[] firstBytes = encode(Arrays.asList(first));
+        byte[] secondBytes = encode(Arrays.asList(second));
+
+        ByteArrayOutputStream corrupted = new ByteArrayOutputStream();
+        // garbage before the first item
+        corrupted.write(new byte[]{1, 2, 3}, 0, 3);
+        // truncated item
+        corrupted.write(firstBytes, 0, firstBytes.length / 2);
+        corrupted.write(secondBytes, 0, secondBytes.length);
+        // invalid escape sequence
+        corrupted.write(firstBytes, 0, 10);
+        corrupted.write(LogFileHandler.MAGIC_BYTE + 1);
+        corrupted.write(7);
+        corrupted.write(firstBytes, 0, firstBytes.length);
+
+        assertEquals(2, decode(corrupted.toByteArray()));
+        assertEquals(Arrays.asList(second, first), decoded);
+        assertTrue(decoder.getBytesSkipped() >= 3);
+        assertEquals(2, decoder.getItemsCorrupted());
+    }
+
+    @Test
+    public void testDecode_stopsAfterMaxItems() throws IOException {
+        List<LogItem> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            items.add(new LogItem(VpnStatus.LogLevel.INFO, 1, "item " + i));
+        }
+
+        int read = decoder.decode(new ByteArrayInputStream(encode(items)), 4, (buf, len) -> decoded.add(new LogItem(buf, len)));
+
+        assertEquals(5, read);
+        assertEquals(items.subList(0, 5), decoded);
+    }
+
+    private byte[] encode(List<LogItem> items) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (LogItem item : items) {
+            encoder.encode(item);
+        }
+        encoder.writeTo(Channels.newChannel(outputStream));
+        assertEquals(0, encoder.pendingBytes());
+        return outputStream.toByteArray();
+    }
+
+    private int decode(byte[] bytes) throws IOException {
+        return decoder.decode(new ByteArrayInputStream(bytes), Integer.MAX_VALUE, (buf, len) -> decoded.add(new LogItem(buf, len)));
+    }
+}
@@ -0,0 +1,179 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class LogCacheSegmentsTest {
+
+    private File cacheDir;
+    private LogCacheEncoder encoder;
+    private List<String> restored;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = File.createTempFile("logcache", "");
+        cacheDir.delete();
+        cacheDir.mkdir();
+        encoder = new LogCacheEncoder();
+        restored = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void testAppend_fullSegment_startsNewSegment() throws IOException {
+        LogCacheSegments segments = open(2, 10);
+        append(segments, 0, 5);
+
+        assertEquals(3, segments.getSegmentCount());
+        assertEquals(5, segments.getItemCount());
+        assertEquals(3, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void testAppend_maxSegments_deletesOldestSegment() throws IOException {
+        LogCacheSegments segments = open(2, 3);
+        append(segments, 0, 10);
+        segments.close();
+
+        assertEquals(3, segments.getSegmentCount());
+        assertEquals(3, cacheDir.listFiles().length);
+
+        LogCacheSegments reloaded = new LogCacheSegments(cacheDir, 2, 3);
+        assertEquals(6, reloaded.load(this::restore));
+        assertEquals(items(4, 10), restored);
+    }
+
+    @Test
+    public void testTrim_keepsAtLeastKeepItems() throws IOException {
+        LogCacheSegments segments = open(2, 10);
+        append(segments, 0, 9);
+
+        segments.trim(4);
+
+        assertEquals(5, segments.getItemCount());
+        assertEquals(3, cacheDir.listFiles().length);
+        segments.close();
+        assertEquals(5, new LogCacheSegments(cacheDir, 2, 10).load(this::restore));
+        assertEquals(items(4, 9), restored);
+    }
+
+    @Test
+    public void testClear_deletesAllItems() throws IOException {
+        LogCacheSegments segments = open(2, 10);
+        append(segments, 0, 5);
+
+        segments.clear();
+        append(segments, 5, 6);
+        segments.close();
+
+        assertEquals(1, cacheDir.listFiles().length);
+        assertEquals(1, new LogCacheSegments(cacheDir, 2, 10).load(this::restore));
+        assertEquals(items(5, 6), restored);
+    }
+
+    @Test
+    public void testLoad_continuesAfterExistingSegments() throws IOException {
+        LogCacheSegments segments = open(2, 10);
+        append(segments, 0, 3);
+        segments.close();
+
+        LogCacheSegments reloaded = new LogCacheSegments(cacheDir, 2, 10);
+        assertEquals(3, reloaded.load(this::restore));
+        reloaded.open();
+        append(reloaded, 3, 4);
+        reloaded.close();
+
+        restored.clear();
+        assertEquals(4, new LogCacheSegments(cacheDir, 2, 10).load(this::restore));
+        assertEquals(items(0, 4), restored);
+    }
+
+    @Test
+    public void testOpen_repeatedRestarts_continueNewestSegment() throws IOException {
+        LogCacheSegments segments = open(4, 3);
+        append(segments, 0, 1);
+        segments.close();
+
+        for (int i = 1; i < 10; i++) {
+            LogCacheSegments reloaded = new LogCacheSegments(cacheDir, 4, 3);
+            restored.clear();
+            assertEquals(i, reloaded.load(this::restore));
+            reloaded.open();
+            append(reloaded, i, i + 1);
+            reloaded.close();
+        }
+
+        assertEquals(3, cacheDir.listFiles().length);
+        restored.clear();
+        assertEquals(10, new LogCacheSegments(cacheDir, 4, 3).load(this::restore));
+        assertEquals(items(0, 10), restored);
+    }
+
+    @Test
+    public void testLoad_legacyLogFile_migratedToOldestSegment() throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(new File(cacheDir, LogFileHandler.LOGFILE_NAME))) {
+            for (int i = 0; i < 3; i++) {
+                encoder.encode(new LogItem(VpnStatus.LogLevel.INFO, 1, "item " + i));
+            }
+            encoder.writeTo(outputStream.getChannel());
+        }
+
+        LogCacheSegments segments = new LogCacheSegments(cacheDir, 2, 10);
+        assertEquals(3, segments.load(this::restore));
+        segments.open();
+        append(segments, 3, 4);
+
+        assertFalse(new File(cacheDir, LogFileHandler.LOGFILE_NAME).exists());
+        assertEquals(items(0, 3), restored);
+        assertEquals(4, segments.getItemCount());
+        assertTrue(new File(cacheDir, "logcache-0.dat").exists());
+        assertTrue(new File(cacheDir, "logcache-1.dat").exists());
+    }
+
+    private LogCacheSegments open(int segmentItems, int maxSegments) throws IOException {
+        LogCacheSegments segments = new LogCacheSegments(cacheDir, segmentItems, maxSegments);
+        assertEquals(0, segments.load(this::restore));
+        segments.open();
+        return segments;
+    }
+
+    private void append(LogCacheSegments segments, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            encoder.encode(new LogItem(VpnStatus.LogLevel.INFO, 1, "item " + i));
+            segments.append(encoder, 1);
+        }
+    }
+
+    private int restore(java.io.InputStream in) throws IOException {
+        return new LogCacheDecoder().decode(in, Integer.MAX_VALUE, (buf, len) -> restored.add(new LogItem(buf, len).toString()));
+    }
+
+    private List<String> items(int from, int to) {
+        List<String> items = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            items.add("item " + i);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,125 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class LogRingBufferTest {
+
+    @Test
+    public void testAppend_returnsIncreasingSequenceNumbers() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        assertEquals(0, buffer.append(item(0)));
+        assertEquals(1, buffer.append(item(1)));
+        assertEquals(2, buffer.getNextSequence());
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void testSnapshot_full_containsNewestItemsOldestFirst() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        List<LogItem> items = append(buffer, 0, 10);
+
+        assertEquals(items.subList(6, 10), Arrays.asList(buffer.snapshot()));
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    public void testReadSince_returnsOnlyNewerItems() {
+        LogRingBuffer buffer = new LogRingBuffer(8);
+        List<LogItem> items = append(buffer, 0, 3);
+
+        List<LogItem> out = new ArrayList<>();
+        long next = buffer.readSince(0, out);
+        assertEquals(items, out);
+        assertEquals(3, next);
+
+        items = append(buffer, 3, 5);
+        out.clear();
+        next = buffer.readSince(next, out);
+        assertEquals(items, out);
+        assertEquals(5, next);
+
+        out.clear();
+        assertEquals(5, buffer.readSince(next, out));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    public void testReadSince_overtakenReader_missesOverwrittenItems() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        List<LogItem> items = append(buffer, 0, 10);
+
+        List<LogItem> out = new ArrayList<>();
+        assertEquals(10, buffer.readSince(2, out));
+        assertEquals(items.subList(6, 10), out);
+    }
+
+    @Test
+    public void testClear_keepsSequenceNumbers() {
+        LogRingBuffer buffer = new LogRingBuffer(4);
+        append(buffer, 0, 3);
+
+        assertEquals(0, buffer.getClearedSequence());
+        buffer.clear();
+        assertEquals(3, buffer.getClearedSequence());
+        assertEquals(0, buffer.snapshot().length);
+        List<LogItem> items = append(buffer, 3, 4);
+
+        List<LogItem> out = new ArrayList<>();
+        assertEquals(4, buffer.readSince(0, out));
+        assertEquals(items, out);
+    }
+
+    @Test
+    public void testSnapshot_concurrentWriter_itemsConsecutive() throws InterruptedException {
+        final LogRingBuffer buffer = new LogRingBuffer(64);
+        final int count = 200_000;
+        final LogItem[] items = new LogItem[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = item(i);
+        }
+        Thread writer = new Thread(() -> {
+            for (LogItem item : items) {
+                buffer.append(item);
+            }
+        });
+
+        AtomicReference<String> error = new AtomicReference<>();
+        writer.start();
+        while (writer.isAlive()) {
+            LogItem[] snapshot = buffer.snapshot();
+            assertTrue(snapshot.length <= 64);
+            for (int i = 1; i < snapshot.length; i++) {
+                if (snapshot[i].getVerbosityLevel() != snapshot[i - 1].getVerbosityLevel() + 1) {
+                    error.set("items not consecutive: " + snapshot[i - 1].getVerbosityLevel() + ", " + snapshot[i].getVerbosityLevel());
+                }
+            }
+        }
+        writer.join();
+
+        assertNull(error.get());
+        assertEquals(count - 1, buffer.snapshot()[63].getVerbosityLevel());
+    }
+
+    private List<LogItem> append(LogRingBuffer buffer, int from, int to) {
+        List<LogItem> items = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            LogItem item = item(i);
+            buffer.append(item);
+            items.add(item);
+        }
+        return items;
+    }
+
+    private LogItem item(int i) {
+        return new LogItem(VpnStatus.LogLevel.INFO, i, "item " + i);
+    }
+}
@@ -0,0 +1,123 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class LogStreamTest {
+
+    @Test
+    public void testWrite_readsBackItemsAndSequence() throws IOException {
+        List<LogItem> items = Arrays.asList(
+                new LogItem(VpnStatus.LogLevel.INFO, 1, "first"),
+                new LogItem(VpnStatus.LogLevel.WARNING, 3, "second"),
+                new LogItem(VpnStatus.LogLevel.ERROR, "third"));
+
+        List<LogItem> read = new ArrayList<>();
+        assertEquals(1234, new LogStreamReader(new ByteArrayInputStream(write(items, 1234))).read(read));
+        assertEquals(items, read);
+    }
+
+    @Test
+    public void testWrite_empty_onlyEnd() throws IOException {
+        byte[] stream = write(Collections.<LogItem>emptyList(), 42);
+
+        assertEquals(12, stream.length);
+        List<LogItem> read = new ArrayList<>();
+        assertEquals(42, new LogStreamReader(new ByteArrayInputStream(stream)).read(read));
+        assertEquals(0, read.size());
+    }
+
+    @Test
+    public void testWrite_batchesItemsIntoFrames() throws IOException {
+        List<LogItem> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(new LogItem(VpnStatus.LogLevel.INFO, 1, "log item number " + i));
+        }
+
+        CountingOutputStream out = new CountingOutputStream();
+        new LogStreamWriter(out).write(items, 1000);
+
+        // one write per frame and one for the end
+        int frames = out.writes - 1;
+        assertTrue(frames > 1);
+        assertTrue(frames <= out.bytes.size() / LogStreamWriter.FRAME_SIZE + 1);
+
+        List<LogItem> read = new ArrayList<>();
+        assertEquals(1000, new LogStreamReader(new ByteArrayInputStream(out.bytes.toByteArray())).read(read));
+        assertEquals(items, read);
+    }
+
+    @Test
+    public void testWrite_itemBiggerThanFrame() throws IOException {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 3 * LogStreamWriter.FRAME_SIZE; i++) {
+            message.append((char) ('a' + i % 26));
+        }
+        List<LogItem> items = Arrays.asList(
+                new LogItem(VpnStatus.LogLevel.INFO, 1, "before"),
+                new LogItem(VpnStatus.LogLevel.INFO, 1, message.toString()),
+                new LogItem(VpnStatus.LogLevel.INFO, 1, "after"));
+
+        List<LogItem> read = new ArrayList<>();
+        new LogStreamReader(new ByteArrayInputStream(write(items, 3))).read(read);
+        assertEquals(items, read);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testRead_truncatedStream() throws IOException {
+        byte[] stream = write(Collections.singletonList(new LogItem(VpnStatus.LogLevel.INFO, 1, "item")), 1);
+        new LogStreamReader(new ByteArrayInputStream(Arrays.copyOf(stream, stream.length - 9))).read(new ArrayList<LogItem>());
+    }
+
+    @Test
+    public void testWrite_frameLayout() throws IOException {
+        LogItem item = new LogItem(VpnStatus.LogLevel.INFO, 1, "item");
+        byte[] marshaled = item.getMarschaledBytes();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(Arrays.asList(item, item), 7)));
+        assertEquals(2, in.readInt());
+        assertEquals(2 * (4 + marshaled.length), in.readInt());
+        assertEquals(marshaled.length, in.readInt());
+        in.skipBytes(marshaled.length);
+        assertEquals(marshaled.length, in.readInt());
+        in.skipBytes(marshaled.length);
+        assertEquals(0, in.readInt());
+        assertEquals(7, in.readLong());
+    }
+
+    private static byte[] write(List<LogItem> items, long nextSequence) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new LogStreamWriter(out).write(items, nextSequence);
+        return out.toByteArray();
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int writes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            bytes.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Replays a recorded management interface transcript in 2 KB reads, like
+ * OpenVpnManagementThread receives it, and compares time and allocations of the
+ * ManagementLineFramer with the former String based line splitting. Results are printed to stdout.
+ */
+public class ManagementLineFramerBenchmarkTest {
+
+    private static final int READ_SIZE = 2048;
+    private static final int WARM_UP_REPLAYS = 200;
+    private static final int REPLAYS = 2000;
+
+    private interface Parser {
+        void feed(byte[] input, int offset, int length) throws Exception;
+    }
+
+    @Test
+    public void benchmarkTranscriptReplay() throws Exception {
+        byte[] transcript = ManagementLineFramerTest.readTranscript();
+
+        CountingListener framerListener = new CountingListener();
+        ManagementLineFramer framer = new ManagementLineFramer(framerListener);
+        Parser framerParser = framer::feed;
+        CountingListener legacyListener = new CountingListener();
+        Parser legacyParser = new LegacyParser(legacyListener);
+
+        run(transcript, WARM_UP_REPLAYS, legacyParser);
+        run(transcript, WARM_UP_REPLAYS, framerParser);
+        long[] legacyResult = run(transcript, REPLAYS, legacyParser);
+        long[] framerResult = run(transcript, REPLAYS, framerParser);
+
+        long bytes = (long) transcript.length * REPLAYS;
+        System.out.println(String.format(Locale.US,
+                "%d KB transcript | split strings: %5d ms, %6d bytes/KB | line framer: %5d ms, %6d bytes/KB",
+                bytes / 1024,
+                legacyResult[0] / 1_000_000, legacyResult[1] * 1024 / bytes,
+                framerResult[0] / 1_000_000, framerResult[1] * 1024 / bytes));
+
+        assertEquals(legacyListener.lines, framerListener.lines);
+        assertEquals(legacyListener.bytesIn, framerListener.bytesIn);
+    }
+
+    /**
+     * @return elapsed nano seconds and allocated bytes
+     */
+    private long[] run(byte[] transcript, int replays, Parser parser) throws Exception {
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < replays; i++) {
+            for (int offset = 0; offset < transcript.length; offset += READ_SIZE) {
+                parser.feed(transcript, offset, Math.min(READ_SIZE, transcript.length - offset));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, getAllocatedBytes() - allocatedBefore};
+    }
+
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static class CountingListener implements ManagementLineFramer.Listener {
+        long lines;
+        long bytesIn;
+
+        @Override
+        public void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            lines++;
+        }
+
+        @Override
+        public void onState(String state, String details) {
+            lines++;
+        }
+
+        @Override
+        public void onByteCount(long in, long out) {
+            lines++;
+            bytesIn += in;
+        }
+
+        @Override
+        public void onPassword(String argument) {
+            lines++;
+        }
+
+        @Override
+        public void onNeedOk(String argument) {
+            lines++;
+        }
+
+        @Override
+        public void onCommand(String command) {
+            lines++;
+        }
+    }
+
+    /**
+     * The String based parsing OpenVpnManagementThread used before the ManagementLineFramer.
+     */
+    private static class LegacyParser implements Parser {
+        private final ManagementLineFramer.Listener listener;
+        private String pendingInput = "";
+
+        LegacyParser(ManagementLineFramer.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void feed(byte[] input, int offset, int length) throws UnsupportedEncodingException {
+            pendingInput += new String(input, offset, length, "UTF-8");
+            while (pendingInput.contains("\n")) {
+                String[] tokens = pendingInput.split("\\r?\\n", 2);
+                processCommand(tokens[0]);
+                pendingInput = tokens.length == 1 ? "" : tokens[1];
+            }
+        }
+
+        private void processCommand(String command) {
+            if (!command.startsWith(">") || !command.contains(":")) {
+                listener.onCommand(command);
+                return;
+            }
+            String[] parts = command.split(":", 2);
+            String cmd = parts[0].substring(1);
+            String argument = parts[1];
+            switch (cmd) {
+                case "LOG": {
+                    String[] args = argument.split(",", 4);
+                    listener.onLogMessage(VpnStatus.LogLevel.INFO, Integer.parseInt(args[2]) & 0x0F, args[3]);
+                    break;
+                }
+                case "STATE": {
+                    String[] args = argument.split(",", 3);
+                    listener.onState(args[1], args[2].equals(",,") ? "" : args[2]);
+                    break;
+                }
+                case "BYTECOUNT": {
+                    int comma = argument.indexOf(',');
+                    listener.onByteCount(Long.parseLong(argument.substring(0, comma)), Long.parseLong(argument.substring(comma + 1)));
+                    break;
+                }
+                case "PASSWORD":
+                    listener.onPassword(argument);
+                    break;
+                case "NEED-OK":
+                    listener.onNeedOk(argument);
+                    break;
+                default:
+                    listener.onCommand(command);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+public class ManagementLineFramerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private List<String> events;
+    private ManagementLineFramer framer;
+
+    @Before
+    public void setUp() {
+        events = new ArrayList<>();
+        framer = new ManagementLineFramer(new RecordingListener(events));
+    }
+
+    @Test
+    public void testFeed_byteCount() {
+        feed(">BYTECOUNT:1234,9876543210123\n");
+        assertEquals(Collections.singletonList("bytecount 1234 9876543210123"), events);
+    }
+
+    @Test
+    public void testFeed_logMessage_levelAndMessageWithCommas() {
+        feed(">LOG:1634545034,W,17,WARNING: a, b, c\n" +
+                ">LOG:1634545034,D,3,debug\n" +
+                ">LOG:1634545034,F,0,fatal\n" +
+                ">LOG:1634545034,N,1,non fatal\n" +
+                ">LOG:1634545034,IW,1,multiple flags\n");
+        assertEquals(Arrays.asList(
+                "log WARNING 1 WARNING: a, b, c",
+                "log VERBOSE 3 debug",
+                "log ERROR 0 fatal",
+                "log INFO 1 non fatal",
+                "log INFO 1 multiple flags"), events);
+    }
+
+    @Test
+    public void testFeed_state() {
+        feed(">STATE:1634545034,WAIT,,,,,,\n" +
+                ">STATE:1634545036,CONNECTED,SUCCESS,10.41.0.8,37.218.241.84,1194,,\n" +
+                ">STATE:1634545036,RECONNECTING,,,\n");
+        assertEquals(Arrays.asList(
+                "state WAIT ,,,,,",
+                "state CONNECTED SUCCESS,10.41.0.8,37.218.241.84,1194,,",
+                "state RECONNECTING "), events);
+    }
+
+    @Test
+    public void testFeed_passwordAndNeedOk() {
+        feed(">PASSWORD:Need 'Private Key' password\n" +
+                ">NEED-OK:Need 'ROUTE' confirmation MSG:0.0.0.0 128.0.0.0 10.41.0.1\n");
+        assertEquals(Arrays.asList(
+                "password Need 'Private Key' password",
+                "needok Need 'ROUTE' confirmation MSG:0.0.0.0 128.0.0.0 10.41.0.1"), events);
+    }
+
+    @Test
+    public void testFeed_otherLines_passedAsCommand() {
+        feed(">HOLD:Waiting for hold release:0\nSUCCESS: hold release succeeded\n>STATE:malformed\n");
+        assertEquals(Arrays.asList(
+                "command >HOLD:Waiting for hold release:0",
+                "command SUCCESS: hold release succeeded",
+                "command >STATE:malformed"), events);
+    }
+
+    @Test
+    public void testFeed_crlfAndEmptyLines() {
+        feed(">BYTECOUNT:1,2\r\n\r\n>BYTECOUNT:3,4\n");
+        assertEquals(Arrays.asList("bytecount 1 2", "command ", "bytecount 3 4"), events);
+    }
+
+    @Test
+    public void testFeed_incompleteLine_dispatchedWhenComplete() {
+        feed(">BYTECOUNT:12");
+        assertEquals(0, events.size());
+        feed("34,56\r");
+        assertEquals(0, events.size());
+        feed("\n>LOG:1");
+        assertEquals(Collections.singletonList("bytecount 1234 56"), events);
+    }
+
+    @Test
+    public void testFeed_multiByteCharacterSplitAcrossChunks() {
+        byte[] input = ">LOG:1634545034,I,1,Verbindung hergestellt: \u00fcber \u6771\u4eac\n".getBytes(UTF_8);
+        for (int i = 0; i < input.length; i++) {
+            framer.feed(input, i, 1);
+        }
+        assertEquals(Collections.singletonList("log INFO 1 Verbindung hergestellt: \u00fcber \u6771\u4eac"), events);
+    }
+
+    @Test
+    public void testFeed_lineLongerThanBuffer() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            message.append((char) ('a' + i % 26));
+        }
+        feed(">BYTECOUNT:1,2\n>LOG:1634545034,I,1," + message + "\n>BYTECOUNT:3,4\n");
+        assertEquals(Arrays.asList("bytecount 1 2", "log INFO 1 " + message, "bytecount 3 4"), events);
+    }
+
+    @Test
+    public void testRead_transcriptInSmallChunks_sameAsWholeTranscript() throws IOException {
+        byte[] transcript = readTranscript();
+        framer.feed(transcript, 0, transcript.length);
+        List<String> expected = new ArrayList<>(events);
+        events.clear();
+
+        InputStream inputStream = new ByteArrayInputStream(transcript) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        while (framer.read(inputStream) != -1) {
+            framer.processLines();
+        }
+
+        assertEquals(expected, events);
+        assertEquals("command >INFO:OpenVPN Management Interface Version 3 -- type 'help' for more info", events.get(0));
+        assertEquals("bytecount 33554432 2097152", events.get(events.size() - 1));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testFeed_malformedByteCount_throwsNumberFormatException() {
+        feed(">BYTECOUNT:12a,3\n");
+    }
+
+    static byte[] readTranscript() throws IOException {
+        try (InputStream inputStream = ManagementLineFramerTest.class.getClassLoader().getResourceAsStream("management/transcript.txt")) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    private void feed(String input) {
+        byte[] bytes = input.getBytes(UTF_8);
+        framer.feed(bytes, 0, bytes.length);
+    }
+
+    static class RecordingListener implements ManagementLineFramer.Listener {
+        private final List<String> events;
+
+        RecordingListener(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            events.add("log " + level + " " + ovpnLevel + " " + message);
+        }
+
+        @Override
+        public void onState(String state, String details) {
+            events.add("state " + state + " " + details);
+        }
+
+        @Override
+        public void onByteCount(long in, long out) {
+            events.add("bytecount " + in + " " + out);
+        }
+
+        @Override
+        public void onPassword(String argument) {
+            events.add("password " + argument);
+        }
+
+        @Override
+        public void onNeedOk(String argument) {
+            events.add("needok " + argument);
+        }
+
+        @Override
+        public void onCommand(String command) {
+            events.add("command " + command);
+        }
+    }
+}
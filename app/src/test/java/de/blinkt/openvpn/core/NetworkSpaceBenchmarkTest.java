@@ -0,0 +1,121 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Resolves a table of 10000 routes like OpenVPNService does on every tun (re)open and compares
+ * time and allocations of NetworkSpace with the former BigInteger based implementation. Results
+ * are printed to stdout.
+ */
+public class NetworkSpaceBenchmarkTest {
+
+    private static final int ROUTES = 10000;
+    private static final int WARM_UP_RUNS = 2;
+    private static final int RUNS = 5;
+
+    private interface Resolver {
+        /**
+         * @return number of positive routes
+         */
+        int resolve();
+    }
+
+    @Test
+    public void benchmarkExcludedRoutes() {
+        // redirect-gateway def1 with many excluded networks and a few included ones inside them
+        NetworkSpace space = new NetworkSpace();
+        LegacyNetworkSpace legacy = new LegacyNetworkSpace();
+        CIDRIP defaultRoute = new CIDRIP("0.0.0.0", 0);
+        space.addIPSplit(defaultRoute, true);
+        legacy.addIPSplit(defaultRoute, true);
+        Random random = new Random(42);
+        for (int i = 0; i < ROUTES; i++) {
+            CIDRIP route = randomRoute(random);
+            boolean include = random.nextInt(10) == 0;
+            space.addIP(route, include);
+            legacy.addIP(route, include);
+        }
+        CIDRIP localNet = new CIDRIP("192.168.1.0", 24);
+        space.addIP(localNet, false);
+        legacy.addIP(localNet, false);
+
+        compare("excluded routes", legacy::getPositiveIPList, space::getPositiveIPList);
+    }
+
+    @Test
+    public void benchmarkIncludedRoutes() {
+        // a provider pushing many disjoint and nested routes
+        NetworkSpace space = new NetworkSpace();
+        LegacyNetworkSpace legacy = new LegacyNetworkSpace();
+        Random random = new Random(23);
+        for (int i = 0; i < ROUTES; i++) {
+            CIDRIP route = randomRoute(random);
+            boolean include = random.nextInt(10) != 0;
+            space.addIP(route, include);
+            legacy.addIP(route, include);
+        }
+
+        compare("included routes", legacy::getPositiveIPList, space::getPositiveIPList);
+    }
+
+    private interface PositiveList {
+        Collection<?> getPositiveIPList(boolean includeOriginalRoutes);
+    }
+
+    private void compare(String name, PositiveList legacy, PositiveList space) {
+        for (boolean includeOriginalRoutes : new boolean[]{false, true}) {
+            Resolver legacyResolver = () -> legacy.getPositiveIPList(includeOriginalRoutes).size();
+            Resolver resolver = () -> space.getPositiveIPList(includeOriginalRoutes).size();
+
+            run(WARM_UP_RUNS, legacyResolver);
+            run(WARM_UP_RUNS, resolver);
+            long[] legacyResult = run(RUNS, legacyResolver);
+            long[] result = run(RUNS, resolver);
+
+            System.out.println(String.format(Locale.US,
+                    "%d %s%s | BigInteger: %6d us, %9d bytes, %5d routes | primitive: %6d us, %9d bytes, %5d routes",
+                    ROUTES, name, includeOriginalRoutes ? " (< 4.4)" : "",
+                    legacyResult[0] / RUNS / 1000, legacyResult[1] / RUNS, legacyResult[2],
+                    result[0] / RUNS / 1000, result[1] / RUNS, result[2]));
+
+            // the legacy implementation splits some networks further than necessary
+            assertTrue(result[2] <= legacyResult[2]);
+        }
+    }
+
+    /**
+     * @return elapsed nano seconds, allocated bytes and the number of positive routes
+     */
+    private long[] run(int runs, Resolver resolver) {
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        int routes = 0;
+        for (int i = 0; i < runs; i++) {
+            routes = resolver.resolve();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, getAllocatedBytes() - allocatedBefore, routes};
+    }
+
+    private static CIDRIP randomRoute(Random random) {
+        int len = 8 + random.nextInt(25);
+        long ip = random.nextLong() & 0xffffffffL & (0xffffffffL << (32 - len));
+        String address = String.format(Locale.US, "%d.%d.%d.%d", (ip >> 24) & 0xff, (ip >> 16) & 0xff, (ip >> 8) & 0xff, ip & 0xff);
+        return new CIDRIP(address, len);
+    }
+
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
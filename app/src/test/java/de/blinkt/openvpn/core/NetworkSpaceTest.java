@@ -0,0 +1,322 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class NetworkSpaceTest {
+
+    @Test
+    public void testGenerateIPList_excludedLanInsideDefaultRoute() {
+        NetworkSpace space = new NetworkSpace();
+        space.addIP(new CIDRIP("0.0.0.0", 0), true);
+        space.addIP(new CIDRIP("192.168.0.0", 16), false);
+        space.addIP(new CIDRIP("192.168.1.0", 24), true);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("0.0.0.0/1");
+        expected.add("128.0.0.0/2");
+        expected.add("192.0.0.0/9");
+        expected.add("192.128.0.0/11");
+        expected.add("192.160.0.0/13");
+        expected.add("192.168.0.0/24");
+        expected.add("192.168.1.0/24");
+        expected.add("192.168.2.0/23");
+        expected.add("192.168.4.0/22");
+        expected.add("192.168.8.0/21");
+        expected.add("192.168.16.0/20");
+        expected.add("192.168.32.0/19");
+        expected.add("192.168.64.0/18");
+        expected.add("192.168.128.0/17");
+        expected.add("192.169.0.0/16");
+        expected.add("192.170.0.0/15");
+        expected.add("192.172.0.0/14");
+        expected.add("192.176.0.0/12");
+        expected.add("192.192.0.0/10");
+        expected.add("193.0.0.0/8");
+        expected.add("194.0.0.0/7");
+        expected.add("196.0.0.0/6");
+        expected.add("200.0.0.0/5");
+        expected.add("208.0.0.0/4");
+        expected.add("224.0.0.0/3");
+        assertEquals(expected, toStrings(space.generateIPList()));
+
+        List<String> positive = toStrings(space.getPositiveIPList(false));
+        assertEquals(expected.size() - 8, positive.size());
+        assertTrue(positive.contains("192.168.1.0/24"));
+        assertFalse(positive.contains("192.168.0.0/24"));
+    }
+
+    @Test
+    public void testGenerateIPList_sameTypeInsideIsDropped() {
+        NetworkSpace space = new NetworkSpace();
+        space.addIP(new CIDRIP("10.0.0.0", 8), true);
+        space.addIP(new CIDRIP("10.1.0.0", 16), true);
+        space.addIP(new CIDRIP("11.0.0.0", 8), false);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("10.0.0.0/8");
+        expected.add("11.0.0.0/8");
+        assertEquals(expected, toStrings(space.generateIPList()));
+    }
+
+    @Test
+    public void testGenerateIPList_includedInsideExcludedDefaultRoute() {
+        NetworkSpace space = new NetworkSpace();
+        space.addIP(new CIDRIP("0.0.0.0", 0), false);
+        space.addIP(new CIDRIP("12.0.0.0", 6), true);
+        space.addIP(new CIDRIP("128.0.0.0", 1), true);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("12.0.0.0/6");
+        expected.add("128.0.0.0/1");
+        // the legacy implementation only kept 128.0.0.0/32 of the second network
+        assertEquals(expected, toStrings(space.getPositiveIPList(false)));
+        assertEquals(7, space.generateIPList().size());
+    }
+
+    @Test
+    public void testGenerateIPList_ipv6() throws UnknownHostException {
+        NetworkSpace space = new NetworkSpace();
+        space.addIPv6((Inet6Address) InetAddress.getByName("::"), 0, true);
+        space.addIPv6((Inet6Address) InetAddress.getByName("2001:db8::"), 32, false);
+
+        List<String> ips = toStrings(space.generateIPList());
+        assertEquals(33, ips.size());
+        assertTrue(ips.contains("2001:db8::/32"));
+        assertTrue(ips.contains("8000::/1"));
+    }
+
+    @Test
+    public void testContainsNet() {
+        NetworkSpace.IpAddress net = new NetworkSpace.IpAddress(new CIDRIP("10.0.0.0", 8), true);
+        assertTrue(net.containsNet(new NetworkSpace.IpAddress(new CIDRIP("10.20.0.0", 16), true)));
+        assertTrue(net.containsNet(net));
+        assertFalse(net.containsNet(new NetworkSpace.IpAddress(new CIDRIP("0.0.0.0", 0), true)));
+        assertFalse(net.containsNet(new NetworkSpace.IpAddress(new CIDRIP("11.0.0.0", 16), true)));
+    }
+
+    @Test
+    public void testSplit_ipv6UpperHalfCarriesIntoHighBits() throws UnknownHostException {
+        NetworkSpace.IpAddress net = new NetworkSpace.IpAddress((Inet6Address) InetAddress.getByName("2001:db8::"), 64, true);
+        NetworkSpace.IpAddress[] halves = net.split();
+        assertEquals("2001:db8::/65", halves[0].toString());
+        assertEquals("2001:db8:0:0:8000::/65", halves[1].toString());
+
+        NetworkSpace.IpAddress upper = new NetworkSpace.IpAddress((Inet6Address) InetAddress.getByName("2001:db8::"), 63, true).split()[1];
+        assertEquals("2001:db8:0:1::/64", upper.toString());
+    }
+
+    @Test
+    public void testRandomIPv4Tables_matchLegacyImplementation() throws UnknownHostException {
+        Random random = new Random(4711);
+        int runs = 2000;
+        int sameAsLegacy = 0;
+        for (int run = 0; run < runs; run++) {
+            NetworkSpace space = new NetworkSpace();
+            LegacyNetworkSpace legacy = new LegacyNetworkSpace();
+            int routes = 1 + random.nextInt(40);
+            for (int i = 0; i < routes; i++) {
+                CIDRIP route = randomIPv4Route(random);
+                boolean include = random.nextBoolean();
+                space.addIP(route, include);
+                legacy.addIP(route, include);
+            }
+            if (assertSameResult(space, legacy))
+                sameAsLegacy++;
+        }
+        // make sure the networks themselves were compared often enough
+        assertTrue(sameAsLegacy > runs / 4);
+    }
+
+    @Test
+    public void testRandomIPv6Tables_matchLegacyImplementation() throws UnknownHostException {
+        Random random = new Random(815);
+        int runs = 500;
+        int sameAsLegacy = 0;
+        for (int run = 0; run < runs; run++) {
+            NetworkSpace space = new NetworkSpace();
+            LegacyNetworkSpace legacy = new LegacyNetworkSpace();
+            int routes = 1 + random.nextInt(20);
+            for (int i = 0; i < routes; i++) {
+                int mask = randomIPv6Mask(random);
+                byte[] address = randomIPv6Address(random, mask);
+                boolean include = random.nextBoolean();
+                space.addIPv6((Inet6Address) InetAddress.getByAddress(address), mask, include);
+                legacy.addIPv6((Inet6Address) InetAddress.getByAddress(address), mask, include);
+            }
+            if (assertSameResult(space, legacy))
+                sameAsLegacy++;
+        }
+        // make sure the networks themselves were compared often enough
+        assertTrue(sameAsLegacy > runs / 4);
+    }
+
+    /**
+     * Checks that every address gets the type of the most specific network containing it.
+     * @return true if the legacy implementation got that right as well and thus created the
+     * same networks
+     */
+    private static boolean assertSameResult(NetworkSpace space, LegacyNetworkSpace legacy) throws UnknownHostException {
+        String routes = toStrings(legacy.mIpAddresses).toString();
+        List<String> expectedRanges = longestPrefixRanges(legacy);
+
+        List<String> actual = toStrings(space.generateIPList());
+        List<String> actualPositive = toStrings(space.getPositiveIPList(false));
+        assertEquals(routes, expectedRanges, addressRanges(actual, actualPositive));
+
+        List<String> legacyResult = toStrings(legacy.generateIPList());
+        List<String> legacyPositive = toStrings(legacy.getPositiveIPList(false));
+        if (!expectedRanges.equals(addressRanges(legacyResult, legacyPositive)))
+            return false;
+
+        assertEquals(routes, legacyResult, actual);
+        assertEquals(routes, legacyPositive, actualPositive);
+        assertEquals(routes, toStrings(legacy.getPositiveIPList(true)), toStrings(space.getPositiveIPList(true)));
+        return true;
+    }
+
+    /**
+     * Brute force reference: the consecutive address ranges that get the same type from the most
+     * specific network containing them.
+     */
+    private static List<String> longestPrefixRanges(LegacyNetworkSpace legacy) {
+        TreeSet<BigInteger> boundaries = new TreeSet<>();
+        for (LegacyNetworkSpace.IpAddress ip : legacy.mIpAddresses) {
+            boundaries.add(ip.getFirstAddress());
+            boundaries.add(ip.getLastAddress().add(BigInteger.ONE));
+        }
+        Collection<LegacyNetworkSpace.IpAddress> positive = legacy.getNetworks(true);
+
+        List<String> ranges = new ArrayList<>();
+        BigInteger rangeFirst = null;
+        BigInteger rangeLast = null;
+        boolean rangeIncluded = false;
+        BigInteger first = null;
+        for (BigInteger next : boundaries) {
+            if (first != null) {
+                LegacyNetworkSpace.IpAddress match = null;
+                for (LegacyNetworkSpace.IpAddress ip : legacy.mIpAddresses) {
+                    if (ip.getFirstAddress().compareTo(first) <= 0 && ip.getLastAddress().compareTo(first) >= 0
+                            && (match == null || ip.networkMask > match.networkMask))
+                        match = ip;
+                }
+                BigInteger last = next.subtract(BigInteger.ONE);
+                if (match != null) {
+                    boolean included = positive.contains(match);
+                    if (rangeLast != null && rangeIncluded == included && rangeLast.add(BigInteger.ONE).equals(first)) {
+                        rangeLast = last;
+                    } else {
+                        if (rangeLast != null)
+                            ranges.add(formatRange(rangeFirst, rangeLast, rangeIncluded));
+                        rangeFirst = first;
+                        rangeLast = last;
+                        rangeIncluded = included;
+                    }
+                }
+            }
+            first = next;
+        }
+        if (rangeLast != null)
+            ranges.add(formatRange(rangeFirst, rangeLast, rangeIncluded));
+        return ranges;
+    }
+
+    /**
+     * @return the consecutive address ranges of networks with the same type, "+" for the
+     * networks that are also in positive
+     */
+    private static List<String> addressRanges(List<String> networks, List<String> positive) throws UnknownHostException {
+        List<String> ranges = new ArrayList<>();
+        BigInteger rangeFirst = null;
+        BigInteger rangeLast = null;
+        boolean rangeIncluded = false;
+        for (String network : networks) {
+            LegacyNetworkSpace.IpAddress ip = parse(network);
+            boolean included = positive.contains(network);
+            if (rangeLast != null && rangeIncluded == included && rangeLast.add(BigInteger.ONE).equals(ip.getFirstAddress())) {
+                rangeLast = ip.getLastAddress();
+                continue;
+            }
+            if (rangeLast != null)
+                ranges.add(formatRange(rangeFirst, rangeLast, rangeIncluded));
+            rangeFirst = ip.getFirstAddress();
+            rangeLast = ip.getLastAddress();
+            rangeIncluded = included;
+        }
+        if (rangeLast != null)
+            ranges.add(formatRange(rangeFirst, rangeLast, rangeIncluded));
+        return ranges;
+    }
+
+    private static String formatRange(BigInteger first, BigInteger last, boolean included) {
+        return (included ? "+" : "-") + first.toString(16) + "-" + last.toString(16);
+    }
+
+    private static LegacyNetworkSpace.IpAddress parse(String network) throws UnknownHostException {
+        String[] parts = network.split("/");
+        int mask = Integer.parseInt(parts[1]);
+        if (parts[0].contains(":"))
+            return new LegacyNetworkSpace.IpAddress((Inet6Address) InetAddress.getByName(parts[0]), mask, true);
+        else
+            return new LegacyNetworkSpace.IpAddress(new CIDRIP(parts[0], mask), true);
+    }
+
+    /**
+     * Random routes below 10.0.0.0/8 with a bias towards short and overlapping networks.
+     */
+    static CIDRIP randomIPv4Route(Random random) {
+        int len = random.nextInt(10) == 0 ? random.nextInt(9) : 8 + random.nextInt(25);
+        long ip = (10L << 24) | (random.nextInt(1 << 8) << 16) | (random.nextInt(4) << 8) | random.nextInt(256);
+        ip &= 0xffffffffL << (32 - len);
+        String address = String.format(Locale.US, "%d.%d.%d.%d", (ip >> 24) & 0xff, (ip >> 16) & 0xff, (ip >> 8) & 0xff, ip & 0xff);
+        return new CIDRIP(address, len);
+    }
+
+    private static byte[] randomIPv6Address(Random random, int mask) {
+        byte[] address = new byte[16];
+        address[0] = 0x20;
+        address[1] = 0x01;
+        for (int i = 6; i < 9; i++) {
+            address[i] = (byte) (random.nextInt(4) << 6);
+        }
+        // clear the host bits
+        for (int i = 0; i < 16; i++) {
+            int bits = Math.max(0, Math.min(8, mask - 8 * i));
+            address[i] &= (byte) (0xff00 >> bits);
+        }
+        return address;
+    }
+
+    private static int randomIPv6Mask(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return random.nextInt(17);
+            case 1:
+                return 48 + random.nextInt(33);
+            default:
+                return 60 + random.nextInt(8);
+        }
+    }
+
+    static List<String> toStrings(Collection<?> ips) {
+        List<String> strings = new ArrayList<>();
+        for (Object ip : ips) {
+            strings.add(ip.toString());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,135 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Replays recorded output of the openvpn binary, like OpenVPNThread reads it from the process,
+ * and compares time and allocations of the OpenVPNOutputTokenizer with the former regular
+ * expression per line. Results are printed to stdout.
+ */
+public class OpenVPNOutputTokenizerBenchmarkTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int WARM_UP_REPLAYS = 500;
+    private static final int REPLAYS = 5000;
+
+    private interface Parser {
+        /**
+         * @return number of log messages passed on
+         */
+        int replay(byte[] transcript) throws IOException;
+    }
+
+    @Test
+    public void benchmarkTranscriptReplay() throws Exception {
+        byte[] transcript = OpenVPNOutputTokenizerTest.readTranscript();
+
+        CountingListener listener = new CountingListener();
+        OpenVPNOutputTokenizer tokenizer = new OpenVPNOutputTokenizer(listener);
+        Parser tokenizerParser = input -> {
+            InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(input), UTF_8);
+            listener.messages = 0;
+            while (tokenizer.read(reader) != -1) {
+                tokenizer.processLines();
+            }
+            tokenizer.finish();
+            return listener.messages;
+        };
+        Parser legacyParser = OpenVPNOutputTokenizerBenchmarkTest::replayLegacy;
+
+        run(transcript, WARM_UP_REPLAYS, legacyParser);
+        run(transcript, WARM_UP_REPLAYS, tokenizerParser);
+        long[] legacyResult = run(transcript, REPLAYS, legacyParser);
+        long[] tokenizerResult = run(transcript, REPLAYS, tokenizerParser);
+
+        long lines = 71L * REPLAYS;
+        System.out.println(String.format(Locale.US,
+                "%d lines | regex: %5d ms, %5d bytes/line, %d messages | tokenizer: %5d ms, %5d bytes/line, %d messages",
+                lines,
+                legacyResult[0] / 1_000_000, legacyResult[1] / lines, legacyResult[2],
+                tokenizerResult[0] / 1_000_000, tokenizerResult[1] / lines, tokenizerResult[2]));
+
+        // the tokenizer drops the messages above verbosity level 4
+        assertEquals(69, legacyResult[2]);
+        assertEquals(69 - 26, tokenizerResult[2]);
+    }
+
+    /**
+     * @return elapsed nano seconds, allocated bytes and log messages of the last replay
+     */
+    private long[] run(byte[] transcript, int replays, Parser parser) throws IOException {
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        int messages = 0;
+        for (int i = 0; i < replays; i++) {
+            messages = parser.replay(transcript);
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, getAllocatedBytes() - allocatedBefore, messages};
+    }
+
+    /**
+     * The former line handling of OpenVPNThread
+     */
+    private static int replayLegacy(byte[] transcript) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(transcript), UTF_8));
+        int messages = 0;
+        while (true) {
+            String logline = br.readLine();
+            if (logline == null)
+                return messages;
+
+            Pattern p = Pattern.compile("(\\d+).(\\d+) ([0-9a-f])+ (.*)");
+            Matcher m = p.matcher(logline);
+            if (m.matches()) {
+                int flags = Integer.parseInt(m.group(3), 16);
+                String msg = m.group(4);
+                int logLevel = flags & 0x0F;
+                if (msg.startsWith("MANAGEMENT: CMD"))
+                    logLevel = Math.max(4, logLevel);
+                messages += logLevel >= 0 ? 1 : 0;
+            }
+        }
+    }
+
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static class CountingListener implements OpenVPNOutputTokenizer.Listener {
+        int messages;
+
+        @Override
+        public void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            messages++;
+        }
+
+        @Override
+        public void onOtherLine(String line) {
+        }
+
+        @Override
+        public void onDumpPath(String path) {
+        }
+
+        @Override
+        public void onBrokenPie() {
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+public class OpenVPNOutputTokenizerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private List<String> events;
+    private OpenVPNOutputTokenizer tokenizer;
+
+    @Before
+    public void setUp() {
+        events = new ArrayList<>();
+        tokenizer = new OpenVPNOutputTokenizer(new RecordingListener(events));
+    }
+
+    @Test
+    public void testFeed_logMessage_flags() {
+        feed("1634545034.180321 1 OpenVPN 2.5.4 arm-unknown-linux-android\n" +
+                "1634545034.180412 41 WARNING: file 'ca.pem' is group or others accessible\n" +
+                "1634545040.188105 2000021 TLS Error: local/remote TLS keys are out of sync\n" +
+                "1634545045.191044 10 Exiting due to fatal error\n" +
+                "1634545034.302944 14000082 VERIFY KU OK\n");
+        assertEquals(Arrays.asList(
+                "log INFO 1 OpenVPN 2.5.4 arm-unknown-linux-android",
+                "log WARNING 1 WARNING: file 'ca.pem' is group or others accessible",
+                "log WARNING 1 TLS Error: local/remote TLS keys are out of sync",
+                "log ERROR 0 Exiting due to fatal error",
+                "log VERBOSE 2 VERIFY KU OK"), events);
+    }
+
+    @Test
+    public void testFeed_logMessage_highVerbosityLevels() {
+        feed("1634545035.482119 19000087 TUN READ [84]\n" +
+                "1634545034.182501 16000085 Socket Buffers: R=[163840->163840] S=[163840->163840]\n" +
+                "1634545035.463689 15000084 Data Channel MTU parms [ L:1553 D:1450 ]\n");
+        assertEquals(Arrays.asList(
+                "log VERBOSE 7 TUN READ [84]",
+                "log VERBOSE 5 Socket Buffers: R=[163840->163840] S=[163840->163840]",
+                "log VERBOSE 4 Data Channel MTU parms [ L:1553 D:1450 ]"), events);
+    }
+
+    @Test
+    public void testFeed_managementCommand_raisedToLevel4() {
+        feed("1634545034.181260 4000001 MANAGEMENT: CMD 'version 3'\n" +
+                "1634545034.181203 4000001 MANAGEMENT: Connected to management server\n");
+        assertEquals(Arrays.asList(
+                "log INFO 4 MANAGEMENT: CMD 'version 3'",
+                "log INFO 1 MANAGEMENT: Connected to management server"), events);
+    }
+
+    @Test
+    public void testFeed_otherLines() {
+        feed("WARNING: linker: unused DT entry\n" +
+                "\n" +
+                "1634545034 1\n" +
+                "1634545034.1 1X message\n" +
+                "1634545034.1 1  two spaces\n");
+        assertEquals(Arrays.asList(
+                "other WARNING: linker: unused DT entry",
+                "other ",
+                "other 1634545034 1",
+                "other 1634545034.1 1X message",
+                "log INFO 1  two spaces"), events);
+    }
+
+    @Test
+    public void testFeed_timestamp_likeFormerPattern() {
+        feed("1634545034 1 no fraction\n" +
+                "12 1 too short\n" +
+                ".12 1 no seconds\n" +
+                "1:2:3 1 two separators\n");
+        assertEquals(Arrays.asList(
+                "log INFO 1 no fraction",
+                "other 12 1 too short",
+                "other .12 1 no seconds",
+                "other 1:2:3 1 two separators"), events);
+    }
+
+    @Test
+    public void testFeed_dumpPathAndBrokenPie() {
+        feed("Dump path: /data/cache/dump.dmp\n" +
+                "/data/data/de.blinkt.openvpn/cache/pievpn: 1: Syntax error: \"(\" unexpected\n" +
+                "1634545034.1 1 /system/bin/sh: syntax error: unexpected\n");
+        assertEquals(Arrays.asList(
+                "dump /data/cache/dump.dmp",
+                "other Dump path: /data/cache/dump.dmp",
+                "brokenpie",
+                "other /data/data/de.blinkt.openvpn/cache/pievpn: 1: Syntax error: \"(\" unexpected",
+                "brokenpie",
+                "log INFO 1 /system/bin/sh: syntax error: unexpected"), events);
+    }
+
+    @Test
+    public void testFeed_lineSplitAcrossChunks() {
+        feed("1634545034.180321 1 Open");
+        assertEquals(Collections.<String>emptyList(), events);
+        feed("VPN 2.5.4\n1634545034.1");
+        feed("80377 1 library versions\n");
+        assertEquals(Arrays.asList(
+                "log INFO 1 OpenVPN 2.5.4",
+                "log INFO 1 library versions"), events);
+    }
+
+    @Test
+    public void testFeed_lineBreaks() {
+        feed("first\r\nsecond\rthird\r");
+        feed("\nfourth\n\r\n");
+        assertEquals(Arrays.asList(
+                "other first",
+                "other second",
+                "other third",
+                "other fourth",
+                "other "), events);
+    }
+
+    @Test
+    public void testFeed_longLine_growsBuffer() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            message.append((char) ('a' + i % 26));
+        }
+        feed("1634545035.463024 1 " + message + "\n1634545035.463191 1 short\n");
+        assertEquals(Arrays.asList(
+                "log INFO 1 " + message,
+                "log INFO 1 short"), events);
+    }
+
+    @Test
+    public void testFinish_dispatchesUnterminatedLine() {
+        feed("1634545034.180321 1 first\n1634545045.191044 10 Exiting due to fatal error");
+        tokenizer.finish();
+        assertEquals(Arrays.asList(
+                "log INFO 1 first",
+                "log ERROR 0 Exiting due to fatal error"), events);
+    }
+
+    @Test
+    public void testRead_transcript() throws IOException {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(readTranscript()), UTF_8);
+        while (tokenizer.read(reader) != -1) {
+            tokenizer.processLines();
+        }
+        tokenizer.finish();
+
+        assertEquals("log INFO 1 OpenVPN 2.5.4 arm-unknown-linux-android [SSL (OpenSSL)] [LZO] [LZ4] [EPOLL] [MH/PKTINFO] [AEAD] built on Oct 12 2021", events.get(0));
+        assertEquals("dump /data/user/0/se.leap.bitmaskclient/cache/dump-1634545045.dmp", events.get(events.size() - 2));
+        int logMessages = 0;
+        for (String event : events) {
+            if (event.startsWith("log ")) {
+                logMessages++;
+            }
+        }
+        assertEquals(69, logMessages);
+    }
+
+    @Test
+    public void testRead_sameEventsAsWholeLines() throws IOException {
+        List<String> chunked = new ArrayList<>();
+        OpenVPNOutputTokenizer chunkedTokenizer = new OpenVPNOutputTokenizer(new RecordingListener(chunked));
+        String transcript = new String(readTranscript(), UTF_8);
+        char[] chars = transcript.toCharArray();
+        for (int offset = 0; offset < chars.length; offset += 7) {
+            chunkedTokenizer.feed(chars, offset, Math.min(7, chars.length - offset));
+        }
+
+        Reader reader = new StringReader(transcript);
+        while (tokenizer.read(reader) != -1) {
+            tokenizer.processLines();
+        }
+        assertEquals(events, chunked);
+    }
+
+    private void feed(String input) {
+        char[] chars = input.toCharArray();
+        tokenizer.feed(chars, 0, chars.length);
+    }
+
+    static byte[] readTranscript() throws IOException {
+        InputStream in = OpenVPNOutputTokenizerTest.class.getClassLoader().getResourceAsStream("openvpn/stdout.txt");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static class RecordingListener implements OpenVPNOutputTokenizer.Listener {
+        private final List<String> events;
+
+        RecordingListener(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onLogMessage(VpnStatus.LogLevel level, int ovpnLevel, String message) {
+            events.add("log " + level + " " + ovpnLevel + " " + message);
+        }
+
+        @Override
+        public void onOtherLine(String line) {
+            events.add("other " + line);
+        }
+
+        @Override
+        public void onDumpPath(String path) {
+            events.add("dump " + path);
+        }
+
+        @Override
+        public void onBrokenPie() {
+            events.add("brokenpie");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedList;
+
+import de.blinkt.openvpn.core.TrafficHistory.TrafficDatapoint;
+
+import static de.blinkt.openvpn.core.TrafficHistory.TIME_PERIOD_DAYS;
+import static de.blinkt.openvpn.core.TrafficHistory.TIME_PERIOD_HOURS;
+import static de.blinkt.openvpn.core.TrafficHistory.TIME_PERIOD_MINTUES;
+import static junit.framework.Assert.assertEquals;
+
+public class TrafficHistoryTest {
+
+    // a full hour, so the first data point starts new minute and hour periods
+    private static final long START = 1634544000000L;
+
+    private TrafficHistory history;
+
+    @Before
+    public void setUp() {
+        history = new TrafficHistory();
+    }
+
+    @Test
+    public void testAdd_returnsDiff() {
+        TrafficHistory.LastDiff diff = history.add(100, 50, START);
+        assertEquals(100, diff.getDiffIn());
+        assertEquals(50, diff.getDiffOut());
+
+        diff = history.add(150, 80, START + 1000);
+        assertEquals(50, diff.getDiffIn());
+        assertEquals(30, diff.getDiffOut());
+        assertEquals(150, diff.getIn());
+        assertEquals(80, diff.getOut());
+
+        // counters of a restarted openvpn process
+        diff = history.add(10, 5, START + 2000);
+        assertEquals(0, diff.getDiffIn());
+        assertEquals(0, diff.getDiffOut());
+    }
+
+    @Test
+    public void testGetLastDiff() {
+        TrafficHistory.LastDiff diff = history.getLastDiff(null);
+        assertEquals(0, diff.getIn());
+        assertEquals(0, diff.getDiffIn());
+
+        history.add(100, 50, START);
+        diff = history.getLastDiff(null);
+        assertEquals(100, diff.getIn());
+        assertEquals(50, diff.getOut());
+        assertEquals(0, diff.getDiffIn());
+        assertEquals(0, diff.getDiffOut());
+
+        diff = history.getLastDiff(new TrafficDatapoint(300, 60, START + 1000));
+        assertEquals(200, diff.getDiffIn());
+        assertEquals(10, diff.getDiffOut());
+    }
+
+    @Test
+    public void testAdd_expiresOldDataPoints() {
+        // two data points per second for 20 minutes
+        for (long t = 0; t < 20 * TIME_PERIOD_MINTUES; t += 500) {
+            history.add(t, 2 * t, START + t);
+        }
+
+        LinkedList<TrafficDatapoint> seconds = history.getSeconds();
+        // data points at least 5 minutes old are expired at the start of every minute
+        long newest = START + 20 * TIME_PERIOD_MINTUES - 500;
+        assertEquals(newest, seconds.getLast().timestamp);
+        assertEquals(newest - START, seconds.getLast().in);
+        assertEquals(2 * (newest - START), seconds.getLast().out);
+        long lastExpiry = START + 19 * TIME_PERIOD_MINTUES;
+        assertEquals(lastExpiry - 4 * TIME_PERIOD_MINTUES - TIME_PERIOD_MINTUES + 500, seconds.getFirst().timestamp);
+
+        LinkedList<TrafficDatapoint> minutes = history.getMinutes();
+        assertEquals(20, minutes.size());
+        assertEquals(START, minutes.getFirst().timestamp);
+        assertEquals(lastExpiry, minutes.getLast().timestamp);
+
+        assertEquals(1, history.getHours().size());
+    }
+
+    @Test
+    public void testAdd_expiresOldMinutes() {
+        for (long t = 0; t < 30L * TIME_PERIOD_HOURS; t += TIME_PERIOD_MINTUES) {
+            history.add(t, t, START + t);
+        }
+
+        // minutes expire at the start of an hour
+        assertEquals(5 * 60 + 59, history.getMinutes().size());
+        LinkedList<TrafficDatapoint> hours = history.getHours();
+        assertEquals(30, hours.size());
+        assertEquals(START, hours.getFirst().timestamp);
+        assertEquals(START + 29L * TIME_PERIOD_HOURS, hours.getLast().timestamp);
+        assertEquals(5, history.getSeconds().size());
+    }
+
+    @Test
+    public void testAdd_expiresOldHours() {
+        for (long t = 0; t < 7L * TIME_PERIOD_DAYS; t += TIME_PERIOD_MINTUES) {
+            history.add(t, t, START + t);
+        }
+
+        // hours expire at the start of an hour, the ones of the last 5 days are kept
+        LinkedList<TrafficDatapoint> hours = history.getHours();
+        assertEquals(5 * 24, hours.size());
+        assertEquals(START + 2L * TIME_PERIOD_DAYS, hours.getFirst().timestamp);
+        assertEquals(START + 7L * TIME_PERIOD_DAYS - TIME_PERIOD_HOURS, hours.getLast().timestamp);
+    }
+
+    @Test
+    public void testSnapshot_restoresHistory() {
+        for (long t = 0; t < 3L * TIME_PERIOD_HOURS; t += 700) {
+            history.add(t, t / 2, START + t);
+        }
+
+        TrafficHistory restored = new TrafficHistory();
+        restored.readSnapshot(history.getSnapshot());
+
+        assertDatapointsEqual(history.getSeconds(), restored.getSeconds());
+        assertDatapointsEqual(history.getMinutes(), restored.getMinutes());
+        assertDatapointsEqual(history.getHours(), restored.getHours());
+
+        // the restored history continues the periods of the original one
+        long next = START + 3L * TIME_PERIOD_HOURS;
+        assertEquals(history.add(next, next, next).getDiffIn(), restored.add(next, next, next).getDiffIn());
+        assertDatapointsEqual(history.getMinutes(), restored.getMinutes());
+        assertDatapointsEqual(history.getHours(), restored.getHours());
+    }
+
+    @Test
+    public void testSnapshot_invalid_emptyHistory() {
+        history.add(100, 50, START);
+        byte[] snapshot = history.getSnapshot();
+
+        TrafficHistory restored = new TrafficHistory();
+        byte[] truncated = new byte[snapshot.length - 1];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+        restored.readSnapshot(truncated);
+        assertEquals(0, restored.getSeconds().size());
+        assertEquals(0, restored.getMinutes().size());
+
+        restored.readSnapshot(new byte[]{0, 0, 0, 2});
+        assertEquals(0, restored.getSeconds().size());
+    }
+
+    private static void assertDatapointsEqual(LinkedList<TrafficDatapoint> expected, LinkedList<TrafficDatapoint> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).timestamp, actual.get(i).timestamp);
+            assertEquals(expected.get(i).in, actual.get(i).in);
+            assertEquals(expected.get(i).out, actual.get(i).out);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.TimeZone;
+
+import de.blinkt.openvpn.core.TrafficHistory.TrafficDatapoint;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+public class TrafficRollupTest {
+
+    private static final long HOUR = 3600 * 1000;
+    private static final long DAY = 24 * HOUR;
+    // Monday, 18th of October 2021, 00:00 in Berlin
+    private static final long MONDAY = 1634508000000L;
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("trafficrollup", ".dat");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testAdd_localDaysAndWeeks() throws IOException {
+        TrafficRollup rollup = TrafficRollup.open(file, BERLIN);
+        rollup.add(MONDAY - 1, 1, 2);
+        rollup.add(MONDAY, 10, 20);
+        rollup.add(MONDAY + 23 * HOUR, 100, 200);
+        rollup.add(MONDAY + 2 * DAY, 1000, 2000);
+
+        LinkedList<TrafficDatapoint> days = rollup.getDays();
+        assertEquals(4, days.size());
+        assertDatapoint(MONDAY - DAY, 1, 2, days.get(0));
+        assertDatapoint(MONDAY, 110, 220, days.get(1));
+        assertDatapoint(MONDAY + 2 * DAY, 1000, 2000, days.get(3));
+
+        LinkedList<TrafficDatapoint> weeks = rollup.getWeeks();
+        assertEquals(2, weeks.size());
+        assertDatapoint(MONDAY - 7 * DAY, 1, 2, weeks.get(0));
+        assertDatapoint(MONDAY, 1110, 2220, weeks.get(1));
+    }
+
+    @Test
+    public void testAdd_skippedDays_empty() throws IOException {
+        TrafficRollup rollup = TrafficRollup.open(file, BERLIN);
+        rollup.add(MONDAY, 10, 20);
+        rollup.add(MONDAY + 3 * DAY, 30, 40);
+
+        LinkedList<TrafficDatapoint> days = rollup.getDays();
+        assertEquals(4, days.size());
+        assertDatapoint(MONDAY + DAY, 0, 0, days.get(1));
+        assertDatapoint(MONDAY + 3 * DAY, 30, 40, days.get(3));
+    }
+
+    @Test
+    public void testAdd_keepsLastDays() throws IOException {
+        TrafficRollup rollup = TrafficRollup.open(file, TimeZone.getTimeZone("UTC"));
+        long start = 1634515200000L;
+        for (int day = 0; day < 100; day++) {
+            rollup.add(start + day * DAY, day, 2 * day);
+        }
+
+        LinkedList<TrafficDatapoint> days = rollup.getDays();
+        assertEquals(TrafficRollup.DAYS_TO_KEEP, days.size());
+        assertDatapoint(start + (100 - TrafficRollup.DAYS_TO_KEEP) * DAY, 100 - TrafficRollup.DAYS_TO_KEEP, 2 * (100 - TrafficRollup.DAYS_TO_KEEP), days.getFirst());
+        assertDatapoint(start + 99 * DAY, 99, 198, days.getLast());
+        assertEquals(15, rollup.getWeeks().size());
+
+        // far in the future, all former days are outdated
+        rollup.add(start + 1000 * DAY, 5, 6);
+        days = rollup.getDays();
+        assertEquals(TrafficRollup.DAYS_TO_KEEP, days.size());
+        assertDatapoint(start + 1000 * DAY, 5, 6, days.getLast());
+        assertEquals(0, days.getFirst().in);
+    }
+
+    @Test
+    public void testOpen_persistsTraffic() throws IOException {
+        TrafficRollup rollup = TrafficRollup.open(file, BERLIN);
+        rollup.add(MONDAY, 10, 20);
+        rollup.flush();
+
+        TrafficRollup reopened = TrafficRollup.open(file, BERLIN);
+        reopened.add(MONDAY + HOUR, 1, 2);
+        assertDatapoint(MONDAY, 11, 22, reopened.getDays().getFirst());
+        assertDatapoint(MONDAY, 11, 22, reopened.getWeeks().getFirst());
+    }
+
+    @Test
+    public void testOpen_invalidFile_reset() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        out.close();
+
+        TrafficRollup rollup = TrafficRollup.open(file, BERLIN);
+        assertEquals(0, rollup.getDays().size());
+        assertEquals(0, rollup.getWeeks().size());
+        assertEquals(TrafficRollup.FILE_SIZE, file.length());
+    }
+
+    @Test
+    public void testTrafficHistory_addsDiffsToRollup() throws IOException {
+        TrafficRollup rollup = TrafficRollup.open(file, BERLIN);
+        TrafficHistory history = new TrafficHistory();
+        history.setRollup(rollup);
+        assertSame(rollup, history.getRollup());
+
+        history.add(100, 50, MONDAY);
+        history.add(150, 80, MONDAY + 1000);
+        // openvpn has been restarted
+        history.add(20, 10, MONDAY + 2000);
+
+        assertDatapoint(MONDAY, 170, 90, rollup.getDays().getFirst());
+    }
+
+    private static void assertDatapoint(long timestamp, long in, long out, TrafficDatapoint datapoint) {
+        assertEquals(timestamp, datapoint.timestamp);
+        assertEquals(in, datapoint.in);
+        assertEquals(out, datapoint.out);
+    }
+}
@@ -0,0 +1,94 @@
+package de.blinkt.openvpn.core;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+public class TrafficWindowTest {
+
+    private static final long START = 1634545034000L;
+
+    @Test
+    public void testAdd_sumsPerDirection() {
+        TrafficWindow window = new TrafficWindow(60);
+        window.add(START, 100, 10);
+        window.add(START + 500, 200, 20);
+        window.add(START + 2000, 300, 30);
+
+        assertEquals(600, window.getIn(START + 2000));
+        assertEquals(60, window.getOut(START + 2000));
+        assertEquals(660, window.getTotal(START + 2000));
+    }
+
+    @Test
+    public void testAdvance_expiresSecondsLeavingWindow() {
+        TrafficWindow window = new TrafficWindow(60);
+        window.add(START, 100, 10);
+        window.add(START + 30 * 1000, 200, 20);
+
+        assertEquals(330, window.getTotal(START + 59 * 1000));
+        assertEquals(220, window.getTotal(START + 60 * 1000));
+        assertEquals(0, window.getTotal(START + 90 * 1000));
+
+        window.add(START + 1000 * 1000, 5, 6);
+        assertEquals(11, window.getTotal(START + 1000 * 1000));
+    }
+
+    @Test
+    public void testAdd_olderTimestamp_addedToNewestSecond() {
+        TrafficWindow window = new TrafficWindow(10);
+        window.add(START + 5000, 1, 0);
+        window.add(START, 2, 0);
+
+        assertEquals(3, window.getIn(START + 14 * 1000));
+        assertEquals(0, window.getIn(START + 15 * 1000));
+    }
+
+    @Test
+    public void testClear() {
+        TrafficWindow window = new TrafficWindow(10);
+        window.add(START, 1, 2);
+        window.clear();
+
+        assertEquals(0, window.getTotal(START));
+        window.add(START, 3, 4);
+        assertEquals(7, window.getTotal(START));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_emptyWindow() {
+        new TrafficWindow(0);
+    }
+
+    @Test
+    public void testAdd_sameSumsAsList() {
+        // the former implementation kept every data point of the window in a list
+        Random random = new Random(42);
+        TrafficWindow window = new TrafficWindow(60);
+        ArrayDeque<long[]> datapoints = new ArrayDeque<>();
+        long now = START;
+        for (int i = 0; i < 10000; i++) {
+            now += random.nextInt(random.nextInt(20) == 0 ? 120 * 1000 : 3000);
+            long in = random.nextInt(10000);
+            long out = random.nextInt(1000);
+            window.add(now, in, out);
+            datapoints.add(new long[]{now, in, out});
+
+            long windowStart = (now / 1000 - 59) * 1000;
+            while (datapoints.getFirst()[0] < windowStart) {
+                datapoints.removeFirst();
+            }
+            long sumIn = 0;
+            long sumOut = 0;
+            for (long[] datapoint : datapoints) {
+                sumIn += datapoint[1];
+                sumOut += datapoint[2];
+            }
+            assertEquals(sumIn, window.getIn(now));
+            assertEquals(sumOut, window.getOut(now));
+        }
+    }
+}
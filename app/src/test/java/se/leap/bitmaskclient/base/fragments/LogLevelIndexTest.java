@@ -0,0 +1,97 @@
+package se.leap.bitmaskclient.base.fragments;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.blinkt.openvpn.core.LogItem;
+import de.blinkt.openvpn.core.VpnStatus;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class LogLevelIndexTest {
+
+    @Test
+    public void testAdd_itemsShownFromTheirVerbosityLevel() {
+        LogLevelIndex index = new LogLevelIndex(4, 100);
+        LogItem error = item(-2);
+        LogItem info = item(2);
+        LogItem debug = item(4);
+        LogItem tooVerbose = item(11);
+        index.add(Arrays.asList(error, info, debug, tooVerbose), 1);
+
+        assertEquals(Arrays.asList(error), items(index.getRows(1)));
+        assertEquals(Arrays.asList(error, info), items(index.getRows(2)));
+        assertEquals(Arrays.asList(error, info), items(index.getRows(3)));
+        // the highest level shows everything
+        assertEquals(Arrays.asList(error, info, debug, tooVerbose), items(index.getRows(4)));
+    }
+
+    @Test
+    public void testAdd_rowsSharedBetweenLevels() {
+        LogLevelIndex index = new LogLevelIndex(4, 100);
+        index.add(Arrays.asList(item(1)), 1);
+
+        assertSame(index.getRows(1).get(0), index.getRows(4).get(0));
+    }
+
+    @Test
+    public void testAdd_returnsIfLevelChanged() {
+        LogLevelIndex index = new LogLevelIndex(4, 100);
+        assertFalse(index.add(Arrays.asList(item(3)), 2));
+        assertTrue(index.add(Arrays.asList(item(3)), 3));
+        assertTrue(index.add(Arrays.asList(item(1), item(4)), 2));
+    }
+
+    @Test
+    public void testAdd_trimsOldestRows() {
+        LogLevelIndex index = new LogLevelIndex(4, 100);
+        List<LogItem> items = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            items.add(item(i % 2 == 0 ? 1 : 4));
+        }
+        index.add(items, 4);
+
+        // all 101 rows exceed the limit and the 51 oldest ones are dropped
+        assertEquals(items.subList(51, 101), items(index.getRows(4)));
+        // 51 rows don't
+        assertEquals(51, index.getRows(1).size());
+    }
+
+    @Test
+    public void testGetRows_levelOutOfRange_clamped() {
+        LogLevelIndex index = new LogLevelIndex(4, 100);
+        index.add(Arrays.asList(item(1), item(4)), 1);
+
+        assertSame(index.getRows(1), index.getRows(0));
+        assertSame(index.getRows(4), index.getRows(7));
+    }
+
+    @Test
+    public void testClear() {
+        LogLevelIndex index = new LogLevelIndex(4, 100);
+        index.add(Arrays.asList(item(1), item(4)), 1);
+        index.clear();
+
+        for (int level = 1; level <= 4; level++) {
+            assertTrue(index.getRows(level).isEmpty());
+        }
+    }
+
+    private static LogItem item(int verbosityLevel) {
+        return new LogItem(VpnStatus.LogLevel.INFO, verbosityLevel, "message " + verbosityLevel);
+    }
+
+    private static List<LogItem> items(List<LogLevelIndex.Row> rows) {
+        List<LogItem> items = new ArrayList<>();
+        for (LogLevelIndex.Row row : rows) {
+            items.add(row.item);
+        }
+        return items;
+    }
+}
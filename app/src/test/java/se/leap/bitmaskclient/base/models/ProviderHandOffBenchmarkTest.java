@@ -0,0 +1,159 @@
+package se.leap.bitmaskclient.base.models;
+
+import android.os.Parcel;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import se.leap.bitmaskclient.testutils.TestSetupHelper;
+
+import static junit.framework.Assert.assertEquals;
+import static se.leap.bitmaskclient.base.models.Constants.GATEWAYS;
+import static se.leap.bitmaskclient.base.models.Constants.HOST;
+import static se.leap.bitmaskclient.base.models.Constants.IP_ADDRESS;
+import static se.leap.bitmaskclient.base.models.Constants.LOCATION;
+import static se.leap.bitmaskclient.base.models.Constants.LOCATIONS;
+import static se.leap.bitmaskclient.testutils.MockHelper.mockParcel;
+
+/**
+ * Compares handing a provider with a 200 gateway eip-service.json to another component the former
+ * way (serializing all JSON and parsing it again) with the Parcel of a different process (JSON
+ * read as text, parsed on first access) and of the same process (shared snapshot). Each hand-off
+ * is followed by an access to the eip-service json like GatewaysManager does. Results are printed
+ * to stdout. Like the other benchmarks it only runs with ./gradlew test -Pbenchmarks.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Parcel.class})
+public class ProviderHandOffBenchmarkTest {
+
+    private static final int GATEWAY_COUNT = 200;
+    private static final int LOCATION_COUNT = 20;
+    private static final int WARM_UP_HAND_OFFS = 50;
+    private static final int HAND_OFFS = 200;
+
+    private interface HandOff {
+        Provider handOff(Provider provider) throws Exception;
+    }
+
+    private Provider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = TestSetupHelper.getProvider(null, null, null, null, null, "v4/riseup.net.json", "v4/ptdemo_pt_tcp_udp.eip-service.json", null);
+        provider.setEipServiceJson(createEipServiceJson(provider.getEipServiceJson()));
+        provider.setGeoIpJson(createGeoIpJson());
+        provider.setPrivateKey(TestSetupHelper.getInputAsString(getClass().getClassLoader().getResourceAsStream("private_rsa_key.pem")));
+        provider.setVpnCertificate(TestSetupHelper.getInputAsString(getClass().getClassLoader().getResourceAsStream("riseup.net.vpn_cert.pem")));
+    }
+
+    @Test
+    public void benchmarkHandOff() throws Exception {
+        HandOff reparse = ProviderHandOffBenchmarkTest::reparse;
+        HandOff otherProcess = provider -> {
+            Parcel parcel = write(provider);
+            ProviderSnapshots.clear();
+            return Provider.CREATOR.createFromParcel(parcel);
+        };
+        HandOff sameProcess = provider -> Provider.CREATOR.createFromParcel(write(provider));
+
+        run(reparse, WARM_UP_HAND_OFFS);
+        run(otherProcess, WARM_UP_HAND_OFFS);
+        run(sameProcess, WARM_UP_HAND_OFFS);
+
+        long[] reparseResult = run(reparse, HAND_OFFS);
+        long[] otherProcessResult = run(otherProcess, HAND_OFFS);
+        long[] sameProcessResult = run(sameProcess, HAND_OFFS);
+        System.out.println(String.format(Locale.US,
+                "%d gateways, %d chars eip-service.json | reparse: %6d us, %8d bytes | other process: %6d us, %8d bytes | same process: %6d us, %8d bytes per hand-off",
+                GATEWAY_COUNT, provider.getEipServiceJsonString().length(),
+                reparseResult[0] / 1000 / HAND_OFFS, reparseResult[1] / HAND_OFFS,
+                otherProcessResult[0] / 1000 / HAND_OFFS, otherProcessResult[1] / HAND_OFFS,
+                sameProcessResult[0] / 1000 / HAND_OFFS, sameProcessResult[1] / HAND_OFFS));
+    }
+
+    /**
+     * @return elapsed nano seconds and allocated bytes
+     */
+    private long[] run(HandOff handOff, int count) throws Exception {
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Provider received = handOff.handOff(provider);
+            assertEquals(GATEWAY_COUNT, received.getEipServiceJson().getJSONArray(GATEWAYS).length());
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, getAllocatedBytes() - allocatedBefore};
+    }
+
+    /**
+     * What the Parcel used to do: every JSON object is serialized and parsed again, the provider
+     * definition parsed a second time.
+     */
+    private static Provider reparse(Provider provider) throws Exception {
+        Provider copy = new Provider(provider.getMainUrlString(), provider.getGeoipUrl().toString(),
+                provider.getProviderIp(), provider.getProviderApiIp());
+        copy.define(new JSONObject(provider.getDefinition().toString()));
+        copy.setCaCert(provider.getCaCert());
+        copy.setEipServiceJson(new JSONObject(provider.getEipServiceJson().toString()));
+        copy.setGeoIpJson(new JSONObject(provider.getGeoIpJson().toString()));
+        copy.setPrivateKey(provider.getPrivateKey());
+        copy.setVpnCertificate(provider.getVpnCertificate());
+        return copy;
+    }
+
+    private static Parcel write(Provider provider) {
+        Parcel parcel = mockParcel();
+        provider.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        return parcel;
+    }
+
+    private static JSONObject createEipServiceJson(JSONObject template) throws Exception {
+        JSONObject eipServiceJson = new JSONObject(template.toString());
+        JSONObject templateGateway = template.getJSONArray(GATEWAYS).getJSONObject(0);
+        JSONObject templateLocation = template.getJSONObject(LOCATIONS).getJSONObject(templateGateway.getString(LOCATION));
+        JSONArray gateways = new JSONArray();
+        JSONObject locations = new JSONObject();
+        for (int i = 0; i < GATEWAY_COUNT; i++) {
+            JSONObject gateway = new JSONObject(templateGateway.toString());
+            gateway.put(HOST, "gateway" + i + ".bitmask.net");
+            gateway.put(IP_ADDRESS, "10.0." + (i >> 8) + "." + (i & 0xff));
+            gateway.put(LOCATION, "location" + i % LOCATION_COUNT);
+            gateways.put(gateway);
+        }
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            JSONObject location = new JSONObject(templateLocation.toString());
+            location.put("name", "Location " + i);
+            locations.put("location" + i, location);
+        }
+        eipServiceJson.put(GATEWAYS, gateways);
+        eipServiceJson.put(LOCATIONS, locations);
+        return eipServiceJson;
+    }
+
+    private static JSONObject createGeoIpJson() throws Exception {
+        JSONArray gateways = new JSONArray();
+        for (int i = 0; i < GATEWAY_COUNT; i++) {
+            gateways.put("gateway" + i + ".bitmask.net");
+        }
+        JSONObject geoIpJson = new JSONObject();
+        geoIpJson.put(GATEWAYS, gateways);
+        return geoIpJson;
+    }
+
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
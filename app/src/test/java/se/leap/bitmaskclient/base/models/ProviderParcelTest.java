@@ -0,0 +1,104 @@
+package se.leap.bitmaskclient.base.models;
+
+import android.os.Parcel;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import se.leap.bitmaskclient.testutils.TestSetupHelper;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static se.leap.bitmaskclient.testutils.MockHelper.mockParcel;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Parcel.class})
+public class ProviderParcelTest {
+
+    private Provider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        ProviderSnapshots.clear();
+        provider = TestSetupHelper.getConfiguredProvider();
+        provider.setPrivateKey("private key");
+        provider.setVpnCertificate("vpn certificate");
+        provider.setLastEipServiceUpdate(System.currentTimeMillis());
+    }
+
+    @Test
+    public void testParcel_otherProcess_readsAllFields() {
+        Parcel parcel = write(provider);
+        ProviderSnapshots.clear();
+
+        Provider read = Provider.CREATOR.createFromParcel(parcel);
+
+        assertEquals(provider, read);
+        assertEquals(provider.getDefinitionString(), read.getDefinitionString());
+        assertEquals(provider.getEipServiceJsonString(), read.getEipServiceJsonString());
+        assertEquals(provider.getApiUrlString(), read.getApiUrlString());
+        assertEquals(provider.getCaCertFingerprint(), read.getCaCertFingerprint());
+        assertTrue(read.allowsRegistered());
+        assertTrue(read.isConfigured());
+        assertFalse(read.shouldUpdateEipServiceJson());
+        assertNotSame(provider.getEipServiceJson(), read.getEipServiceJson());
+    }
+
+    @Test
+    public void testParcel_sameProcess_sharesParsedJson() {
+        JSONObject eipServiceJson = provider.getEipServiceJson();
+        Parcel parcel = write(provider);
+
+        Provider read = Provider.CREATOR.createFromParcel(parcel);
+
+        assertEquals(provider, read);
+        assertNotSame(provider, read);
+        assertSame(eipServiceJson, read.getEipServiceJson());
+    }
+
+    @Test
+    public void testParcel_changedAfterWriting_snapshotUnchanged() {
+        Parcel first = write(provider);
+        provider.setVpnCertificate("renewed vpn certificate");
+        provider.setMainUrl("https://calyx.net");
+        Parcel second = write(provider);
+
+        Provider readFirst = Provider.CREATOR.createFromParcel(first);
+        Provider readSecond = Provider.CREATOR.createFromParcel(second);
+
+        assertEquals("vpn certificate", readFirst.getVpnCertificate());
+        assertEquals("riseup.net", readFirst.getDomain());
+        assertEquals("renewed vpn certificate", readSecond.getVpnCertificate());
+        assertEquals("calyx.net", readSecond.getDomain());
+    }
+
+    @Test
+    public void testParcel_followingValuesReadInBothCases() {
+        for (boolean sameProcess : new boolean[]{true, false}) {
+            Parcel parcel = mockParcel();
+            provider.writeToParcel(parcel, 0);
+            parcel.writeInt(23);
+            parcel.setDataPosition(0);
+            if (!sameProcess) {
+                ProviderSnapshots.clear();
+            }
+
+            Provider.CREATOR.createFromParcel(parcel);
+            assertEquals(23, parcel.readInt());
+        }
+    }
+
+    private static Parcel write(Provider provider) {
+        Parcel parcel = mockParcel();
+        provider.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        return parcel;
+    }
+}
@@ -0,0 +1,65 @@
+package se.leap.bitmaskclient.base.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class AppSearchIndexTest {
+
+    private AppSearchIndex index;
+
+    @Before
+    public void setUp() {
+        index = new AppSearchIndex(Arrays.asList(
+                "Android System",
+                "Bitmask",
+                "F-Droid",
+                "Firefox",
+                "OpenVPN for Android",
+                "Signal",
+                "Tor Browser"), Locale.US);
+    }
+
+    @Test
+    public void testSearch_emptyQuery_allInOrder() {
+        assertTrue(Arrays.equals(new int[]{0, 1, 2, 3, 4, 5, 6}, index.search("")));
+    }
+
+    @Test
+    public void testSearch_caseInsensitive() {
+        assertTrue(Arrays.equals(new int[]{1}, index.search("BITMASK")));
+    }
+
+    @Test
+    public void testSearch_wordPrefixMatchesFirst() {
+        // "droid" starts a word only in F-Droid, the other two contain it inside "Android"
+        assertTrue(Arrays.equals(new int[]{2, 0, 4}, index.search("droid")));
+    }
+
+    @Test
+    public void testSearch_queryAcrossWords() {
+        assertTrue(Arrays.equals(new int[]{4}, index.search("vpn for and")));
+    }
+
+    @Test
+    public void testSearch_narrowingAndWidening() {
+        assertTrue(Arrays.equals(new int[]{0, 1, 2, 3, 4, 5}, index.search("i")));
+        assertTrue(Arrays.equals(new int[]{3}, index.search("ir")));
+        assertTrue(Arrays.equals(new int[]{3}, index.search("irefox")));
+        assertTrue(Arrays.equals(new int[]{}, index.search("irefoxx")));
+        assertTrue(Arrays.equals(new int[]{0, 5, 1, 6}, index.search("s")));
+    }
+
+    @Test
+    public void testSearch_noLabels() {
+        AppSearchIndex empty = new AppSearchIndex(new ArrayList<>(), Locale.US);
+        assertEquals(0, empty.search("").length);
+        assertEquals(0, empty.search("a").length);
+    }
+}
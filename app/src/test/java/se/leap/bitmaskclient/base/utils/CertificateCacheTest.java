@@ -0,0 +1,101 @@
+package se.leap.bitmaskclient.base.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static se.leap.bitmaskclient.testutils.TestSetupHelper.getInputAsString;
+
+public class CertificateCacheTest {
+
+    private CertificateCache cache;
+    private String caCert;
+    private String vpnCert;
+
+    @Before
+    public void setup() throws Exception {
+        cache = new CertificateCache();
+        caCert = getInputAsString(getClass().getClassLoader().getResourceAsStream("riseup.net.pem"));
+        vpnCert = getInputAsString(getClass().getClassLoader().getResourceAsStream("riseup.net.vpn_cert.pem"));
+    }
+
+    @Test
+    public void testGetX509Certificate_parsedOnce() {
+        X509Certificate certificate = cache.getX509Certificate(caCert);
+        assertNotNull(certificate);
+        assertSame(certificate, cache.getX509Certificate(new String(caCert)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertNotSame(certificate, cache.getX509Certificate(vpnCert));
+    }
+
+    @Test
+    public void testGetX509Certificate_invalidCertificateNotCached() {
+        assertNull(cache.getX509Certificate("-----BEGIN CERTIFICATE-----\nnot a certificate\n-----END CERTIFICATE-----"));
+        assertNull(cache.getX509Certificate(null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testGetKeyStore_trustsCaCertificate() throws Exception {
+        KeyStore keyStore = cache.getKeyStore(caCert);
+        assertSame(keyStore, cache.getKeyStore(caCert));
+        assertEquals(cache.getX509Certificate(caCert), keyStore.getCertificate(CertificateCache.PROVIDER_CA_ALIAS));
+        assertEquals(1, keyStore.size());
+    }
+
+    @Test
+    public void testInvalidate_dropsEverythingParsedFromString() throws Exception {
+        cache.getX509Certificate(caCert);
+        KeyStore keyStore = cache.getKeyStore(caCert);
+        X509Certificate vpnCertificate = cache.getX509Certificate(vpnCert);
+
+        cache.invalidate(caCert);
+
+        assertEquals(1, cache.size());
+        assertSame(vpnCertificate, cache.getX509Certificate(vpnCert));
+        long misses = cache.getMissCount();
+        assertNotNull(cache.getX509Certificate(caCert));
+        assertEquals(misses + 1, cache.getMissCount());
+        assertNotSame(keyStore, cache.getKeyStore(caCert));
+    }
+
+    @Test
+    public void testPutX509Certificate_reusedForOtherEncoding() {
+        X509Certificate certificate = cache.getX509Certificate(vpnCert);
+        String reencoded = vpnCert.replace("\n", "\r\n");
+        cache.putX509Certificate(reencoded, certificate);
+        assertSame(certificate, cache.getX509Certificate(reencoded));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesDropped() {
+        X509Certificate certificate = cache.getX509Certificate(caCert);
+        for (int i = 0; i < CertificateCache.MAX_ENTRIES; i++) {
+            cache.putX509Certificate("certificate " + i, certificate);
+        }
+        assertEquals(CertificateCache.MAX_ENTRIES, cache.size());
+        assertTrue(cache.getParseNanos() > 0);
+        // the parsed caCert has been evicted by the last put
+        long misses = cache.getMissCount();
+        cache.getX509Certificate(caCert);
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void testGetStatistics() {
+        cache.getX509Certificate(caCert);
+        cache.getX509Certificate(caCert);
+        cache.getX509Certificate(caCert);
+        assertTrue(cache.getSavedNanos() > 0);
+        assertTrue(cache.getStatistics(), cache.getStatistics().startsWith("Certificate cache: 2 hits, 1 misses (66% hit rate)"));
+    }
+}
@@ -5,16 +5,21 @@ import android.content.SharedPreferences;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+
 import se.leap.bitmaskclient.base.models.Provider;
 import se.leap.bitmaskclient.testutils.MockSharedPreferences;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_CONFIGURED;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_EIP_DEFINITION;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_PRIVATE_KEY;
 import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICATE;
 import static se.leap.bitmaskclient.testutils.TestSetupHelper.getInputAsString;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getSavedProviderFromSharedPreferences;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.migrateProvidersToStore;
 
 /**
  * Created by cyberta on 17.01.18.
@@ -49,5 +54,37 @@ public class PreferenceHelperTest {
         assertTrue(provider.isConfigured());
     }
 
+    @Test
+    public void migrateProvidersToStore_movesProviderDetailsToStore() throws Exception {
+        File directory = File.createTempFile("providerstore", "");
+        directory.delete();
+        mockPreferences.edit()
+                .putString(Provider.MAIN_URL, "https://riseup.net")
+                .putString(Provider.KEY, "current definition")
+                .putString(PROVIDER_VPN_CERTIFICATE, "vpn cert")
+                .putString(Provider.KEY + ".riseup.net", "older definition")
+                .putString(Provider.CA_CERT + ".riseup.net", "ca cert")
+                .putString(Provider.KEY + ".calyx.net", "calyx definition")
+                .putString(PROVIDER_EIP_DEFINITION + ".calyx.net", "calyx eip definition")
+                .putBoolean(PROVIDER_CONFIGURED, true)
+                .apply();
+
+        ProviderStore store = new ProviderStore(directory);
+        migrateProvidersToStore(mockPreferences, store);
+
+        assertEquals("current definition", store.get("riseup.net", Provider.KEY));
+        assertEquals("vpn cert", store.get("riseup.net", PROVIDER_VPN_CERTIFICATE));
+        assertEquals("ca cert", store.get("riseup.net", Provider.CA_CERT));
+        assertEquals("calyx eip definition", store.get("calyx.net", PROVIDER_EIP_DEFINITION));
+        // only the main url of the current provider and the flags are left
+        assertEquals(2, mockPreferences.getAll().size());
+        assertEquals("https://riseup.net", mockPreferences.getString(Provider.MAIN_URL, ""));
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package se.leap.bitmaskclient.base.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ProcessRunnerTest {
+
+    @Test
+    public void testWaitFor_outputAndExitCode() throws Exception {
+        ProcessRunner.Result result = ProcessRunner.start(new String[]{"sh", "-c", "echo out; echo err >&2; exit 3"}, null).waitFor();
+        assertEquals("out\n", result.stdout);
+        assertEquals("err\n", result.stderr);
+        assertEquals(3, result.exitCode);
+        assertFalse(result.killed);
+    }
+
+    @Test
+    public void testStart_writesStdin() throws Exception {
+        ProcessRunner.Result result = ProcessRunner.start(new String[]{"sh"}, "echo $((1 + 2))\nexit 4\n").waitFor();
+        assertEquals("3\n", result.stdout);
+        assertEquals(4, result.exitCode);
+    }
+
+    @Test
+    public void testStart_argumentsAreNotInterpreted() throws Exception {
+        String options = "{\"cert\": \"a b $HOME\", \"iatMode\": \"0\"}";
+        ProcessRunner.Result result = ProcessRunner.start(new String[]{"echo", "-options", options}, null).waitFor();
+        assertEquals("-options " + options + "\n", result.stdout);
+    }
+
+    @Test
+    public void testWaitFor_drainsBothStreams() throws Exception {
+        // a lot more than fits into a pipe, written to stderr before stdout
+        String script = "i=0; while [ $i -lt 2000 ]; do echo 0123456789012345678901234567890123456789012345678901234567890123456789 >&2; i=$((i + 1)); done; echo done";
+        ProcessRunner.Result result = ProcessRunner.start(new String[]{"sh", "-c", script}, null, 1000)
+                .waitFor(30, TimeUnit.SECONDS);
+        assertFalse(result.killed);
+        assertEquals(0, result.exitCode);
+        assertEquals("done\n", result.stdout);
+        assertEquals(1000, result.stderr.length());
+        assertTrue(result.stderr.endsWith("0123456789\n"));
+    }
+
+    @Test
+    public void testWaitFor_timeout() throws Exception {
+        long start = System.nanoTime();
+        ProcessRunner.Result result = ProcessRunner.start(new String[]{"sleep", "20"}, null).waitFor(200, TimeUnit.MILLISECONDS);
+        assertTrue(result.killed);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ProcessRunner runner = ProcessRunner.start(new String[]{"sleep", "20"}, null);
+        assertTrue(runner.isRunning());
+        runner.cancel();
+        assertTrue(runner.waitFor().killed);
+        assertFalse(runner.isRunning());
+    }
+
+    @Test
+    public void testGetPid_isPidOfCommand() throws Exception {
+        ProcessRunner runner = ProcessRunner.start(new String[]{"sh", "-c", "echo $$"}, null);
+        int pid = runner.getPid();
+        assertTrue(pid > 0);
+        assertEquals(pid + "\n", runner.waitFor().stdout);
+    }
+
+    @Test
+    public void testGetPid_commandNotFound() throws Exception {
+        ProcessRunner runner = ProcessRunner.start(new String[]{"/nonexistent/piedispatcher"}, null);
+        assertTrue(runner.getPid() > 0);
+        assertEquals(127, runner.waitFor().exitCode);
+    }
+
+    @Test
+    public void testRingBuffer_keepsLastCharacters() {
+        ProcessRunner.RingBuffer ringBuffer = new ProcessRunner.RingBuffer(8);
+        ringBuffer.write("abcde".toCharArray(), 0, 5);
+        assertEquals("abcde", ringBuffer.toString());
+        ringBuffer.write("xfghij".toCharArray(), 1, 5);
+        assertEquals("cdefghij", ringBuffer.toString());
+        assertEquals(2, ringBuffer.getDropped());
+        ringBuffer.write("k".toCharArray(), 0, 1);
+        assertEquals("defghijk", ringBuffer.toString());
+        ringBuffer.write("0123456789".toCharArray(), 0, 10);
+        assertEquals("23456789", ringBuffer.toString());
+        assertEquals(13, ringBuffer.getDropped());
+    }
+
+    @Test
+    public void testRunBlockingCmd() throws Exception {
+        StringBuilder log = new StringBuilder();
+        assertEquals(2, Cmd.runBlockingCmd(new String[]{"echo out", "echo err >&2", "false || (exit 2)"}, log));
+        assertEquals("out\nerr\n", log.toString());
+    }
+}
@@ -0,0 +1,118 @@
+package se.leap.bitmaskclient.base.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ProviderStoreTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("providerstore", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testPut_readByNewStore() throws IOException {
+        HashMap<String, String> fields = new HashMap<>();
+        fields.put("provider", "{\"domain\": \"riseup.net\"}");
+        fields.put("ca_cert", "-----BEGIN CERTIFICATE-----\n\u00e4\u20ac\n-----END CERTIFICATE-----");
+        fields.put("empty", "");
+        new ProviderStore(directory).put("riseup.net", fields);
+
+        ProviderStore store = new ProviderStore(directory);
+        assertEquals(fields.get("provider"), store.get("riseup.net", "provider"));
+        assertEquals(fields.get("ca_cert"), store.get("riseup.net", "ca_cert"));
+        assertTrue(store.contains("riseup.net", "empty"));
+        assertEquals("", store.get("riseup.net", "empty"));
+        assertFalse(store.contains("riseup.net", "cert"));
+        assertEquals("", store.get("riseup.net", "cert"));
+        assertFalse(store.contains("calyx.net"));
+    }
+
+    @Test
+    public void testPut_keepsOtherFields() throws IOException {
+        ProviderStore store = new ProviderStore(directory);
+        store.put("riseup.net", "provider", "definition");
+        store.put("riseup.net", "cert", "old cert");
+
+        store = new ProviderStore(directory);
+        store.put("riseup.net", "cert", "new cert");
+
+        store = new ProviderStore(directory);
+        assertEquals("definition", store.get("riseup.net", "provider"));
+        assertEquals("new cert", store.get("riseup.net", "cert"));
+    }
+
+    @Test
+    public void testGet_readsValuesLazily() throws IOException {
+        new ProviderStore(directory).put("riseup.net", "provider", "definition");
+        ProviderStore store = new ProviderStore(directory);
+        assertTrue(store.contains("riseup.net", "provider"));
+
+        // only the table has been read so far, the value is read from the current file
+        File file = new File(directory, ProviderStore.fileName("riseup.net"));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(file.length() - 1);
+        raf.write('N');
+        raf.close();
+
+        assertEquals("definitioN", store.get("riseup.net", "provider"));
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        ProviderStore store = new ProviderStore(directory);
+        store.put("riseup.net", "provider", "definition");
+        store.put("calyx.net", "provider", "other definition");
+        store.delete("riseup.net");
+
+        assertFalse(store.contains("riseup.net"));
+        store = new ProviderStore(directory);
+        assertFalse(store.contains("riseup.net"));
+        assertEquals("other definition", store.get("calyx.net", "provider"));
+    }
+
+    @Test
+    public void testDamagedFile_treatedAsMissing() throws IOException {
+        // creates the directory
+        new ProviderStore(directory);
+        FileOutputStream out = new FileOutputStream(new File(directory, ProviderStore.fileName("riseup.net")));
+        out.write(new byte[]{1, 2, 3, 4, 5, 6});
+        out.close();
+
+        ProviderStore store = new ProviderStore(directory);
+        assertFalse(store.contains("riseup.net"));
+        store.put("riseup.net", "provider", "definition");
+        assertEquals("definition", new ProviderStore(directory).get("riseup.net", "provider"));
+    }
+
+    @Test
+    public void testFileName_noPathSeparators() {
+        assertEquals("riseup.net" + ProviderStore.FILE_EXTENSION, ProviderStore.fileName("riseup.net"));
+        assertEquals("_._etc" + ProviderStore.FILE_EXTENSION, ProviderStore.fileName("../etc"));
+    }
+}
@@ -0,0 +1,238 @@
+package se.leap.bitmaskclient.eip;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GatewayProberTest {
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    private GatewayProber gatewayProber;
+    private ServerSocket serverSocket;
+    private DatagramSocket answeringDatagramSocket;
+    private DatagramSocket silentDatagramSocket;
+    private int closedPort;
+    private final AtomicInteger receivedOpcode = new AtomicInteger(-1);
+
+    @Before
+    public void setUp() throws IOException {
+        gatewayProber = new GatewayProber();
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        silentDatagramSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        answeringDatagramSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        ServerSocket closedServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        closedPort = closedServerSocket.getLocalPort();
+        closedServerSocket.close();
+
+        // answers like an OpenVPN server with a P_CONTROL_HARD_RESET_SERVER_V2 packet
+        Thread answeringThread = new Thread(() -> {
+            byte[] buffer = new byte[1500];
+            try {
+                while (true) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    answeringDatagramSocket.receive(packet);
+                    receivedOpcode.set((buffer[0] & 0xff) >> 3);
+                    byte[] answer = new byte[]{8 << 3, 1, 2, 3, 4, 5, 6, 7, 8};
+                    answeringDatagramSocket.send(new DatagramPacket(answer, answer.length, packet.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                // socket closed
+            }
+        });
+        answeringThread.setDaemon(true);
+        answeringThread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+        silentDatagramSocket.close();
+        answeringDatagramSocket.close();
+    }
+
+    @Test
+    public void testProbe_tcpListening_reachable() {
+        probe("gateway", tcp(serverSocket.getLocalPort()));
+
+        GatewayProber.HostStatistics statistics = gatewayProber.getStatistics("gateway");
+        assertNotNull(statistics);
+        assertTrue(statistics.getRttMillis() >= 0);
+        assertEquals(0.0, statistics.getFailureScore());
+    }
+
+    @Test
+    public void testProbe_tcpConnectionRefused_unreachable() {
+        probe("gateway", tcp(closedPort));
+
+        GatewayProber.HostStatistics statistics = gatewayProber.getStatistics("gateway");
+        assertNotNull(statistics);
+        assertEquals(-1.0, statistics.getRttMillis());
+        assertEquals(1.0, statistics.getFailureScore());
+    }
+
+    @Test
+    public void testProbe_udpAnswering_reachableAndHardResetSent() {
+        probe("gateway", udp(answeringDatagramSocket.getLocalPort()));
+
+        GatewayProber.HostStatistics statistics = gatewayProber.getStatistics("gateway");
+        assertNotNull(statistics);
+        assertTrue(statistics.getRttMillis() >= 0);
+        assertEquals(7, receivedOpcode.get());
+    }
+
+    @Test
+    public void testProbe_udpSilent_noStatistics() {
+        probe("gateway", udp(silentDatagramSocket.getLocalPort()));
+
+        assertNull(gatewayProber.getStatistics("gateway"));
+    }
+
+    @Test
+    public void testProbe_oneOfTwoRemotesReachable_reachable() {
+        probe("gateway", tcp(closedPort), tcp(serverSocket.getLocalPort()));
+
+        GatewayProber.HostStatistics statistics = gatewayProber.getStatistics("gateway");
+        assertNotNull(statistics);
+        assertEquals(0.0, statistics.getFailureScore());
+    }
+
+    @Test
+    public void testProbe_manyHosts_allProbedConcurrently() {
+        HashMap<String, List<GatewayProber.Endpoint>> endpoints = new HashMap<>();
+        for (int i = 0; i < 3 * GatewayProber.MAX_CONCURRENT_PROBES; i++) {
+            endpoints.put("gateway" + i, Collections.singletonList(tcp(serverSocket.getLocalPort())));
+        }
+        gatewayProber.probe(endpoints, 2000);
+
+        for (String host : endpoints.keySet()) {
+            assertNotNull(gatewayProber.getStatistics(host));
+        }
+    }
+
+    @Test
+    public void testProbe_repeatedFailures_failureScoreMovingAverage() {
+        probe("gateway", tcp(serverSocket.getLocalPort()));
+        probe("gateway", tcp(closedPort));
+
+        GatewayProber.HostStatistics statistics = gatewayProber.getStatistics("gateway");
+        assertEquals(GatewayProber.ALPHA, statistics.getFailureScore(), 0.0001);
+        assertTrue(statistics.isReachable());
+
+        probe("gateway", tcp(closedPort));
+        assertFalse(gatewayProber.getStatistics("gateway").isReachable());
+    }
+
+    @Test
+    public void testRace_returnsFirstReachableHostWithoutWaitingForSilentHosts() {
+        LinkedHashMap<String, List<GatewayProber.Endpoint>> endpoints = new LinkedHashMap<>();
+        endpoints.put("refused", Collections.singletonList(tcp(closedPort)));
+        endpoints.put("listening", Collections.singletonList(tcp(serverSocket.getLocalPort())));
+        endpoints.put("silent", Collections.singletonList(udp(silentDatagramSocket.getLocalPort())));
+
+        long start = System.currentTimeMillis();
+        String winner = gatewayProber.race(endpoints, 5000);
+        long duration = System.currentTimeMillis() - start;
+
+        assertEquals("listening", winner);
+        assertTrue("race took " + duration + " ms", duration < 2500);
+        assertNull(gatewayProber.getStatistics("silent"));
+    }
+
+    @Test
+    public void testRace_preferredSilentUdpHost_winsAgainstReachableHost() {
+        LinkedHashMap<String, List<GatewayProber.Endpoint>> endpoints = new LinkedHashMap<>();
+        endpoints.put("silent", Collections.singletonList(udp(silentDatagramSocket.getLocalPort())));
+        endpoints.put("listening", Collections.singletonList(tcp(serverSocket.getLocalPort())));
+
+        assertEquals("silent", gatewayProber.race(endpoints, 5000));
+    }
+
+    @Test
+    public void testRace_preferredHostWithTcpRemote_losesAgainstReachableHost() {
+        LinkedHashMap<String, List<GatewayProber.Endpoint>> endpoints = new LinkedHashMap<>();
+        endpoints.put("refused", Arrays.asList(udp(silentDatagramSocket.getLocalPort()), tcp(closedPort)));
+        endpoints.put("listening", Collections.singletonList(tcp(serverSocket.getLocalPort())));
+
+        assertEquals("listening", gatewayProber.race(endpoints, 5000));
+    }
+
+    @Test
+    public void testRace_noReachableHost_returnsNull() {
+        HashMap<String, List<GatewayProber.Endpoint>> endpoints = new HashMap<>();
+        endpoints.put("refused", Collections.singletonList(tcp(closedPort)));
+        endpoints.put("silent", Collections.singletonList(udp(silentDatagramSocket.getLocalPort())));
+
+        assertNull(gatewayProber.race(endpoints, 300));
+        assertEquals(1.0, gatewayProber.getStatistics("refused").getFailureScore());
+    }
+
+    @Test
+    public void testHostStatistics_rttMovingAverage() {
+        GatewayProber.HostStatistics statistics = new GatewayProber.HostStatistics();
+        statistics.update(100, false, 0);
+        assertEquals(100.0, statistics.getRttMillis(), 0.0001);
+        statistics.update(200, false, 0);
+        assertEquals(130.0, statistics.getRttMillis(), 0.0001);
+        statistics.update(0, true, 0);
+        assertEquals(130.0, statistics.getRttMillis(), 0.0001);
+    }
+
+    @Test
+    public void testRank_unknownKeepsPositionUnreachableLast() {
+        Gateway unreachable = mockGateway("unreachable");
+        Gateway unknown = mockGateway("unknown");
+        Gateway reachable = mockGateway("reachable");
+        probe("unreachable", tcp(closedPort));
+        probe("reachable", tcp(serverSocket.getLocalPort()));
+        probe("unknown", udp(silentDatagramSocket.getLocalPort()));
+
+        List<Gateway> ranked = gatewayProber.rank(Arrays.asList(unreachable, unknown, reachable));
+
+        assertEquals(Arrays.asList(unknown, reachable, unreachable), ranked);
+        assertTrue(gatewayProber.hasStatistics(Arrays.asList(unknown, reachable)));
+        assertFalse(gatewayProber.hasStatistics(Collections.singletonList(unknown)));
+        assertTrue(gatewayProber.needsProbing(Arrays.asList(unknown, reachable)));
+        assertFalse(gatewayProber.needsProbing(Collections.singletonList(reachable)));
+    }
+
+    private void probe(String host, GatewayProber.Endpoint... endpoints) {
+        HashMap<String, List<GatewayProber.Endpoint>> map = new HashMap<>();
+        map.put(host, Arrays.asList(endpoints));
+        gatewayProber.probe(map, 500);
+    }
+
+    private GatewayProber.Endpoint tcp(int port) {
+        return new GatewayProber.Endpoint(LOCALHOST, port, false);
+    }
+
+    private GatewayProber.Endpoint udp(int port) {
+        return new GatewayProber.Endpoint(LOCALHOST, port, true);
+    }
+
+    private Gateway mockGateway(String host) {
+        Gateway gateway = mock(Gateway.class);
+        when(gateway.getHost()).thenReturn(host);
+        return gateway;
+    }
+}
@@ -16,6 +16,11 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import de.blinkt.openvpn.VpnProfile;
@@ -33,7 +38,9 @@ import static de.blinkt.openvpn.core.connection.Connection.TransportType.OBFS4;
 import static de.blinkt.openvpn.core.connection.Connection.TransportType.OPENVPN;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertNotEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -68,6 +75,7 @@ public class GatewaysManagerTest {
         mockStatic(ConfigHelper.class);
         mockTextUtils();
         when(ConfigHelper.getCurrentTimezone()).thenReturn(-1);
+        GatewayProber.getInstance().clear();
         when(ConfigHelper.stringEqual(anyString(), anyString())).thenCallRealMethod();
         secrets = new JSONObject(getJsonStringFor("secrets.json"));
         sharedPreferences = new MockSharedPreferences();
@@ -102,6 +110,73 @@ public class GatewaysManagerTest {
         assertEquals(3, gatewaysManager.size());
     }
 
+    @Test
+    public void testGatewayManagerFromCurrentProvider_secondInstance_reusesCachedGateways() {
+        GatewaysCache.getInstance().clear();
+        Provider provider = getProvider(null, null, null, null,null, null, "ptdemo_three_mixed_gateways.json", null);
+        MockHelper.mockProviderObserver(provider);
+        GatewaysManager gatewaysManager = new GatewaysManager(mockContext);
+        assertEquals(3, gatewaysManager.size());
+        assertEquals(3, GatewaysCache.getInstance().getMisses());
+        assertEquals(0, GatewaysCache.getInstance().getHits());
+
+        gatewaysManager = new GatewaysManager(mockContext);
+        assertEquals(3, gatewaysManager.size());
+        assertEquals(3, GatewaysCache.getInstance().getMisses());
+        assertEquals(3, GatewaysCache.getInstance().getHits());
+    }
+
+    @Test
+    public void testGatewayManagerFromCurrentProvider_providerUpdated_onlyChangedGatewaysRebuilt() throws JSONException {
+        GatewaysCache.getInstance().clear();
+        Provider provider = getProvider(null, null, null, null,null, null, "ptdemo_three_mixed_gateways.json", null);
+        MockHelper.mockProviderObserver(provider);
+        new GatewaysManager(mockContext);
+        assertEquals(3, GatewaysCache.getInstance().getMisses());
+
+        JSONObject eipServiceJson = new JSONObject(provider.getEipServiceJsonString());
+        eipServiceJson.getJSONArray(GATEWAYS).getJSONObject(0).put("host", "changed.bitmask.net");
+        provider.setEipServiceJson(eipServiceJson);
+        GatewaysManager gatewaysManager = new GatewaysManager(mockContext);
+
+        assertEquals(3, gatewaysManager.size());
+        assertEquals(4, GatewaysCache.getInstance().getMisses());
+        assertEquals(2, GatewaysCache.getInstance().getHits());
+    }
+
+    @Test
+    public void testGatewayManagerFromCurrentProvider_equalProviderContent_reusesCachedGateways() {
+        GatewaysCache.getInstance().clear();
+        MockHelper.mockProviderObserver(getProvider(null, null, null, null,null, null, "ptdemo_three_mixed_gateways.json", null));
+        new GatewaysManager(mockContext);
+
+        MockHelper.mockProviderObserver(getProvider(null, null, null, null,null, null, "ptdemo_three_mixed_gateways.json", null));
+        new GatewaysManager(mockContext);
+        assertEquals(3, GatewaysCache.getInstance().getMisses());
+        assertEquals(3, GatewaysCache.getInstance().getHits());
+    }
+
+    @Test
+    public void testGatewayManagerFromCurrentProvider_secondInstance_doesNotShareGatewayState() {
+        GatewaysCache.getInstance().clear();
+        Provider provider = getProvider(null, null, null, null, null, null, "v4/riseup_eipservice_for_geoip_v4.json", "v4/riseup_geoip_v4.json");
+        MockHelper.mockProviderObserver(provider);
+        mockStatic(PreferenceHelper.class);
+        when(PreferenceHelper.getUsePluggableTransports(any(Context.class))).thenReturn(false);
+        when(PreferenceHelper.getExcludedApps(any(Context.class))).thenReturn(new HashSet<>(Collections.singletonList("org.example.first")));
+        Gateway first = new GatewaysManager(mockContext).select(0);
+
+        when(PreferenceHelper.getExcludedApps(any(Context.class))).thenReturn(new HashSet<>(Collections.singletonList("org.example.second")));
+        Gateway second = new GatewaysManager(mockContext).select(0);
+        first.updateLoad(null);
+
+        assertEquals(first.getHost(), second.getHost());
+        assertNotSame(first.getProfile(OPENVPN), second.getProfile(OPENVPN));
+        assertEquals(Collections.singleton("org.example.first"), first.getProfile(OPENVPN).mAllowedAppsVpn);
+        assertEquals(Collections.singleton("org.example.second"), second.getProfile(OPENVPN).mAllowedAppsVpn);
+        assertTrue(second.hasLoadInfo());
+    }
+
     @Test
     public void TestGetPosition_VpnProfileExtistingObfs4_returnPositionZero() throws JSONException, ConfigParser.ConfigParseError, IOException {
         Provider provider = getProvider(null, null, null, null, null, null, "ptdemo_three_mixed_gateways.json", null);
@@ -219,6 +294,57 @@ public class GatewaysManagerTest {
         assertEquals("pt.demo.bitmask.net", gatewaysManager.select(2).getHost());
     }
 
+    @Test
+    public void testSelectN_probedGateways_reachableGatewaysFirst() throws IOException {
+        Provider provider = getProvider(null, null, null, null, null, null, "ptdemo_three_mixed_gateways.json", "ptdemo_three_mixed_gateways.geoip.json");
+
+        MockHelper.mockProviderObserver(provider);
+        //use openvpn, not pluggable transports
+        mockStatic(PreferenceHelper.class);
+        when(PreferenceHelper.getUsePluggableTransports(any(Context.class))).thenReturn(false);
+        GatewaysManager gatewaysManager = new GatewaysManager(mockContext);
+
+        ServerSocket closedServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int closedPort = closedServerSocket.getLocalPort();
+        closedServerSocket.close();
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            HashMap<String, List<GatewayProber.Endpoint>> endpoints = new HashMap<>();
+            endpoints.put("manila.bitmask.net", Collections.singletonList(new GatewayProber.Endpoint("127.0.0.1", closedPort, false)));
+            endpoints.put("moscow.bitmask.net", Collections.singletonList(new GatewayProber.Endpoint("127.0.0.1", serverSocket.getLocalPort(), false)));
+            GatewayProber.getInstance().probe(endpoints, 1000);
+        }
+
+        // pt.demo.bitmask.net hasn't been probed, manila.bitmask.net is unreachable
+        assertEquals("moscow.bitmask.net", gatewaysManager.select(0).getHost());
+        assertEquals("pt.demo.bitmask.net", gatewaysManager.select(1).getHost());
+        assertEquals("manila.bitmask.net", gatewaysManager.select(2).getHost());
+        assertEquals(2, gatewaysManager.getPosition(gatewaysManager.select(2).getProfile(OPENVPN)));
+    }
+
+    @Test
+    public void testSelectN_probingAfterFirstSelection_keepsRankingOfInstance() throws IOException {
+        Provider provider = getProvider(null, null, null, null, null, null, "ptdemo_three_mixed_gateways.json", "ptdemo_three_mixed_gateways.geoip.json");
+
+        MockHelper.mockProviderObserver(provider);
+        //use openvpn, not pluggable transports
+        mockStatic(PreferenceHelper.class);
+        when(PreferenceHelper.getUsePluggableTransports(any(Context.class))).thenReturn(false);
+        GatewaysManager gatewaysManager = new GatewaysManager(mockContext);
+        Gateway selected = gatewaysManager.select(0);
+        assertEquals("manila.bitmask.net", selected.getHost());
+
+        ServerSocket closedServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int closedPort = closedServerSocket.getLocalPort();
+        closedServerSocket.close();
+        HashMap<String, List<GatewayProber.Endpoint>> endpoints = new HashMap<>();
+        endpoints.put("manila.bitmask.net", Collections.singletonList(new GatewayProber.Endpoint("127.0.0.1", closedPort, false)));
+        GatewayProber.getInstance().probe(endpoints, 1000);
+
+        assertEquals(0, gatewaysManager.getPosition(selected.getProfile(OPENVPN)));
+        assertEquals("moscow.bitmask.net", gatewaysManager.select(1).getHost());
+        assertEquals("manila.bitmask.net", new GatewaysManager(mockContext).select(2).getHost());
+    }
+
     @Test
     public void testSelectN_selectObfs4FromPresortedGateways_returnsObfs4GatewaysInPresortedOrder() {
         Provider provider = getProvider(null, null, null, null, null, null, "ptdemo_three_mixed_gateways.json", "ptdemo_three_mixed_gateways.geoip.json");
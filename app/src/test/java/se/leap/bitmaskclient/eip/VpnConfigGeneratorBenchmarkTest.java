@@ -0,0 +1,119 @@
+package se.leap.bitmaskclient.eip;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import de.blinkt.openvpn.core.connection.Connection;
+import se.leap.bitmaskclient.testutils.TestSetupHelper;
+
+import static de.blinkt.openvpn.core.connection.Connection.TransportType.OBFS4;
+import static de.blinkt.openvpn.core.connection.Connection.TransportType.OPENVPN;
+import static junit.framework.Assert.assertEquals;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static se.leap.bitmaskclient.base.models.Constants.GATEWAYS;
+import static se.leap.bitmaskclient.base.models.Constants.HOST;
+import static se.leap.bitmaskclient.base.models.Constants.IP_ADDRESS;
+import static se.leap.bitmaskclient.base.models.Constants.OPENVPN_CONFIGURATION;
+import static se.leap.bitmaskclient.testutils.MockHelper.mockTextUtils;
+
+/**
+ * Compares per gateway profile generation time and allocations of the structured
+ * VpnConfigGenerator.createProfile() with the former config file round trip of
+ * LegacyVpnConfigGenerator for 10, 100 and 1000 synthetic gateways. Results are printed to stdout.
+ * Only runs with -Pbenchmarks.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Log.class, TextUtils.class})
+public class VpnConfigGeneratorBenchmarkTest {
+
+    private static final int[] GATEWAY_COUNTS = {10, 100, 1000};
+    private static final int WARM_UP_GATEWAYS = 50;
+
+    private JSONObject eipServiceJson;
+    private JSONObject secrets;
+
+    private interface ProfileFactory {
+        void create(JSONObject generalConfiguration, JSONObject gateway, int apiVersion, Connection.TransportType transportType) throws Exception;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(Log.class);
+        mockTextUtils();
+        eipServiceJson = new JSONObject(TestSetupHelper.getInputAsString(getClass().getClassLoader().getResourceAsStream("v4/ptdemo_pt_tcp_udp.eip-service.json")));
+        secrets = new JSONObject(TestSetupHelper.getInputAsString(getClass().getClassLoader().getResourceAsStream("secrets.json")));
+    }
+
+    @Test
+    public void benchmarkProfileGeneration() throws Exception {
+        ProfileFactory structured = (generalConfiguration, gateway, apiVersion, transportType) ->
+                new VpnConfigGenerator(generalConfiguration, secrets, gateway, apiVersion).createProfile(transportType);
+        ProfileFactory configurationString = (generalConfiguration, gateway, apiVersion, transportType) ->
+                new LegacyVpnConfigGenerator(generalConfiguration, secrets, gateway, apiVersion).createProfile(transportType);
+
+        List<JSONObject> warmUpGateways = createSyntheticGateways(WARM_UP_GATEWAYS);
+        run(warmUpGateways, structured);
+        run(warmUpGateways, configurationString);
+
+        for (int gatewayCount : GATEWAY_COUNTS) {
+            List<JSONObject> gateways = createSyntheticGateways(gatewayCount);
+            long[] configurationStringResult = run(gateways, configurationString);
+            long[] structuredResult = run(gateways, structured);
+            System.out.println(String.format(Locale.US,
+                    "%4d gateways | config string: %7d us/gw, %8d bytes/gw | structured: %7d us/gw, %8d bytes/gw",
+                    gatewayCount,
+                    configurationStringResult[0] / 1000 / gatewayCount, configurationStringResult[1] / gatewayCount,
+                    structuredResult[0] / 1000 / gatewayCount, structuredResult[1] / gatewayCount));
+            assertEquals(gatewayCount, gateways.size());
+        }
+    }
+
+    /**
+     * @return elapsed nano seconds and allocated bytes
+     */
+    private long[] run(List<JSONObject> gateways, ProfileFactory factory) throws Exception {
+        JSONObject generalConfiguration = eipServiceJson.getJSONObject(OPENVPN_CONFIGURATION);
+        int apiVersion = eipServiceJson.getInt("version");
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (JSONObject gateway : gateways) {
+            factory.create(generalConfiguration, gateway, apiVersion, OPENVPN);
+            factory.create(generalConfiguration, gateway, apiVersion, OBFS4);
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, getAllocatedBytes() - allocatedBefore};
+    }
+
+    private List<JSONObject> createSyntheticGateways(int count) throws Exception {
+        // the first gateway supports openvpn and obfs4
+        String template = eipServiceJson.getJSONArray(GATEWAYS).getJSONObject(0).toString();
+        List<JSONObject> gateways = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            JSONObject gateway = new JSONObject(template);
+            gateway.put(IP_ADDRESS, "10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff));
+            gateway.put(HOST, "gateway" + i + ".bitmask.net");
+            gateways.add(gateway);
+        }
+        return gateways;
+    }
+
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -6,6 +6,7 @@ import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
@@ -1140,5 +1141,39 @@ public class VpnConfigGeneratorTest {
         assertTrue(vpnProfiles.get(OPENVPN).getConfigFile(context, false).trim().equals(expectedVPNConfig_v4_ovpn_udp_tcp.trim()));
     }
 
+    @Test
+    public void testCreateProfile_sameAsLegacyConfigurationString() throws Exception {
+        String[] eipServiceFiles = {
+                "ptdemo.bitmask.eip-service.json",
+                "ptdemo_pt_tcp_udp.eip-service.json",
+                "ptdemo_pt_udp_tcp.eip-service.json",
+                "v4/ptdemo_pt_tcp_udp.eip-service.json",
+                "v4/ptdemo_pt_udp_tcp.eip-service.json"
+        };
+        for (String eipServiceFile : eipServiceFiles) {
+            JSONObject eipServiceJson = new JSONObject(TestSetupHelper.getInputAsString(getClass().getClassLoader().getResourceAsStream(eipServiceFile)));
+            JSONObject generalConfiguration = eipServiceJson.getJSONObject(OPENVPN_CONFIGURATION);
+            int apiVersion = eipServiceJson.getInt("version");
+            JSONArray gateways = eipServiceJson.getJSONArray("gateways");
+            for (int i = 0; i < gateways.length(); i++) {
+                gateway = gateways.getJSONObject(i);
+                vpnConfigGenerator = new VpnConfigGenerator(generalConfiguration, secrets, gateway, apiVersion);
+                LegacyVpnConfigGenerator legacyGenerator = new LegacyVpnConfigGenerator(generalConfiguration, secrets, gateway, apiVersion);
+                for (Connection.TransportType transportType : vpnConfigGenerator.generateVpnProfiles().keySet()) {
+                    String expected = legacyGenerator.createProfile(transportType).getConfigFile(context, false);
+                    String actual = vpnConfigGenerator.createProfile(transportType).getConfigFile(context, false);
+                    assertEquals(eipServiceFile + " gateway " + i + " " + transportType, expected, actual);
+                }
+            }
+        }
 
-}
\ No newline at end of file
+        String[] gatewayFiles = {"gateway_tcp_udp.json", "gateway_udp_tcp.json"};
+        for (String gatewayFile : gatewayFiles) {
+            gateway = new JSONObject(TestSetupHelper.getInputAsString(getClass().getClassLoader().getResourceAsStream(gatewayFile)));
+            vpnConfigGenerator = new VpnConfigGenerator(generalConfig, secrets, gateway, 1);
+            String expected = new LegacyVpnConfigGenerator(generalConfig, secrets, gateway, 1).createProfile(OPENVPN).getConfigFile(context, false);
+            String actual = vpnConfigGenerator.createProfile(OPENVPN).getConfigFile(context, false);
+            assertEquals(gatewayFile, expected, actual);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package se.leap.bitmaskclient.firewall;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_CHAIN;
+import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_FORWARD;
+import static se.leap.bitmaskclient.firewall.FirewallManager.BITMASK_POSTROUTING;
+
+public class FirewallRulesTest {
+
+    private static final String NO_BITMASK_RULES =
+            "# Generated by iptables-save v1.8.4\n" +
+            "*filter\n" +
+            ":INPUT ACCEPT [0:0]\n" +
+            ":FORWARD ACCEPT [0:0]\n" +
+            ":OUTPUT ACCEPT [0:0]\n" +
+            ":tetherctrl_FORWARD - [0:0]\n" +
+            "-A FORWARD -j tetherctrl_FORWARD\n" +
+            "-A tetherctrl_FORWARD -j DROP\n" +
+            "COMMIT\n" +
+            "*nat\n" +
+            ":PREROUTING ACCEPT [0:0]\n" +
+            ":POSTROUTING ACCEPT [0:0]\n" +
+            "COMMIT\n";
+
+    private static final String TETHERING_RULES =
+            "*filter\n" +
+            ":INPUT ACCEPT [0:0]\n" +
+            ":FORWARD ACCEPT [0:0]\n" +
+            ":bitmask_forward - [0:0]\n" +
+            ":tetherctrl_FORWARD - [0:0]\n" +
+            "-A FORWARD -j bitmask_forward\n" +
+            "-A FORWARD -j tetherctrl_FORWARD\n" +
+            "-A bitmask_forward  -j ACCEPT\n" +
+            "COMMIT\n" +
+            "*nat\n" +
+            ":POSTROUTING ACCEPT [12:720]\n" +
+            ":bitmask_postrouting - [0:0]\n" +
+            "-A POSTROUTING -j bitmask_postrouting\n" +
+            "-A bitmask_postrouting -j MASQUERADE\n" +
+            "COMMIT\n";
+
+    private static FirewallRules parseIPv4(String iptablesSave) {
+        return FirewallRules.parse(iptablesSave, Arrays.asList(BITMASK_FORWARD, BITMASK_POSTROUTING));
+    }
+
+    @Test
+    public void testGetChanges_install() {
+        assertEquals("*filter\n" +
+                ":bitmask_forward - [0:0]\n" +
+                "-A bitmask_forward -j ACCEPT\n" +
+                "-I FORWARD -j bitmask_forward\n" +
+                "COMMIT\n" +
+                "*nat\n" +
+                ":bitmask_postrouting - [0:0]\n" +
+                "-A bitmask_postrouting -j MASQUERADE\n" +
+                "-I POSTROUTING -j bitmask_postrouting\n" +
+                "COMMIT\n", RuleInstaller.getTetheringRules().getChanges(parseIPv4(NO_BITMASK_RULES)));
+    }
+
+    @Test
+    public void testGetChanges_installed() {
+        assertEquals("", RuleInstaller.getTetheringRules().getChanges(parseIPv4(TETHERING_RULES)));
+        assertEquals("", new FirewallRules().getChanges(parseIPv4(NO_BITMASK_RULES)));
+    }
+
+    @Test
+    public void testGetChanges_remove() {
+        assertEquals("*filter\n" +
+                "-D FORWARD -j bitmask_forward\n" +
+                "-F bitmask_forward\n" +
+                "-X bitmask_forward\n" +
+                "COMMIT\n" +
+                "*nat\n" +
+                "-D POSTROUTING -j bitmask_postrouting\n" +
+                "-F bitmask_postrouting\n" +
+                "-X bitmask_postrouting\n" +
+                "COMMIT\n", new FirewallRules().getChanges(parseIPv4(TETHERING_RULES)));
+    }
+
+    @Test
+    public void testGetChanges_repairsChangedRulesAndDuplicateJumps() {
+        String installed = "*filter\n" +
+                ":OUTPUT ACCEPT [0:0]\n" +
+                ":bitmask_fw - [0:0]\n" +
+                "-A OUTPUT -j bitmask_fw\n" +
+                "-A OUTPUT -j bitmask_fw\n" +
+                "-A bitmask_fw -p tcp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "COMMIT\n";
+        assertEquals("*filter\n" +
+                ":bitmask_fw - [0:0]\n" +
+                "-D OUTPUT -j bitmask_fw\n" +
+                "-A bitmask_fw -p tcp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "-A bitmask_fw -p udp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "COMMIT\n", RuleInstaller.getIPv6FirewallRules().getChanges(FirewallRules.parse(installed, Arrays.asList(BITMASK_CHAIN))));
+    }
+
+    @Test
+    public void testGetChanges_unknownRulesAreRewritten() {
+        FirewallRules installed = new FirewallRules()
+                .addChain("filter", BITMASK_CHAIN)
+                .addJump("filter", "OUTPUT", BITMASK_CHAIN);
+        assertEquals("*filter\n" +
+                ":bitmask_fw - [0:0]\n" +
+                "-A bitmask_fw -p tcp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "-A bitmask_fw -p udp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "COMMIT\n", RuleInstaller.getIPv6FirewallRules().getChanges(installed));
+    }
+
+    @Test
+    public void testToCommands() {
+        String script = new FirewallRules().getChanges(parseIPv4(TETHERING_RULES)) +
+                RuleInstaller.getTetheringRules().getChanges(new FirewallRules()).split("COMMIT\n")[0] + "COMMIT\n";
+        assertEquals("(\n" +
+                "set -e\n" +
+                "iptables -t filter -D FORWARD -j bitmask_forward\n" +
+                "iptables -t filter -F bitmask_forward\n" +
+                "iptables -t filter -X bitmask_forward\n" +
+                "iptables -t nat -D POSTROUTING -j bitmask_postrouting\n" +
+                "iptables -t nat -F bitmask_postrouting\n" +
+                "iptables -t nat -X bitmask_postrouting\n" +
+                "iptables -t filter -N bitmask_forward 2>/dev/null || iptables -t filter -F bitmask_forward\n" +
+                "iptables -t filter -A bitmask_forward -j ACCEPT\n" +
+                "iptables -t filter -I FORWARD -j bitmask_forward\n" +
+                ")", FirewallRules.toCommands("iptables", script));
+    }
+}
@@ -0,0 +1,126 @@
+package se.leap.bitmaskclient.firewall;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class RootShellTest {
+
+    private StandInShell standInShell;
+    private int sessions;
+    private RootShell rootShell;
+
+    @Before
+    public void setUp() throws IOException {
+        standInShell = new StandInShell(true, true);
+        RootShell.ProcessStarter processStarter = standInShell.getProcessStarter();
+        rootShell = new RootShell(() -> {
+            sessions++;
+            return processStarter.start();
+        });
+    }
+
+    @After
+    public void tearDown() {
+        rootShell.close();
+        standInShell.delete();
+    }
+
+    @Test
+    public void testRun_outputAndExitCode() throws Exception {
+        RootShell.Result result = rootShell.run("echo hello; echo error >&2; false");
+        assertEquals("hello\nerror\n", result.output);
+        assertEquals(1, result.exitCode);
+
+        result = rootShell.run("printf 'no new line'");
+        assertEquals("no new line", result.output);
+        assertEquals(0, result.exitCode);
+    }
+
+    @Test
+    public void testRun_multipleLinesAndHereDocument() throws Exception {
+        RootShell.Result result = rootShell.run("cat <<'EOF'\n*filter\n$HOME `id`\nCOMMIT\nEOF\n(exit 3)");
+        assertEquals("*filter\n$HOME `id`\nCOMMIT\n", result.output);
+        assertEquals(3, result.exitCode);
+    }
+
+    @Test
+    public void testRun_keepsSession() throws Exception {
+        rootShell.run("BITMASK_TEST=kept");
+        assertEquals("kept\n", rootShell.run("echo $BITMASK_TEST").output);
+        assertTrue(rootShell.isRoot());
+        assertEquals(1, sessions);
+    }
+
+    @Test
+    public void testRun_restartsEndedSession() throws Exception {
+        try {
+            rootShell.run("exit 1");
+            fail("ended session not detected");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("\n", rootShell.run("echo $BITMASK_TEST").output);
+        assertEquals(2, sessions);
+    }
+
+    @Test
+    public void testRun_timeout_restartsSession() throws Exception {
+        RootShell.ProcessStarter processStarter = standInShell.getProcessStarter();
+        RootShell slowShell = new RootShell(() -> {
+            sessions++;
+            return processStarter.start();
+        }, 500);
+        try {
+            slowShell.run("exec sleep 30");
+            fail("hanging command not detected");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            assertEquals("next\n", slowShell.run("echo next").output);
+            assertEquals(2, sessions);
+        } finally {
+            slowShell.close();
+        }
+    }
+
+    @Test
+    public void testSubmit_runsInOrder() throws Exception {
+        List<Future<RootShell.Result>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(rootShell.submit("echo " + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i + "\n", results.get(i).get().output);
+        }
+        assertEquals(1, sessions);
+    }
+
+    @Test
+    public void testIsRoot_notRoot() throws Exception {
+        StandInShell userShell = new StandInShell(false, true);
+        try {
+            assertFalse(new RootShell(userShell.getProcessStarter()).isRoot());
+        } finally {
+            userShell.delete();
+        }
+    }
+
+    @Test
+    public void testIsRoot_noShell() {
+        assertFalse(new RootShell(() -> {
+            throw new IOException("su not found");
+        }).isRoot());
+    }
+}
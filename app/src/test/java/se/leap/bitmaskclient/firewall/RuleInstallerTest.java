@@ -0,0 +1,90 @@
+package se.leap.bitmaskclient.firewall;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static se.leap.bitmaskclient.firewall.RuleInstaller.IP6TABLES;
+import static se.leap.bitmaskclient.firewall.RuleInstaller.IPTABLES;
+
+public class RuleInstallerTest {
+
+    private StandInShell standInShell;
+    private RootShell rootShell;
+
+    private RuleInstaller createRuleInstaller(boolean withRestore) throws Exception {
+        standInShell = new StandInShell(true, withRestore);
+        rootShell = new RootShell(standInShell.getProcessStarter());
+        return new RuleInstaller(rootShell);
+    }
+
+    @After
+    public void tearDown() {
+        rootShell.close();
+        standInShell.delete();
+    }
+
+    @Test
+    public void testInstall_appliesOnlyChanges() throws Exception {
+        RuleInstaller ruleInstaller = createRuleInstaller(true);
+        standInShell.setInstalledRules(IP6TABLES, "*filter\n:OUTPUT ACCEPT [0:0]\nCOMMIT\n");
+        StringBuilder log = new StringBuilder();
+
+        assertTrue(ruleInstaller.installIPv6(RuleInstaller.getIPv6FirewallRules(), log));
+        assertEquals("ip6tables-restore --noflush\n" +
+                "*filter\n" +
+                ":bitmask_fw - [0:0]\n" +
+                "-A bitmask_fw -p tcp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "-A bitmask_fw -p udp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "-I OUTPUT -j bitmask_fw\n" +
+                "COMMIT\n", standInShell.takeCalls());
+
+        standInShell.setInstalledRules(IP6TABLES, "*filter\n" +
+                ":OUTPUT ACCEPT [0:0]\n" +
+                ":bitmask_fw - [0:0]\n" +
+                "-A OUTPUT -j bitmask_fw\n" +
+                "-A bitmask_fw -p tcp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "-A bitmask_fw -p udp -j REJECT --reject-with icmp6-port-unreachable\n" +
+                "COMMIT\n");
+        assertTrue(ruleInstaller.installIPv6(RuleInstaller.getIPv6FirewallRules(), log));
+        assertEquals("", standInShell.takeCalls());
+
+        assertTrue(ruleInstaller.installIPv6(new FirewallRules(), log));
+        assertEquals("ip6tables-restore --noflush\n" +
+                "*filter\n" +
+                "-D OUTPUT -j bitmask_fw\n" +
+                "-F bitmask_fw\n" +
+                "-X bitmask_fw\n" +
+                "COMMIT\n", standInShell.takeCalls());
+    }
+
+    @Test
+    public void testInstall_readsInstalledRulesEachTime() throws Exception {
+        RuleInstaller ruleInstaller = createRuleInstaller(true);
+        StringBuilder log = new StringBuilder();
+        assertTrue(ruleInstaller.installIPv4(RuleInstaller.getTetheringRules(), log));
+        standInShell.takeCalls();
+
+        // the chains are gone, e.g. after a restart of netd, since the stand-in iptables-save
+        // still prints no rules
+        assertTrue(ruleInstaller.installIPv4(RuleInstaller.getTetheringRules(), log));
+        assertTrue(standInShell.takeCalls().startsWith("iptables-restore --noflush\n*filter\n:bitmask_forward - [0:0]\n"));
+    }
+
+    @Test
+    public void testInstall_withoutIptablesRestore() throws Exception {
+        RuleInstaller ruleInstaller = createRuleInstaller(false);
+        StringBuilder log = new StringBuilder();
+
+        assertTrue(ruleInstaller.installIPv4(RuleInstaller.getTetheringRules(), log));
+        assertEquals("iptables -t filter -n --list bitmask_forward\n" +
+                "iptables -t nat -n --list bitmask_postrouting\n" +
+                "iptables -t filter -N bitmask_forward\n" +
+                "iptables -t filter -A bitmask_forward -j ACCEPT\n" +
+                "iptables -t filter -I FORWARD -j bitmask_forward\n" +
+                "iptables -t nat -N bitmask_postrouting\n" +
+                "iptables -t nat -A bitmask_postrouting -j MASQUERADE\n" +
+                "iptables -t nat -I POSTROUTING -j bitmask_postrouting\n", standInShell.takeCalls());
+    }
+}
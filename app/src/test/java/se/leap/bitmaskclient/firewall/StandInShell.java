@@ -0,0 +1,87 @@
+package se.leap.bitmaskclient.firewall;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Scanner;
+
+/**
+ * Stands in for the su shell of a rooted device: a plain sh with fake id, iptables-save,
+ * iptables-restore, ip and iptables commands first on its PATH. The fake commands append their
+ * arguments and stdin to a calls file, the save commands print the content of a file per binary.
+ */
+class StandInShell {
+
+    private final File dir;
+
+    /**
+     * @param withRestore false to simulate a device without iptables-save and iptables-restore
+     */
+    StandInShell(boolean root, boolean withRestore) throws IOException {
+        dir = Files.createTempDirectory("standinshell").toFile();
+        writeScript("id", root ? "echo 'uid=0(root) gid=0(root) groups=0(root)'" : "echo 'uid=10123(u0_a123) gid=10123(u0_a123)'");
+        writeScript("ip", "echo \"ip $*\" >> \"$(dirname \"$0\")/calls\"");
+        for (String command : new String[]{"iptables", "ip6tables"}) {
+            // chains aren't found without iptables-save
+            writeScript(command, "echo \"" + command + " $*\" >> \"$(dirname \"$0\")/calls\"\n" +
+                    "case \"$*\" in *--list*) exit 1;; esac");
+            if (withRestore) {
+                writeScript(command + "-save", "cat \"$(dirname \"$0\")/" + command + ".save\" 2>/dev/null || true");
+                writeScript(command + "-restore", "{ echo \"" + command + "-restore $*\"; cat; } >> \"$(dirname \"$0\")/calls\"");
+            }
+        }
+    }
+
+    RootShell.ProcessStarter getProcessStarter() {
+        return () -> {
+            ProcessBuilder processBuilder = new ProcessBuilder("sh").redirectErrorStream(true);
+            processBuilder.environment().put("PATH", dir.getAbsolutePath() + File.pathSeparator + System.getenv("PATH"));
+            return processBuilder.start();
+        };
+    }
+
+    void setInstalledRules(String command, String iptablesSave) throws IOException {
+        write(new File(dir, command + ".save"), iptablesSave);
+    }
+
+    /**
+     * @return the calls of fake commands since the last call
+     */
+    String takeCalls() throws IOException {
+        File calls = new File(dir, "calls");
+        if (!calls.exists()) {
+            return "";
+        }
+        String content;
+        try (Scanner scanner = new Scanner(calls, "UTF-8").useDelimiter("\\A")) {
+            content = scanner.hasNext() ? scanner.next() : "";
+        }
+        calls.delete();
+        return content;
+    }
+
+    void delete() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void writeScript(String name, String content) throws IOException {
+        File script = new File(dir, name);
+        write(script, "#!/bin/sh\n" + content + "\n");
+        script.setExecutable(true);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package se.leap.bitmaskclient.providersetup;
+
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static se.leap.bitmaskclient.base.models.Constants.BROADCAST_RESULT_KEY;
+import static se.leap.bitmaskclient.providersetup.DownloadPipeline.State.CANCELLED;
+import static se.leap.bitmaskclient.providersetup.DownloadPipeline.State.FAILED;
+import static se.leap.bitmaskclient.providersetup.DownloadPipeline.State.SKIPPED;
+import static se.leap.bitmaskclient.providersetup.DownloadPipeline.State.SUCCEEDED;
+import static se.leap.bitmaskclient.providersetup.DownloadPipeline.State.TIMED_OUT;
+import static se.leap.bitmaskclient.testutils.MockHelper.mockBundle;
+
+public class DownloadPipelineTest {
+
+    // only limits how long a broken test blocks, none of the tests depends on it
+    private static final long TEST_TIMEOUT_SECONDS = 10;
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Before
+    public void setUp() {
+        nanoTime.set(0);
+    }
+
+    private DownloadPipeline newPipeline() {
+        DownloadPipeline pipeline = new DownloadPipeline();
+        pipeline.setClock(nanoTime::get);
+        return pipeline;
+    }
+
+    private void advanceClock(long millis) {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static Bundle result(boolean success) {
+        Bundle result = mockBundle();
+        result.putBoolean(BROADCAST_RESULT_KEY, success);
+        return result;
+    }
+
+    private static Callable<Bundle> download(boolean success) {
+        Bundle result = result(success);
+        return () -> result;
+    }
+
+    /**
+     * @return a download that blocks until release is counted down, ignoring interrupts
+     */
+    private static Callable<Bundle> blockingDownload(CountDownLatch release, CountDownLatch finished) {
+        Bundle result = result(true);
+        return () -> {
+            try {
+                while (true) {
+                    try {
+                        release.await();
+                        return result;
+                    } catch (InterruptedException e) {
+                        // a download stuck in blocking I/O doesn't react to the interrupt
+                    }
+                }
+            } finally {
+                finished.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testRun_independentStages_runConcurrently() throws InterruptedException {
+        // each stage only finishes once all three of them are running
+        CountDownLatch allStarted = new CountDownLatch(3);
+        Callable<Bundle> download = () -> {
+            allStarted.countDown();
+            return result(allStarted.await(TEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        };
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, true, download)
+                .addStage("b", 5000, false, download)
+                .addStage("c", 5000, false, download);
+
+        pipeline.run();
+
+        assertTrue(pipeline.isSuccessful("a"));
+        assertTrue(pipeline.isSuccessful("b"));
+        assertTrue(pipeline.isSuccessful("c"));
+    }
+
+    @Test
+    public void testRun_recordsLatency() throws InterruptedException {
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, true, () -> {
+                    advanceClock(300);
+                    return result(true);
+                });
+
+        pipeline.run();
+
+        assertEquals(300, pipeline.getLatency("a"));
+        assertEquals("a: succeeded (300 ms)", pipeline.toString());
+    }
+
+    @Test
+    public void testRun_dependentStage_startsAfterDependencyApplied() throws InterruptedException {
+        AtomicBoolean applied = new AtomicBoolean();
+        AtomicBoolean appliedBeforeStart = new AtomicBoolean();
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, true, download(true), result -> applied.set(true))
+                .addStage("b", 5000, true, () -> {
+                    appliedBeforeStart.set(applied.get());
+                    return result(true);
+                }, "a");
+
+        pipeline.run();
+
+        assertTrue(pipeline.isSuccessful("b"));
+        assertTrue(appliedBeforeStart.get());
+    }
+
+    @Test
+    public void testRun_resultHandler_calledOnRunningThread() throws InterruptedException {
+        AtomicReference<Thread> handlerThread = new AtomicReference<>();
+        AtomicBoolean failedHandlerCalled = new AtomicBoolean();
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, false, download(true), result -> handlerThread.set(Thread.currentThread()))
+                .addStage("b", 5000, false, download(false), result -> failedHandlerCalled.set(true));
+
+        pipeline.run();
+
+        assertSame(Thread.currentThread(), handlerThread.get());
+        assertFalse(failedHandlerCalled.get());
+    }
+
+    @Test
+    public void testRun_failedDependency_skipsStage() throws InterruptedException {
+        AtomicBoolean started = new AtomicBoolean();
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, false, download(false))
+                .addStage("b", 5000, false, () -> {
+                    started.set(true);
+                    return mockBundle();
+                }, "a")
+                .addStage("c", 5000, false, download(true));
+
+        pipeline.run();
+
+        assertEquals(FAILED, pipeline.getState("a"));
+        assertEquals(SKIPPED, pipeline.getState("b"));
+        assertEquals(SUCCEEDED, pipeline.getState("c"));
+        assertFalse(started.get());
+        assertNull(pipeline.getResult("b"));
+    }
+
+    @Test
+    public void testRun_slowStage_timesOutAndResultIsDropped() throws InterruptedException {
+        CountDownLatch bStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean applied = new AtomicBoolean();
+        Callable<Bundle> blocking = blockingDownload(release, finished);
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, true, () -> {
+                    bStarted.await();
+                    return result(true);
+                }, result -> advanceClock(200))
+                .addStage("b", 100, false, () -> {
+                    bStarted.countDown();
+                    return blocking.call();
+                }, result -> applied.set(true));
+
+        try {
+            pipeline.run();
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(SUCCEEDED, pipeline.getState("a"));
+        assertEquals(TIMED_OUT, pipeline.getState("b"));
+        assertTrue(finished.await(TEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(pipeline.getResult("b"));
+        assertFalse(applied.get());
+    }
+
+    @Test
+    public void testRun_failedRequiredStage_cancelsOthers() throws InterruptedException {
+        CountDownLatch bStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean applied = new AtomicBoolean();
+        Callable<Bundle> blocking = blockingDownload(release, finished);
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, true, () -> {
+                    bStarted.await();
+                    return result(false);
+                })
+                .addStage("b", 5000, false, () -> {
+                    bStarted.countDown();
+                    return blocking.call();
+                }, result -> applied.set(true))
+                .addStage("c", 5000, false, download(true), "b");
+
+        try {
+            pipeline.run();
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(FAILED, pipeline.getState("a"));
+        assertNotNull(pipeline.getResult("a"));
+        assertEquals(CANCELLED, pipeline.getState("b"));
+        assertEquals(SKIPPED, pipeline.getState("c"));
+        assertTrue(finished.await(TEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(applied.get());
+    }
+
+    @Test
+    public void testRun_throwingStage_fails() throws InterruptedException {
+        DownloadPipeline pipeline = newPipeline()
+                .addStage("a", 5000, false, () -> {
+                    throw new IllegalStateException("test");
+                });
+
+        pipeline.run();
+
+        assertEquals(FAILED, pipeline.getState("a"));
+        assertTrue(pipeline.getException("a") instanceof IllegalStateException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddStage_unknownDependency_throwsException() {
+        new DownloadPipeline().addStage("a", 5000, false, download(true), "b");
+    }
+}
@@ -0,0 +1,82 @@
+package se.leap.bitmaskclient.providersetup.connectivity;
+
+import android.content.res.Resources;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import okhttp3.OkHttpClient;
+
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static se.leap.bitmaskclient.testutils.MockHelper.mockTextUtils;
+import static se.leap.bitmaskclient.testutils.TestSetupHelper.getInputAsString;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Log.class, TextUtils.class})
+public class OkHttpClientGeneratorTest {
+
+    private OkHttpClientGenerator clientGenerator;
+    private String caCert;
+    private String otherCaCert;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(Log.class);
+        mockTextUtils();
+        clientGenerator = new OkHttpClientGenerator(mock(Resources.class));
+        caCert = getInputAsString(getClass().getClassLoader().getResourceAsStream("riseup.net.pem"));
+        otherCaCert = getInputAsString(getClass().getClassLoader().getResourceAsStream("updated_cert.pem"));
+    }
+
+    @Test
+    public void testInitSelfSignedCAHttpClient_sameCa_sharesConnections() {
+        OkHttpClient client = clientGenerator.initSelfSignedCAHttpClient(caCert, new JSONObject());
+        OkHttpClient otherClient = clientGenerator.initSelfSignedCAHttpClient(new String(caCert), new JSONObject());
+
+        assertNotNull(client);
+        // each client keeps its own cookies
+        assertNotSame(client, otherClient);
+        assertNotSame(client.cookieJar(), otherClient.cookieJar());
+        assertSame(client.sslSocketFactory(), otherClient.sslSocketFactory());
+        assertSame(client.connectionPool(), otherClient.connectionPool());
+    }
+
+    @Test
+    public void testInitSelfSignedCAHttpClient_differentCa_differentSocketFactory() {
+        OkHttpClient client = clientGenerator.initSelfSignedCAHttpClient(caCert, new JSONObject());
+        OkHttpClient otherClient = clientGenerator.initSelfSignedCAHttpClient(otherCaCert, new JSONObject());
+        OkHttpClient commercialCAClient = clientGenerator.initCommercialCAHttpClient(new JSONObject());
+
+        assertNotSame(client.sslSocketFactory(), otherClient.sslSocketFactory());
+        assertNotSame(client.sslSocketFactory(), commercialCAClient.sslSocketFactory());
+        assertSame(client.connectionPool(), otherClient.connectionPool());
+    }
+
+    @Test
+    public void testInvalidateSelfSignedCAClient_unchangedCa_keepsClient() {
+        OkHttpClient client = clientGenerator.initSelfSignedCAHttpClient(caCert, new JSONObject());
+        clientGenerator.invalidateSelfSignedCAClient(caCert, new String(caCert));
+
+        assertSame(client.sslSocketFactory(), clientGenerator.initSelfSignedCAHttpClient(caCert, new JSONObject()).sslSocketFactory());
+    }
+
+    @Test
+    public void testInvalidateSelfSignedCAClient_changedCa_onlyDropsPreviousClient() {
+        OkHttpClient client = clientGenerator.initSelfSignedCAHttpClient(caCert, new JSONObject());
+        OkHttpClient otherClient = clientGenerator.initSelfSignedCAHttpClient(otherCaCert, new JSONObject());
+        clientGenerator.invalidateSelfSignedCAClient(caCert, otherCaCert);
+
+        assertNotSame(client.sslSocketFactory(), clientGenerator.initSelfSignedCAHttpClient(caCert, new JSONObject()).sslSocketFactory());
+        assertSame(otherClient.sslSocketFactory(), clientGenerator.initSelfSignedCAHttpClient(otherCaCert, new JSONObject()).sslSocketFactory());
+    }
+}
@@ -7,6 +7,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.ResultReceiver;
 import androidx.annotation.NonNull;
@@ -16,6 +17,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -49,7 +51,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyByte;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
@@ -62,6 +66,7 @@ import static se.leap.bitmaskclient.base.models.Constants.PROVIDER_VPN_CERTIFICA
 import static se.leap.bitmaskclient.base.utils.FileHelper.createFile;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getEipDefinitionFromPreferences;
 import static se.leap.bitmaskclient.base.utils.PreferenceHelper.getFromPersistedProvider;
+import static se.leap.bitmaskclient.base.utils.PreferenceHelper.hasPersistedProvider;
 
 /**
  * Created by cyberta on 29.01.18.
@@ -286,6 +291,44 @@ public class MockHelper {
         return intent;
     }
 
+    /**
+     * Parcel keeping the written values in a list, data positions count values instead of bytes.
+     * Requires Parcel to be prepared for the test.
+     */
+    public static Parcel mockParcel() {
+        final List<Object> values = new ArrayList<>();
+        final int[] position = {0};
+        Parcel parcel = PowerMockito.mock(Parcel.class);
+
+        Answer<Void> write = invocation -> {
+            Object value = invocation.getArguments()[0];
+            if (position[0] < values.size()) {
+                values.set(position[0], value);
+            } else {
+                values.add(value);
+            }
+            position[0]++;
+            return null;
+        };
+        doAnswer(write).when(parcel).writeString(any());
+        doAnswer(write).when(parcel).writeLong(anyLong());
+        doAnswer(write).when(parcel).writeInt(anyInt());
+        doAnswer(write).when(parcel).writeByte(anyByte());
+
+        Answer<Object> read = invocation -> values.get(position[0]++);
+        when(parcel.readString()).thenAnswer(read);
+        when(parcel.readLong()).thenAnswer(read);
+        when(parcel.readInt()).thenAnswer(read);
+        when(parcel.readByte()).thenAnswer(read);
+
+        when(parcel.dataPosition()).thenAnswer(invocation -> position[0]);
+        doAnswer(invocation -> {
+            position[0] = (int) invocation.getArguments()[0];
+            return null;
+        }).when(parcel).setDataPosition(anyInt());
+        return parcel;
+    }
+
     public static void mockTextUtils() {
         mockStatic(TextUtils.class);
 
@@ -410,6 +453,7 @@ public class MockHelper {
                 return null;
             }
         });
+        when(hasPersistedProvider(anyString(), anyString(), any(SharedPreferences.class))).thenCallRealMethod();
     }
 
     public static void mockPreferenceHelper(MockSharedPreferences preferences) {
@@ -35,7 +35,11 @@ public class MockSharedPreferences implements SharedPreferences {
 
     @Override
     public Map<String, ?> getAll() {
-        return null;
+        HashMap<String, Object> all = new HashMap<>();
+        all.putAll(mockedStringPrefs);
+        all.putAll(mockedIntPrefs);
+        all.putAll(mockedBooleanPrefs);
+        return all;
     }
 
     @Nullable
@@ -0,0 +1,100 @@
+package se.leap.bitmaskclient.appUpdate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+
+public class DownloadJournalTest {
+
+    private static final String URL = "https://example.org/Bitmask.apk";
+    private File dir;
+    private File journalFile;
+    private File partFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        journalFile = new File(dir, "update.apk.journal");
+        partFile = new File(dir, "update.apk.part");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        DownloadJournal journal = new DownloadJournal(URL);
+        journal.validator = "\"5f3a-1c\"";
+        journal.length = 5000;
+        journal.committed = 2048;
+        journal.save(journalFile);
+
+        DownloadJournal loaded = DownloadJournal.load(journalFile, URL);
+        assertEquals("\"5f3a-1c\"", loaded.validator);
+        assertEquals(5000, loaded.length);
+        assertEquals(2048, loaded.committed);
+        assertFalse(new File(dir, "update.apk.journal.tmp").exists());
+    }
+
+    @Test
+    public void testLoad_otherUrlOrBrokenJournal() throws IOException {
+        DownloadJournal journal = new DownloadJournal(URL);
+        journal.validator = "\"5f3a-1c\"";
+        journal.committed = 2048;
+        journal.save(journalFile);
+        assertEquals(0, DownloadJournal.load(journalFile, "https://example.org/other.apk").committed);
+
+        write(journalFile, 10);
+        DownloadJournal broken = DownloadJournal.load(journalFile, URL);
+        assertEquals(0, broken.committed);
+        assertNull(broken.validator);
+    }
+
+    @Test
+    public void testPrepareResume_truncatesUncommittedBytes() throws IOException {
+        DownloadJournal journal = new DownloadJournal(URL);
+        journal.validator = "Wed, 02 Jun 2021 10:00:00 GMT";
+        journal.length = 5000;
+        journal.committed = 2048;
+        write(partFile, 3000);
+
+        assertEquals(2048, journal.prepareResume(partFile));
+        assertEquals(2048, partFile.length());
+    }
+
+    @Test
+    public void testPrepareResume_startsOver() throws IOException {
+        DownloadJournal journal = new DownloadJournal(URL);
+        journal.committed = 2048;
+        write(partFile, 3000);
+        // without validator the server can't tell if the file has changed
+        assertEquals(0, journal.prepareResume(partFile));
+        assertFalse(partFile.exists());
+
+        journal.validator = "\"5f3a-1c\"";
+        journal.committed = 2048;
+        write(partFile, 1000);
+        assertEquals(0, journal.prepareResume(partFile));
+        assertFalse(partFile.exists());
+    }
+
+    private static void write(File file, int length) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(new byte[length]);
+        }
+    }
+}